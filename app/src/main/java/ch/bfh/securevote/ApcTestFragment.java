@@ -32,6 +32,7 @@ package ch.bfh.securevote;
 
 
 import static ch.bfh.securevote.utils.HpcUtility.getCert;
+import static ch.bfh.securevote.utils.HpcUtility.getKeyPair;
 import static ch.bfh.securevote.utils.HpcUtility.getSignatureAlgorithm;
 import static ch.bfh.securevote.utils.HpcUtility.requiresAuthentication;
 
@@ -63,10 +64,7 @@ import com.google.android.material.snackbar.Snackbar;
 import java.net.URLEncoder;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
-import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
-import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.Locale;
@@ -296,20 +294,6 @@ public class ApcTestFragment extends Fragment {
         };
     }
 
-    private KeyPair getKeyPair(String keyName) throws Exception {
-        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
-        keyStore.load(null);
-        if (keyStore.containsAlias(keyName)) {
-            // Get public key
-            PublicKey publicKey = keyStore.getCertificate(keyName).getPublicKey();
-            // Get private key
-            PrivateKey privateKey = (PrivateKey) keyStore.getKey(keyName, null);
-            // Return a key pair
-            return new KeyPair(publicKey, privateKey);
-        }
-        return null;
-    }
-
     /**
      * This method takes the "confirmed message" and the signature and generates a PKCS7 signed message which contains the full certificate chain.
      * @param view
@@ -17,7 +17,6 @@
 package ch.bfh.securevote;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static com.google.android.attestation.ParsedAttestationRecord.createParsedAttestationRecord;
 
 import android.content.ClipData;
 import android.content.ClipboardManager;
@@ -42,7 +41,6 @@ import org.bouncycastle.jce.PrincipalUtil;
 import org.bouncycastle.util.encoders.Base64;
 
 import java.math.BigInteger;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
@@ -52,8 +50,11 @@ import java.util.Locale;
 import java.util.Optional;
 
 import ch.bfh.securevote.databinding.FragmentCheckKeyBinding;
+import ch.bfh.securevote.utils.AttestationRecordCache;
 import ch.bfh.securevote.utils.CertificateParser;
+import ch.bfh.securevote.utils.CertificateSummary;
 import ch.bfh.securevote.utils.Constants;
+import ch.bfh.securevote.utils.FingerprintEngine;
 import ch.bfh.securevote.utils.HpcUtility;
 import com.google.android.attestation.AttestationApplicationId;
 import com.google.android.attestation.AuthorizationList;
@@ -172,8 +173,14 @@ public class CheckKeyFragment extends Fragment {
 
     public void parseAttestationExtension(X509Certificate cert, int indent) {
         try {
-            ParsedAttestationRecord parsedAttestationRecord = createParsedAttestationRecord(cert);
+            printAttestationRecord(AttestationRecordCache.getInstance().get(cert), indent);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
 
+    private void printAttestationRecord(ParsedAttestationRecord parsedAttestationRecord, int indent) {
+        try {
             addKeyVal(getResources().getString(R.string.attestation_version), Integer.toString(parsedAttestationRecord.attestationVersion), indent, false);
             addKeyVal(
                     getResources().getString(R.string.attestation_security_level), parsedAttestationRecord.attestationSecurityLevel.name(), indent, true);
@@ -325,7 +332,7 @@ public class CheckKeyFragment extends Fragment {
         textViewAlias.setText(certName);
         int indent = 20; //default
         addKeyVal(getResources().getString(R.string.x509_version), String.valueOf(certificate.getVersion()), indent, false);
-        addKeyVal(getResources().getString(R.string.serial_number), certificate.getSerialNumber().toString(16).replaceAll("(?<=..)(..)", ":$1").toUpperCase(Locale.US), indent, false);
+        addKeyVal(getResources().getString(R.string.serial_number), FingerprintEngine.formatSerialNumber(certificate.getSerialNumber()), indent, false);
 
         // Display the distinguished names
         try {
@@ -341,41 +348,44 @@ public class CheckKeyFragment extends Fragment {
         addCaption(getResources().getString(R.string.key_specifics), indent);
         byte[] signature = certificate.getSignature();
         String algorithm="";
+        CertificateSummary summary;
+        try {
+            summary = CertificateSummary.of(certificate);
+        } catch (CertificateEncodingException e) {
+            Log.e(TAG, "Certificate Encoding Exception" + e);
+            return;
+        }
 
         // These calculations differ if key is RSA/EC
-        if (certificate.getPublicKey().getAlgorithm().matches("RSA")) {
+        if (summary.getKeyAlgorithm().matches("RSA")) {
             // cast the public key
             algorithm="RSA";
             rsaPublicKey = (RSAPublicKey) certificate.getPublicKey();
             pubModulus = rsaPublicKey.getModulus();
             exponent = rsaPublicKey.getPublicExponent();
-            int pubKeySize = rsaPublicKey.getModulus().bitLength();
 
             // Because the modulus is usually large, we're only displaying a subset of the string - the first 30 characters or total length, which ever is less.
             String pubMod = pubModulus.toString().substring(0, Math.min(pubModulus.toString().length(), 30)) + "...";
             addKeyVal(getResources().getString(R.string.public_modulus), pubMod, indent+10, false);
             String exponentStr = String.format(Locale.US, "%d", exponent);
             addKeyVal(getResources().getString(R.string.public_exponent), exponentStr, indent+10, false);
-            addKeyVal(getResources().getString(R.string.key_alg),certificate.getPublicKey().getAlgorithm(),indent+10, false);
-            addKeyVal(getResources().getString(R.string.key_size),String.valueOf(pubKeySize),indent+10, false);
-        } else if (certificate.getPublicKey().getAlgorithm().matches(getString(R.string.EC))) {
+            addKeyVal(getResources().getString(R.string.key_alg),summary.getKeyAlgorithm(),indent+10, false);
+            addKeyVal(getResources().getString(R.string.key_size),String.valueOf(summary.getKeySize()),indent+10, false);
+        } else if (summary.getKeyAlgorithm().matches(getString(R.string.EC))) {
             addKeyVal(getResources().getString(R.string.key_alg),getResources().getString(R.string.elliptic_curve),indent+10, false);
-            algorithm = CertificateParser.getEcType(certificate);
+            algorithm = summary.getCurveName();
         }
-        addKeyVal(getResources().getString(R.string.key_usage), CertificateParser.getKeyUsageString(certificate),indent+10, false);
+        addKeyVal(getResources().getString(R.string.key_usage), summary.getKeyUsageString(),indent+10, false);
         addKeyVal(getResources().getString(R.string.signature_algorithm), algorithm, indent, false);
         addKeyVal(getResources().getString(R.string.signature), new BigInteger(signature).toString(16), indent, true);
 
-        // Calculate the key fingerprints
-        try {
-            addKeyVal("SHA-256 fingerprint", getThumbPrint(certificate, "SHA-256"), indent, false);
-            addKeyVal("SHA-1 fingerprint", getThumbPrint(certificate, "SHA-1"), indent, false);
-        } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            addKeyVal("SHA-256 fingerprint", getResources().getString(R.string.fingerprint_calc_error), indent, false);
-        }
+        // The key fingerprints were calculated with the summary
+        addKeyVal("SHA-256 fingerprint", summary.getSha256Fingerprint(), indent, false);
+        addKeyVal("SHA-1 fingerprint", summary.getSha1Fingerprint(), indent, false);
         addCaption(getResources().getString(R.string.attestation_extension), indent);
-        parseAttestationExtension(certificate, indent);
+        if (summary.getAttestationRecord() != null) {
+            printAttestationRecord(summary.getAttestationRecord(), indent);
+        }
     }
 
     /**
@@ -388,14 +398,7 @@ public class CheckKeyFragment extends Fragment {
      */
     public static String getThumbPrint(X509Certificate cert, String algorithm)
             throws NoSuchAlgorithmException, CertificateEncodingException {
-        MessageDigest md = MessageDigest.getInstance(algorithm);
-        byte[] der = cert.getEncoded();
-        md.update(der);
-        byte[] digest = md.digest();
-        String hex = hexify(digest);
-
-        // Add colons to the hex string
-        return hex.replaceAll("(?<=..)(..)", ":$1").toUpperCase(Locale.US);
+        return CertificateParser.getThumbPrint(cert, algorithm);
     }
 
     /**
@@ -406,14 +409,7 @@ public class CheckKeyFragment extends Fragment {
      * @return String of hex conversion.
      */
     public static String hexify(byte[] bytes) {
-        char[] hexDigits = {'0', '1', '2', '3', '4', '5', '6', '7',
-                '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
-        StringBuilder buf = new StringBuilder(bytes.length * 2);
-        for (byte aByte : bytes) {
-            buf.append(hexDigits[(aByte & 0xf0) >> 4]);
-            buf.append(hexDigits[aByte & 0x0f]);
-        }
-        return buf.toString();
+        return CertificateParser.hexify(bytes);
     }
 
     /**
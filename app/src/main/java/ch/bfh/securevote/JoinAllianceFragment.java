@@ -31,6 +31,7 @@
 package ch.bfh.securevote;
 
 import static ch.bfh.securevote.utils.HpcUtility.getCert;
+import static ch.bfh.securevote.utils.HpcUtility.getKeyPair;
 import static ch.bfh.securevote.utils.HpcUtility.getSignatureAlgorithm;
 import static ch.bfh.securevote.utils.HpcUtility.requiresAuthentication;
 
@@ -61,10 +62,7 @@ import com.google.android.material.snackbar.Snackbar;
 import java.net.URLEncoder;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
-import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
-import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
@@ -303,20 +301,6 @@ public class JoinAllianceFragment extends Fragment {
         }
     }
 
-    private KeyPair getKeyPair(String keyName) throws Exception {
-        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
-        keyStore.load(null);
-        if (keyStore.containsAlias(keyName)) {
-            // Get public key
-            PublicKey publicKey = keyStore.getCertificate(keyName).getPublicKey();
-            // Get private key
-            PrivateKey privateKey = (PrivateKey) keyStore.getKey(keyName, null);
-            // Return a key pair
-            return new KeyPair(publicKey, privateKey);
-        }
-        return null;
-    }
-
     private void processSignature(View view, byte[] dataThatWasConfirmed, byte[] signatureBytes){
         byte[] p7m = PKCS7Builder.generatePkcs7(dataThatWasConfirmed, signatureBytes, getSignatureAlgorithm());
         String pkcs7msg = PKCS7Builder.generatePkcs7Pem(p7m);
@@ -27,10 +27,13 @@ import androidx.fragment.app.Fragment;
 import androidx.navigation.fragment.NavHostFragment;
 
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import ch.bfh.securevote.databinding.FragmentKeyStoreBinding;
 import ch.bfh.securevote.gui.SingleKeyLayout;
 import ch.bfh.securevote.utils.CertificateParser;
+import ch.bfh.securevote.utils.CertificateSummary;
 import ch.bfh.securevote.utils.HpcUtility;
 import com.google.android.attestation.ParsedAttestationRecord;
 
@@ -65,43 +68,56 @@ public class KeyStoreFragment extends Fragment {
         StringBuilder sb = new StringBuilder();
         Enumeration<String> aliases = HpcUtility.getKeyStore();
         if (aliases!=null){
-            int count=0;
+            List<String> aliasList = new ArrayList<>();
+            List<Certificate> certs = new ArrayList<>();
             while(aliases.hasMoreElements()) {
-                count++;
                 String alias = aliases.nextElement();
                 Log.i(TAG, alias);
-                Certificate cert = HpcUtility.getCert(alias);
-                addAliases(alias, cert);
+                aliasList.add(alias);
+                certs.add(HpcUtility.getCert(alias));
             }
-            sb.append(String.format(getResources().getString(R.string.number_of_objects), count));
+            // Summarize all certificates at once, so the key and extension are parsed only once each
+            List<CertificateSummary> summaries = CertificateSummary.summarize(certs);
+            for (int i = 0; i < aliasList.size(); i++) {
+                addAliases(aliasList.get(i), summaries.get(i));
+            }
+            sb.append(String.format(getResources().getString(R.string.number_of_objects), aliasList.size()));
         }else{
             sb.append(getResources().getString(R.string.no_object_found));
         }
         return sb.toString();
     }
 
-    protected void addAliases(String alias, Certificate cert){
+    protected void addAliases(String alias, CertificateSummary summary){
         SingleKeyLayout entry = new SingleKeyLayout(getContext());
         binding.layoutKeys.addView(entry);
         entry.labelTextView.setText(alias);
-        String keyType=CertificateParser.getKeyType(cert);
-        entry.keyTypeView.setText(keyType);
-        if (keyType.contains("RSA")){
+        if (summary == null){
+            entry.keyTypeView.setText("-");
+            entry.keyStoreView.setText("-");
+            entry.keyAuthenticationView.setText("-");
+            return;
+        }
+        entry.keyTypeView.setText(summary.getKeyAlgorithm());
+        if (summary.isRsaKey()){
             entry.keyAttrView.setText(R.string.rsa_key_length);
-            entry.keyAttrValView.setText(CertificateParser.getRsaKeyLength(cert));
+            entry.keyAttrValView.setText(summary.getKeySizeString());
         }else{
             entry.keyAttrView.setText(R.string.ec_algorithm);
-            entry.keyAttrValView.setText(CertificateParser.getEcType(cert));
+            entry.keyAttrValView.setText(summary.getCurveName());
         }
 
-        ParsedAttestationRecord attestationRecords = CertificateParser.getAttestationExtension(cert);
-        entry.keyStoreView.setText(attestationRecords.keymasterSecurityLevel.name());
-        if (attestationRecords.keymasterSecurityLevel.name().contains("STRONG")){
+        ParsedAttestationRecord attestationRecords = summary.getAttestationRecord();
+        if (attestationRecords == null){
+            entry.keyStoreView.setText("-");
+        }else if (CertificateParser.isStrongBoxKey(attestationRecords)){
             entry.keyStoreView.setText(R.string.SE);
-        }else if (attestationRecords.keymasterSecurityLevel.name().contains("TRUSTED")){
+        }else if (CertificateParser.isTrustedEnvironmentKey(attestationRecords)){
             entry.keyStoreView.setText(R.string.TEE);
+        }else{
+            entry.keyStoreView.setText(attestationRecords.keymasterSecurityLevel.name());
         }
-        if (attestationRecords.teeEnforced.userAuthType.isPresent()){
+        if (attestationRecords != null && attestationRecords.teeEnforced.userAuthType.isPresent()){
             entry.keyAuthenticationView.setText(attestationRecords.teeEnforced.userAuthType.get().toString());
         }else{
             entry.keyAuthenticationView.setText("-");
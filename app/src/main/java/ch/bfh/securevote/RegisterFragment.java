@@ -41,6 +41,7 @@ import java.util.concurrent.Executors;
 import ch.bfh.securevote.databinding.FragmentRegisterBinding;
 import ch.bfh.securevote.utils.Constants;
 import ch.bfh.securevote.utils.HpcUtility;
+import ch.bfh.securevote.utils.KeyGenerationService;
 import ch.bfh.securevote.utils.NetworkJsonReceiver;
 import ch.bfh.securevote.utils.SharedData;
 
@@ -54,6 +55,7 @@ public class RegisterFragment extends Fragment {
     private ArrayAdapter<CharSequence> cvAdapter;
     private HpcUtility hpcUtility;
     private SharedData sharedData;
+    private KeyGenerationService.Task keyGeneration;
 
     @Override
     public View onCreateView(
@@ -88,6 +90,14 @@ public class RegisterFragment extends Fragment {
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
+        // A generation started by an earlier view, e.g. before a rotation, reports here
+        keyGeneration = KeyGenerationService.getInstance(hpcUtility).getCurrent();
+        if (keyGeneration != null) {
+            binding.buttonRegister.setEnabled(false);
+            keyGeneration.attach(requireActivity().getMainExecutor(), this::showProgress,
+                    result -> showResult(view, result));
+        }
+
         binding.buttonRegister.setOnClickListener(view1 -> {
             // Check if we have already a key pair
             if (HpcUtility.hasKey()){
@@ -142,24 +152,67 @@ public class RegisterFragment extends Fragment {
             }
             editor.apply();
 
-            // Generate key pair
-            String ret = hpcUtility.register(binding.challenge.getText().toString().getBytes());
-            binding.textviewStatus.setText(ret);
-            if (ret.contains("Congratulation")){
-                Snackbar.make(view1, R.string.key_generated, Snackbar.LENGTH_LONG)
-                            .setAction(R.string.success, null).show();
-                binding.buttonRegister.setEnabled(false);
-                // go back
-                NavHostFragment.findNavController(RegisterFragment.this)
-                        .navigate(R.id.action_HpcFragment);
-
-            }else{
-                Snackbar.make(view1, R.string.key_generation_failed, Snackbar.LENGTH_LONG)
-                        .setAction("Sorry", null).show();
-            }
+            // Generate key pair off the main thread, generation on the Secure Element takes seconds
+            binding.buttonRegister.setEnabled(false);
+            byte[] challenge = binding.challenge.getText().toString().getBytes();
+            keyGeneration = KeyGenerationService.getInstance(hpcUtility).generate(Constants.KEY_NAME, challenge,
+                    requireActivity().getMainExecutor(), this::showProgress, result -> showResult(view1, result));
         });
     }
 
+    /**
+     * Shows the step the key generation is in.
+     * @param stage the current step
+     * @param attempt the attempt of the step, starting at 1
+     */
+    protected void showProgress(KeyGenerationService.Stage stage, int attempt){
+        if (binding == null) {
+            return;
+        }
+        switch (stage) {
+            case GENERATING:
+                binding.textviewStatus.setText(R.string.key_generation_running);
+                break;
+            case STRONG_BOX_FALLBACK:
+                binding.textviewStatus.setText(R.string.key_generation_fallback);
+                break;
+            case RETRIEVING_CERTIFICATES:
+                binding.textviewStatus.setText(R.string.key_generation_certificates);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Shows the result of the key generation and goes back on success.
+     * @param view the view to show the snackbar in
+     * @param result the result of the key generation
+     */
+    protected void showResult(View view, KeyGenerationService.Result result){
+        keyGeneration = null;
+        Log.i(TAG, String.format("Key generation took %d ms, reading the certificates %d ms: %s",
+                result.generationMillis, result.retrievalMillis, result));
+        if (binding == null) {
+            return;
+        }
+        binding.textviewStatus.setText(result.message);
+        if (result.success){
+            Snackbar.make(view, R.string.key_generated, Snackbar.LENGTH_LONG)
+                        .setAction(R.string.success, null).show();
+            // go back
+            NavHostFragment.findNavController(RegisterFragment.this)
+                    .navigate(R.id.action_HpcFragment);
+        }else if (result.cancelled){
+            binding.buttonRegister.setEnabled(true);
+            binding.textviewStatus.setText(R.string.key_generation_cancelled);
+        }else{
+            binding.buttonRegister.setEnabled(true);
+            Snackbar.make(view, R.string.key_generation_failed, Snackbar.LENGTH_LONG)
+                    .setAction("Sorry", null).show();
+        }
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -224,6 +277,11 @@ public class RegisterFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        // The generation goes on, the next view attaches to it
+        if (keyGeneration != null) {
+            keyGeneration.detach();
+            keyGeneration = null;
+        }
         binding = null;
     }
 
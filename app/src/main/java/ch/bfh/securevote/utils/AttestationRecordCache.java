@@ -0,0 +1,177 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package ch.bfh.securevote.utils;
+
+import static com.google.android.attestation.ParsedAttestationRecord.createParsedAttestationRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.android.attestation.AttestationParseResult;
+import com.google.android.attestation.ParsedAttestationRecord;
+
+/**
+ * Bounded LRU cache of parsed attestation records keyed by the SHA-256 fingerprint of the
+ * certificate, so that every certificate is parsed once instead of once per lookup.
+ */
+public class AttestationRecordCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static AttestationRecordCache instance;
+
+    private final int capacity;
+    private final Map<ByteBuffer, ParsedAttestationRecord> records;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public AttestationRecordCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        // Access ordered, so the eldest entry is the least recently used one.
+        this.records = new LinkedHashMap<ByteBuffer, ParsedAttestationRecord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ParsedAttestationRecord> eldest) {
+                if (size() > AttestationRecordCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static synchronized AttestationRecordCache getInstance() {
+        if (instance == null) {
+            instance = new AttestationRecordCache(DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /** Returns the parsed attestation record of the given certificate, parsing it on the first call.
+     *  @param certificate the certificate carrying the attestation extension
+     *  @return the parsed attestation record
+     *  @throws IOException if the certificate cannot be encoded or the extension cannot be parsed
+     */
+    public ParsedAttestationRecord get(Certificate certificate) throws IOException {
+        ByteBuffer key;
+        try {
+            key = fingerprint(certificate);
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Failed to encode certificate", e);
+        }
+        ParsedAttestationRecord cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        // Parse outside the lock; concurrent misses on the same certificate keep the first result.
+        return store(key, createParsedAttestationRecord((X509Certificate) certificate));
+    }
+
+    /** Returns the parsed attestation record of an encoded certificate whose SHA-256 fingerprint
+     *  the caller already computed, parsing it without exceptions on the first call.
+     *  @param sha256 the SHA-256 fingerprint of the encoded certificate
+     *  @param certificateDer the DER encoded certificate
+     *  @return the parsed attestation record, or null if the certificate has no valid attestation extension
+     */
+    public ParsedAttestationRecord get(byte[] sha256, byte[] certificateDer) {
+        ByteBuffer key = ByteBuffer.wrap(sha256.clone());
+        ParsedAttestationRecord cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        AttestationParseResult parsed = ParsedAttestationRecord.parse(certificateDer);
+        return parsed.isSuccess() ? store(key, parsed.record) : null;
+    }
+
+    private ParsedAttestationRecord lookup(ByteBuffer key) {
+        synchronized (records) {
+            ParsedAttestationRecord cached = records.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private ParsedAttestationRecord store(ByteBuffer key, ParsedAttestationRecord parsed) {
+        synchronized (records) {
+            ParsedAttestationRecord raced = records.get(key);
+            if (raced != null) {
+                return raced;
+            }
+            records.put(key, parsed);
+        }
+        return parsed;
+    }
+
+    public void clear() {
+        synchronized (records) {
+            records.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (records) {
+            return records.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AttestationRecordCache{size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d}",
+                size(), capacity, getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    private static ByteBuffer fingerprint(Certificate certificate) throws CertificateEncodingException {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory for every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -16,23 +16,30 @@
 
 package ch.bfh.securevote.utils;
 
-import static com.google.android.attestation.ParsedAttestationRecord.createParsedAttestationRecord;
-
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.ECParameterSpec;
 import java.util.ArrayList;
+import java.util.List;
 
+import com.google.android.attestation.AttestationPolicy;
 import com.google.android.attestation.AuthorizationList;
 import com.google.android.attestation.ParsedAttestationRecord;
 
 public class CertificateParser {
 
+    private static final AttestationPolicy KEY_POLICY = AttestationPolicy.compile(Constants.KEY_POLICY);
+    private static final int USER_AUTHENTICATION = KEY_POLICY.indexOf("user-authentication");
+    private static final int PROTECTED_CONFIRMATION = KEY_POLICY.indexOf("protected-confirmation");
+    private static final int STRONG_BOX = KEY_POLICY.indexOf("strong-box");
+    private static final int TRUSTED_ENVIRONMENT = KEY_POLICY.indexOf("trusted-environment");
+
     public static String getKeyType(Certificate certificate){
         return certificate.getPublicKey().getAlgorithm();
     }
@@ -43,11 +50,11 @@ public class CertificateParser {
      * @return String with key length in bits
      */
     public static String getEcKeyLength(Certificate certificate){
-        String algorithm = getKeyType(certificate);
-        if (!algorithm.contains("EC")){
+        PublicKey publicKey = certificate.getPublicKey();
+        if (!publicKey.getAlgorithm().contains("EC")){
             return "";
         }
-        ECPublicKey ecPublicKey = (ECPublicKey) certificate.getPublicKey();
+        ECPublicKey ecPublicKey = (ECPublicKey) publicKey;
         int pubKeySize = ecPublicKey.getParams().getCurve().getField().getFieldSize();
         return String.format("%d bits", pubKeySize);
     }
@@ -58,21 +65,21 @@ public class CertificateParser {
      *  @return the name of the elliptic curve used by the given certificate
      */
     public static String getEcType(Certificate certificate){
-        String algorithm = getKeyType(certificate);
-        if (!algorithm.contains("EC")){
+        PublicKey publicKey = certificate.getPublicKey();
+        if (!(publicKey instanceof ECPublicKey)){
             return "";
         }
-        ECPublicKey ecPublicKey = (ECPublicKey) certificate.getPublicKey();
-        // Unfortunately the method getCurveName() is not always implemented ...
-        // Therefore we call it with reflection ...
-        try {
-            ECParameterSpec spec = ecPublicKey.getParams();
-            Method methodToFind = spec.getClass().getMethod("getCurveName", (Class<?>[]) null);
-            if (methodToFind != null) algorithm = (String) methodToFind.invoke(spec, (Object[]) null);
-        } catch (IllegalAccessException | NoSuchMethodException | SecurityException | InvocationTargetException e) {
-            // ignore
-        }
-        return algorithm;
+        return getEcType((ECPublicKey) publicKey);
+    }
+
+    /** Returns the name of the elliptic curve of the given key.
+     *  If the curve name cannot be determined, the key algorithm is returned.
+     *  @param ecPublicKey the key to be analyzed
+     *  @return the name of the elliptic curve of the given key
+     */
+    public static String getEcType(ECPublicKey ecPublicKey){
+        String curveName = EcCurveResolver.getCurveName(ecPublicKey);
+        return curveName != null ? curveName : ecPublicKey.getAlgorithm();
     }
 
     /** Returns the length of the RSA key used by the given certificate.
@@ -81,11 +88,11 @@ public class CertificateParser {
      *  @return the length of the RSA key used by the given certificate
      */
     public static String getRsaKeyLength(Certificate certificate){
-        String algorithm = getKeyType(certificate);
-        if (!algorithm.contains("RSA")){
+        PublicKey publicKey = certificate.getPublicKey();
+        if (!publicKey.getAlgorithm().contains("RSA")){
             return "";
         }
-        RSAPublicKey rsaPublicKey = (RSAPublicKey) certificate.getPublicKey();
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) publicKey;
         int pubKeySize = rsaPublicKey.getModulus().bitLength();
         return String.format("%d bits", pubKeySize);
     }
@@ -98,7 +105,7 @@ public class CertificateParser {
     public static ParsedAttestationRecord getAttestationExtension(Certificate certificate){
         ParsedAttestationRecord parsedAttestationRecord = null;
         try {
-            parsedAttestationRecord = createParsedAttestationRecord((X509Certificate) certificate);
+            parsedAttestationRecord = AttestationRecordCache.getInstance().get(certificate);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -106,12 +113,7 @@ public class CertificateParser {
     }
 
     public static AuthorizationList getTeeAuthorizationList(Certificate certificate){
-        ParsedAttestationRecord parsedAttestationRecord = null;
-        try {
-            parsedAttestationRecord = createParsedAttestationRecord((X509Certificate) certificate);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        ParsedAttestationRecord parsedAttestationRecord = getAttestationExtension(certificate);
         return parsedAttestationRecord.teeEnforced;
     }
 
@@ -120,14 +122,15 @@ public class CertificateParser {
      *  @return true if the certificate requires authentication, false otherwise
      */
     public static boolean requiresAuthentication(Certificate certificate){
-        ParsedAttestationRecord parsedAttestationRecord = null;
-        try {
-            parsedAttestationRecord = createParsedAttestationRecord((X509Certificate) certificate);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        AuthorizationList teeEnforced = parsedAttestationRecord.teeEnforced;
-        return !teeEnforced.noAuthRequired;
+        return requiresAuthentication(getAttestationExtension(certificate));
+    }
+
+    /** Checks if the TEE enforces user authentication for the key of the given attestation record.
+     * @param record the parsed attestation extension
+     * @return true if the key requires authentication, false otherwise
+     */
+    public static boolean requiresAuthentication(ParsedAttestationRecord record){
+        return KEY_POLICY.test(record, USER_AUTHENTICATION);
     }
 
     /** Checks if the given certificate requires protected confirmation from the attestation extension.
@@ -135,14 +138,31 @@ public class CertificateParser {
      * @return true if the certificate requires protected confirmation, false otherwise
      */
     public static boolean requiresProtectedConfirmation(Certificate certificate){
-        ParsedAttestationRecord parsedAttestationRecord = null;
-        try {
-            parsedAttestationRecord = createParsedAttestationRecord((X509Certificate) certificate);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        AuthorizationList teeEnforced = parsedAttestationRecord.teeEnforced;
-        return teeEnforced.trustedConfirmationRequired;
+        return KEY_POLICY.test(getAttestationExtension(certificate), PROTECTED_CONFIRMATION);
+    }
+
+    /** Checks if the key of the given attestation record lives in a StrongBox secure element.
+     * @param record the parsed attestation extension
+     * @return true for StrongBox keys, false otherwise
+     */
+    public static boolean isStrongBoxKey(ParsedAttestationRecord record){
+        return KEY_POLICY.test(record, STRONG_BOX);
+    }
+
+    /** Checks if the key of the given attestation record lives in the trusted execution environment.
+     * @param record the parsed attestation extension
+     * @return true for TEE keys, false otherwise
+     */
+    public static boolean isTrustedEnvironmentKey(ParsedAttestationRecord record){
+        return KEY_POLICY.test(record, TRUSTED_ENVIRONMENT);
+    }
+
+    /** Returns the ids of the key policy rules the given attestation record fails.
+     * @param record the parsed attestation extension
+     * @return the failing rule ids, empty if the record passes the whole policy
+     */
+    public static List<String> getKeyPolicyFailures(ParsedAttestationRecord record){
+        return KEY_POLICY.getFailedRuleIds(record);
     }
 
     /** Returns the key usage of the given certificate.
@@ -155,39 +175,43 @@ public class CertificateParser {
      * keyCertSign (5), cRLSign (6), encipherOnly (7), decipherOnly (8) }
      */
     public static String getKeyUsageString(X509Certificate certificate){
+        return getKeyUsageString(getKeyUsage(certificate));
+    }
 
+    private static final String[] KEY_USAGE_NAMES = {
+            "Digital Signature", "Non Repudiation", "Key Encipherment", "Data Encipherment",
+            "Key Agreement", "Key Cert Sign", "CRL Sign", "Encipher Only", "Decipher Only"
+    };
+
+    /** Returns the key usage of the given certificate as bit mask, see {@link CertificateSummary}.
+     *  @param certificate the certificate to be analyzed
+     *  @return the key usage bits, 0 if the certificate has no key usage extension
+     */
+    public static int getKeyUsage(X509Certificate certificate){
         boolean[] keyUsageFlags = certificate.getKeyUsage();
-        ArrayList<String> keyUsage = new ArrayList<>();
+        int keyUsage = 0;
         if (keyUsageFlags != null) {
-            if (keyUsageFlags[0]) {
-                keyUsage.add("Digital Signature");
-            }
-            if (keyUsageFlags[1]) {
-                keyUsage.add("Non Repudiation");
+            for (int i = 0; i < Math.min(keyUsageFlags.length, KEY_USAGE_NAMES.length); i++) {
+                if (keyUsageFlags[i]) {
+                    keyUsage |= 1 << i;
+                }
             }
-            if (keyUsageFlags[2]) {
-                keyUsage.add("Key Encipherment");
-            }
-            if (keyUsageFlags[3]) {
-                keyUsage.add("Data Encipherment");
-            }
-            if (keyUsageFlags[4]) {
-                keyUsage.add("Key Agreement");
-            }
-            if (keyUsageFlags[5]) {
-                keyUsage.add("Key Cert Sign");
-            }
-            if (keyUsageFlags[6]) {
-                keyUsage.add("CRL Sign");
-            }
-            if (keyUsageFlags[7]) {
-                keyUsage.add("Encipher Only");
-            }
-            if (keyUsageFlags[8]) {
-                keyUsage.add("Decipher Only");
+        }
+        return keyUsage;
+    }
+
+    /** Returns the names of the key usage bits as comma separated list.
+     *  @param keyUsage the key usage bit mask
+     *  @return the key usage names, the empty string if no bit is set
+     */
+    public static String getKeyUsageString(int keyUsage){
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < KEY_USAGE_NAMES.length; i++) {
+            if ((keyUsage & (1 << i)) != 0) {
+                names.add(KEY_USAGE_NAMES[i]);
             }
         }
-        return join(keyUsage);
+        return join(names);
     }
 
     /** Simple helper function to concatenate a list of key usage strings.
@@ -204,4 +228,48 @@ public class CertificateParser {
         }
         return "";
     }
+
+    /**
+     * Returns a string value of the certificate thumbprint in hex format.
+     *
+     * @param cert Certificate to calculate thumbprint of.
+     * @return String value of certificate thumbprint in hex.
+     * @throws NoSuchAlgorithmException when hashing algorithm is not found
+     * @throws CertificateEncodingException when DER encoding fails
+     */
+    public static String getThumbPrint(X509Certificate cert, String algorithm)
+            throws NoSuchAlgorithmException, CertificateEncodingException {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        byte[] der = cert.getEncoded();
+        md.update(der);
+        return formatFingerprint(md.digest());
+    }
+
+    /**
+     * Formats a digest as upper case hex with colons between the bytes.
+     *
+     * @param digest the digest to format
+     * @return the formatted fingerprint
+     */
+    public static String formatFingerprint(byte[] digest) {
+        return FingerprintEngine.toColonHex(digest);
+    }
+
+    /**
+     * Converts the input byte array to hex format and returns
+     * the string value of the new format.
+     *
+     * @param bytes Byte array to convert to hex.
+     * @return String of hex conversion.
+     */
+    public static String hexify(byte[] bytes) {
+        char[] hexDigits = {'0', '1', '2', '3', '4', '5', '6', '7',
+                '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte aByte : bytes) {
+            buf.append(hexDigits[(aByte & 0xf0) >> 4]);
+            buf.append(hexDigits[aByte & 0x0f]);
+        }
+        return buf.toString();
+    }
 }
@@ -0,0 +1,200 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+
+package ch.bfh.securevote.utils;
+
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.android.attestation.ParsedAttestationRecord;
+
+/**
+ * Immutable summary of the properties of a certificate shown in the key views. All values are
+ * taken from the certificate in a single pass: the public key is fetched once, the encoding is
+ * digested once for all fingerprints and the attestation extension is read through the
+ * {@link AttestationRecordCache}, so the views can read the summary as often as they like.
+ */
+public final class CertificateSummary {
+
+    /** Key usage bits in the order of the KeyUsage BIT STRING, see {@link #hasKeyUsage(int)}. */
+    public static final int DIGITAL_SIGNATURE = 1;
+    public static final int NON_REPUDIATION = 1 << 1;
+    public static final int KEY_ENCIPHERMENT = 1 << 2;
+    public static final int DATA_ENCIPHERMENT = 1 << 3;
+    public static final int KEY_AGREEMENT = 1 << 4;
+    public static final int KEY_CERT_SIGN = 1 << 5;
+    public static final int CRL_SIGN = 1 << 6;
+    public static final int ENCIPHER_ONLY = 1 << 7;
+    public static final int DECIPHER_ONLY = 1 << 8;
+
+    private final String keyAlgorithm;
+    private final int keySize;
+    private final String curveName;
+    private final int keyUsage;
+    private final String keyUsageString;
+    private final long notBefore;
+    private final long notAfter;
+    private final BigInteger serialNumber;
+    private final String sha256Fingerprint;
+    private final String sha1Fingerprint;
+    private final ParsedAttestationRecord attestationRecord;
+
+    private CertificateSummary(X509Certificate certificate) throws CertificateEncodingException {
+        PublicKey publicKey = certificate.getPublicKey();
+        this.keyAlgorithm = publicKey.getAlgorithm();
+        if (publicKey instanceof ECPublicKey) {
+            this.keySize = ((ECPublicKey) publicKey).getParams().getCurve().getField().getFieldSize();
+            this.curveName = CertificateParser.getEcType((ECPublicKey) publicKey);
+        } else if (publicKey instanceof RSAPublicKey) {
+            this.keySize = ((RSAPublicKey) publicKey).getModulus().bitLength();
+            this.curveName = "";
+        } else {
+            this.keySize = 0;
+            this.curveName = "";
+        }
+        this.keyUsage = CertificateParser.getKeyUsage(certificate);
+        this.keyUsageString = CertificateParser.getKeyUsageString(keyUsage);
+        this.notBefore = certificate.getNotBefore().getTime();
+        this.notAfter = certificate.getNotAfter().getTime();
+        this.serialNumber = certificate.getSerialNumber();
+
+        byte[] der = certificate.getEncoded();
+        FingerprintEngine.Fingerprints fingerprints = FingerprintEngine.compute(der, false);
+        this.sha256Fingerprint = fingerprints.getSha256String();
+        this.sha1Fingerprint = fingerprints.getSha1String();
+        // The SHA-256 fingerprint is the cache key, so the extension is parsed once per process
+        this.attestationRecord = AttestationRecordCache.getInstance().get(fingerprints.getSha256(), der);
+    }
+
+    /** Summarizes the given certificate.
+     * @param certificate an X.509 certificate
+     * @return the summary of the certificate
+     * @throws CertificateEncodingException if the certificate cannot be encoded
+     */
+    public static CertificateSummary of(Certificate certificate) throws CertificateEncodingException {
+        return new CertificateSummary((X509Certificate) certificate);
+    }
+
+    /** Summarizes many certificates in parallel, e.g. all certificates of the key store.
+     * Certificates that cannot be encoded are summarized as null.
+     * @param certificates the certificates to summarize
+     * @return the summaries in the order of the given certificates
+     */
+    public static List<CertificateSummary> summarize(List<? extends Certificate> certificates) {
+        return certificates.parallelStream()
+                .map(CertificateSummary::ofOrNull)
+                .collect(Collectors.toList());
+    }
+
+    private static CertificateSummary ofOrNull(Certificate certificate) {
+        try {
+            return of(certificate);
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+    }
+
+    /** @return the algorithm of the public key, e.g. "EC" or "RSA" */
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public boolean isEcKey() {
+        return keyAlgorithm.contains("EC");
+    }
+
+    public boolean isRsaKey() {
+        return keyAlgorithm.contains("RSA");
+    }
+
+    /** @return the field size of an EC key or the modulus length of an RSA key in bits, 0 otherwise */
+    public int getKeySize() {
+        return keySize;
+    }
+
+    /** @return the key size formatted as "256 bits", or the empty string for unknown key types */
+    public String getKeySizeString() {
+        return keySize == 0 ? "" : keySize + " bits";
+    }
+
+    /** @return the name of the elliptic curve, the key algorithm if the name is not known,
+     *  or the empty string for non EC keys */
+    public String getCurveName() {
+        return curveName;
+    }
+
+    /** @return the key usage bit mask, 0 if the certificate has no key usage extension */
+    public int getKeyUsage() {
+        return keyUsage;
+    }
+
+    public boolean hasKeyUsage(int usage) {
+        return (keyUsage & usage) == usage;
+    }
+
+    /** @return the key usages as a comma separated list, see {@link CertificateParser#getKeyUsageString} */
+    public String getKeyUsageString() {
+        return keyUsageString;
+    }
+
+    public Date getNotBefore() {
+        return new Date(notBefore);
+    }
+
+    public Date getNotAfter() {
+        return new Date(notAfter);
+    }
+
+    public boolean isValidAt(Date date) {
+        long time = date.getTime();
+        return time >= notBefore && time <= notAfter;
+    }
+
+    public BigInteger getSerialNumber() {
+        return serialNumber;
+    }
+
+    /** @return the SHA-256 fingerprint of the encoded certificate as colon separated hex */
+    public String getSha256Fingerprint() {
+        return sha256Fingerprint;
+    }
+
+    /** @return the SHA-1 fingerprint of the encoded certificate as colon separated hex */
+    public String getSha1Fingerprint() {
+        return sha1Fingerprint;
+    }
+
+    /** @return the parsed attestation extension, or null if the certificate has none
+     *  or it cannot be parsed */
+    public ParsedAttestationRecord getAttestationRecord() {
+        return attestationRecord;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CertificateSummary{keyAlgorithm=%s, keySize=%d, curveName=%s, keyUsage=%s, serialNumber=%s, sha256=%s}",
+                keyAlgorithm, keySize, curveName, keyUsageString, serialNumber.toString(16), sha256Fingerprint);
+    }
+}
@@ -30,6 +30,14 @@ public class Constants {
     public static final String defaultKeyAliasName = "APC Demo App";
     public static final String KEY_STORE_TYPE = "AndroidKeyStore";
 
+    // Attestation policy checked on the app keys, see CertificateParser for the use of the rules
+    public static final String KEY_POLICY = "{\"rules\": ["
+            + "{\"id\": \"user-authentication\", \"field\": \"teeEnforced.noAuthRequired\", \"present\": false},"
+            + "{\"id\": \"protected-confirmation\", \"field\": \"teeEnforced.trustedConfirmationRequired\", \"equals\": true},"
+            + "{\"id\": \"strong-box\", \"field\": \"keymasterSecurityLevel\", \"equals\": \"STRONG_BOX\"},"
+            + "{\"id\": \"trusted-environment\", \"field\": \"keymasterSecurityLevel\", \"equals\": \"TRUSTED_ENVIRONMENT\"}"
+            + "]}";
+
     // Settings variables
     public static final String settings_key_name = "attestation_key_alias";
     public static final String settings_key_type = "key_type";
@@ -0,0 +1,149 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+
+package ch.bfh.securevote.utils;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+
+/**
+ * Resolves the name of the elliptic curve of EC keys. The parameters of the supported named curves
+ * are computed once and indexed by their group order, which is unique among named curves, so a
+ * lookup is a hash lookup plus a comparison of the curve and generator. Parameter specs that were
+ * resolved before are remembered by identity, since providers hand out the same spec instance for
+ * all keys on a curve. Keys whose parameters are not known are resolved by the curve OID in their
+ * encoding. Neither path depends on provider specific methods such as getCurveName().
+ */
+public final class EcCurveResolver {
+
+    // Curve name and OID of the supported named curves
+    private static final String[][] NAMED_CURVES = {
+            {"secp256r1", "1.2.840.10045.3.1.7"},
+            {"secp384r1", "1.3.132.0.34"},
+            {"secp521r1", "1.3.132.0.35"},
+            {"secp224r1", "1.3.132.0.33"},
+            {"secp256k1", "1.3.132.0.10"},
+    };
+
+    private static final Map<BigInteger, NamedCurve> CURVES_BY_ORDER = new HashMap<>();
+    private static final Map<String, String> CURVES_BY_OID = new HashMap<>();
+    private static final Map<ECParameterSpec, String> RESOLVED =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    static {
+        for (String[] curve : NAMED_CURVES) {
+            CURVES_BY_OID.put(curve[1], curve[0]);
+            try {
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec(curve[0]));
+                ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+                CURVES_BY_ORDER.put(spec.getOrder(), new NamedCurve(curve[0], spec));
+            } catch (GeneralSecurityException e) {
+                // The platform does not support this curve, it can still be resolved by its OID
+            }
+        }
+    }
+
+    private EcCurveResolver() {
+    }
+
+    /** Returns the name of the named curve with the given parameters.
+     * @param spec the curve parameters of an EC key
+     * @return the standard name of the curve, e.g. "secp256r1", or null if the curve is not known
+     */
+    public static String getCurveName(ECParameterSpec spec) {
+        if (spec == null) {
+            return null;
+        }
+        String name = RESOLVED.get(spec);
+        if (name != null) {
+            return name;
+        }
+        NamedCurve curve = CURVES_BY_ORDER.get(spec.getOrder());
+        if (curve == null || !curve.matches(spec)) {
+            return null;
+        }
+        RESOLVED.put(spec, curve.name);
+        return curve.name;
+    }
+
+    /** Returns the name of the curve of the given key, from its parameters or else from the
+     * curve OID in its encoding.
+     * @param key an EC public key
+     * @return the standard name of the curve, e.g. "secp256r1", or null if the curve is not known
+     */
+    public static String getCurveName(ECPublicKey key) {
+        String name = getCurveName(key.getParams());
+        if (name == null) {
+            name = getCurveNameForOid(getCurveOid(key));
+        }
+        return name;
+    }
+
+    /** Returns the name of the named curve with the given OID.
+     * @param oid the dotted OID of the curve
+     * @return the standard name of the curve, or null if the OID is not known
+     */
+    public static String getCurveNameForOid(String oid) {
+        return oid == null ? null : CURVES_BY_OID.get(oid);
+    }
+
+    private static String getCurveOid(ECPublicKey key) {
+        byte[] encoded = key.getEncoded();
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            ASN1Encodable parameters =
+                    SubjectPublicKeyInfo.getInstance(encoded).getAlgorithm().getParameters();
+            return parameters instanceof ASN1ObjectIdentifier
+                    ? ((ASN1ObjectIdentifier) parameters).getId()
+                    : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Parameters of a named curve. */
+    private static final class NamedCurve {
+        final String name;
+        final ECParameterSpec spec;
+
+        NamedCurve(String name, ECParameterSpec spec) {
+            this.name = name;
+            this.spec = spec;
+        }
+
+        boolean matches(ECParameterSpec other) {
+            return spec.getCofactor() == other.getCofactor()
+                    && spec.getCurve().equals(other.getCurve())
+                    && spec.getGenerator().equals(other.getGenerator());
+        }
+    }
+}
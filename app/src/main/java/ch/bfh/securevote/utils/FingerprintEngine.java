@@ -0,0 +1,174 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+
+package ch.bfh.securevote.utils;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+
+/**
+ * Computes the SHA-1, SHA-256 and optionally SHA-512 fingerprints of a certificate in one pass
+ * over its DER encoding. The encoding is fed to all digests block by block while the block is
+ * still in cache, and the digest instances are reused per thread instead of being looked up on
+ * every call. Fingerprints are formatted as upper case hex with colons through a lookup table.
+ */
+public final class FingerprintEngine {
+
+    // Block fed to every digest before moving on, small enough to stay in the L1 cache
+    private static final int BLOCK_SIZE = 4096;
+
+    // Two upper case hex digits for every byte value
+    private static final char[] HEX_PAIRS = new char[512];
+
+    static {
+        char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[2 * i] = digits[i >>> 4];
+            HEX_PAIRS[2 * i + 1] = digits[i & 0x0f];
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest[]> DIGESTS = ThreadLocal.withInitial(() ->
+            new MessageDigest[] {newDigest("SHA-1"), newDigest("SHA-256"), newDigest("SHA-512")});
+
+    private FingerprintEngine() {
+    }
+
+    /** Computes the SHA-1 and SHA-256 fingerprints of the given certificate.
+     * @param certificate the certificate to fingerprint
+     * @return the fingerprints, without SHA-512
+     * @throws CertificateEncodingException if the certificate cannot be encoded
+     */
+    public static Fingerprints compute(Certificate certificate) throws CertificateEncodingException {
+        return compute(certificate.getEncoded(), false);
+    }
+
+    /** Computes the fingerprints of an encoded certificate in one pass.
+     * @param der the DER encoded certificate
+     * @param includeSha512 whether the SHA-512 fingerprint is computed as well
+     * @return the fingerprints
+     */
+    public static Fingerprints compute(byte[] der, boolean includeSha512) {
+        MessageDigest[] digests = DIGESTS.get();
+        int count = includeSha512 ? 3 : 2;
+        for (int offset = 0; offset < der.length; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, der.length - offset);
+            for (int i = 0; i < count; i++) {
+                digests[i].update(der, offset, length);
+            }
+        }
+        // digest() resets the instances for the next call on this thread
+        return new Fingerprints(digests[0].digest(), digests[1].digest(),
+                includeSha512 ? digests[2].digest() : null);
+    }
+
+    /** Formats bytes as upper case hex with a colon between bytes, e.g. "0A:1B:2C".
+     * @param bytes the bytes to format
+     * @return the formatted bytes, the empty string for no bytes
+     */
+    public static String toColonHex(byte[] bytes) {
+        return toColonHex(bytes, 0, bytes.length);
+    }
+
+    /** Formats a range of bytes as upper case hex with a colon between bytes.
+     * @param bytes the bytes to format
+     * @param offset the first byte to format
+     * @param length the number of bytes to format
+     * @return the formatted bytes, the empty string for no bytes
+     */
+    public static String toColonHex(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        char[] out = new char[length * 3 - 1];
+        int position = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (position > 0) {
+                out[position++] = ':';
+            }
+            int pair = (bytes[i] & 0xff) << 1;
+            out[position++] = HEX_PAIRS[pair];
+            out[position++] = HEX_PAIRS[pair + 1];
+        }
+        return new String(out);
+    }
+
+    /** Formats a certificate serial number as colon separated hex of its magnitude bytes,
+     * e.g. "00:C8:96" is shown as "C8:96" and the serial 0xabc as "0A:BC".
+     * @param serialNumber the serial number to format
+     * @return the formatted serial number, prefixed by "-" for negative numbers
+     */
+    public static String formatSerialNumber(BigInteger serialNumber) {
+        BigInteger magnitude = serialNumber.abs();
+        byte[] bytes = magnitude.toByteArray();
+        // Skip the sign byte BigInteger adds when the top bit is set
+        int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+        String hex = toColonHex(bytes, offset, bytes.length - offset);
+        return serialNumber.signum() < 0 ? "-" + hex : hex;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1, SHA-256 and SHA-512 are mandatory for every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Fingerprints of one certificate. */
+    public static final class Fingerprints {
+        private final byte[] sha1;
+        private final byte[] sha256;
+        private final byte[] sha512;
+
+        Fingerprints(byte[] sha1, byte[] sha256, byte[] sha512) {
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+            this.sha512 = sha512;
+        }
+
+        public byte[] getSha1() {
+            return sha1.clone();
+        }
+
+        public byte[] getSha256() {
+            return sha256.clone();
+        }
+
+        /** @return the SHA-512 fingerprint, or null if it was not computed */
+        public byte[] getSha512() {
+            return sha512 == null ? null : sha512.clone();
+        }
+
+        public String getSha1String() {
+            return toColonHex(sha1);
+        }
+
+        public String getSha256String() {
+            return toColonHex(sha256);
+        }
+
+        /** @return the formatted SHA-512 fingerprint, or null if it was not computed */
+        public String getSha512String() {
+            return sha512 == null ? null : toColonHex(sha512);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+
+package ch.bfh.securevote.utils;
+
+import android.security.keystore.StrongBoxUnavailableException;
+import android.util.Log;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the APC key pair off the main thread. Key generation on a Secure Element takes
+ * seconds for large RSA keys, so it runs on a dedicated single thread executor, and progress and
+ * result are posted to the listeners through a callback executor, e.g. the main executor of the
+ * activity. If the device has no Secure Element, generation is retried once without StrongBox.
+ * Reading the attestation certificate chain is retried on its own, without generating the key
+ * again.
+ *
+ * <p>A generation outlives the view that started it: the view detaches its listeners when it is
+ * destroyed, e.g. on a rotation, and the next view attaches to {@link #getCurrent()} to receive
+ * the result. A cancel only stops a generation that has not generated its key yet. The key store
+ * call cannot be interrupted, and the new key has already replaced any key under its alias, so a
+ * key that is generated is kept.
+ */
+public class KeyGenerationService {
+
+    /** Steps reported to the progress listener. */
+    public enum Stage {
+        GENERATING, STRONG_BOX_FALLBACK, RETRIEVING_CERTIFICATES, DONE
+    }
+
+    public interface ProgressListener {
+        void onProgress(Stage stage, int attempt);
+    }
+
+    public interface ResultListener {
+        void onResult(Result result);
+    }
+
+    /** The key store calls of a generation, backed by {@link HpcUtility} in the app. */
+    interface KeyStoreOperations {
+        boolean isStrongBoxRequired();
+
+        void disableStrongBox();
+
+        void generateKeyPair(String keyName, byte[] challenge, boolean strongBox) throws GeneralSecurityException;
+
+        Certificate[] getCertificateChain(String keyName) throws Exception;
+
+        /** Drops cached key store entries of the alias before the chain is read again. */
+        void invalidate(String keyName);
+    }
+
+    private static final String TAG = KeyGenerationService.class.getName();
+    private static final int CERTIFICATE_ATTEMPTS = 3;
+    private static final long CERTIFICATE_RETRY_DELAY_MS = 100;
+
+    private static KeyGenerationService instance;
+
+    private final KeyStoreOperations keyStore;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "KeyGeneration");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Task current;
+
+    public KeyGenerationService(HpcUtility hpcUtility) {
+        this(new KeyStoreOperations() {
+            @Override
+            public boolean isStrongBoxRequired() {
+                return hpcUtility.isStrongBoxRequired();
+            }
+
+            @Override
+            public void disableStrongBox() {
+                hpcUtility.disableStrongBox();
+            }
+
+            @Override
+            public void generateKeyPair(String keyName, byte[] challenge, boolean strongBox)
+                    throws GeneralSecurityException {
+                hpcUtility.generateKeyPair(keyName, challenge, strongBox);
+            }
+
+            @Override
+            public Certificate[] getCertificateChain(String keyName) throws Exception {
+                return HpcUtility.getAttestationCertificateChain(keyName);
+            }
+
+            @Override
+            public void invalidate(String keyName) {
+                KeyStoreGateway.getInstance().invalidate(keyName);
+            }
+        });
+    }
+
+    KeyGenerationService(KeyStoreOperations keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public static synchronized KeyGenerationService getInstance(HpcUtility hpcUtility) {
+        if (instance == null) {
+            instance = new KeyGenerationService(hpcUtility);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts generating a key pair. A generation still running is cancelled first.
+     *
+     * @param keyName the alias of the key
+     * @param challenge the attestation challenge included in the certificate
+     * @param callbackExecutor executor the listeners are called on, e.g. the main executor
+     * @param progressListener called when a step starts, may be null
+     * @param resultListener called once with the result, also for cancelled generations
+     * @return the task, e.g. to detach the listeners
+     */
+    public synchronized Task generate(String keyName, byte[] challenge, Executor callbackExecutor,
+                                      ProgressListener progressListener, ResultListener resultListener) {
+        if (current != null) {
+            current.cancel();
+        }
+        Task task = new Task(keyName, challenge);
+        task.attach(callbackExecutor, progressListener, resultListener);
+        task.future = executor.submit(task::run);
+        current = task;
+        return task;
+    }
+
+    /** @return the latest generation until its result is delivered, null if there is none */
+    public synchronized Task getCurrent() {
+        return current;
+    }
+
+    /** Cancels the running generation, if any. */
+    public synchronized void cancel() {
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return current != null && !current.isDone();
+    }
+
+    private synchronized void clearCurrent(Task task) {
+        if (current == task) {
+            current = null;
+        }
+    }
+
+    /** Handle of one key generation. */
+    public class Task {
+        private final String keyName;
+        private final byte[] challenge;
+        private Executor callbackExecutor;
+        private ProgressListener progressListener;
+        private ResultListener resultListener;
+        private Stage stage;
+        private int attempt;
+        private Result result;
+        private boolean started;
+        private boolean delivered;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private Future<?> future;
+
+        private Task(String keyName, byte[] challenge) {
+            this.keyName = keyName;
+            this.challenge = challenge.clone();
+        }
+
+        /**
+         * Sets the listeners, replacing earlier ones. The latest progress is shown again, and a
+         * result that no listener received yet is delivered.
+         *
+         * @param callbackExecutor executor the listeners are called on, e.g. the main executor
+         * @param progressListener called when a step starts, may be null
+         * @param resultListener called once with the result
+         */
+        public void attach(Executor callbackExecutor, ProgressListener progressListener,
+                           ResultListener resultListener) {
+            Stage latest;
+            int latestAttempt;
+            synchronized (this) {
+                this.callbackExecutor = callbackExecutor;
+                this.progressListener = progressListener;
+                this.resultListener = resultListener;
+                latest = result == null ? stage : null;
+                latestAttempt = attempt;
+            }
+            if (latest != null) {
+                showProgress(latest, latestAttempt);
+            } else {
+                deliver();
+            }
+        }
+
+        /** Removes the listeners, e.g. when the view is destroyed. The generation goes on. */
+        public synchronized void detach() {
+            callbackExecutor = null;
+            progressListener = null;
+            resultListener = null;
+        }
+
+        /** Cancels the generation unless its key has already been generated. */
+        public void cancel() {
+            Future<?> scheduled;
+            synchronized (KeyGenerationService.this) {
+                scheduled = future;
+            }
+            synchronized (this) {
+                cancelled = true;
+                if (started) {
+                    // Checked again before each generation attempt
+                    return;
+                }
+            }
+            // Report at once, the generation never started
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            finish(Result.cancelled(0, 0));
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        private void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                started = true;
+            }
+            long start = System.nanoTime();
+            boolean strongBox = keyStore.isStrongBoxRequired();
+            int attempt = 1;
+            while (true) {
+                if (cancelled) {
+                    finish(Result.cancelled(elapsedMillis(start), 0));
+                    return;
+                }
+                progress(strongBox || attempt == 1 ? Stage.GENERATING : Stage.STRONG_BOX_FALLBACK, attempt);
+                try {
+                    keyStore.generateKeyPair(keyName, challenge, strongBox);
+                    break;
+                } catch (StrongBoxUnavailableException e) {
+                    if (!strongBox) {
+                        finish(Result.failed("Failed to generate key pair: " + e, elapsedMillis(start), 0));
+                        return;
+                    }
+                    Log.i(TAG, "No Secure Element, generating the key without StrongBox");
+                    strongBox = false;
+                    keyStore.disableStrongBox();
+                    attempt++;
+                } catch (Exception e) {
+                    Log.e(TAG, "Key generation failed: " + e);
+                    finish(Result.failed("Failed to generate key pair: " + e, elapsedMillis(start), 0));
+                    return;
+                }
+            }
+            long generationMillis = elapsedMillis(start);
+
+            // The key is in the key store now, so its certificates are read even after a cancel
+            long retrievalStart = System.nanoTime();
+            Certificate[] chain = null;
+            Exception failure = null;
+            for (int retrieval = 1; retrieval <= CERTIFICATE_ATTEMPTS && chain == null; retrieval++) {
+                progress(Stage.RETRIEVING_CERTIFICATES, retrieval);
+                try {
+                    chain = keyStore.getCertificateChain(keyName);
+                } catch (Exception e) {
+                    failure = e;
+                }
+                if (chain == null && retrieval < CERTIFICATE_ATTEMPTS) {
+                    keyStore.invalidate(keyName);
+                    try {
+                        Thread.sleep(CERTIFICATE_RETRY_DELAY_MS * retrieval);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            long retrievalMillis = elapsedMillis(retrievalStart);
+            if (chain == null) {
+                finish(Result.failed("The key pair was generated, but its certificates are not available: " + failure,
+                        generationMillis, retrievalMillis));
+            } else {
+                progress(Stage.DONE, attempt);
+                finish(new Result(true, false, strongBox, chain,
+                        "Congratulation! The key pair was successfully generated.",
+                        generationMillis, retrievalMillis));
+            }
+        }
+
+        private void progress(Stage stage, int attempt) {
+            synchronized (this) {
+                this.stage = stage;
+                this.attempt = attempt;
+            }
+            showProgress(stage, attempt);
+        }
+
+        // Listeners are called outside the lock, the callback executor may run them right away
+        private void showProgress(Stage stage, int attempt) {
+            Executor executor;
+            ProgressListener listener;
+            synchronized (this) {
+                executor = callbackExecutor;
+                listener = progressListener;
+            }
+            if (listener != null) {
+                executor.execute(() -> listener.onProgress(stage, attempt));
+            }
+        }
+
+        private void finish(Result result) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                this.result = result;
+            }
+            Log.i(TAG, String.format("Key generation finished: %s", result));
+            deliver();
+        }
+
+        // Posts the result to the attached listener; it is dropped if the listener is detached first
+        private void deliver() {
+            Executor executor;
+            ResultListener listener;
+            Result finished;
+            synchronized (this) {
+                executor = callbackExecutor;
+                listener = resultListener;
+                finished = result;
+            }
+            if (listener == null || finished == null) {
+                return;
+            }
+            executor.execute(() -> {
+                synchronized (Task.this) {
+                    if (delivered || resultListener != listener) {
+                        return;
+                    }
+                    delivered = true;
+                }
+                clearCurrent(this);
+                listener.onResult(finished);
+            });
+        }
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /** Outcome of one key generation. */
+    public static class Result {
+        public final boolean success;
+        public final boolean cancelled;
+        /** Whether the key was generated on the Secure Element. */
+        public final boolean strongBox;
+        private final Certificate[] chain;
+        public final String message;
+        public final long generationMillis;
+        public final long retrievalMillis;
+
+        Result(boolean success, boolean cancelled, boolean strongBox, Certificate[] chain, String message,
+               long generationMillis, long retrievalMillis) {
+            this.success = success;
+            this.cancelled = cancelled;
+            this.strongBox = strongBox;
+            this.chain = chain;
+            this.message = message;
+            this.generationMillis = generationMillis;
+            this.retrievalMillis = retrievalMillis;
+        }
+
+        static Result failed(String message, long generationMillis, long retrievalMillis) {
+            return new Result(false, false, false, null, message, generationMillis, retrievalMillis);
+        }
+
+        static Result cancelled(long generationMillis, long retrievalMillis) {
+            return new Result(false, true, false, null, "Key generation was cancelled.",
+                    generationMillis, retrievalMillis);
+        }
+
+        /** @return the attestation certificate chain of the new key, null unless successful */
+        public Certificate[] getCertificateChain() {
+            return chain == null ? null : chain.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Result{success=%b, cancelled=%b, strongBox=%b, generationMs=%d, retrievalMs=%d}",
+                    success, cancelled, strongBox, generationMillis, retrievalMillis);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+
+package ch.bfh.securevote.utils;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the key store through a single loaded {@link KeyStore}. The store is loaded on first
+ * use, and the certificate chains and private key handles of the aliases are cached, so repeated
+ * lookups by the views and the signing code do not go through getInstance() and load() again.
+ * Entries created or deleted outside the gateway, e.g. by a KeyPairGenerator of the Android key
+ * store, must be announced through {@link #invalidate(String)}.
+ */
+public class KeyStoreGateway {
+
+    /** Creates and loads the key store, e.g. the Android key store or a PKCS12 store in tests. */
+    public interface KeyStoreLoader {
+        KeyStore load() throws GeneralSecurityException, IOException;
+    }
+
+    private static KeyStoreGateway instance;
+
+    private final KeyStoreLoader loader;
+    private KeyStore keyStore;
+    private List<String> aliases;
+    private final Map<String, CachedEntry> entries = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long loads;
+
+    public KeyStoreGateway(KeyStoreLoader loader) {
+        this.loader = loader;
+    }
+
+    /** Returns the gateway of the Android key store. */
+    public static synchronized KeyStoreGateway getInstance() {
+        if (instance == null) {
+            instance = new KeyStoreGateway(() -> {
+                KeyStore keyStore = KeyStore.getInstance(Constants.KEY_STORE_TYPE);
+                keyStore.load(null);
+                return keyStore;
+            });
+        }
+        return instance;
+    }
+
+    /** Returns the loaded key store, loading it on the first call.
+     * @return the key store
+     * @throws KeyStoreException if the key store cannot be created or loaded
+     */
+    public synchronized KeyStore getKeyStore() throws KeyStoreException {
+        if (keyStore == null) {
+            try {
+                keyStore = loader.load();
+                loads++;
+            } catch (GeneralSecurityException | IOException e) {
+                throw new KeyStoreException("Failed to load key store", e);
+            }
+        }
+        return keyStore;
+    }
+
+    /** @return the aliases of the key store, in the order of the store */
+    public synchronized List<String> getAliases() throws KeyStoreException {
+        if (aliases == null) {
+            aliases = Collections.unmodifiableList(new ArrayList<>(Collections.list(getKeyStore().aliases())));
+        }
+        return aliases;
+    }
+
+    public synchronized boolean containsAlias(String alias) throws KeyStoreException {
+        return getAliases().contains(alias);
+    }
+
+    /** Returns the certificate of the given alias.
+     * @param alias the key alias
+     * @return the certificate, or null if the alias does not exist
+     */
+    public synchronized Certificate getCertificate(String alias) throws KeyStoreException {
+        CachedEntry entry = getCachedEntry(alias);
+        return entry == null ? null : entry.certificate;
+    }
+
+    /** Returns the certificate chain of the given alias, leaf first.
+     * @param alias the key alias
+     * @return a copy of the chain, or null if the alias does not exist or has no chain
+     */
+    public synchronized Certificate[] getCertificateChain(String alias) throws KeyStoreException {
+        CachedEntry entry = getCachedEntry(alias);
+        return entry == null || entry.chain == null ? null : entry.chain.clone();
+    }
+
+    /** Returns the private key handle of the given alias.
+     * @param alias the key alias
+     * @return the private key, or null if the alias does not exist or is not a private key entry
+     * @throws GeneralSecurityException if the key cannot be recovered
+     */
+    public synchronized PrivateKey getPrivateKey(String alias) throws GeneralSecurityException {
+        CachedEntry entry = getCachedEntry(alias);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.keyLoaded) {
+            Key key = getKeyStore().getKey(alias, null);
+            entry.privateKey = key instanceof PrivateKey ? (PrivateKey) key : null;
+            entry.keyLoaded = true;
+        }
+        return entry.privateKey;
+    }
+
+    /** Returns the key pair of the given alias.
+     * @param alias the key alias
+     * @return the public key of the certificate and the private key, or null if the alias does not exist
+     * @throws GeneralSecurityException if the key cannot be recovered
+     */
+    public synchronized KeyPair getKeyPair(String alias) throws GeneralSecurityException {
+        PrivateKey privateKey = getPrivateKey(alias);
+        Certificate certificate = getCertificate(alias);
+        if (privateKey == null || certificate == null) {
+            return null;
+        }
+        return new KeyPair(certificate.getPublicKey(), privateKey);
+    }
+
+    /** Returns the entry of the given alias from the loaded key store; entries are not cached.
+     * @param alias the key alias
+     * @return the entry, or null if the alias does not exist
+     */
+    public synchronized KeyStore.Entry getEntry(String alias) throws GeneralSecurityException {
+        if (!containsAlias(alias)) {
+            return null;
+        }
+        return getKeyStore().getEntry(alias, null);
+    }
+
+    /** Deletes the entry of the given alias and drops it from the cache.
+     * @param alias the key alias
+     */
+    public synchronized void deleteEntry(String alias) throws KeyStoreException {
+        try {
+            getKeyStore().deleteEntry(alias);
+        } finally {
+            invalidate(alias);
+        }
+    }
+
+    /** Drops the cached data of the given alias and the alias list, e.g. after a key was generated.
+     * @param alias the key alias
+     */
+    public synchronized void invalidate(String alias) {
+        entries.remove(alias);
+        aliases = null;
+    }
+
+    /** Drops all cached data; the key store is loaded again on the next access. */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        aliases = null;
+        keyStore = null;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /** @return how often the key store was loaded */
+    public synchronized long getLoadCount() {
+        return loads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("KeyStoreGateway{entries=%d, hits=%d, misses=%d, loads=%d}",
+                entries.size(), hits, misses, loads);
+    }
+
+    private CachedEntry getCachedEntry(String alias) throws KeyStoreException {
+        CachedEntry entry = entries.get(alias);
+        if (entry != null) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        if (!containsAlias(alias)) {
+            return null;
+        }
+        KeyStore store = getKeyStore();
+        entry = new CachedEntry(store.getCertificate(alias), store.getCertificateChain(alias));
+        entries.put(alias, entry);
+        return entry;
+    }
+
+    /** Certificate, chain and lazily loaded private key of one alias. */
+    private static final class CachedEntry {
+        final Certificate certificate;
+        final Certificate[] chain;
+        PrivateKey privateKey;
+        boolean keyLoaded;
+
+        CachedEntry(Certificate certificate, Certificate[] chain) {
+            this.certificate = certificate;
+            this.chain = chain;
+        }
+    }
+}
@@ -45,11 +45,23 @@ public class PKCS7Builder {
      * @return
      */
     public static byte[] generatePkcs7(byte[] dataToSign, byte[] signature, String signatureAlgorithm){
+        return generatePkcs7(dataToSign, signature, signatureAlgorithm, HpcUtility.getCertChain(Constants.KEY_NAME));
+    }
+
+    /**
+     * Generates a PKCS7 signature including the given certificate chain
+     * @param dataToSign
+     * @param signature
+     * @param signatureAlgorithm
+     * @param certChain certificate chain, the first certificate being the signer's
+     * @return
+     */
+    public static byte[] generatePkcs7(byte[] dataToSign, byte[] signature, String signatureAlgorithm, Certificate[] certChain){
 
         try {
             final CMSSignedDataGenerator cmsSignedDataGenerator = new CMSSignedDataGenerator();
             CMSTypedData msg = new CMSProcessableByteArray(dataToSign);
-            List<Certificate> certList = Arrays.asList(HpcUtility.getCertChain(Constants.KEY_NAME));
+            List<Certificate> certList = Arrays.asList(certChain);
             Store certs = new JcaCertStore(certList);
             cmsSignedDataGenerator.addCertificates(certs);
 
@@ -58,8 +70,7 @@ public class PKCS7Builder {
             ContentSignerWrapper signer = new ContentSignerWrapper(signatureAlgorithm, signature);
             JcaSignerInfoGeneratorBuilder jcaSignerInfoGeneratorBuilder = new JcaSignerInfoGeneratorBuilder(digestCalculatorProvider);
             jcaSignerInfoGeneratorBuilder.setDirectSignature(true);
-            Certificate cert = HpcUtility.getCert(Constants.KEY_NAME);
-            X509Certificate x509Certificate = (X509Certificate) cert;
+            X509Certificate x509Certificate = (X509Certificate) certChain[0];
             SignerInfoGenerator signerInfoGenerator = jcaSignerInfoGeneratorBuilder.build(signer, x509Certificate);
 
             cmsSignedDataGenerator.addSignerInfoGenerator(signerInfoGenerator);
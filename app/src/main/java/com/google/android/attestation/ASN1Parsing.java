@@ -32,14 +32,41 @@ class ASN1Parsing {
     }
   }
 
+  /**
+   * Returns the value of an INTEGER or ENUMERATED that fits in an int. {@link
+   * LazyAttestationRecord} and the exception-free reader decode these straight from the DER.
+   *
+   * @throws IllegalArgumentException if the value is not an INTEGER or ENUMERATED or does not fit
+   *     in an int
+   */
   static int getIntegerFromAsn1(ASN1Encodable asn1Value) {
-    if (asn1Value instanceof ASN1Integer) {
-      return ((ASN1Integer) asn1Value).getValue().intValueExact();
-    } else if (asn1Value instanceof ASN1Enumerated) {
-      return ((ASN1Enumerated) asn1Value).getValue().intValueExact();
-    } else {
+    try {
+      if (asn1Value instanceof ASN1Integer) {
+        return ((ASN1Integer) asn1Value).intValueExact();
+      } else if (asn1Value instanceof ASN1Enumerated) {
+        return ((ASN1Enumerated) asn1Value).intValueExact();
+      }
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Integer value does not fit in an int.", e);
+    }
+    throw new IllegalArgumentException(
+        "Integer value expected; found " + asn1Value.getClass().getName() + " instead.");
+  }
+
+  /**
+   * Returns the value of an INTEGER that fits in a long.
+   *
+   * @throws IllegalArgumentException if the value is not an INTEGER or does not fit in a long
+   */
+  static long getLongFromAsn1(ASN1Encodable asn1Value) {
+    if (!(asn1Value instanceof ASN1Integer)) {
       throw new IllegalArgumentException(
           "Integer value expected; found " + asn1Value.getClass().getName() + " instead.");
     }
+    try {
+      return ((ASN1Integer) asn1Value).longValueExact();
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Integer value does not fit in a long.", e);
+    }
   }
 }
@@ -41,6 +41,7 @@ import org.bouncycastle.asn1.DEROctetString;
 public class AttestationApplicationId implements Comparable<AttestationApplicationId> {
   public final List<AttestationPackageInfo> packageInfos;
   public final List<byte[]> signatureDigests;
+  private int hash;
 
   private AttestationApplicationId(DEROctetString attestationApplicationId) throws IOException {
     ASN1Sequence attestationApplicationIdSequence =
@@ -114,9 +115,17 @@ public class AttestationApplicationId implements Comparable<AttestationApplicati
         && (compareTo((AttestationApplicationId) o) == 0);
   }
 
+  /** Computed on first use and cached, the ID being treated as immutable. */
   @Override
   public int hashCode() {
-    return Objects.hash(packageInfos, Arrays.deepHashCode(signatureDigests.toArray()));
+    int h = hash;
+    if (h == 0) {
+      h = Objects.hash(packageInfos, Arrays.deepHashCode(signatureDigests.toArray()));
+      // Zero marks the hash as not computed yet.
+      h = h == 0 ? 1 : h;
+      hash = h;
+    }
+    return h;
   }
 
   /** Provides package's name and version number. */
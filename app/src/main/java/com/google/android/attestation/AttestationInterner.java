@@ -0,0 +1,165 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import com.google.android.attestation.AttestationApplicationId.AttestationPackageInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shares structurally equal parts of parsed attestation records. Across a fleet of devices most
+ * authorization lists, application IDs and roots of trust repeat, so a long-lived store that
+ * passes every record through {@link #intern(ParsedAttestationRecord)} keeps one instance of each.
+ *
+ * <p>Canonical instances are held weakly and disappear once no stored record uses them. Interning
+ * is thread-safe. A value seen for the first time is copied before it becomes canonical, so later
+ * changes by the caller do not reach other records; sets and lists are made read-only, while the
+ * shared byte arrays must not be modified.
+ */
+public final class AttestationInterner {
+
+  private final WeakInterner<AuthorizationList> authorizationLists = WeakInterner.create();
+  private final WeakInterner<RootOfTrust> rootsOfTrust = WeakInterner.create();
+  private final WeakInterner<AttestationApplicationId> applicationIds = WeakInterner.create();
+  private final WeakInterner<AttestationPackageInfo> packageInfos = WeakInterner.create();
+  private final WeakInterner<Set<?>> sets = WeakInterner.create();
+  private final WeakInterner<byte[]> byteArrays = WeakInterner.forByteArrays();
+
+  /**
+   * Returns a record equal to the given one whose authorization lists are canonical. The record
+   * itself is returned if its lists already are.
+   */
+  public ParsedAttestationRecord intern(ParsedAttestationRecord record) {
+    AuthorizationList softwareEnforced = intern(record.softwareEnforced);
+    AuthorizationList teeEnforced = intern(record.teeEnforced);
+    if (softwareEnforced == record.softwareEnforced && teeEnforced == record.teeEnforced) {
+      return record;
+    }
+    return ParsedAttestationRecord.create(
+        record.attestationVersion,
+        record.attestationSecurityLevel,
+        record.keymasterVersion,
+        record.keymasterSecurityLevel,
+        record.attestationChallenge,
+        record.uniqueId,
+        softwareEnforced,
+        teeEnforced);
+  }
+
+  /**
+   * Returns the canonical list equal to the given one. A list seen for the first time is rebuilt
+   * from canonical parts before it becomes canonical itself. Device specific attestation IDs, like
+   * serial number and IMEI, are kept as they are.
+   */
+  public AuthorizationList intern(AuthorizationList authorizationList) {
+    if (authorizationList == null) {
+      return null;
+    }
+    AuthorizationList canonical = authorizationLists.get(authorizationList);
+    if (canonical != null) {
+      return canonical;
+    }
+    AuthorizationList.Builder builder = authorizationList.toBuilder();
+    builder.purpose = set(builder.purpose);
+    builder.digest = set(builder.digest);
+    builder.padding = set(builder.padding);
+    builder.userAuthType = set(builder.userAuthType);
+    builder.applicationId = bytes(builder.applicationId);
+    builder.rootOfTrust = intern(builder.rootOfTrust);
+    builder.attestationApplicationId = intern(builder.attestationApplicationId);
+    builder.attestationApplicationIdBytes = bytes(builder.attestationApplicationIdBytes);
+    builder.attestationIdBrand = bytes(builder.attestationIdBrand);
+    builder.attestationIdDevice = bytes(builder.attestationIdDevice);
+    builder.attestationIdProduct = bytes(builder.attestationIdProduct);
+    builder.attestationIdManufacturer = bytes(builder.attestationIdManufacturer);
+    builder.attestationIdModel = bytes(builder.attestationIdModel);
+    return authorizationLists.intern(builder.build());
+  }
+
+  public RootOfTrust intern(RootOfTrust rootOfTrust) {
+    if (rootOfTrust == null) {
+      return null;
+    }
+    RootOfTrust canonical = rootsOfTrust.get(rootOfTrust);
+    if (canonical != null) {
+      return canonical;
+    }
+    return rootsOfTrust.intern(
+        new RootOfTrust(
+            bytes(rootOfTrust.verifiedBootKey),
+            rootOfTrust.deviceLocked,
+            rootOfTrust.verifiedBootState,
+            bytes(rootOfTrust.verifiedBootHash)));
+  }
+
+  public AttestationApplicationId intern(AttestationApplicationId applicationId) {
+    if (applicationId == null) {
+      return null;
+    }
+    AttestationApplicationId canonical = applicationIds.get(applicationId);
+    if (canonical != null) {
+      return canonical;
+    }
+    List<AttestationPackageInfo> canonicalPackageInfos =
+        new ArrayList<>(applicationId.packageInfos.size());
+    for (AttestationPackageInfo packageInfo : applicationId.packageInfos) {
+      canonicalPackageInfos.add(packageInfos.intern(packageInfo));
+    }
+    List<byte[]> canonicalDigests = new ArrayList<>(applicationId.signatureDigests.size());
+    for (byte[] digest : applicationId.signatureDigests) {
+      canonicalDigests.add(bytes(digest));
+    }
+    return applicationIds.intern(
+        new AttestationApplicationId(
+            Collections.unmodifiableList(canonicalPackageInfos),
+            Collections.unmodifiableList(canonicalDigests)));
+  }
+
+  /** Number of canonical instances currently held, of all kinds. */
+  public int size() {
+    return authorizationLists.size()
+        + rootsOfTrust.size()
+        + applicationIds.size()
+        + packageInfos.size()
+        + sets.size()
+        + byteArrays.size();
+  }
+
+  private byte[] bytes(byte[] value) {
+    if (value == null) {
+      return null;
+    }
+    byte[] canonical = byteArrays.get(value);
+    return canonical != null ? canonical : byteArrays.intern(value.clone());
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Set<T> set(Set<T> value) {
+    if (value == null) {
+      return null;
+    }
+    Set<?> canonical = sets.get(value);
+    if (canonical == null) {
+      canonical = sets.intern(Collections.unmodifiableSet(new HashSet<>(value)));
+    }
+    // Equal sets have equal elements, so the canonical set has the same element type.
+    return (Set<T>) canonical;
+  }
+}
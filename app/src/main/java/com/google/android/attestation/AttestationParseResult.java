@@ -0,0 +1,71 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+/**
+ * Outcome of parsing attestation data without exceptions: either the parsed record, or an error
+ * code with the path of the field where parsing stopped, e.g. {@code
+ * teeEnforced.rootOfTrust.verifiedBootState}. Failures carry no stack trace and cost no more than
+ * this object, so rejecting hostile input stays as cheap as accepting valid input.
+ */
+public final class AttestationParseResult {
+
+  /** Why parsing failed. */
+  public enum ErrorCode {
+    /** The certificate is malformed or has no attestation extension. */
+    NO_ATTESTATION_EXTENSION,
+    /** The DER encoding itself is broken, e.g. lengths overrun their container. */
+    MALFORMED_ENCODING,
+    /** A required field is missing. */
+    MISSING_FIELD,
+    /** A field has a different ASN.1 type than the schema requires. */
+    UNEXPECTED_TYPE,
+    /** A numeric or enumerated field holds a value outside its range. */
+    VALUE_OUT_OF_RANGE
+  }
+
+  /** The parsed record, or null if parsing failed. */
+  public final ParsedAttestationRecord record;
+  /** The error, or null if parsing succeeded. */
+  public final ErrorCode errorCode;
+  /** Dotted path of the offending field, or null if parsing succeeded. */
+  public final String fieldPath;
+
+  private AttestationParseResult(
+      ParsedAttestationRecord record, ErrorCode errorCode, String fieldPath) {
+    this.record = record;
+    this.errorCode = errorCode;
+    this.fieldPath = fieldPath;
+  }
+
+  static AttestationParseResult success(ParsedAttestationRecord record) {
+    return new AttestationParseResult(record, null, null);
+  }
+
+  static AttestationParseResult failure(ErrorCode errorCode, String fieldPath) {
+    return new AttestationParseResult(null, errorCode, fieldPath);
+  }
+
+  public boolean isSuccess() {
+    return record != null;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess() ? "AttestationParseResult{success}" : errorCode + " at " + fieldPath;
+  }
+}
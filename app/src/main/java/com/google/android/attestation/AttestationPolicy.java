@@ -0,0 +1,637 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_APPLICATION_ID;
+import static com.google.android.attestation.AuthorizationListLayout.KIND;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_BOOLEAN;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_INTEGER;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_INTEGER_SET;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_LONG;
+import static com.google.android.attestation.AuthorizationListLayout.ROOT_OF_TRUST;
+import static com.google.android.attestation.AuthorizationListLayout.USER_AUTH_TYPE;
+
+import com.google.android.attestation.AuthorizationList.UserAuthType;
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declarative checks on attestation records, compiled into a flat program. A policy is a JSON
+ * document with a list of rules; each rule names a record field and one condition on it:
+ *
+ * <pre>{@code
+ * {"rules": [
+ *   {"id": "patched", "field": "teeEnforced.osPatchLevel", "min": 201907},
+ *   {"id": "secure-hardware", "field": "keymasterSecurityLevel",
+ *    "oneOf": ["TRUSTED_ENVIRONMENT", "STRONG_BOX"]},
+ *   {"id": "user-authentication", "field": "teeEnforced.noAuthRequired", "present": false},
+ *   {"id": "app", "field": "softwareEnforced.attestationApplicationId.packageName",
+ *    "oneOf": ["com.example"]},
+ *   {"id": "signer", "field": "softwareEnforced.attestationApplicationId.signatureDigest",
+ *    "oneOf": ["3f2a..."]},
+ *   {"id": "verified-boot", "field": "rootOfTrust.verifiedBootState", "equals": "VERIFIED"}
+ * ]}
+ * }</pre>
+ *
+ * <p>Fields are the record members {@code attestationVersion}, {@code attestationSecurityLevel},
+ * {@code keymasterVersion} and {@code keymasterSecurityLevel}, or members of an authorization list
+ * named like the {@link AuthorizationList} fields, optionally prefixed with {@code teeEnforced.}
+ * or {@code softwareEnforced.}. Without a prefix only the TEE enforced list is read: a value the
+ * key owner could have set in software never satisfies a rule unless the rule asks for it with
+ * {@code softwareEnforced.}. Root of trust and attestation application id members are reached as
+ * {@code rootOfTrust.verifiedBootState}, {@code rootOfTrust.deviceLocked}, {@code
+ * attestationApplicationId.packageName} and {@code attestationApplicationId.signatureDigest};
+ * Keymaster puts the application id in the software enforced list.
+ *
+ * <p>The conditions are {@code equals}, {@code oneOf}, {@code min} and {@code max} (which may be
+ * combined), {@code present} and, for the set valued fields, {@code contains}. Numeric conditions
+ * fail when the field is absent. Times are compared in epoch milliseconds and {@code authTimeout}
+ * in seconds. Package names pass if every package of the application id is allowed, signature
+ * digests (hex) if the id has digests and every one of them is allowed, and both fail for an id
+ * without packages or digests.
+ *
+ * <p>Compiling resolves every rule to an opcode, a field and prepared operands in parallel
+ * arrays. Evaluation walks these arrays and reads the record fields in place, so a compiled policy
+ * can be applied to any number of records, from any number of threads, without allocating.
+ */
+public final class AttestationPolicy {
+
+  // Opcodes.
+  private static final int OP_RANGE = 0;
+  private static final int OP_ONE_OF = 1;
+  private static final int OP_PRESENT = 2;
+  private static final int OP_ABSENT = 3;
+  private static final int OP_CONTAINS = 4;
+  private static final int OP_PACKAGES = 5;
+  private static final int OP_DIGESTS = 6;
+
+  // Scopes of authorization list fields.
+  private static final int SCOPE_RECORD = 0;
+  private static final int SCOPE_SOFTWARE = 1;
+  private static final int SCOPE_TEE = 2;
+
+  // Sources beyond the authorization list fields, whose sources are their layout field.
+  private static final int ATTESTATION_VERSION = 64;
+  private static final int ATTESTATION_SECURITY_LEVEL = 65;
+  private static final int KEYMASTER_VERSION = 66;
+  private static final int KEYMASTER_SECURITY_LEVEL = 67;
+  private static final int VERIFIED_BOOT_STATE = 68;
+  private static final int DEVICE_LOCKED = 69;
+  private static final int PACKAGE_NAME = 70;
+  private static final int SIGNATURE_DIGEST = 71;
+
+  private static final Map<String, Integer> SOURCES = new HashMap<>();
+
+  static {
+    SOURCES.put("attestationVersion", ATTESTATION_VERSION);
+    SOURCES.put("attestationSecurityLevel", ATTESTATION_SECURITY_LEVEL);
+    SOURCES.put("keymasterVersion", KEYMASTER_VERSION);
+    SOURCES.put("keymasterSecurityLevel", KEYMASTER_SECURITY_LEVEL);
+    SOURCES.put("rootOfTrust.verifiedBootState", VERIFIED_BOOT_STATE);
+    SOURCES.put("rootOfTrust.deviceLocked", DEVICE_LOCKED);
+    SOURCES.put("attestationApplicationId.packageName", PACKAGE_NAME);
+    SOURCES.put("attestationApplicationId.signatureDigest", SIGNATURE_DIGEST);
+  }
+
+  /** Value of numeric sources that are absent from the record. */
+  private static final long ABSENT = Long.MIN_VALUE;
+
+  private final String[] ruleIds;
+  private final int[] opcodes;
+  private final int[] scopes;
+  private final int[] sources;
+  private final long[] minimums;
+  private final long[] maximums;
+  // Per opcode: sorted long[] for OP_ONE_OF, Object[] of set members for OP_CONTAINS,
+  // Set<String> for OP_PACKAGES and byte[][] for OP_DIGESTS.
+  private final Object[] operands;
+
+  private AttestationPolicy(List<Rule> rules) {
+    int size = rules.size();
+    ruleIds = new String[size];
+    opcodes = new int[size];
+    scopes = new int[size];
+    sources = new int[size];
+    minimums = new long[size];
+    maximums = new long[size];
+    operands = new Object[size];
+    for (int i = 0; i < size; i++) {
+      Rule rule = rules.get(i);
+      ruleIds[i] = rule.id;
+      opcodes[i] = rule.opcode;
+      scopes[i] = rule.scope;
+      sources[i] = rule.source;
+      minimums[i] = rule.minimum;
+      maximums[i] = rule.maximum;
+      operands[i] = rule.operand;
+    }
+  }
+
+  public static AttestationPolicy compile(String policy) {
+    return compile(new StringReader(policy));
+  }
+
+  /**
+   * Compiles a policy document.
+   *
+   * @throws IllegalArgumentException if the document is malformed, or a rule names an unknown
+   *     field or a condition the field does not support
+   */
+  public static AttestationPolicy compile(Reader policy) {
+    JsonArray rules;
+    try {
+      rules = JsonParser.parseReader(policy).getAsJsonObject().getAsJsonArray("rules");
+    } catch (JsonParseException | IllegalStateException | ClassCastException e) {
+      throw new IllegalArgumentException("Malformed attestation policy.", e);
+    }
+    if (rules == null) {
+      throw new IllegalArgumentException("Attestation policy has no rules.");
+    }
+    List<Rule> compiled = new ArrayList<>(rules.size());
+    Set<String> ids = new HashSet<>();
+    for (int i = 0; i < rules.size(); i++) {
+      JsonElement element = rules.get(i);
+      if (!element.isJsonObject()) {
+        throw new IllegalArgumentException(
+            "Malformed attestation policy: rule " + i + " is not an object.");
+      }
+      Rule rule = Rule.compile(element.getAsJsonObject());
+      if (!ids.add(rule.id)) {
+        throw new IllegalArgumentException("Duplicate attestation policy rule " + rule.id + ".");
+      }
+      compiled.add(rule);
+    }
+    return new AttestationPolicy(compiled);
+  }
+
+  /** Number of rules; rules are numbered in the order of the policy document. */
+  public int size() {
+    return ruleIds.length;
+  }
+
+  public String getRuleId(int rule) {
+    return ruleIds[rule];
+  }
+
+  /** Returns the number of the rule with the given id, or -1 if there is none. */
+  public int indexOf(String ruleId) {
+    for (int rule = 0; rule < ruleIds.length; rule++) {
+      if (ruleIds[rule].equals(ruleId)) {
+        return rule;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns whether the record passes every rule. */
+  public boolean accepts(ParsedAttestationRecord record) {
+    for (int rule = 0; rule < opcodes.length; rule++) {
+      if (!test(record, rule)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Evaluates every rule and writes the numbers of the failing ones to the array, which must have
+   * room for {@link #size()} entries. Nothing is allocated.
+   *
+   * @return the number of failing rules
+   */
+  public int evaluate(ParsedAttestationRecord record, int[] failedRules) {
+    int failed = 0;
+    for (int rule = 0; rule < opcodes.length; rule++) {
+      if (!test(record, rule)) {
+        failedRules[failed++] = rule;
+      }
+    }
+    return failed;
+  }
+
+  /** Returns the ids of the rules the record fails, in policy order. */
+  public List<String> getFailedRuleIds(ParsedAttestationRecord record) {
+    int[] failedRules = new int[opcodes.length];
+    int failed = evaluate(record, failedRules);
+    if (failed == 0) {
+      return Collections.emptyList();
+    }
+    List<String> ids = new ArrayList<>(failed);
+    for (int i = 0; i < failed; i++) {
+      ids.add(ruleIds[failedRules[i]]);
+    }
+    return ids;
+  }
+
+  /** Evaluates a single rule. */
+  public boolean test(ParsedAttestationRecord record, int rule) {
+    int scope = scopes[rule];
+    int source = sources[rule];
+    switch (opcodes[rule]) {
+      case OP_RANGE:
+        long value = number(record, scope, source);
+        return value != ABSENT && value >= minimums[rule] && value <= maximums[rule];
+      case OP_ONE_OF:
+        value = number(record, scope, source);
+        return value != ABSENT && Arrays.binarySearch((long[]) operands[rule], value) >= 0;
+      case OP_PRESENT:
+        return member(record, scope, source) != null;
+      case OP_ABSENT:
+        return member(record, scope, source) == null;
+      case OP_CONTAINS:
+        Set<?> set = (Set<?>) member(record, scope, source);
+        if (set == null) {
+          return false;
+        }
+        for (Object required : (Object[]) operands[rule]) {
+          if (!set.contains(required)) {
+            return false;
+          }
+        }
+        return true;
+      case OP_PACKAGES:
+        AttestationApplicationId applicationId =
+            (AttestationApplicationId) member(record, scope, ATTESTATION_APPLICATION_ID);
+        if (applicationId == null || applicationId.packageInfos.isEmpty()) {
+          return false;
+        }
+        Set<?> allowedPackages = (Set<?>) operands[rule];
+        for (int i = 0; i < applicationId.packageInfos.size(); i++) {
+          if (!allowedPackages.contains(applicationId.packageInfos.get(i).packageName)) {
+            return false;
+          }
+        }
+        return true;
+      case OP_DIGESTS:
+        applicationId =
+            (AttestationApplicationId) member(record, scope, ATTESTATION_APPLICATION_ID);
+        if (applicationId == null || applicationId.signatureDigests.isEmpty()) {
+          return false;
+        }
+        for (int i = 0; i < applicationId.signatureDigests.size(); i++) {
+          if (!containsDigest((byte[][]) operands[rule], applicationId.signatureDigests.get(i))) {
+            return false;
+          }
+        }
+        return true;
+      default:
+        throw new AssertionError(opcodes[rule]);
+    }
+  }
+
+  private static boolean containsDigest(byte[][] allowed, byte[] digest) {
+    for (byte[] candidate : allowed) {
+      if (Arrays.equals(candidate, digest)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Reads a numeric source; enums are read as their ordinal and booleans as 0 or 1. */
+  private static long number(ParsedAttestationRecord record, int scope, int source) {
+    switch (source) {
+      case ATTESTATION_VERSION:
+        return record.attestationVersion;
+      case ATTESTATION_SECURITY_LEVEL:
+        return record.attestationSecurityLevel.ordinal();
+      case KEYMASTER_VERSION:
+        return record.keymasterVersion;
+      case KEYMASTER_SECURITY_LEVEL:
+        return record.keymasterSecurityLevel.ordinal();
+      case VERIFIED_BOOT_STATE:
+        RootOfTrust rootOfTrust = (RootOfTrust) member(record, scope, ROOT_OF_TRUST);
+        return rootOfTrust == null ? ABSENT : rootOfTrust.verifiedBootState.ordinal();
+      case DEVICE_LOCKED:
+        rootOfTrust = (RootOfTrust) member(record, scope, ROOT_OF_TRUST);
+        return rootOfTrust == null ? ABSENT : rootOfTrust.deviceLocked ? 1 : 0;
+      default:
+        Object value = member(record, scope, source);
+        if (value == null) {
+          return ABSENT;
+        } else if (value instanceof Instant) {
+          return ((Instant) value).toEpochMilli();
+        } else if (value instanceof Duration) {
+          return ((Duration) value).getSeconds();
+        }
+        return ((Number) value).longValue();
+    }
+  }
+
+  /** Reads an authorization list member in the given scope; null if absent. */
+  private static Object member(ParsedAttestationRecord record, int scope, int field) {
+    AuthorizationList list = scope == SCOPE_TEE ? record.teeEnforced : record.softwareEnforced;
+    return list == null ? null : member(list, field);
+  }
+
+  /** Returns the value of a field, Boolean.TRUE for set booleans, or null if it is absent. */
+  private static Object member(AuthorizationList list, int field) {
+    switch (field) {
+      case AuthorizationListLayout.PURPOSE:
+        return list.purpose.orElse(null);
+      case AuthorizationListLayout.ALGORITHM:
+        return list.algorithm.orElse(null);
+      case AuthorizationListLayout.KEY_SIZE:
+        return list.keySize.orElse(null);
+      case AuthorizationListLayout.DIGEST:
+        return list.digest.orElse(null);
+      case AuthorizationListLayout.PADDING:
+        return list.padding.orElse(null);
+      case AuthorizationListLayout.EC_CURVE:
+        return list.ecCurve.orElse(null);
+      case AuthorizationListLayout.RSA_PUBLIC_EXPONENT:
+        return list.rsaPublicExponent.orElse(null);
+      case AuthorizationListLayout.ROLLBACK_RESISTANCE:
+        return flag(list.rollbackResistance);
+      case AuthorizationListLayout.ACTIVE_DATE_TIME:
+        return list.activeDateTime.orElse(null);
+      case AuthorizationListLayout.ORIGINATION_EXPIRE_DATE_TIME:
+        return list.originationExpireDateTime.orElse(null);
+      case AuthorizationListLayout.USAGE_EXPIRE_DATE_TIME:
+        return list.usageExpireDateTime.orElse(null);
+      case AuthorizationListLayout.NO_AUTH_REQUIRED:
+        return flag(list.noAuthRequired);
+      case AuthorizationListLayout.USER_AUTH_TYPE:
+        return list.userAuthType.orElse(null);
+      case AuthorizationListLayout.AUTH_TIMEOUT:
+        return list.authTimeout.orElse(null);
+      case AuthorizationListLayout.ALLOW_WHILE_ON_BODY:
+        return flag(list.allowWhileOnBody);
+      case AuthorizationListLayout.TRUSTED_USER_PRESENCE_REQUIRED:
+        return flag(list.trustedUserPresenceRequired);
+      case AuthorizationListLayout.TRUSTED_CONFIRMATION_REQUIRED:
+        return flag(list.trustedConfirmationRequired);
+      case AuthorizationListLayout.UNLOCKED_DEVICE_REQUIRED:
+        return flag(list.unlockedDeviceRequired);
+      case AuthorizationListLayout.ALL_APPLICATIONS:
+        return flag(list.allApplications);
+      case AuthorizationListLayout.APPLICATION_ID:
+        return list.applicationId.orElse(null);
+      case AuthorizationListLayout.CREATION_DATE_TIME:
+        return list.creationDateTime.orElse(null);
+      case AuthorizationListLayout.ORIGIN:
+        return list.origin.orElse(null);
+      case AuthorizationListLayout.ROLLBACK_RESISTANT:
+        return flag(list.rollbackResistant);
+      case AuthorizationListLayout.ROOT_OF_TRUST:
+        return list.rootOfTrust.orElse(null);
+      case AuthorizationListLayout.OS_VERSION:
+        return list.osVersion.orElse(null);
+      case AuthorizationListLayout.OS_PATCH_LEVEL:
+        return list.osPatchLevel.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_APPLICATION_ID:
+        return list.attestationApplicationId.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_BRAND:
+        return list.attestationIdBrand.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_DEVICE:
+        return list.attestationIdDevice.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_PRODUCT:
+        return list.attestationIdProduct.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_SERIAL:
+        return list.attestationIdSerial.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_IMEI:
+        return list.attestationIdImei.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_MEID:
+        return list.attestationIdMeid.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_MANUFACTURER:
+        return list.attestationIdManufacturer.orElse(null);
+      case AuthorizationListLayout.ATTESTATION_ID_MODEL:
+        return list.attestationIdModel.orElse(null);
+      case AuthorizationListLayout.VENDOR_PATCH_LEVEL:
+        return list.vendorPatchLevel.orElse(null);
+      case AuthorizationListLayout.BOOT_PATCH_LEVEL:
+        return list.bootPatchLevel.orElse(null);
+      case AuthorizationListLayout.DEVICE_UNIQUE_ATTESTATION:
+        return flag(list.individualAttestation);
+      default:
+        return null;
+    }
+  }
+
+  private static Object flag(boolean value) {
+    return value ? Boolean.TRUE : null;
+  }
+
+  /** One compiled rule, before it is spread over the program arrays. */
+  private static final class Rule {
+    String id;
+    int opcode;
+    int scope = SCOPE_TEE;
+    int source;
+    long minimum = Long.MIN_VALUE + 1;
+    long maximum = Long.MAX_VALUE;
+    Object operand;
+
+    static Rule compile(JsonObject json) {
+      Rule rule = new Rule();
+      rule.id = string(json, "id", "rule");
+      String field = string(json, "field", rule.id);
+      try {
+        rule.resolve(field);
+        rule.condition(json);
+      } catch (IllegalStateException | ClassCastException | NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed value in rule " + rule.id + ".", e);
+      }
+      return rule;
+    }
+
+    private static String string(JsonObject json, String member, String rule) {
+      JsonElement value = json.get(member);
+      if (value == null || !value.isJsonPrimitive()) {
+        throw new IllegalArgumentException("Missing " + member + " in " + rule + ".");
+      }
+      return value.getAsString();
+    }
+
+    private void resolve(String field) {
+      String name = field;
+      boolean prefixed = true;
+      if (name.startsWith("teeEnforced.")) {
+        name = name.substring("teeEnforced.".length());
+      } else if (name.startsWith("softwareEnforced.")) {
+        scope = SCOPE_SOFTWARE;
+        name = name.substring("softwareEnforced.".length());
+      } else {
+        prefixed = false;
+      }
+      Integer special = SOURCES.get(name);
+      if (special != null) {
+        source = special;
+        if (source < VERIFIED_BOOT_STATE) {
+          if (prefixed) {
+            throw unsupported(field);
+          }
+          scope = SCOPE_RECORD;
+        }
+        return;
+      }
+      source = AuthorizationListLayout.fieldForName(name);
+      if (source < 0) {
+        throw new IllegalArgumentException("Unknown field " + field + " in rule " + id + ".");
+      }
+    }
+
+    private void condition(JsonObject json) {
+      if (json.has("present")) {
+        if (source >= ATTESTATION_VERSION) {
+          throw unsupported("present");
+        }
+        opcode = json.get("present").getAsBoolean() ? OP_PRESENT : OP_ABSENT;
+      } else if (json.has("contains")) {
+        if (source >= ATTESTATION_VERSION
+            || (KIND[source] != KIND_INTEGER_SET && source != USER_AUTH_TYPE)) {
+          throw unsupported("contains");
+        }
+        JsonArray values = json.getAsJsonArray("contains");
+        Object[] members = new Object[values.size()];
+        for (int i = 0; i < members.length; i++) {
+          members[i] =
+              source == USER_AUTH_TYPE
+                  ? UserAuthType.valueOf(values.get(i).getAsString())
+                  : (Object) values.get(i).getAsInt();
+        }
+        opcode = OP_CONTAINS;
+        operand = members;
+      } else if (source == PACKAGE_NAME || source == SIGNATURE_DIGEST) {
+        List<JsonElement> values = values(json);
+        if (source == PACKAGE_NAME) {
+          Set<String> packages = new HashSet<>();
+          for (JsonElement value : values) {
+            packages.add(value.getAsString());
+          }
+          opcode = OP_PACKAGES;
+          operand = packages;
+        } else {
+          byte[][] digests = new byte[values.size()][];
+          for (int i = 0; i < digests.length; i++) {
+            digests[i] = hex(values.get(i).getAsString());
+          }
+          opcode = OP_DIGESTS;
+          operand = digests;
+        }
+      } else if (json.has("min") || json.has("max")) {
+        if (!isNumeric()) {
+          throw unsupported("min/max");
+        }
+        opcode = OP_RANGE;
+        if (json.has("min")) {
+          minimum = json.get("min").getAsLong();
+        }
+        if (json.has("max")) {
+          maximum = json.get("max").getAsLong();
+        }
+      } else {
+        List<JsonElement> values = values(json);
+        if (source < ATTESTATION_VERSION && KIND[source] == KIND_BOOLEAN) {
+          // Booleans are present when true, so equality is a presence test.
+          if (values.size() != 1) {
+            throw unsupported("oneOf");
+          }
+          opcode = values.get(0).getAsBoolean() ? OP_PRESENT : OP_ABSENT;
+          return;
+        }
+        long[] allowed = new long[values.size()];
+        for (int i = 0; i < allowed.length; i++) {
+          allowed[i] = value(values.get(i));
+        }
+        Arrays.sort(allowed);
+        opcode = OP_ONE_OF;
+        operand = allowed;
+      }
+    }
+
+    /** The values of an equals or oneOf condition. */
+    private List<JsonElement> values(JsonObject json) {
+      if (json.has("equals")) {
+        return Collections.singletonList(json.get("equals"));
+      } else if (json.has("oneOf")) {
+        List<JsonElement> values = new ArrayList<>();
+        json.getAsJsonArray("oneOf").forEach(values::add);
+        return values;
+      }
+      throw new IllegalArgumentException("Rule " + id + " has no condition.");
+    }
+
+    private boolean isNumeric() {
+      switch (source) {
+        case ATTESTATION_VERSION:
+        case KEYMASTER_VERSION:
+          return true;
+        case ATTESTATION_SECURITY_LEVEL:
+        case KEYMASTER_SECURITY_LEVEL:
+        case VERIFIED_BOOT_STATE:
+        case DEVICE_LOCKED:
+        case PACKAGE_NAME:
+        case SIGNATURE_DIGEST:
+          return false;
+        default:
+          return (KIND[source] == KIND_INTEGER || KIND[source] == KIND_LONG)
+              && source != USER_AUTH_TYPE;
+      }
+    }
+
+    /** Converts an equals or oneOf operand to the number the source is read as. */
+    private long value(JsonElement value) {
+      switch (source) {
+        case ATTESTATION_SECURITY_LEVEL:
+        case KEYMASTER_SECURITY_LEVEL:
+          return SecurityLevel.valueOf(value.getAsString()).ordinal();
+        case VERIFIED_BOOT_STATE:
+          return VerifiedBootState.valueOf(value.getAsString()).ordinal();
+        case DEVICE_LOCKED:
+          return value.getAsBoolean() ? 1 : 0;
+        default:
+          if (!isNumeric()) {
+            throw unsupported("equals/oneOf");
+          }
+          return value.getAsLong();
+      }
+    }
+
+    private IllegalArgumentException unsupported(String what) {
+      return new IllegalArgumentException("Unsupported " + what + " in rule " + id + ".");
+    }
+
+    private static byte[] hex(String hex) {
+      if (hex.length() % 2 != 0) {
+        throw new NumberFormatException("Odd length hex digest " + hex);
+      }
+      byte[] bytes = new byte[hex.length() / 2];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+      }
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,385 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.AuthorizationListLayout.FIELD_COUNT;
+import static com.google.android.attestation.AuthorizationListLayout.KIND;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_BOOLEAN;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_BYTES;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_INTEGER;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_INTEGER_SET;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_LONG;
+import static com.google.android.attestation.AuthorizationListLayout.KIND_ROOT_OF_TRUST;
+import static com.google.android.attestation.AuthorizationListLayout.bit;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.android.attestation.AttestationApplicationId.AttestationPackageInfo;
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact binary form of a {@link ParsedAttestationRecord} for storing and exchanging records that
+ * were already parsed, e.g. in caches or audit logs. Decoding reads fixed width values in a single
+ * pass and creates only the objects of the resulting record, which makes it far cheaper than
+ * parsing the ASN.1 key description again.
+ *
+ * <p>The encoding starts with a fixed header: the magic {@code "ATRC"}, a format version byte and
+ * a flags byte telling which authorization lists follow. The record scalars come next, then each
+ * authorization list as a 64 bit presence bitmap over the fields of {@link
+ * AuthorizationListLayout} followed by the values of the present fields in field order. Integers
+ * take four bytes and longs eight, integer sets and byte strings are length prefixed and booleans
+ * are carried by their presence bit alone. Security levels and verified boot states take one byte
+ * holding their ASN.1 ENUMERATED value, never the Java ordinal, so reordering the enums cannot
+ * change the format. The parsed attestation application id is stored structurally at the end of
+ * its list, so decoding never touches ASN.1. All values are big endian.
+ *
+ * <p>Version 1 is tied to the field order of the layout. Fields added to the layout must be
+ * appended and come with a new version; decoders reject versions they do not know.
+ */
+public final class AttestationRecordCodec {
+
+  /** Format version written by {@link #encode}. */
+  public static final int VERSION = 1;
+
+  private static final int MAGIC = 0x41545243; // "ATRC"
+  private static final int HEADER_LENGTH = 6;
+  private static final int FLAG_SOFTWARE_ENFORCED = 1;
+  private static final int FLAG_TEE_ENFORCED = 1 << 1;
+  private static final int NO_VALUE = -1;
+  private static final long KNOWN_FIELDS = FIELD_COUNT == 64 ? -1L : (1L << FIELD_COUNT) - 1;
+
+  private AttestationRecordCodec() {}
+
+  public static int encodedLength(ParsedAttestationRecord record) {
+    return record(record, compact(record.softwareEnforced), compact(record.teeEnforced), null);
+  }
+
+  public static byte[] encode(ParsedAttestationRecord record) {
+    CompactAuthorizationList softwareEnforced = compact(record.softwareEnforced);
+    CompactAuthorizationList teeEnforced = compact(record.teeEnforced);
+    byte[] encoded = new byte[record(record, softwareEnforced, teeEnforced, null)];
+    record(record, softwareEnforced, teeEnforced, ByteBuffer.wrap(encoded));
+    return encoded;
+  }
+
+  /**
+   * Writes the encoded record at the buffer's position, which is advanced past it.
+   *
+   * @throws java.nio.BufferOverflowException if fewer than {@link
+   *     #encodedLength(ParsedAttestationRecord)} bytes remain
+   */
+  public static void encode(ParsedAttestationRecord record, ByteBuffer out) {
+    // The slice is big endian whatever the order of the caller's buffer.
+    ByteBuffer slice = out.slice();
+    record(record, compact(record.softwareEnforced), compact(record.teeEnforced), slice);
+    out.position(out.position() + slice.position());
+  }
+
+  public static ParsedAttestationRecord decode(byte[] encoded) throws IOException {
+    return decode(ByteBuffer.wrap(encoded));
+  }
+
+  /**
+   * Decodes one record starting at the buffer's position and advances the position past it, so
+   * records written back to back can be read in sequence.
+   *
+   * @throws IOException if the bytes are not a record of a known version
+   */
+  public static ParsedAttestationRecord decode(ByteBuffer encoded) throws IOException {
+    ByteBuffer in = encoded.slice();
+    ParsedAttestationRecord record;
+    try {
+      record = readRecord(in);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Malformed attestation record encoding.", e);
+    }
+    encoded.position(encoded.position() + in.position());
+    return record;
+  }
+
+  private static CompactAuthorizationList compact(AuthorizationList list) {
+    return list == null ? null : CompactAuthorizationList.of(list);
+  }
+
+  // Like DerEncoder, the writers below only measure when the buffer is null.
+
+  private static int record(
+      ParsedAttestationRecord record,
+      CompactAuthorizationList softwareEnforced,
+      CompactAuthorizationList teeEnforced,
+      ByteBuffer out) {
+    int flags =
+        (softwareEnforced != null ? FLAG_SOFTWARE_ENFORCED : 0)
+            | (teeEnforced != null ? FLAG_TEE_ENFORCED : 0);
+    if (out != null) {
+      out.putInt(MAGIC)
+          .put((byte) VERSION)
+          .put((byte) flags)
+          .putInt(record.attestationVersion)
+          .put((byte) ParsedAttestationRecord.securityLevelToInt(record.attestationSecurityLevel))
+          .putInt(record.keymasterVersion)
+          .put((byte) ParsedAttestationRecord.securityLevelToInt(record.keymasterSecurityLevel));
+    }
+    int length = HEADER_LENGTH + 10;
+    length += bytes(record.attestationChallenge, out);
+    length += bytes(record.uniqueId, out);
+    if (softwareEnforced != null) {
+      length += authorizationList(softwareEnforced, record.softwareEnforced, out);
+    }
+    if (teeEnforced != null) {
+      length += authorizationList(teeEnforced, record.teeEnforced, out);
+    }
+    return length;
+  }
+
+  private static int authorizationList(
+      CompactAuthorizationList compact, AuthorizationList list, ByteBuffer out) {
+    long presence = compact.presence();
+    if (out != null) {
+      out.putLong(presence);
+    }
+    int length = 8;
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      if ((presence & bit(field)) == 0) {
+        continue;
+      }
+      switch (KIND[field]) {
+        case KIND_INTEGER:
+          if (out != null) {
+            out.putInt((int) compact.numberValue(field));
+          }
+          length += 4;
+          break;
+        case KIND_LONG:
+          if (out != null) {
+            out.putLong(compact.numberValue(field));
+          }
+          length += 8;
+          break;
+        case KIND_INTEGER_SET:
+          int[] values = compact.integerSetValue(field);
+          if (out != null) {
+            out.putInt(values.length);
+            for (int value : values) {
+              out.putInt(value);
+            }
+          }
+          length += 4 + 4 * values.length;
+          break;
+        case KIND_BYTES:
+          length += bytes(compact.bytesValue(field), out);
+          break;
+        case KIND_ROOT_OF_TRUST:
+          length += rootOfTrust(compact.rootOfTrust().get(), out);
+          break;
+        case KIND_BOOLEAN:
+        default:
+          break;
+      }
+    }
+    return length + attestationApplicationId(list.attestationApplicationId.orElse(null), out);
+  }
+
+  private static int rootOfTrust(RootOfTrust rootOfTrust, ByteBuffer out) {
+    if (out != null) {
+      out.put((byte) (rootOfTrust.deviceLocked ? 1 : 0))
+          .put((byte) RootOfTrust.verifiedBootStateToInt(rootOfTrust.verifiedBootState));
+    }
+    return 2 + bytes(rootOfTrust.verifiedBootKey, out) + bytes(rootOfTrust.verifiedBootHash, out);
+  }
+
+  private static int attestationApplicationId(
+      AttestationApplicationId applicationId, ByteBuffer out) {
+    if (applicationId == null) {
+      if (out != null) {
+        out.putInt(NO_VALUE);
+      }
+      return 4;
+    }
+    if (out != null) {
+      out.putInt(applicationId.packageInfos.size());
+    }
+    int length = 4;
+    for (AttestationPackageInfo packageInfo : applicationId.packageInfos) {
+      length += bytes(packageInfo.packageName.getBytes(UTF_8), out) + 8;
+      if (out != null) {
+        out.putLong(packageInfo.version);
+      }
+    }
+    if (out != null) {
+      out.putInt(applicationId.signatureDigests.size());
+    }
+    length += 4;
+    for (byte[] digest : applicationId.signatureDigests) {
+      length += bytes(digest, out);
+    }
+    return length;
+  }
+
+  /** Length prefixed byte string; null is written as length -1. */
+  private static int bytes(byte[] value, ByteBuffer out) {
+    if (out != null) {
+      if (value == null) {
+        out.putInt(NO_VALUE);
+      } else {
+        out.putInt(value.length).put(value);
+      }
+    }
+    return 4 + (value == null ? 0 : value.length);
+  }
+
+  private static ParsedAttestationRecord readRecord(ByteBuffer in) throws IOException {
+    if (in.getInt() != MAGIC) {
+      throw new IOException("Not an encoded attestation record.");
+    }
+    int version = in.get();
+    if (version != VERSION) {
+      throw new IOException("Unsupported attestation record encoding version " + version + ".");
+    }
+    int flags = in.get();
+    int attestationVersion = in.getInt();
+    SecurityLevel attestationSecurityLevel = readSecurityLevel(in);
+    int keymasterVersion = in.getInt();
+    SecurityLevel keymasterSecurityLevel = readSecurityLevel(in);
+    byte[] attestationChallenge = readBytes(in);
+    byte[] uniqueId = readBytes(in);
+    AuthorizationList softwareEnforced =
+        (flags & FLAG_SOFTWARE_ENFORCED) != 0 ? readAuthorizationList(in) : null;
+    AuthorizationList teeEnforced =
+        (flags & FLAG_TEE_ENFORCED) != 0 ? readAuthorizationList(in) : null;
+    return ParsedAttestationRecord.create(
+        attestationVersion,
+        attestationSecurityLevel,
+        keymasterVersion,
+        keymasterSecurityLevel,
+        attestationChallenge,
+        uniqueId,
+        softwareEnforced,
+        teeEnforced);
+  }
+
+  private static AuthorizationList readAuthorizationList(ByteBuffer in) throws IOException {
+    long presence = in.getLong();
+    if ((presence & ~KNOWN_FIELDS) != 0) {
+      throw new IOException("Unknown authorization list fields in encoding.");
+    }
+    AuthorizationList.Builder builder = AuthorizationList.builder();
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      if ((presence & bit(field)) == 0) {
+        continue;
+      }
+      switch (KIND[field]) {
+        case KIND_INTEGER:
+          AuthorizationList.setInteger(builder, field, in.getInt());
+          break;
+        case KIND_LONG:
+          AuthorizationList.setLong(builder, field, in.getLong());
+          break;
+        case KIND_INTEGER_SET:
+          int size = length(in, 4);
+          Set<Integer> values = new HashSet<>(size * 2);
+          for (int i = 0; i < size; i++) {
+            values.add(in.getInt());
+          }
+          AuthorizationList.setIntegerSet(builder, field, values);
+          break;
+        case KIND_BOOLEAN:
+          AuthorizationList.setBoolean(builder, field);
+          break;
+        case KIND_BYTES:
+          AuthorizationList.setBytes(builder, field, readBytes(in));
+          break;
+        case KIND_ROOT_OF_TRUST:
+          boolean deviceLocked = in.get() != 0;
+          VerifiedBootState state = readVerifiedBootState(in);
+          builder.rootOfTrust = new RootOfTrust(readBytes(in), deviceLocked, state, readBytes(in));
+          break;
+        default:
+          break;
+      }
+    }
+    builder.attestationApplicationId = readAttestationApplicationId(in);
+    return builder.build();
+  }
+
+  private static AttestationApplicationId readAttestationApplicationId(ByteBuffer in)
+      throws IOException {
+    int packageCount = in.getInt();
+    if (packageCount == NO_VALUE) {
+      return null;
+    }
+    // Every package takes at least its name length and version.
+    checkLength(packageCount, in, 12);
+    List<AttestationPackageInfo> packageInfos = new ArrayList<>(packageCount);
+    for (int i = 0; i < packageCount; i++) {
+      byte[] packageName = new byte[length(in, 1)];
+      in.get(packageName);
+      packageInfos.add(new AttestationPackageInfo(new String(packageName, UTF_8), in.getLong()));
+    }
+    int digestCount = length(in, 4);
+    List<byte[]> signatureDigests = new ArrayList<>(digestCount);
+    for (int i = 0; i < digestCount; i++) {
+      signatureDigests.add(readBytes(in));
+    }
+    return new AttestationApplicationId(packageInfos, signatureDigests);
+  }
+
+  private static byte[] readBytes(ByteBuffer in) throws IOException {
+    int length = in.getInt();
+    if (length == NO_VALUE) {
+      return null;
+    }
+    byte[] value = new byte[checkLength(length, in, 1)];
+    in.get(value);
+    return value;
+  }
+
+  /** Reads a count of elements of the given size, rejecting counts the input cannot hold. */
+  private static int length(ByteBuffer in, int elementSize) throws IOException {
+    return checkLength(in.getInt(), in, elementSize);
+  }
+
+  private static int checkLength(int length, ByteBuffer in, int elementSize) throws IOException {
+    if (length < 0 || length > in.remaining() / elementSize) {
+      throw new IOException("Malformed length in attestation record encoding.");
+    }
+    return length;
+  }
+
+  private static SecurityLevel readSecurityLevel(ByteBuffer in) throws IOException {
+    SecurityLevel securityLevel = ParsedAttestationRecord.securityLevelOrNull(in.get());
+    if (securityLevel == null) {
+      throw new IOException("Malformed security level in attestation record encoding.");
+    }
+    return securityLevel;
+  }
+
+  private static VerifiedBootState readVerifiedBootState(ByteBuffer in) throws IOException {
+    VerifiedBootState state = RootOfTrust.verifiedBootStateOrNull(in.get());
+    if (state == null) {
+      throw new IOException("Malformed verified boot state in attestation record encoding.");
+    }
+    return state;
+  }
+}
@@ -0,0 +1,456 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_APPLICATION_ID;
+import static com.google.android.attestation.AuthorizationListLayout.FIELD_COUNT;
+import static com.google.android.attestation.AuthorizationListLayout.KIND;
+import static com.google.android.attestation.AuthorizationListLayout.NAME;
+import static com.google.android.attestation.AuthorizationListLayout.USER_AUTH_TYPE;
+import static com.google.android.attestation.DerCursor.CLASS_CONTEXT;
+import static com.google.android.attestation.DerCursor.TAG_ENUMERATED;
+import static com.google.android.attestation.DerCursor.TAG_INTEGER;
+import static com.google.android.attestation.DerCursor.TAG_NULL;
+import static com.google.android.attestation.DerCursor.TAG_SEQUENCE;
+import static com.google.android.attestation.DerCursor.TAG_SET;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.android.attestation.AttestationApplicationId.AttestationPackageInfo;
+import com.google.android.attestation.AttestationParseResult.ErrorCode;
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decodes a KeyDescription sequence with a {@link DerCursor} and reports malformed input as an
+ * {@link AttestationParseResult} instead of throwing. It accepts what the ASN.1 object path of
+ * {@link ParsedAttestationRecord} accepts and fills the same builder setters, so both produce
+ * equal records. Field paths are precomputed constants; a failure allocates nothing but the
+ * result.
+ *
+ * <p>Unlike the ASN.1 path, which decodes the whole extension up front, the reader only checks
+ * what it decodes: entries with unknown tags and malformed attestation application ids are
+ * skipped rather than rejected. Constructed (BER) strings and implicitly tagged values, which
+ * are not valid in the schema, are rejected.
+ */
+final class AttestationRecordReader {
+
+  private static final String KEY_DESCRIPTION = "keyDescription";
+  private static final String ATTESTATION_VERSION = "attestationVersion";
+  private static final String ATTESTATION_SECURITY_LEVEL = "attestationSecurityLevel";
+  private static final String KEYMASTER_VERSION = "keymasterVersion";
+  private static final String KEYMASTER_SECURITY_LEVEL = "keymasterSecurityLevel";
+  private static final String ATTESTATION_CHALLENGE = "attestationChallenge";
+  private static final String UNIQUE_ID = "uniqueId";
+  private static final String SOFTWARE_ENFORCED = "softwareEnforced";
+  private static final String TEE_ENFORCED = "teeEnforced";
+
+  // Paths of the list fields and of the root of trust members, per list.
+  private static final String[] SOFTWARE_ENFORCED_PATHS = fieldPaths(SOFTWARE_ENFORCED);
+  private static final String[] TEE_ENFORCED_PATHS = fieldPaths(TEE_ENFORCED);
+  private static final String[] SOFTWARE_ROOT_OF_TRUST_PATHS = rootOfTrustPaths(SOFTWARE_ENFORCED);
+  private static final String[] TEE_ROOT_OF_TRUST_PATHS = rootOfTrustPaths(TEE_ENFORCED);
+
+  private ErrorCode errorCode;
+  private String fieldPath;
+
+  private AttestationRecordReader() {}
+
+  private static String[] fieldPaths(String list) {
+    String[] paths = new String[FIELD_COUNT];
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      paths[field] = list + "." + NAME[field];
+    }
+    return paths;
+  }
+
+  private static String[] rootOfTrustPaths(String list) {
+    String prefix = list + ".rootOfTrust.";
+    return new String[] {
+      prefix + "verifiedBootKey",
+      prefix + "deviceLocked",
+      prefix + "verifiedBootState",
+      prefix + "verifiedBootHash"
+    };
+  }
+
+  /** Parses the attestation extension of a DER encoded certificate. */
+  static AttestationParseResult readCertificate(byte[] certificateDer, int offset, int length) {
+    DerCursor extension =
+        ParsedAttestationRecord.findAttestationExtension(certificateDer, offset, length);
+    if (extension == null) {
+      return AttestationParseResult.failure(ErrorCode.NO_ATTESTATION_EXTENSION, "certificate");
+    }
+    return readKeyDescription(certificateDer, extension.valueOffset(), extension.valueLength());
+  }
+
+  /** Parses the value of an attestation extension, an OCTET STRING wrapping the sequence. */
+  static AttestationParseResult readExtensionValue(byte[] extensionValue) {
+    DerCursor wrapper = new DerCursor(extensionValue);
+    if (!wrapper.next() || !wrapper.isOctetString()) {
+      return AttestationParseResult.failure(ErrorCode.MALFORMED_ENCODING, KEY_DESCRIPTION);
+    }
+    return readKeyDescription(extensionValue, wrapper.valueOffset(), wrapper.valueLength());
+  }
+
+  /** Parses an encoded KeyDescription sequence. */
+  static AttestationParseResult readKeyDescription(byte[] buffer, int offset, int length) {
+    AttestationRecordReader reader = new AttestationRecordReader();
+    ParsedAttestationRecord record = reader.read(new DerCursor(buffer, offset, length));
+    return record != null
+        ? AttestationParseResult.success(record)
+        : AttestationParseResult.failure(reader.errorCode, reader.fieldPath);
+  }
+
+  /**
+   * Decodes one encoded authorization list of a KeyDescription, for {@link
+   * LazyAttestationRecord}.
+   *
+   * @throws IllegalArgumentException naming the offending field if the list is malformed
+   */
+  static AuthorizationList readAuthorizationList(
+      byte[] buffer, int offset, int length, int attestationVersion, boolean teeEnforced) {
+    AttestationRecordReader reader = new AttestationRecordReader();
+    DerCursor list = new DerCursor(buffer, offset, length);
+    AuthorizationList result =
+        teeEnforced
+            ? reader.nextAuthorizationList(
+                list, attestationVersion, TEE_ENFORCED, TEE_ENFORCED_PATHS, TEE_ROOT_OF_TRUST_PATHS)
+            : reader.nextAuthorizationList(
+                list,
+                attestationVersion,
+                SOFTWARE_ENFORCED,
+                SOFTWARE_ENFORCED_PATHS,
+                SOFTWARE_ROOT_OF_TRUST_PATHS);
+    if (result == null) {
+      throw new IllegalArgumentException(
+          "Malformed authorization list: " + reader.errorCode + " at " + reader.fieldPath + ".");
+    }
+    return result;
+  }
+
+  private ParsedAttestationRecord read(DerCursor keyDescription) {
+    if (!nextConstructed(keyDescription, TAG_SEQUENCE, KEY_DESCRIPTION)) {
+      return null;
+    }
+    DerCursor fields = keyDescription.enter();
+    if (!nextInteger(fields, 4, ATTESTATION_VERSION)) {
+      return null;
+    }
+    int attestationVersion = fields.intValue();
+    SecurityLevel attestationSecurityLevel = nextSecurityLevel(fields, ATTESTATION_SECURITY_LEVEL);
+    if (attestationSecurityLevel == null || !nextInteger(fields, 4, KEYMASTER_VERSION)) {
+      return null;
+    }
+    int keymasterVersion = fields.intValue();
+    SecurityLevel keymasterSecurityLevel = nextSecurityLevel(fields, KEYMASTER_SECURITY_LEVEL);
+    if (keymasterSecurityLevel == null) {
+      return null;
+    }
+    byte[] attestationChallenge = nextOctets(fields, ATTESTATION_CHALLENGE);
+    if (attestationChallenge == null) {
+      return null;
+    }
+    byte[] uniqueId = nextOctets(fields, UNIQUE_ID);
+    if (uniqueId == null) {
+      return null;
+    }
+    AuthorizationList softwareEnforced =
+        nextAuthorizationList(
+            fields,
+            attestationVersion,
+            SOFTWARE_ENFORCED,
+            SOFTWARE_ENFORCED_PATHS,
+            SOFTWARE_ROOT_OF_TRUST_PATHS);
+    if (softwareEnforced == null) {
+      return null;
+    }
+    AuthorizationList teeEnforced =
+        nextAuthorizationList(
+            fields, attestationVersion, TEE_ENFORCED, TEE_ENFORCED_PATHS, TEE_ROOT_OF_TRUST_PATHS);
+    if (teeEnforced == null) {
+      return null;
+    }
+    return ParsedAttestationRecord.create(
+        attestationVersion,
+        attestationSecurityLevel,
+        keymasterVersion,
+        keymasterSecurityLevel,
+        attestationChallenge,
+        uniqueId,
+        softwareEnforced,
+        teeEnforced);
+  }
+
+  private AuthorizationList nextAuthorizationList(
+      DerCursor fields,
+      int attestationVersion,
+      String listPath,
+      String[] paths,
+      String[] rootOfTrustPaths) {
+    if (!nextConstructed(fields, TAG_SEQUENCE, listPath)) {
+      return null;
+    }
+    DerCursor entries = fields.enter();
+    AuthorizationList.Builder builder = AuthorizationList.builder();
+    while (entries.next()) {
+      // Entries are explicitly tagged with context-specific tags, as the ASN.1 path requires.
+      if (entries.tagClass() != CLASS_CONTEXT) {
+        return fail(ErrorCode.UNEXPECTED_TYPE, listPath);
+      }
+      int field = AuthorizationListLayout.fieldForTag(entries.tagNumber());
+      if (field < 0) {
+        continue;
+      }
+      String path = paths[field];
+      if (!entries.isConstructed()) {
+        return fail(ErrorCode.UNEXPECTED_TYPE, path);
+      }
+      DerCursor value = entries.enter();
+      if (!next(value, path)) {
+        return null;
+      }
+      switch (KIND[field]) {
+        case AuthorizationListLayout.KIND_INTEGER:
+          if (!isInteger(value, true, 4, path)) {
+            return null;
+          }
+          AuthorizationList.setInteger(builder, field, value.intValue());
+          break;
+        case AuthorizationListLayout.KIND_LONG:
+          if (!isInteger(value, false, 8, path)) {
+            return null;
+          }
+          long longValue = value.longValue();
+          if (field == USER_AUTH_TYPE && !AuthorizationList.isValidUserAuthType(longValue)) {
+            return fail(ErrorCode.VALUE_OUT_OF_RANGE, path);
+          }
+          AuthorizationList.setLong(builder, field, longValue);
+          break;
+        case AuthorizationListLayout.KIND_INTEGER_SET:
+          Set<Integer> values = integerSet(value, path);
+          if (values == null) {
+            return null;
+          }
+          AuthorizationList.setIntegerSet(builder, field, values);
+          break;
+        case AuthorizationListLayout.KIND_BYTES:
+          if (!value.isOctetString()) {
+            return fail(ErrorCode.UNEXPECTED_TYPE, path);
+          }
+          AuthorizationList.setBytes(builder, field, value.octets());
+          if (field == ATTESTATION_APPLICATION_ID) {
+            // Like the ASN.1 path, an unparseable application id leaves only the raw bytes.
+            builder.attestationApplicationId = attestationApplicationId(value.enter());
+          }
+          break;
+        case AuthorizationListLayout.KIND_ROOT_OF_TRUST:
+          builder.rootOfTrust = rootOfTrust(value, attestationVersion, path, rootOfTrustPaths);
+          if (builder.rootOfTrust == null) {
+            return null;
+          }
+          break;
+        case AuthorizationListLayout.KIND_BOOLEAN:
+          // Booleans are NULL values; only their presence counts.
+          if (value.isConstructed() || !value.isUniversal(TAG_NULL) || value.valueLength() != 0) {
+            return fail(ErrorCode.UNEXPECTED_TYPE, path);
+          }
+          AuthorizationList.setBoolean(builder, field);
+          break;
+        default:
+          break;
+      }
+    }
+    if (entries.isMalformed()) {
+      return fail(ErrorCode.MALFORMED_ENCODING, listPath);
+    }
+    return builder.build();
+  }
+
+  private Set<Integer> integerSet(DerCursor value, String path) {
+    if (!value.isConstructed() || !value.isUniversal(TAG_SET)) {
+      return fail(ErrorCode.UNEXPECTED_TYPE, path);
+    }
+    DerCursor members = value.enter();
+    Set<Integer> values = new HashSet<>();
+    while (members.next()) {
+      if (!isInteger(members, true, 4, path)) {
+        return null;
+      }
+      values.add(members.intValue());
+    }
+    if (members.isMalformed()) {
+      return fail(ErrorCode.MALFORMED_ENCODING, path);
+    }
+    return values;
+  }
+
+  private RootOfTrust rootOfTrust(
+      DerCursor value, int attestationVersion, String path, String[] paths) {
+    if (!value.isConstructed() || !value.isUniversal(TAG_SEQUENCE)) {
+      return fail(ErrorCode.UNEXPECTED_TYPE, path);
+    }
+    DerCursor members = value.enter();
+    byte[] verifiedBootKey = nextOctets(members, paths[0]);
+    if (verifiedBootKey == null || !next(members, paths[1])) {
+      return null;
+    }
+    if (!members.isBoolean()) {
+      return fail(ErrorCode.UNEXPECTED_TYPE, paths[1]);
+    }
+    boolean deviceLocked = members.booleanValue();
+    if (!nextInteger(members, 4, paths[2])) {
+      return null;
+    }
+    VerifiedBootState verifiedBootState = RootOfTrust.verifiedBootStateOrNull(members.intValue());
+    if (verifiedBootState == null) {
+      return fail(ErrorCode.VALUE_OUT_OF_RANGE, paths[2]);
+    }
+    byte[] verifiedBootHash = null;
+    if (attestationVersion >= 3) {
+      verifiedBootHash = nextOctets(members, paths[3]);
+      if (verifiedBootHash == null) {
+        return null;
+      }
+    }
+    return new RootOfTrust(verifiedBootKey, deviceLocked, verifiedBootState, verifiedBootHash);
+  }
+
+  /** Decodes the application id inside its OCTET STRING, or returns null if it is malformed. */
+  private static AttestationApplicationId attestationApplicationId(DerCursor contents) {
+    if (!contents.next() || !contents.isConstructed() || !contents.isUniversal(TAG_SEQUENCE)) {
+      return null;
+    }
+    DerCursor fields = contents.enter();
+    if (!fields.next() || !fields.isConstructed() || !fields.isUniversal(TAG_SET)) {
+      return null;
+    }
+    List<AttestationPackageInfo> packageInfos = new ArrayList<>();
+    DerCursor packages = fields.enter();
+    while (packages.next()) {
+      if (!packages.isConstructed() || !packages.isUniversal(TAG_SEQUENCE)) {
+        return null;
+      }
+      DerCursor packageInfo = packages.enter();
+      if (!packageInfo.next() || !packageInfo.isOctetString()) {
+        return null;
+      }
+      String packageName =
+          new String(
+              packageInfo.buffer(), packageInfo.valueOffset(), packageInfo.valueLength(), UTF_8);
+      if (!packageInfo.next()
+          || !packageInfo.isUniversal(TAG_INTEGER)
+          || !packageInfo.isInteger(8)) {
+        return null;
+      }
+      packageInfos.add(new AttestationPackageInfo(packageName, packageInfo.longValue()));
+    }
+    if (packages.isMalformed()
+        || !fields.next()
+        || !fields.isConstructed()
+        || !fields.isUniversal(TAG_SET)) {
+      return null;
+    }
+    List<byte[]> signatureDigests = new ArrayList<>();
+    DerCursor digests = fields.enter();
+    while (digests.next()) {
+      if (!digests.isOctetString()) {
+        return null;
+      }
+      signatureDigests.add(digests.octets());
+    }
+    if (digests.isMalformed()) {
+      return null;
+    }
+    return new AttestationApplicationId(packageInfos, signatureDigests);
+  }
+
+  private SecurityLevel nextSecurityLevel(DerCursor fields, String path) {
+    if (!nextInteger(fields, 4, path)) {
+      return null;
+    }
+    SecurityLevel securityLevel = ParsedAttestationRecord.securityLevelOrNull(fields.intValue());
+    if (securityLevel == null) {
+      return fail(ErrorCode.VALUE_OUT_OF_RANGE, path);
+    }
+    return securityLevel;
+  }
+
+  private byte[] nextOctets(DerCursor fields, String path) {
+    if (!next(fields, path)) {
+      return null;
+    }
+    if (!fields.isOctetString()) {
+      return fail(ErrorCode.UNEXPECTED_TYPE, path);
+    }
+    return fields.octets();
+  }
+
+  private boolean nextConstructed(DerCursor fields, int tagNumber, String path) {
+    if (!next(fields, path)) {
+      return false;
+    }
+    if (!fields.isConstructed() || !fields.isUniversal(tagNumber)) {
+      fail(ErrorCode.UNEXPECTED_TYPE, path);
+      return false;
+    }
+    return true;
+  }
+
+  private boolean nextInteger(DerCursor fields, int maxBytes, String path) {
+    return next(fields, path) && isInteger(fields, true, maxBytes, path);
+  }
+
+  /** Checks the current element is an INTEGER, or ENUMERATED if allowed, of at most maxBytes. */
+  private boolean isInteger(
+      DerCursor value, boolean allowEnumerated, int maxBytes, String path) {
+    if (value.isConstructed()
+        || !(value.isUniversal(TAG_INTEGER)
+            || (allowEnumerated && value.isUniversal(TAG_ENUMERATED)))) {
+      fail(ErrorCode.UNEXPECTED_TYPE, path);
+      return false;
+    }
+    if (value.isInteger(maxBytes)) {
+      return true;
+    }
+    // Either too long for the field, or not a minimal encoding.
+    fail(
+        value.valueLength() > maxBytes && value.isInteger(value.valueLength())
+            ? ErrorCode.VALUE_OUT_OF_RANGE
+            : ErrorCode.MALFORMED_ENCODING,
+        path);
+    return false;
+  }
+
+  private boolean next(DerCursor cursor, String path) {
+    if (cursor.next()) {
+      return true;
+    }
+    fail(cursor.isMalformed() ? ErrorCode.MALFORMED_ENCODING : ErrorCode.MISSING_FIELD, path);
+    return false;
+  }
+
+  /** Records the error and returns null, so callers can {@code return fail(...)}. */
+  private <T> T fail(ErrorCode errorCode, String fieldPath) {
+    this.errorCode = errorCode;
+    this.fieldPath = fieldPath;
+    return null;
+  }
+}
@@ -61,19 +61,20 @@ import static com.google.android.attestation.Constants.UINT32_MAX;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Null;
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1Set;
 import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.BERTags;
 import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
@@ -134,92 +135,7 @@ public class AuthorizationList {
   public final Optional<Integer> vendorPatchLevel;
   public final Optional<Integer> bootPatchLevel;
   public final boolean individualAttestation;
-
-  private AuthorizationList(ASN1Encodable[] authorizationList, int attestationVersion) {
-    Map<Integer, ASN1Primitive> authorizationMap = getAuthorizationMap(authorizationList);
-    this.purpose = findOptionalIntegerSetAuthorizationListEntry(authorizationMap, KM_TAG_PURPOSE);
-    this.algorithm = findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_ALGORITHM);
-    this.keySize = findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_KEY_SIZE);
-    this.digest = findOptionalIntegerSetAuthorizationListEntry(authorizationMap, KM_TAG_DIGEST);
-    this.padding = findOptionalIntegerSetAuthorizationListEntry(authorizationMap, KM_TAG_PADDING);
-    this.ecCurve = findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_EC_CURVE);
-    this.rsaPublicExponent =
-        findOptionalLongAuthorizationListEntry(authorizationMap, KM_TAG_RSA_PUBLIC_EXPONENT);
-    this.rollbackResistance =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_ROLLBACK_RESISTANCE);
-    this.activeDateTime =
-        findOptionalInstantMillisAuthorizationListEntry(authorizationMap, KM_TAG_ACTIVE_DATE_TIME);
-    this.originationExpireDateTime =
-        findOptionalInstantMillisAuthorizationListEntry(
-            authorizationMap, KM_TAG_ORIGINATION_EXPIRE_DATE_TIME);
-    this.usageExpireDateTime =
-        findOptionalInstantMillisAuthorizationListEntry(
-            authorizationMap, KM_TAG_USAGE_EXPIRE_DATE_TIME);
-    this.noAuthRequired =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_NO_AUTH_REQUIRED);
-    this.userAuthType = findOptionalUserAuthType(authorizationMap, KM_TAG_USER_AUTH_TYPE);
-    this.authTimeout =
-        findOptionalDurationSecondsAuthorizationListEntry(authorizationMap, KM_TAG_AUTH_TIMEOUT);
-    this.allowWhileOnBody =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_ALLOW_WHILE_ON_BODY);
-    this.trustedUserPresenceRequired =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_TRUSTED_USER_PRESENCE_REQUIRED);
-    this.trustedConfirmationRequired =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_TRUSTED_CONFIRMATION_REQUIRED);
-    this.unlockedDeviceRequired =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_UNLOCKED_DEVICE_REQUIRED);
-    this.allApplications =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_ALL_APPLICATIONS);
-    this.applicationId =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_APPLICATION_ID);
-    this.creationDateTime =
-        findOptionalInstantMillisAuthorizationListEntry(
-            authorizationMap, KM_TAG_CREATION_DATE_TIME);
-    this.origin = findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_ORIGIN);
-    this.rollbackResistant =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_ROLLBACK_RESISTANT);
-    this.rootOfTrust =
-        Optional.ofNullable(
-            RootOfTrust.createRootOfTrust(
-                (ASN1Sequence) findAuthorizationListEntry(authorizationMap, KM_TAG_ROOT_OF_TRUST),
-                attestationVersion));
-    this.osVersion = findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_OS_VERSION);
-    this.osPatchLevel =
-        findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_OS_PATCH_LEVEL);
-    this.attestationApplicationId =
-        Optional.ofNullable(
-            AttestationApplicationId.createAttestationApplicationId(
-                (DEROctetString)
-                    findAuthorizationListEntry(
-                        authorizationMap, KM_TAG_ATTESTATION_APPLICATION_ID)));
-    this.attestationApplicationIdBytes =
-        findOptionalByteArrayAuthorizationListEntry(
-            authorizationMap, KM_TAG_ATTESTATION_APPLICATION_ID);
-    this.attestationIdBrand =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_ATTESTATION_ID_BRAND);
-    this.attestationIdDevice =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_ATTESTATION_ID_DEVICE);
-    this.attestationIdProduct =
-        findOptionalByteArrayAuthorizationListEntry(
-            authorizationMap, KM_TAG_ATTESTATION_ID_PRODUCT);
-    this.attestationIdSerial =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_ATTESTATION_ID_SERIAL);
-    this.attestationIdImei =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_ATTESTATION_ID_IMEI);
-    this.attestationIdMeid =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_ATTESTATION_ID_MEID);
-    this.attestationIdManufacturer =
-        findOptionalByteArrayAuthorizationListEntry(
-            authorizationMap, KM_TAG_ATTESTATION_ID_MANUFACTURER);
-    this.attestationIdModel =
-        findOptionalByteArrayAuthorizationListEntry(authorizationMap, KM_TAG_ATTESTATION_ID_MODEL);
-    this.vendorPatchLevel =
-        findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_VENDOR_PATCH_LEVEL);
-    this.bootPatchLevel =
-        findOptionalIntegerAuthorizationListEntry(authorizationMap, KM_TAG_BOOT_PATCH_LEVEL);
-    this.individualAttestation =
-        findBooleanAuthorizationListEntry(authorizationMap, KM_TAG_DEVICE_UNIQUE_ATTESTATION);
-  }
+  private int hash;
 
   private AuthorizationList(Builder builder) {
     this.purpose = Optional.ofNullable(builder.purpose);
@@ -265,79 +181,226 @@ public class AuthorizationList {
 
   static AuthorizationList createAuthorizationList(
       ASN1Encodable[] authorizationList, int attestationVersion) {
-    return new AuthorizationList(authorizationList, attestationVersion);
+    return new AuthorizationList(decode(authorizationList, attestationVersion));
   }
 
-  private static Map<Integer, ASN1Primitive> getAuthorizationMap(
-      ASN1Encodable[] authorizationList) {
-    Map<Integer, ASN1Primitive> authorizationMap = new HashMap<>();
+  /**
+   * Decodes the entries in a single pass. Each tag is dispatched through the field table of
+   * {@link AuthorizationListLayout}; tags the table does not know, such as KeyMint additions, are
+   * skipped without being decoded.
+   */
+  private static Builder decode(ASN1Encodable[] authorizationList, int attestationVersion) {
+    Builder builder = new Builder();
     for (ASN1Encodable entry : authorizationList) {
       ASN1TaggedObject taggedEntry = (ASN1TaggedObject) entry;
-      authorizationMap.put(taggedEntry.getTagNo(), taggedEntry.getObject());
+      if (taggedEntry.getTagClass() != BERTags.CONTEXT_SPECIFIC) {
+        throw new IllegalArgumentException(
+            "Authorization list entry with tag class " + taggedEntry.getTagClass() + ".");
+      }
+      int field = AuthorizationListLayout.fieldForTag(taggedEntry.getTagNo());
+      if (field < 0) {
+        continue;
+      }
+      ASN1Primitive value = taggedEntry.getExplicitBaseObject().toASN1Primitive();
+      switch (AuthorizationListLayout.KIND[field]) {
+        case AuthorizationListLayout.KIND_INTEGER:
+          setInteger(builder, field, ASN1Parsing.getIntegerFromAsn1(value));
+          break;
+        case AuthorizationListLayout.KIND_LONG:
+          setLong(builder, field, ASN1Parsing.getLongFromAsn1(value));
+          break;
+        case AuthorizationListLayout.KIND_INTEGER_SET:
+          setIntegerSet(builder, field, integerSet((ASN1Set) value));
+          break;
+        case AuthorizationListLayout.KIND_BOOLEAN:
+          if (!(value instanceof ASN1Null)) {
+            throw new IllegalArgumentException("Boolean authorization is not a NULL.");
+          }
+          setBoolean(builder, field);
+          break;
+        case AuthorizationListLayout.KIND_BYTES:
+          setBytes(builder, field, (ASN1OctetString) value);
+          break;
+        case AuthorizationListLayout.KIND_ROOT_OF_TRUST:
+          builder.rootOfTrust =
+              RootOfTrust.createRootOfTrust((ASN1Sequence) value, attestationVersion);
+          break;
+        default:
+          break;
+      }
     }
-    return authorizationMap;
-  }
-
-  private static ASN1Primitive findAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    return authorizationMap.getOrDefault(tag, null);
+    return builder;
   }
 
-  private static Optional<Set<Integer>> findOptionalIntegerSetAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    ASN1Set asn1Set = (ASN1Set) findAuthorizationListEntry(authorizationMap, tag);
-    if (asn1Set == null) {
-      return Optional.empty();
-    }
+  private static Set<Integer> integerSet(ASN1Set asn1Set) {
     Set<Integer> entrySet = new HashSet<>();
     for (ASN1Encodable value : asn1Set) {
       entrySet.add(ASN1Parsing.getIntegerFromAsn1(value));
     }
-    return Optional.of(entrySet);
+    return entrySet;
   }
 
-  private static Optional<Duration> findOptionalDurationSecondsAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    Optional<Integer> seconds = findOptionalIntegerAuthorizationListEntry(authorizationMap, tag);
-    return seconds.map(Duration::ofSeconds);
+  static void setInteger(Builder builder, int field, int value) {
+    switch (field) {
+      case AuthorizationListLayout.ALGORITHM:
+        builder.algorithm = value;
+        break;
+      case AuthorizationListLayout.KEY_SIZE:
+        builder.keySize = value;
+        break;
+      case AuthorizationListLayout.EC_CURVE:
+        builder.ecCurve = value;
+        break;
+      case AuthorizationListLayout.AUTH_TIMEOUT:
+        builder.authTimeout = Duration.ofSeconds(value);
+        break;
+      case AuthorizationListLayout.ORIGIN:
+        builder.origin = value;
+        break;
+      case AuthorizationListLayout.OS_VERSION:
+        builder.osVersion = value;
+        break;
+      case AuthorizationListLayout.OS_PATCH_LEVEL:
+        builder.osPatchLevel = value;
+        break;
+      case AuthorizationListLayout.VENDOR_PATCH_LEVEL:
+        builder.vendorPatchLevel = value;
+        break;
+      case AuthorizationListLayout.BOOT_PATCH_LEVEL:
+        builder.bootPatchLevel = value;
+        break;
+      default:
+        break;
+    }
   }
 
-  private static Optional<Integer> findOptionalIntegerAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    ASN1Primitive entry = findAuthorizationListEntry(authorizationMap, tag);
-    return Optional.ofNullable(entry).map(ASN1Parsing::getIntegerFromAsn1);
+  static void setLong(Builder builder, int field, long value) {
+    switch (field) {
+      case AuthorizationListLayout.RSA_PUBLIC_EXPONENT:
+        builder.rsaPublicExponent = value;
+        break;
+      case AuthorizationListLayout.ACTIVE_DATE_TIME:
+        builder.activeDateTime = Instant.ofEpochMilli(value);
+        break;
+      case AuthorizationListLayout.ORIGINATION_EXPIRE_DATE_TIME:
+        builder.originationExpireDateTime = Instant.ofEpochMilli(value);
+        break;
+      case AuthorizationListLayout.USAGE_EXPIRE_DATE_TIME:
+        builder.usageExpireDateTime = Instant.ofEpochMilli(value);
+        break;
+      case AuthorizationListLayout.USER_AUTH_TYPE:
+        builder.userAuthType = userAuthTypeToEnum(value);
+        break;
+      case AuthorizationListLayout.CREATION_DATE_TIME:
+        builder.creationDateTime = Instant.ofEpochMilli(value);
+        break;
+      default:
+        break;
+    }
   }
 
-  private static Optional<Instant> findOptionalInstantMillisAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    Optional<Long> millis = findOptionalLongAuthorizationListEntry(authorizationMap, tag);
-    return millis.map(Instant::ofEpochMilli);
+  static void setIntegerSet(Builder builder, int field, Set<Integer> value) {
+    switch (field) {
+      case AuthorizationListLayout.PURPOSE:
+        builder.purpose = value;
+        break;
+      case AuthorizationListLayout.DIGEST:
+        builder.digest = value;
+        break;
+      case AuthorizationListLayout.PADDING:
+        builder.padding = value;
+        break;
+      default:
+        break;
+    }
   }
 
-  private static Optional<Long> findOptionalLongAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    ASN1Integer longEntry = ((ASN1Integer) findAuthorizationListEntry(authorizationMap, tag));
-    return Optional.ofNullable(longEntry).map(value -> value.getValue().longValue());
+  static void setBoolean(Builder builder, int field) {
+    switch (field) {
+      case AuthorizationListLayout.ROLLBACK_RESISTANCE:
+        builder.rollbackResistance = true;
+        break;
+      case AuthorizationListLayout.NO_AUTH_REQUIRED:
+        builder.noAuthRequired = true;
+        break;
+      case AuthorizationListLayout.ALLOW_WHILE_ON_BODY:
+        builder.allowWhileOnBody = true;
+        break;
+      case AuthorizationListLayout.TRUSTED_USER_PRESENCE_REQUIRED:
+        builder.trustedUserPresenceRequired = true;
+        break;
+      case AuthorizationListLayout.TRUSTED_CONFIRMATION_REQUIRED:
+        builder.trustedConfirmationRequired = true;
+        break;
+      case AuthorizationListLayout.UNLOCKED_DEVICE_REQUIRED:
+        builder.unlockedDeviceRequired = true;
+        break;
+      case AuthorizationListLayout.ALL_APPLICATIONS:
+        builder.allApplications = true;
+        break;
+      case AuthorizationListLayout.ROLLBACK_RESISTANT:
+        builder.rollbackResistant = true;
+        break;
+      case AuthorizationListLayout.DEVICE_UNIQUE_ATTESTATION:
+        builder.individualAttestation = true;
+        break;
+      default:
+        break;
+    }
   }
 
-  private static boolean findBooleanAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    return null != findAuthorizationListEntry(authorizationMap, tag);
+  private static void setBytes(Builder builder, int field, ASN1OctetString value) {
+    setBytes(builder, field, value.getOctets());
+    if (field == AuthorizationListLayout.ATTESTATION_APPLICATION_ID) {
+      builder.attestationApplicationId =
+          AttestationApplicationId.createAttestationApplicationId((DEROctetString) value);
+    }
   }
 
-  private static Optional<byte[]> findOptionalByteArrayAuthorizationListEntry(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    ASN1OctetString entry = (ASN1OctetString) findAuthorizationListEntry(authorizationMap, tag);
-    return Optional.ofNullable(entry).map(ASN1OctetString::getOctets);
+  /** Sets a bytes field; the parsed attestation application id is left to the caller. */
+  static void setBytes(Builder builder, int field, byte[] octets) {
+    switch (field) {
+      case AuthorizationListLayout.APPLICATION_ID:
+        builder.applicationId = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_APPLICATION_ID:
+        builder.attestationApplicationIdBytes = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_BRAND:
+        builder.attestationIdBrand = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_DEVICE:
+        builder.attestationIdDevice = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_PRODUCT:
+        builder.attestationIdProduct = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_SERIAL:
+        builder.attestationIdSerial = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_IMEI:
+        builder.attestationIdImei = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_MEID:
+        builder.attestationIdMeid = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_MANUFACTURER:
+        builder.attestationIdManufacturer = octets;
+        break;
+      case AuthorizationListLayout.ATTESTATION_ID_MODEL:
+        builder.attestationIdModel = octets;
+        break;
+      default:
+        break;
+    }
   }
 
-  private static Optional<Set<UserAuthType>> findOptionalUserAuthType(
-      Map<Integer, ASN1Primitive> authorizationMap, int tag) {
-    Optional<Long> userAuthType = findOptionalLongAuthorizationListEntry(authorizationMap, tag);
-    return userAuthType.map(AuthorizationList::userAuthTypeToEnum);
+  // Visible for testing.
+  /** Returns whether {@link #userAuthTypeToEnum(long)} accepts the value. */
+  static boolean isValidUserAuthType(long userAuthType) {
+    return userAuthType == 0 || (userAuthType & 3L) != 0 || userAuthType == UINT32_MAX;
   }
 
-  // Visible for testing.
   static Set<UserAuthType> userAuthTypeToEnum(long userAuthType) {
     if (userAuthType == 0) {
       return Set.of(USER_AUTH_TYPE_NONE);
@@ -362,7 +425,7 @@ public class AuthorizationList {
     return result;
   }
 
-  private static Long userAuthTypeToLong(Set<UserAuthType> userAuthType) {
+  static Long userAuthTypeToLong(Set<UserAuthType> userAuthType) {
     if (userAuthType.contains(USER_AUTH_TYPE_NONE)) {
       return 0L;
     }
@@ -500,6 +563,160 @@ public class AuthorizationList {
     }
   }
 
+  /** Returns a builder holding the values of this list, e.g. to derive a modified copy. */
+  public Builder toBuilder() {
+    Builder builder = new Builder();
+    builder.purpose = this.purpose.orElse(null);
+    builder.algorithm = this.algorithm.orElse(null);
+    builder.keySize = this.keySize.orElse(null);
+    builder.digest = this.digest.orElse(null);
+    builder.padding = this.padding.orElse(null);
+    builder.ecCurve = this.ecCurve.orElse(null);
+    builder.rsaPublicExponent = this.rsaPublicExponent.orElse(null);
+    builder.rollbackResistance = this.rollbackResistance;
+    builder.activeDateTime = this.activeDateTime.orElse(null);
+    builder.originationExpireDateTime = this.originationExpireDateTime.orElse(null);
+    builder.usageExpireDateTime = this.usageExpireDateTime.orElse(null);
+    builder.noAuthRequired = this.noAuthRequired;
+    builder.userAuthType = this.userAuthType.orElse(null);
+    builder.authTimeout = this.authTimeout.orElse(null);
+    builder.allowWhileOnBody = this.allowWhileOnBody;
+    builder.trustedUserPresenceRequired = this.trustedUserPresenceRequired;
+    builder.trustedConfirmationRequired = this.trustedConfirmationRequired;
+    builder.unlockedDeviceRequired = this.unlockedDeviceRequired;
+    builder.allApplications = this.allApplications;
+    builder.applicationId = this.applicationId.orElse(null);
+    builder.creationDateTime = this.creationDateTime.orElse(null);
+    builder.origin = this.origin.orElse(null);
+    builder.rollbackResistant = this.rollbackResistant;
+    builder.rootOfTrust = this.rootOfTrust.orElse(null);
+    builder.osVersion = this.osVersion.orElse(null);
+    builder.osPatchLevel = this.osPatchLevel.orElse(null);
+    builder.attestationApplicationId = this.attestationApplicationId.orElse(null);
+    builder.attestationApplicationIdBytes = this.attestationApplicationIdBytes.orElse(null);
+    builder.attestationIdBrand = this.attestationIdBrand.orElse(null);
+    builder.attestationIdDevice = this.attestationIdDevice.orElse(null);
+    builder.attestationIdProduct = this.attestationIdProduct.orElse(null);
+    builder.attestationIdSerial = this.attestationIdSerial.orElse(null);
+    builder.attestationIdImei = this.attestationIdImei.orElse(null);
+    builder.attestationIdMeid = this.attestationIdMeid.orElse(null);
+    builder.attestationIdManufacturer = this.attestationIdManufacturer.orElse(null);
+    builder.attestationIdModel = this.attestationIdModel.orElse(null);
+    builder.vendorPatchLevel = this.vendorPatchLevel.orElse(null);
+    builder.bootPatchLevel = this.bootPatchLevel.orElse(null);
+    builder.individualAttestation = this.individualAttestation;
+    return builder;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof AuthorizationList)) {
+      return false;
+    }
+    AuthorizationList other = (AuthorizationList) o;
+    if (hash != 0 && other.hash != 0 && hash != other.hash) {
+      return false;
+    }
+    return rollbackResistance == other.rollbackResistance
+        && noAuthRequired == other.noAuthRequired
+        && allowWhileOnBody == other.allowWhileOnBody
+        && trustedUserPresenceRequired == other.trustedUserPresenceRequired
+        && trustedConfirmationRequired == other.trustedConfirmationRequired
+        && unlockedDeviceRequired == other.unlockedDeviceRequired
+        && allApplications == other.allApplications
+        && rollbackResistant == other.rollbackResistant
+        && individualAttestation == other.individualAttestation
+        && purpose.equals(other.purpose)
+        && algorithm.equals(other.algorithm)
+        && keySize.equals(other.keySize)
+        && digest.equals(other.digest)
+        && padding.equals(other.padding)
+        && ecCurve.equals(other.ecCurve)
+        && rsaPublicExponent.equals(other.rsaPublicExponent)
+        && activeDateTime.equals(other.activeDateTime)
+        && originationExpireDateTime.equals(other.originationExpireDateTime)
+        && usageExpireDateTime.equals(other.usageExpireDateTime)
+        && userAuthType.equals(other.userAuthType)
+        && authTimeout.equals(other.authTimeout)
+        && creationDateTime.equals(other.creationDateTime)
+        && origin.equals(other.origin)
+        && rootOfTrust.equals(other.rootOfTrust)
+        && osVersion.equals(other.osVersion)
+        && osPatchLevel.equals(other.osPatchLevel)
+        && attestationApplicationId.equals(other.attestationApplicationId)
+        && vendorPatchLevel.equals(other.vendorPatchLevel)
+        && bootPatchLevel.equals(other.bootPatchLevel)
+        && bytesEqual(applicationId, other.applicationId)
+        && bytesEqual(attestationApplicationIdBytes, other.attestationApplicationIdBytes)
+        && bytesEqual(attestationIdBrand, other.attestationIdBrand)
+        && bytesEqual(attestationIdDevice, other.attestationIdDevice)
+        && bytesEqual(attestationIdProduct, other.attestationIdProduct)
+        && bytesEqual(attestationIdSerial, other.attestationIdSerial)
+        && bytesEqual(attestationIdImei, other.attestationIdImei)
+        && bytesEqual(attestationIdMeid, other.attestationIdMeid)
+        && bytesEqual(attestationIdManufacturer, other.attestationIdManufacturer)
+        && bytesEqual(attestationIdModel, other.attestationIdModel);
+  }
+
+  /** Computed on first use and cached, the list being immutable. */
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      h = 1;
+      h = 31 * h + purpose.hashCode();
+      h = 31 * h + algorithm.hashCode();
+      h = 31 * h + keySize.hashCode();
+      h = 31 * h + digest.hashCode();
+      h = 31 * h + padding.hashCode();
+      h = 31 * h + ecCurve.hashCode();
+      h = 31 * h + rsaPublicExponent.hashCode();
+      h = 31 * h + Boolean.hashCode(rollbackResistance);
+      h = 31 * h + activeDateTime.hashCode();
+      h = 31 * h + originationExpireDateTime.hashCode();
+      h = 31 * h + usageExpireDateTime.hashCode();
+      h = 31 * h + Boolean.hashCode(noAuthRequired);
+      h = 31 * h + userAuthType.hashCode();
+      h = 31 * h + authTimeout.hashCode();
+      h = 31 * h + Boolean.hashCode(allowWhileOnBody);
+      h = 31 * h + Boolean.hashCode(trustedUserPresenceRequired);
+      h = 31 * h + Boolean.hashCode(trustedConfirmationRequired);
+      h = 31 * h + Boolean.hashCode(unlockedDeviceRequired);
+      h = 31 * h + Boolean.hashCode(allApplications);
+      h = 31 * h + Arrays.hashCode(applicationId.orElse(null));
+      h = 31 * h + creationDateTime.hashCode();
+      h = 31 * h + origin.hashCode();
+      h = 31 * h + Boolean.hashCode(rollbackResistant);
+      h = 31 * h + rootOfTrust.hashCode();
+      h = 31 * h + osVersion.hashCode();
+      h = 31 * h + osPatchLevel.hashCode();
+      h = 31 * h + attestationApplicationId.hashCode();
+      h = 31 * h + Arrays.hashCode(attestationApplicationIdBytes.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdBrand.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdDevice.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdProduct.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdSerial.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdImei.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdMeid.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdManufacturer.orElse(null));
+      h = 31 * h + Arrays.hashCode(attestationIdModel.orElse(null));
+      h = 31 * h + vendorPatchLevel.hashCode();
+      h = 31 * h + bootPatchLevel.hashCode();
+      h = 31 * h + Boolean.hashCode(individualAttestation);
+      // Zero marks the hash as not computed yet.
+      h = h == 0 ? 1 : h;
+      hash = h;
+    }
+    return h;
+  }
+
+  private static boolean bytesEqual(Optional<byte[]> a, Optional<byte[]> b) {
+    return Arrays.equals(a.orElse(null), b.orElse(null));
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -0,0 +1,252 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.Constants.KM_TAG_ACTIVE_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_ALGORITHM;
+import static com.google.android.attestation.Constants.KM_TAG_ALLOW_WHILE_ON_BODY;
+import static com.google.android.attestation.Constants.KM_TAG_ALL_APPLICATIONS;
+import static com.google.android.attestation.Constants.KM_TAG_APPLICATION_ID;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_APPLICATION_ID;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_BRAND;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_DEVICE;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_IMEI;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_MANUFACTURER;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_MEID;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_MODEL;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_PRODUCT;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_SERIAL;
+import static com.google.android.attestation.Constants.KM_TAG_AUTH_TIMEOUT;
+import static com.google.android.attestation.Constants.KM_TAG_BOOT_PATCH_LEVEL;
+import static com.google.android.attestation.Constants.KM_TAG_CREATION_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_DEVICE_UNIQUE_ATTESTATION;
+import static com.google.android.attestation.Constants.KM_TAG_DIGEST;
+import static com.google.android.attestation.Constants.KM_TAG_EC_CURVE;
+import static com.google.android.attestation.Constants.KM_TAG_KEY_SIZE;
+import static com.google.android.attestation.Constants.KM_TAG_NO_AUTH_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_ORIGIN;
+import static com.google.android.attestation.Constants.KM_TAG_ORIGINATION_EXPIRE_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_OS_PATCH_LEVEL;
+import static com.google.android.attestation.Constants.KM_TAG_OS_VERSION;
+import static com.google.android.attestation.Constants.KM_TAG_PADDING;
+import static com.google.android.attestation.Constants.KM_TAG_PURPOSE;
+import static com.google.android.attestation.Constants.KM_TAG_ROLLBACK_RESISTANCE;
+import static com.google.android.attestation.Constants.KM_TAG_ROLLBACK_RESISTANT;
+import static com.google.android.attestation.Constants.KM_TAG_ROOT_OF_TRUST;
+import static com.google.android.attestation.Constants.KM_TAG_RSA_PUBLIC_EXPONENT;
+import static com.google.android.attestation.Constants.KM_TAG_TRUSTED_CONFIRMATION_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_TRUSTED_USER_PRESENCE_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_UNLOCKED_DEVICE_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_USAGE_EXPIRE_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_USER_AUTH_TYPE;
+import static com.google.android.attestation.Constants.KM_TAG_VENDOR_PATCH_LEVEL;
+
+import java.util.Arrays;
+
+/**
+ * Field layout of an authorization list. Every field has a bit in the presence mask, a storage
+ * kind and a slot within the storage of that kind. The tag table maps a {@code KM_TAG_*} value to
+ * its field in constant time, so decoders dispatch on it instead of looking tags up in a map.
+ */
+final class AuthorizationListLayout {
+
+  // Storage kinds.
+  static final int KIND_INTEGER = 0;
+  static final int KIND_LONG = 1;
+  static final int KIND_INTEGER_SET = 2;
+  static final int KIND_BOOLEAN = 3;
+  static final int KIND_BYTES = 4;
+  static final int KIND_ROOT_OF_TRUST = 5;
+
+  // Fields, in the order of the AuthorizationList members. The value is the presence bit.
+  static final int PURPOSE = 0;
+  static final int ALGORITHM = 1;
+  static final int KEY_SIZE = 2;
+  static final int DIGEST = 3;
+  static final int PADDING = 4;
+  static final int EC_CURVE = 5;
+  static final int RSA_PUBLIC_EXPONENT = 6;
+  static final int ROLLBACK_RESISTANCE = 7;
+  static final int ACTIVE_DATE_TIME = 8;
+  static final int ORIGINATION_EXPIRE_DATE_TIME = 9;
+  static final int USAGE_EXPIRE_DATE_TIME = 10;
+  static final int NO_AUTH_REQUIRED = 11;
+  static final int USER_AUTH_TYPE = 12;
+  static final int AUTH_TIMEOUT = 13;
+  static final int ALLOW_WHILE_ON_BODY = 14;
+  static final int TRUSTED_USER_PRESENCE_REQUIRED = 15;
+  static final int TRUSTED_CONFIRMATION_REQUIRED = 16;
+  static final int UNLOCKED_DEVICE_REQUIRED = 17;
+  static final int ALL_APPLICATIONS = 18;
+  static final int APPLICATION_ID = 19;
+  static final int CREATION_DATE_TIME = 20;
+  static final int ORIGIN = 21;
+  static final int ROLLBACK_RESISTANT = 22;
+  static final int ROOT_OF_TRUST = 23;
+  static final int OS_VERSION = 24;
+  static final int OS_PATCH_LEVEL = 25;
+  static final int ATTESTATION_APPLICATION_ID = 26;
+  static final int ATTESTATION_ID_BRAND = 27;
+  static final int ATTESTATION_ID_DEVICE = 28;
+  static final int ATTESTATION_ID_PRODUCT = 29;
+  static final int ATTESTATION_ID_SERIAL = 30;
+  static final int ATTESTATION_ID_IMEI = 31;
+  static final int ATTESTATION_ID_MEID = 32;
+  static final int ATTESTATION_ID_MANUFACTURER = 33;
+  static final int ATTESTATION_ID_MODEL = 34;
+  static final int VENDOR_PATCH_LEVEL = 35;
+  static final int BOOT_PATCH_LEVEL = 36;
+  static final int DEVICE_UNIQUE_ATTESTATION = 37;
+  static final int FIELD_COUNT = 38;
+
+  static final int[] TAG = new int[FIELD_COUNT];
+  static final int[] KIND = new int[FIELD_COUNT];
+  static final int[] SLOT = new int[FIELD_COUNT];
+  /** Name of the corresponding {@link AuthorizationList} member. */
+  static final String[] NAME = new String[FIELD_COUNT];
+
+  // Number of slots per kind. Integer and long fields share the numeric slots.
+  static final int NUMBER_SLOTS;
+  static final int SET_SLOTS;
+  static final int BYTES_SLOTS;
+
+  private static final int MAX_TAG = 1023;
+  private static final byte[] FIELD_BY_TAG = new byte[MAX_TAG + 1];
+
+  private static int numberSlots;
+  private static int setSlots;
+  private static int bytesSlots;
+
+  static {
+    Arrays.fill(FIELD_BY_TAG, (byte) -1);
+    define(PURPOSE, KM_TAG_PURPOSE, KIND_INTEGER_SET, "purpose");
+    define(ALGORITHM, KM_TAG_ALGORITHM, KIND_INTEGER, "algorithm");
+    define(KEY_SIZE, KM_TAG_KEY_SIZE, KIND_INTEGER, "keySize");
+    define(DIGEST, KM_TAG_DIGEST, KIND_INTEGER_SET, "digest");
+    define(PADDING, KM_TAG_PADDING, KIND_INTEGER_SET, "padding");
+    define(EC_CURVE, KM_TAG_EC_CURVE, KIND_INTEGER, "ecCurve");
+    define(RSA_PUBLIC_EXPONENT, KM_TAG_RSA_PUBLIC_EXPONENT, KIND_LONG, "rsaPublicExponent");
+    define(ROLLBACK_RESISTANCE, KM_TAG_ROLLBACK_RESISTANCE, KIND_BOOLEAN, "rollbackResistance");
+    define(ACTIVE_DATE_TIME, KM_TAG_ACTIVE_DATE_TIME, KIND_LONG, "activeDateTime");
+    define(
+        ORIGINATION_EXPIRE_DATE_TIME,
+        KM_TAG_ORIGINATION_EXPIRE_DATE_TIME,
+        KIND_LONG,
+        "originationExpireDateTime");
+    define(USAGE_EXPIRE_DATE_TIME, KM_TAG_USAGE_EXPIRE_DATE_TIME, KIND_LONG, "usageExpireDateTime");
+    define(NO_AUTH_REQUIRED, KM_TAG_NO_AUTH_REQUIRED, KIND_BOOLEAN, "noAuthRequired");
+    define(USER_AUTH_TYPE, KM_TAG_USER_AUTH_TYPE, KIND_LONG, "userAuthType");
+    define(AUTH_TIMEOUT, KM_TAG_AUTH_TIMEOUT, KIND_INTEGER, "authTimeout");
+    define(ALLOW_WHILE_ON_BODY, KM_TAG_ALLOW_WHILE_ON_BODY, KIND_BOOLEAN, "allowWhileOnBody");
+    define(
+        TRUSTED_USER_PRESENCE_REQUIRED,
+        KM_TAG_TRUSTED_USER_PRESENCE_REQUIRED,
+        KIND_BOOLEAN,
+        "trustedUserPresenceRequired");
+    define(
+        TRUSTED_CONFIRMATION_REQUIRED,
+        KM_TAG_TRUSTED_CONFIRMATION_REQUIRED,
+        KIND_BOOLEAN,
+        "trustedConfirmationRequired");
+    define(
+        UNLOCKED_DEVICE_REQUIRED,
+        KM_TAG_UNLOCKED_DEVICE_REQUIRED,
+        KIND_BOOLEAN,
+        "unlockedDeviceRequired");
+    define(ALL_APPLICATIONS, KM_TAG_ALL_APPLICATIONS, KIND_BOOLEAN, "allApplications");
+    define(APPLICATION_ID, KM_TAG_APPLICATION_ID, KIND_BYTES, "applicationId");
+    define(CREATION_DATE_TIME, KM_TAG_CREATION_DATE_TIME, KIND_LONG, "creationDateTime");
+    define(ORIGIN, KM_TAG_ORIGIN, KIND_INTEGER, "origin");
+    define(ROLLBACK_RESISTANT, KM_TAG_ROLLBACK_RESISTANT, KIND_BOOLEAN, "rollbackResistant");
+    define(ROOT_OF_TRUST, KM_TAG_ROOT_OF_TRUST, KIND_ROOT_OF_TRUST, "rootOfTrust");
+    define(OS_VERSION, KM_TAG_OS_VERSION, KIND_INTEGER, "osVersion");
+    define(OS_PATCH_LEVEL, KM_TAG_OS_PATCH_LEVEL, KIND_INTEGER, "osPatchLevel");
+    define(
+        ATTESTATION_APPLICATION_ID,
+        KM_TAG_ATTESTATION_APPLICATION_ID,
+        KIND_BYTES,
+        "attestationApplicationId");
+    define(ATTESTATION_ID_BRAND, KM_TAG_ATTESTATION_ID_BRAND, KIND_BYTES, "attestationIdBrand");
+    define(ATTESTATION_ID_DEVICE, KM_TAG_ATTESTATION_ID_DEVICE, KIND_BYTES, "attestationIdDevice");
+    define(
+        ATTESTATION_ID_PRODUCT, KM_TAG_ATTESTATION_ID_PRODUCT, KIND_BYTES, "attestationIdProduct");
+    define(ATTESTATION_ID_SERIAL, KM_TAG_ATTESTATION_ID_SERIAL, KIND_BYTES, "attestationIdSerial");
+    define(ATTESTATION_ID_IMEI, KM_TAG_ATTESTATION_ID_IMEI, KIND_BYTES, "attestationIdImei");
+    define(ATTESTATION_ID_MEID, KM_TAG_ATTESTATION_ID_MEID, KIND_BYTES, "attestationIdMeid");
+    define(
+        ATTESTATION_ID_MANUFACTURER,
+        KM_TAG_ATTESTATION_ID_MANUFACTURER,
+        KIND_BYTES,
+        "attestationIdManufacturer");
+    define(ATTESTATION_ID_MODEL, KM_TAG_ATTESTATION_ID_MODEL, KIND_BYTES, "attestationIdModel");
+    define(VENDOR_PATCH_LEVEL, KM_TAG_VENDOR_PATCH_LEVEL, KIND_INTEGER, "vendorPatchLevel");
+    define(BOOT_PATCH_LEVEL, KM_TAG_BOOT_PATCH_LEVEL, KIND_INTEGER, "bootPatchLevel");
+    define(
+        DEVICE_UNIQUE_ATTESTATION,
+        KM_TAG_DEVICE_UNIQUE_ATTESTATION,
+        KIND_BOOLEAN,
+        "individualAttestation");
+    NUMBER_SLOTS = numberSlots;
+    SET_SLOTS = setSlots;
+    BYTES_SLOTS = bytesSlots;
+  }
+
+  private AuthorizationListLayout() {}
+
+  private static void define(int field, int tag, int kind, String name) {
+    TAG[field] = tag;
+    NAME[field] = name;
+    KIND[field] = kind;
+    FIELD_BY_TAG[tag] = (byte) field;
+    switch (kind) {
+      case KIND_INTEGER:
+      case KIND_LONG:
+        SLOT[field] = numberSlots++;
+        break;
+      case KIND_INTEGER_SET:
+        SLOT[field] = setSlots++;
+        break;
+      case KIND_BYTES:
+        SLOT[field] = bytesSlots++;
+        break;
+      default:
+        SLOT[field] = -1;
+        break;
+    }
+  }
+
+  /** Returns the field of the given tag, or -1 for tags this library does not model. */
+  static int fieldForTag(int tag) {
+    if (tag < 0 || tag > MAX_TAG) {
+      return -1;
+    }
+    return FIELD_BY_TAG[tag];
+  }
+
+  /** Returns the field of the given member name, or -1 if there is none. */
+  static int fieldForName(String name) {
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      if (NAME[field].equals(name)) {
+        return field;
+      }
+    }
+    return -1;
+  }
+
+  static long bit(int field) {
+    return 1L << field;
+  }
+}
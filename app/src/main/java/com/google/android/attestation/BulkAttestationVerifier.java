@@ -0,0 +1,392 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import java.io.ByteArrayInputStream;
+import java.security.PublicKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXReason;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Parses and checks many attestation certificate chains in parallel. Chains are given as lists of
+ * DER encoded certificates, leaf first. Work is split into batches that run on the configured
+ * executor; every batch builds its own results, so the parse path shares no mutable state. Chains
+ * are validated up to a trusted root key through a {@link CertificateChainValidator}, which
+ * remembers verified intermediates across chains.
+ */
+public class BulkAttestationVerifier implements AutoCloseable {
+
+  /** Outcome of verifying one chain. */
+  public enum Status {
+    /** The chain validated up to a trusted root and the leaf record parsed and passed the check. */
+    VALID,
+    /**
+     * The leaf record parsed and passed the check, but chain validation is turned off, so nothing
+     * about the chain is known.
+     */
+    PARSED,
+    EMPTY_CHAIN,
+    MALFORMED_CERTIFICATE,
+    MISSING_EXTENSION,
+    MALFORMED_EXTENSION,
+    UNTRUSTED_ROOT,
+    OUTSIDE_VALIDITY,
+    BROKEN_CHAIN,
+    INVALID_SIGNATURE,
+    CHECK_FAILED
+  }
+
+  private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return CertificateFactory.getInstance("X.509");
+            } catch (CertificateException e) {
+              throw new IllegalStateException(e);
+            }
+          });
+
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final int batchSize;
+  private final int maxPendingBatches;
+  private final CertificateChainValidator chainValidator;
+  private final Predicate<ParsedAttestationRecord> recordCheck;
+
+  private BulkAttestationVerifier(Builder builder) {
+    if (!builder.verifySignatures) {
+      this.chainValidator = null;
+    } else if (builder.chainValidator != null) {
+      this.chainValidator = builder.chainValidator;
+    } else if (builder.trustedRootKeys != null) {
+      this.chainValidator = new CertificateChainValidator(builder.trustedRootKeys);
+    } else {
+      throw new IllegalStateException(
+          "Verifying signatures needs trusted root keys or a chain validator.");
+    }
+    this.batchSize = builder.batchSize;
+    this.maxPendingBatches = builder.maxPendingBatches;
+    // Created last, so that a rejected configuration leaves no pool behind.
+    if (builder.executor != null) {
+      this.executor = builder.executor;
+      this.ownsExecutor = false;
+    } else if (builder.parallelism > 0) {
+      this.executor = new ForkJoinPool(builder.parallelism);
+      this.ownsExecutor = true;
+    } else {
+      this.executor = ForkJoinPool.commonPool();
+      this.ownsExecutor = false;
+    }
+    this.recordCheck = builder.recordCheck;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Verifies all chains of the stream and blocks until every result is available. The stream is
+   * consumed a batch at a time; at most {@link Builder#setMaxPendingBatches} batches are read
+   * ahead of the oldest unfinished one.
+   */
+  public Report verify(Stream<List<byte[]>> chains) {
+    return verify(chains.iterator());
+  }
+
+  /** Verifies all chains and blocks until every result is available. */
+  public Report verify(List<List<byte[]>> chains) {
+    return verify(chains.iterator());
+  }
+
+  private Report verify(Iterator<List<byte[]>> chains) {
+    long start = System.nanoTime();
+    Deque<Future<List<ChainResult>>> pending = new ArrayDeque<>();
+    List<ChainResult> results = new ArrayList<>();
+    try {
+      int index = 0;
+      while (chains.hasNext()) {
+        List<List<byte[]>> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && chains.hasNext()) {
+          batch.add(chains.next());
+        }
+        if (pending.size() == maxPendingBatches) {
+          results.addAll(pending.removeFirst().get());
+        }
+        int batchStart = index;
+        pending.addLast(executor.submit(() -> verifyBatch(batchStart, batch)));
+        index += batch.size();
+      }
+      while (!pending.isEmpty()) {
+        results.addAll(pending.removeFirst().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      pending.forEach(batch -> batch.cancel(true));
+      throw new IllegalStateException("Interrupted while verifying attestation chains.", e);
+    } catch (ExecutionException e) {
+      pending.forEach(batch -> batch.cancel(true));
+      throw new IllegalStateException("Attestation chain verification failed.", e.getCause());
+    }
+    return new Report(results, System.nanoTime() - start);
+  }
+
+  private List<ChainResult> verifyBatch(int firstIndex, List<List<byte[]>> batch) {
+    List<ChainResult> results = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      results.add(verifyChain(firstIndex + i, batch.get(i)));
+    }
+    return results;
+  }
+
+  /** Verifies a single chain on the calling thread. */
+  public ChainResult verifyChain(int index, List<byte[]> encodedChain) {
+    if (encodedChain == null || encodedChain.isEmpty()) {
+      return new ChainResult(index, Status.EMPTY_CHAIN, null, "Chain has no certificates.");
+    }
+    X509Certificate[] chain = new X509Certificate[encodedChain.size()];
+    CertificateFactory factory = CERTIFICATE_FACTORY.get();
+    for (int i = 0; i < chain.length; i++) {
+      try {
+        chain[i] =
+            (X509Certificate)
+                factory.generateCertificate(new ByteArrayInputStream(encodedChain.get(i)));
+      } catch (CertificateException | RuntimeException e) {
+        return new ChainResult(index, Status.MALFORMED_CERTIFICATE, null, "Certificate " + i);
+      }
+    }
+    if (chainValidator != null) {
+      try {
+        chainValidator.validate(chain);
+      } catch (CertPathValidatorException e) {
+        return new ChainResult(index, status(e.getReason()), null, e.getMessage());
+      } catch (RuntimeException e) {
+        return new ChainResult(index, Status.INVALID_SIGNATURE, null, e.getMessage());
+      }
+    }
+    // Hostile extensions are common in bulk input, so they are rejected without exceptions.
+    AttestationParseResult parsed = ParsedAttestationRecord.parse(chain[0]);
+    if (parsed.errorCode == AttestationParseResult.ErrorCode.NO_ATTESTATION_EXTENSION) {
+      return new ChainResult(index, Status.MISSING_EXTENSION, null, null);
+    } else if (!parsed.isSuccess()) {
+      return new ChainResult(index, Status.MALFORMED_EXTENSION, null, parsed.toString());
+    }
+    ParsedAttestationRecord record = parsed.record;
+    if (recordCheck != null && !recordCheck.test(record)) {
+      return new ChainResult(index, Status.CHECK_FAILED, record, null);
+    }
+    return new ChainResult(
+        index, chainValidator != null ? Status.VALID : Status.PARSED, record, null);
+  }
+
+  /**
+   * Shuts down the pool created for {@link Builder#setParallelism}. An executor given to {@link
+   * Builder#setExecutor} belongs to the caller and is left running.
+   */
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  private static Status status(CertPathValidatorException.Reason reason) {
+    if (reason == PKIXReason.NO_TRUST_ANCHOR) {
+      return Status.UNTRUSTED_ROOT;
+    } else if (reason == BasicReason.EXPIRED || reason == BasicReason.NOT_YET_VALID) {
+      return Status.OUTSIDE_VALIDITY;
+    } else if (reason == PKIXReason.NAME_CHAINING) {
+      return Status.BROKEN_CHAIN;
+    }
+    return Status.INVALID_SIGNATURE;
+  }
+
+  /** Verification result of one chain. */
+  public static final class ChainResult {
+    /** Position of the chain in the input. */
+    public final int index;
+
+    public final Status status;
+    /** The parsed leaf record, or null if parsing did not get that far. */
+    public final ParsedAttestationRecord record;
+    /** Human readable detail for failures, may be null. */
+    public final String detail;
+
+    ChainResult(int index, Status status, ParsedAttestationRecord record, String detail) {
+      this.index = index;
+      this.status = status;
+      this.record = record;
+      this.detail = detail;
+    }
+
+    public boolean isValid() {
+      return status == Status.VALID;
+    }
+  }
+
+  /** Per-chain results in input order plus aggregate counts. */
+  public static final class Report {
+    public final List<ChainResult> results;
+    public final long elapsedNanos;
+    private final Map<Status, Integer> statusCounts = new EnumMap<>(Status.class);
+    private final Map<SecurityLevel, Integer> securityLevelCounts =
+        new EnumMap<>(SecurityLevel.class);
+
+    Report(List<ChainResult> results, long elapsedNanos) {
+      this.results = Collections.unmodifiableList(results);
+      this.elapsedNanos = elapsedNanos;
+      for (ChainResult result : results) {
+        statusCounts.merge(result.status, 1, Integer::sum);
+        if (result.record != null) {
+          securityLevelCounts.merge(result.record.keymasterSecurityLevel, 1, Integer::sum);
+        }
+      }
+    }
+
+    public int total() {
+      return results.size();
+    }
+
+    public int count(Status status) {
+      return statusCounts.getOrDefault(status, 0);
+    }
+
+    public int validCount() {
+      return count(Status.VALID);
+    }
+
+    /** Number of parsed records by keymaster security level. */
+    public int count(SecurityLevel securityLevel) {
+      return securityLevelCounts.getOrDefault(securityLevel, 0);
+    }
+
+    public double chainsPerSecond() {
+      return elapsedNanos == 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Report{total=%d, byStatus=%s, bySecurityLevel=%s, elapsedMs=%.1f, chainsPerSecond=%.0f}",
+          total(), statusCounts, securityLevelCounts, elapsedNanos / 1e6, chainsPerSecond());
+    }
+  }
+
+  /** Builder for a {@link BulkAttestationVerifier}. */
+  public static final class Builder {
+    private ExecutorService executor;
+    private int parallelism;
+    private int batchSize = 64;
+    private int maxPendingBatches = 16;
+    private boolean verifySignatures = true;
+    private CertificateChainValidator chainValidator;
+    private Collection<? extends PublicKey> trustedRootKeys;
+    private Predicate<ParsedAttestationRecord> recordCheck;
+
+    /**
+     * Executor or ForkJoinPool running the batches; defaults to the common pool. The caller keeps
+     * ownership and shuts it down.
+     */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Runs the batches on a dedicated ForkJoinPool of the given parallelism, which {@link
+     * BulkAttestationVerifier#close()} shuts down. Ignored if an executor is set.
+     */
+    public Builder setParallelism(int parallelism) {
+      if (parallelism <= 0) {
+        throw new IllegalArgumentException("Parallelism must be positive.");
+      }
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public Builder setBatchSize(int batchSize) {
+      if (batchSize <= 0) {
+        throw new IllegalArgumentException("Batch size must be positive.");
+      }
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /** Number of batches submitted ahead of the oldest unfinished one; defaults to 16. */
+    public Builder setMaxPendingBatches(int maxPendingBatches) {
+      if (maxPendingBatches <= 0) {
+        throw new IllegalArgumentException("Max pending batches must be positive.");
+      }
+      this.maxPendingBatches = maxPendingBatches;
+      return this;
+    }
+
+    /**
+     * Whether chains are validated up to a trusted root key; on by default. Validation needs
+     * {@link #setTrustedRootKeys} or {@link #setChainValidator}. Without it, chains whose record
+     * parses get {@link Status#PARSED}, never {@link Status#VALID}.
+     */
+    public Builder setVerifySignatures(boolean verifySignatures) {
+      this.verifySignatures = verifySignatures;
+      return this;
+    }
+
+    /** Root keys trusted by the validator this verifier creates. */
+    public Builder setTrustedRootKeys(Collection<? extends PublicKey> trustedRootKeys) {
+      this.trustedRootKeys = trustedRootKeys;
+      return this;
+    }
+
+    /**
+     * Validator checking the chains, e.g. one shared with other verifiers so that verified
+     * intermediates are remembered across batches. Takes precedence over {@link
+     * #setTrustedRootKeys}.
+     */
+    public Builder setChainValidator(CertificateChainValidator chainValidator) {
+      this.chainValidator = chainValidator;
+      return this;
+    }
+
+    /** Additional check on the parsed leaf record; chains failing it get CHECK_FAILED. */
+    public Builder setRecordCheck(Predicate<ParsedAttestationRecord> recordCheck) {
+      this.recordCheck = recordCheck;
+      return this;
+    }
+
+    public BulkAttestationVerifier build() {
+      return new BulkAttestationVerifier(this);
+    }
+  }
+}
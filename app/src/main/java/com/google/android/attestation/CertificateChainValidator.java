@@ -0,0 +1,244 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.PKIXReason;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates attestation certificate chains against a fixed set of trusted root public keys. A chain
+ * is valid if every certificate is within its validity period, names the next one as its issuer and
+ * carries a valid signature by its key, and the last certificate has one of the trusted keys.
+ *
+ * <p>Signature checks of edges above the leaf are remembered by the hash of the issuer's public
+ * key and the hash of the subject certificate, but only once a whole chain validated. Device
+ * chains share their intermediates and root, so after the first chain only the leaf signature
+ * costs a verification. Trust anchor and validity period are checked on every call.
+ *
+ * <p>Instances are thread safe and meant to be shared.
+ */
+public class CertificateChainValidator {
+
+  public static final int DEFAULT_MAX_EDGES = 4096;
+
+  private static final int HASH_LENGTH = 32;
+
+  private static final ThreadLocal<MessageDigest> SHA256 =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+              throw new IllegalStateException(e);
+            }
+          });
+
+  private final Set<ByteBuffer> trustedRootKeys;
+  private final int maxEdges;
+  private final Set<ByteBuffer> verifiedEdges = ConcurrentHashMap.newKeySet();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder leafVerifications = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  public CertificateChainValidator(Collection<? extends PublicKey> trustedRootKeys) {
+    this(trustedRootKeys, DEFAULT_MAX_EDGES);
+  }
+
+  /**
+   * @param trustedRootKeys keys one of which must be the key of the last certificate of a chain
+   * @param maxEdges number of verified edges remembered; further edges are verified every time
+   */
+  public CertificateChainValidator(
+      Collection<? extends PublicKey> trustedRootKeys, int maxEdges) {
+    if (trustedRootKeys.isEmpty()) {
+      throw new IllegalArgumentException("At least one trusted root key is required.");
+    }
+    if (maxEdges < 0) {
+      throw new IllegalArgumentException("maxEdges must not be negative.");
+    }
+    Set<ByteBuffer> keys = new HashSet<>();
+    for (PublicKey key : trustedRootKeys) {
+      keys.add(ByteBuffer.wrap(key.getEncoded()));
+    }
+    this.trustedRootKeys = keys;
+    this.maxEdges = maxEdges;
+  }
+
+  /** Validates a chain given leaf first at the current time. */
+  public void validate(X509Certificate[] chain) throws CertPathValidatorException {
+    validate(chain, new Date());
+  }
+
+  /**
+   * Validates a chain given leaf first at the given time.
+   *
+   * @throws CertPathValidatorException if the chain is empty or invalid; the reason is {@link
+   *     PKIXReason#NO_TRUST_ANCHOR}, {@link PKIXReason#NAME_CHAINING}, {@link
+   *     BasicReason#INVALID_SIGNATURE}, {@link BasicReason#EXPIRED} or {@link
+   *     BasicReason#NOT_YET_VALID}
+   */
+  public void validate(X509Certificate[] chain, Date date) throws CertPathValidatorException {
+    if (chain == null || chain.length == 0) {
+      throw new CertPathValidatorException("Certificate chain is empty.");
+    }
+    X509Certificate root = chain[chain.length - 1];
+    if (!trustedRootKeys.contains(ByteBuffer.wrap(root.getPublicKey().getEncoded()))) {
+      throw failure("Chain does not end in a trusted root key.", null, PKIXReason.NO_TRUST_ANCHOR);
+    }
+    for (int i = 0; i < chain.length; i++) {
+      checkValidity(chain[i], date, i);
+    }
+    List<ByteBuffer> newEdges = new ArrayList<>(chain.length);
+    for (int i = 0; i < chain.length - 1; i++) {
+      X509Certificate subject = chain[i];
+      X509Certificate issuer = chain[i + 1];
+      if (!subject.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())) {
+        throw failure(
+            "Certificate " + i + " is not issued by certificate " + (i + 1) + ".",
+            null,
+            PKIXReason.NAME_CHAINING);
+      }
+      // Leaf certificates are unique per key, remembering them would only fill the cache.
+      if (i == 0) {
+        leafVerifications.increment();
+        verify(subject, issuer, i);
+        continue;
+      }
+      ByteBuffer edge = edge(subject, issuer);
+      if (verifiedEdges.contains(edge)) {
+        hits.increment();
+        continue;
+      }
+      misses.increment();
+      verify(subject, issuer, i);
+      newEdges.add(edge);
+    }
+    for (ByteBuffer edge : newEdges) {
+      if (verifiedEdges.size() >= maxEdges) {
+        break;
+      }
+      verifiedEdges.add(edge);
+    }
+  }
+
+  private void checkValidity(X509Certificate certificate, Date date, int index)
+      throws CertPathValidatorException {
+    try {
+      certificate.checkValidity(date);
+    } catch (CertificateExpiredException e) {
+      throw failure("Certificate " + index + " has expired.", e, BasicReason.EXPIRED);
+    } catch (CertificateNotYetValidException e) {
+      throw failure("Certificate " + index + " is not yet valid.", e, BasicReason.NOT_YET_VALID);
+    }
+  }
+
+  private void verify(X509Certificate subject, X509Certificate issuer, int index)
+      throws CertPathValidatorException {
+    try {
+      subject.verify(issuer.getPublicKey());
+    } catch (GeneralSecurityException e) {
+      throw failure(
+          "Signature of certificate " + index + " is invalid.", e, BasicReason.INVALID_SIGNATURE);
+    }
+  }
+
+  private CertPathValidatorException failure(
+      String message, Throwable cause, CertPathValidatorException.Reason reason) {
+    failures.increment();
+    return new CertPathValidatorException(message, cause, null, -1, reason);
+  }
+
+  private static ByteBuffer edge(X509Certificate subject, X509Certificate issuer)
+      throws CertPathValidatorException {
+    MessageDigest digest = SHA256.get();
+    byte[] edge = new byte[2 * HASH_LENGTH];
+    try {
+      digest.update(issuer.getPublicKey().getEncoded());
+      digest.digest(edge, 0, HASH_LENGTH);
+      digest.update(subject.getEncoded());
+      digest.digest(edge, HASH_LENGTH, HASH_LENGTH);
+    } catch (CertificateEncodingException e) {
+      throw new CertPathValidatorException("Certificate cannot be encoded.", e);
+    } catch (DigestException e) {
+      throw new IllegalStateException(e);
+    }
+    return ByteBuffer.wrap(edge);
+  }
+
+  /** Drops all remembered edges; the counters are kept. */
+  public void clear() {
+    verifiedEdges.clear();
+  }
+
+  /** Number of remembered edges. */
+  public int size() {
+    return verifiedEdges.size();
+  }
+
+  /** Edges above the leaf that were found in the cache. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Edges above the leaf whose signature had to be verified. */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getLeafVerificationCount() {
+    return leafVerifications.sum();
+  }
+
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /** Share of edges above the leaf that were served from the cache, or 0 before any lookup. */
+  public double getHitRate() {
+    long hits = getHitCount();
+    long lookups = hits + getMissCount();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "CertificateChainValidator{edges=%d, hits=%d, misses=%d, leafVerifications=%d,"
+            + " failures=%d}",
+        size(), getHitCount(), getMissCount(), getLeafVerificationCount(), getFailureCount());
+  }
+}
@@ -26,8 +26,12 @@ import java.io.Reader;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 
 /**
@@ -35,7 +39,7 @@ import java.util.HashMap;
  */
 public class CertificateRevocationStatus {
 
-  private static final String STATUS_URL = "https://android.googleapis.com/attestation/status";
+  static final String STATUS_URL = "https://android.googleapis.com/attestation/status";
   public final Status status;
   public final Reason reason;
   public final String comment;
@@ -56,7 +60,7 @@ public class CertificateRevocationStatus {
   private static HashMap<String, CertificateRevocationStatus> getEntryToStatusMap(
           Reader statusListReader) {
     JsonObject entries =
-            new JsonParser().parse(statusListReader).getAsJsonObject().getAsJsonObject("entries");
+            JsonParser.parseReader(statusListReader).getAsJsonObject().getAsJsonObject("entries");
 
     HashMap<String, CertificateRevocationStatus> serialNumberToStatus = new HashMap<>();
     for (String serialNumber : entries.keySet()) {
@@ -100,6 +104,18 @@ public class CertificateRevocationStatus {
 
   }
 
+  /**
+   * Downloads the status list once and checks all certificates of the given chains against it.
+   * Prefer a {@link RevocationStatusService} when checking repeatedly.
+   */
+  public static List<ChainRevocationStatus> fetchChainStatuses(
+      Collection<X509Certificate[]> chains) throws IOException {
+    try (Reader statusListReader =
+        new InputStreamReader(new URL(STATUS_URL).openStream(), StandardCharsets.UTF_8)) {
+      return RevocationIndex.load(statusListReader).checkChains(chains);
+    }
+  }
+
   private static CertificateRevocationStatus decodeStatus(String serialNumber,
       Reader statusListReader) {
     if (serialNumber == null) {
@@ -107,7 +123,7 @@ public class CertificateRevocationStatus {
     }
     serialNumber = serialNumber.toLowerCase();
 
-    JsonObject entries = new JsonParser().parse(statusListReader)
+    JsonObject entries = JsonParser.parseReader(statusListReader)
         .getAsJsonObject()
         .getAsJsonObject("entries");
 
@@ -132,4 +148,11 @@ public class CertificateRevocationStatus {
     comment = null;
     expires = null;
   }
+
+  CertificateRevocationStatus(Status status, Reason reason, String comment, String expires) {
+    this.status = status;
+    this.reason = reason;
+    this.comment = comment;
+    this.expires = expires;
+  }
 }
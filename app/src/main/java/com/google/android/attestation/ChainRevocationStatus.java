@@ -0,0 +1,94 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import com.google.android.attestation.CertificateRevocationStatus.Status;
+
+/**
+ * Revocation status of a certificate chain, as checked by {@link RevocationIndex#checkChains}.
+ * Holds the status list entry of every certificate of the chain plus an overall verdict.
+ */
+public final class ChainRevocationStatus {
+
+  /** Overall verdict of a chain, the worst status of its certificates. */
+  public enum Verdict {
+    /** No certificate of the chain is on the list. */
+    GOOD,
+    /** A certificate is suspended, none is revoked. */
+    SUSPENDED,
+    /** A certificate is revoked, or listed with a status this version does not know. */
+    REVOKED
+  }
+
+  /** Position of the chain in the checked collection. */
+  public final int index;
+
+  public final Verdict verdict;
+  private final CertificateRevocationStatus[] statuses;
+
+  ChainRevocationStatus(int index, CertificateRevocationStatus[] statuses) {
+    this.index = index;
+    this.statuses = statuses;
+    Verdict worst = Verdict.GOOD;
+    for (CertificateRevocationStatus status : statuses) {
+      if (status == null) {
+        continue;
+      }
+      if (status.status != Status.SUSPENDED) {
+        worst = Verdict.REVOKED;
+        break;
+      }
+      worst = Verdict.SUSPENDED;
+    }
+    this.verdict = worst;
+  }
+
+  public boolean isGood() {
+    return verdict == Verdict.GOOD;
+  }
+
+  /** Number of certificates in the chain. */
+  public int length() {
+    return statuses.length;
+  }
+
+  /** The list entry of the certificate at the given chain position, or null if it has none. */
+  public CertificateRevocationStatus getStatus(int position) {
+    return statuses[position];
+  }
+
+  /** Chain position of the first certificate on the list, leaf first, or -1. */
+  public int getFirstListedPosition() {
+    for (int i = 0; i < statuses.length; i++) {
+      if (statuses[i] != null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return "ChainRevocationStatus{index="
+        + index
+        + ", verdict="
+        + verdict
+        + ", firstListed="
+        + getFirstListedPosition()
+        + "}";
+  }
+}
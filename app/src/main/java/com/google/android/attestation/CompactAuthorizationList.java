@@ -0,0 +1,507 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.AuthorizationListLayout.ACTIVE_DATE_TIME;
+import static com.google.android.attestation.AuthorizationListLayout.ALGORITHM;
+import static com.google.android.attestation.AuthorizationListLayout.ALLOW_WHILE_ON_BODY;
+import static com.google.android.attestation.AuthorizationListLayout.ALL_APPLICATIONS;
+import static com.google.android.attestation.AuthorizationListLayout.APPLICATION_ID;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_APPLICATION_ID;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_BRAND;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_DEVICE;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_IMEI;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_MANUFACTURER;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_MEID;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_MODEL;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_PRODUCT;
+import static com.google.android.attestation.AuthorizationListLayout.ATTESTATION_ID_SERIAL;
+import static com.google.android.attestation.AuthorizationListLayout.AUTH_TIMEOUT;
+import static com.google.android.attestation.AuthorizationListLayout.BOOT_PATCH_LEVEL;
+import static com.google.android.attestation.AuthorizationListLayout.BYTES_SLOTS;
+import static com.google.android.attestation.AuthorizationListLayout.CREATION_DATE_TIME;
+import static com.google.android.attestation.AuthorizationListLayout.DEVICE_UNIQUE_ATTESTATION;
+import static com.google.android.attestation.AuthorizationListLayout.DIGEST;
+import static com.google.android.attestation.AuthorizationListLayout.EC_CURVE;
+import static com.google.android.attestation.AuthorizationListLayout.KEY_SIZE;
+import static com.google.android.attestation.AuthorizationListLayout.NO_AUTH_REQUIRED;
+import static com.google.android.attestation.AuthorizationListLayout.NUMBER_SLOTS;
+import static com.google.android.attestation.AuthorizationListLayout.ORIGIN;
+import static com.google.android.attestation.AuthorizationListLayout.ORIGINATION_EXPIRE_DATE_TIME;
+import static com.google.android.attestation.AuthorizationListLayout.OS_PATCH_LEVEL;
+import static com.google.android.attestation.AuthorizationListLayout.OS_VERSION;
+import static com.google.android.attestation.AuthorizationListLayout.PADDING;
+import static com.google.android.attestation.AuthorizationListLayout.PURPOSE;
+import static com.google.android.attestation.AuthorizationListLayout.ROLLBACK_RESISTANCE;
+import static com.google.android.attestation.AuthorizationListLayout.ROLLBACK_RESISTANT;
+import static com.google.android.attestation.AuthorizationListLayout.ROOT_OF_TRUST;
+import static com.google.android.attestation.AuthorizationListLayout.RSA_PUBLIC_EXPONENT;
+import static com.google.android.attestation.AuthorizationListLayout.SET_SLOTS;
+import static com.google.android.attestation.AuthorizationListLayout.SLOT;
+import static com.google.android.attestation.AuthorizationListLayout.TRUSTED_CONFIRMATION_REQUIRED;
+import static com.google.android.attestation.AuthorizationListLayout.TRUSTED_USER_PRESENCE_REQUIRED;
+import static com.google.android.attestation.AuthorizationListLayout.UNLOCKED_DEVICE_REQUIRED;
+import static com.google.android.attestation.AuthorizationListLayout.USAGE_EXPIRE_DATE_TIME;
+import static com.google.android.attestation.AuthorizationListLayout.USER_AUTH_TYPE;
+import static com.google.android.attestation.AuthorizationListLayout.VENDOR_PATCH_LEVEL;
+import static com.google.android.attestation.AuthorizationListLayout.bit;
+
+import com.google.android.attestation.AuthorizationList.UserAuthType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import org.bouncycastle.asn1.DEROctetString;
+
+/**
+ * Compact representation of an {@link AuthorizationList} for long-lived stores. Presence is kept
+ * in a bitmask, numbers in primitive slots and integer sets as small sorted arrays, so a record
+ * costs a handful of arrays instead of dozens of {@code Optional} wrappers and boxes.
+ *
+ * <p>Instances are built with {@link #of} from a decoded list, so the tag decoding stays in {@link
+ * AuthorizationList}. {@link AttestationRecordCodec} writes records from this form. The accessors
+ * mirror the {@link AuthorizationList} fields; the {@code Optional} results are created on each
+ * call.
+ */
+public final class CompactAuthorizationList {
+
+  private static final int[][] NO_SETS = new int[0][];
+  private static final byte[][] NO_BYTES = new byte[0][];
+  private static final long[] NO_NUMBERS = new long[0];
+
+  private final long presence;
+  private final long[] numbers;
+  private final int[][] sets;
+  private final byte[][] bytes;
+  private final RootOfTrust rootOfTrust;
+  private AttestationApplicationId attestationApplicationId;
+
+  private CompactAuthorizationList(
+      long presence,
+      long[] numbers,
+      int[][] sets,
+      byte[][] bytes,
+      RootOfTrust rootOfTrust,
+      AttestationApplicationId attestationApplicationId) {
+    this.presence = presence;
+    this.numbers = numbers;
+    this.sets = sets;
+    this.bytes = bytes;
+    this.rootOfTrust = rootOfTrust;
+    this.attestationApplicationId = attestationApplicationId;
+  }
+
+  /** Converts an existing authorization list into the compact form. */
+  public static CompactAuthorizationList of(AuthorizationList list) {
+    Writer writer = new Writer();
+    writer.setIntegerSet(PURPOSE, list.purpose);
+    writer.setInteger(ALGORITHM, list.algorithm);
+    writer.setInteger(KEY_SIZE, list.keySize);
+    writer.setIntegerSet(DIGEST, list.digest);
+    writer.setIntegerSet(PADDING, list.padding);
+    writer.setInteger(EC_CURVE, list.ecCurve);
+    writer.setLong(RSA_PUBLIC_EXPONENT, list.rsaPublicExponent);
+    writer.setBoolean(ROLLBACK_RESISTANCE, list.rollbackResistance);
+    writer.setLong(ACTIVE_DATE_TIME, list.activeDateTime.map(Instant::toEpochMilli));
+    writer.setLong(
+        ORIGINATION_EXPIRE_DATE_TIME, list.originationExpireDateTime.map(Instant::toEpochMilli));
+    writer.setLong(USAGE_EXPIRE_DATE_TIME, list.usageExpireDateTime.map(Instant::toEpochMilli));
+    writer.setBoolean(NO_AUTH_REQUIRED, list.noAuthRequired);
+    writer.setLong(USER_AUTH_TYPE, list.userAuthType.map(AuthorizationList::userAuthTypeToLong));
+    writer.setLong(AUTH_TIMEOUT, list.authTimeout.map(Duration::getSeconds));
+    writer.setBoolean(ALLOW_WHILE_ON_BODY, list.allowWhileOnBody);
+    writer.setBoolean(TRUSTED_USER_PRESENCE_REQUIRED, list.trustedUserPresenceRequired);
+    writer.setBoolean(TRUSTED_CONFIRMATION_REQUIRED, list.trustedConfirmationRequired);
+    writer.setBoolean(UNLOCKED_DEVICE_REQUIRED, list.unlockedDeviceRequired);
+    writer.setBoolean(ALL_APPLICATIONS, list.allApplications);
+    writer.setBytes(APPLICATION_ID, list.applicationId);
+    writer.setLong(CREATION_DATE_TIME, list.creationDateTime.map(Instant::toEpochMilli));
+    writer.setInteger(ORIGIN, list.origin);
+    writer.setBoolean(ROLLBACK_RESISTANT, list.rollbackResistant);
+    writer.setRootOfTrust(list.rootOfTrust.orElse(null));
+    writer.setInteger(OS_VERSION, list.osVersion);
+    writer.setInteger(OS_PATCH_LEVEL, list.osPatchLevel);
+    writer.setBytes(ATTESTATION_APPLICATION_ID, list.attestationApplicationIdBytes);
+    writer.attestationApplicationId = list.attestationApplicationId.orElse(null);
+    writer.setBytes(ATTESTATION_ID_BRAND, list.attestationIdBrand);
+    writer.setBytes(ATTESTATION_ID_DEVICE, list.attestationIdDevice);
+    writer.setBytes(ATTESTATION_ID_PRODUCT, list.attestationIdProduct);
+    writer.setBytes(ATTESTATION_ID_SERIAL, list.attestationIdSerial);
+    writer.setBytes(ATTESTATION_ID_IMEI, list.attestationIdImei);
+    writer.setBytes(ATTESTATION_ID_MEID, list.attestationIdMeid);
+    writer.setBytes(ATTESTATION_ID_MANUFACTURER, list.attestationIdManufacturer);
+    writer.setBytes(ATTESTATION_ID_MODEL, list.attestationIdModel);
+    writer.setInteger(VENDOR_PATCH_LEVEL, list.vendorPatchLevel);
+    writer.setInteger(BOOT_PATCH_LEVEL, list.bootPatchLevel);
+    writer.setBoolean(DEVICE_UNIQUE_ATTESTATION, list.individualAttestation);
+    return writer.build();
+  }
+
+  /** Expands the compact form back into an {@link AuthorizationList}. */
+  public AuthorizationList toAuthorizationList() {
+    return AuthorizationList.builder()
+        .setPurpose(purpose().orElse(null))
+        .setAlgorithm(algorithm().orElse(null))
+        .setKeySize(keySize().orElse(null))
+        .setDigest(digest().orElse(null))
+        .setPadding(padding().orElse(null))
+        .setEcCurve(ecCurve().orElse(null))
+        .setRsaPublicExponent(rsaPublicExponent().orElse(null))
+        .setRollbackResistance(rollbackResistance())
+        .setActiveDateTime(activeDateTime().orElse(null))
+        .setOriginationExpireDateTime(originationExpireDateTime().orElse(null))
+        .setUsageExpireDateTime(usageExpireDateTime().orElse(null))
+        .setNoAuthRequired(noAuthRequired())
+        .setUserAuthType(userAuthType().orElse(null))
+        .setAuthTimeout(authTimeout().orElse(null))
+        .setAllowWhileOnBody(allowWhileOnBody())
+        .setTrustedUserPresenceRequired(trustedUserPresenceRequired())
+        .setTrustedConfirmationRequired(trustedConfirmationRequired())
+        .setUnlockedDeviceRequired(unlockedDeviceRequired())
+        .setAllApplications(allApplications())
+        .setApplicationId(applicationId().orElse(null))
+        .setCreationDateTime(creationDateTime().orElse(null))
+        .setOrigin(origin().orElse(null))
+        .setRollbackResistant(rollbackResistant())
+        .setRootOfTrust(rootOfTrust)
+        .setOsVersion(osVersion().orElse(null))
+        .setOsPatchLevel(osPatchLevel().orElse(null))
+        .setAttestationApplicationId(attestationApplicationId().orElse(null))
+        .setAttestationApplicationIdBytes(attestationApplicationIdBytes().orElse(null))
+        .setAttestationIdBrand(attestationIdBrand().orElse(null))
+        .setAttestationIdDevice(attestationIdDevice().orElse(null))
+        .setAttestationIdProduct(attestationIdProduct().orElse(null))
+        .setAttestationIdSerial(attestationIdSerial().orElse(null))
+        .setAttestationIdImei(attestationIdImei().orElse(null))
+        .setAttestationIdMeid(attestationIdMeid().orElse(null))
+        .setAttestationIdManufacturer(attestationIdManufacturer().orElse(null))
+        .setAttestationIdModel(attestationIdModel().orElse(null))
+        .setVendorPatchLevel(vendorPatchLevel().orElse(null))
+        .setBootPatchLevel(bootPatchLevel().orElse(null))
+        .setIndividualAttestation(individualAttestation())
+        .build();
+  }
+
+  boolean isPresent(int field) {
+    return (presence & bit(field)) != 0;
+  }
+
+  // Raw slot access; the caller checks isPresent first.
+  long numberValue(int field) {
+    return numbers[SLOT[field]];
+  }
+
+  int[] integerSetValue(int field) {
+    return sets[SLOT[field]];
+  }
+
+  byte[] bytesValue(int field) {
+    return bytes[SLOT[field]];
+  }
+
+  long presence() {
+    return presence;
+  }
+
+  /** Returns whether the purpose set contains the given value, without allocating. */
+  public boolean hasPurpose(int purpose) {
+    return containsValue(PURPOSE, purpose);
+  }
+
+  /** Returns whether the digest set contains the given value, without allocating. */
+  public boolean hasDigest(int digest) {
+    return containsValue(DIGEST, digest);
+  }
+
+  /** Returns whether the padding set contains the given value, without allocating. */
+  public boolean hasPadding(int padding) {
+    return containsValue(PADDING, padding);
+  }
+
+  private boolean containsValue(int field, int value) {
+    return isPresent(field) && Arrays.binarySearch(integerSetValue(field), value) >= 0;
+  }
+
+  public Optional<Set<Integer>> purpose() {
+    return optionalIntegerSet(PURPOSE);
+  }
+
+  public Optional<Integer> algorithm() {
+    return optionalInteger(ALGORITHM);
+  }
+
+  public Optional<Integer> keySize() {
+    return optionalInteger(KEY_SIZE);
+  }
+
+  public Optional<Set<Integer>> digest() {
+    return optionalIntegerSet(DIGEST);
+  }
+
+  public Optional<Set<Integer>> padding() {
+    return optionalIntegerSet(PADDING);
+  }
+
+  public Optional<Integer> ecCurve() {
+    return optionalInteger(EC_CURVE);
+  }
+
+  public Optional<Long> rsaPublicExponent() {
+    return optionalLong(RSA_PUBLIC_EXPONENT);
+  }
+
+  public boolean rollbackResistance() {
+    return isPresent(ROLLBACK_RESISTANCE);
+  }
+
+  public Optional<Instant> activeDateTime() {
+    return optionalLong(ACTIVE_DATE_TIME).map(Instant::ofEpochMilli);
+  }
+
+  public Optional<Instant> originationExpireDateTime() {
+    return optionalLong(ORIGINATION_EXPIRE_DATE_TIME).map(Instant::ofEpochMilli);
+  }
+
+  public Optional<Instant> usageExpireDateTime() {
+    return optionalLong(USAGE_EXPIRE_DATE_TIME).map(Instant::ofEpochMilli);
+  }
+
+  public boolean noAuthRequired() {
+    return isPresent(NO_AUTH_REQUIRED);
+  }
+
+  public Optional<Set<UserAuthType>> userAuthType() {
+    return optionalLong(USER_AUTH_TYPE).map(AuthorizationList::userAuthTypeToEnum);
+  }
+
+  public Optional<Duration> authTimeout() {
+    return optionalLong(AUTH_TIMEOUT).map(Duration::ofSeconds);
+  }
+
+  public boolean allowWhileOnBody() {
+    return isPresent(ALLOW_WHILE_ON_BODY);
+  }
+
+  public boolean trustedUserPresenceRequired() {
+    return isPresent(TRUSTED_USER_PRESENCE_REQUIRED);
+  }
+
+  public boolean trustedConfirmationRequired() {
+    return isPresent(TRUSTED_CONFIRMATION_REQUIRED);
+  }
+
+  public boolean unlockedDeviceRequired() {
+    return isPresent(UNLOCKED_DEVICE_REQUIRED);
+  }
+
+  public boolean allApplications() {
+    return isPresent(ALL_APPLICATIONS);
+  }
+
+  public Optional<byte[]> applicationId() {
+    return optionalBytes(APPLICATION_ID);
+  }
+
+  public Optional<Instant> creationDateTime() {
+    return optionalLong(CREATION_DATE_TIME).map(Instant::ofEpochMilli);
+  }
+
+  public Optional<Integer> origin() {
+    return optionalInteger(ORIGIN);
+  }
+
+  public boolean rollbackResistant() {
+    return isPresent(ROLLBACK_RESISTANT);
+  }
+
+  public Optional<RootOfTrust> rootOfTrust() {
+    return Optional.ofNullable(rootOfTrust);
+  }
+
+  public Optional<Integer> osVersion() {
+    return optionalInteger(OS_VERSION);
+  }
+
+  public Optional<Integer> osPatchLevel() {
+    return optionalInteger(OS_PATCH_LEVEL);
+  }
+
+  /** Decoded from {@link #attestationApplicationIdBytes()} on first access. */
+  public Optional<AttestationApplicationId> attestationApplicationId() {
+    if (attestationApplicationId == null && isPresent(ATTESTATION_APPLICATION_ID)) {
+      attestationApplicationId =
+          AttestationApplicationId.createAttestationApplicationId(
+              new DEROctetString(bytesValue(ATTESTATION_APPLICATION_ID)));
+    }
+    return Optional.ofNullable(attestationApplicationId);
+  }
+
+  public Optional<byte[]> attestationApplicationIdBytes() {
+    return optionalBytes(ATTESTATION_APPLICATION_ID);
+  }
+
+  public Optional<byte[]> attestationIdBrand() {
+    return optionalBytes(ATTESTATION_ID_BRAND);
+  }
+
+  public Optional<byte[]> attestationIdDevice() {
+    return optionalBytes(ATTESTATION_ID_DEVICE);
+  }
+
+  public Optional<byte[]> attestationIdProduct() {
+    return optionalBytes(ATTESTATION_ID_PRODUCT);
+  }
+
+  public Optional<byte[]> attestationIdSerial() {
+    return optionalBytes(ATTESTATION_ID_SERIAL);
+  }
+
+  public Optional<byte[]> attestationIdImei() {
+    return optionalBytes(ATTESTATION_ID_IMEI);
+  }
+
+  public Optional<byte[]> attestationIdMeid() {
+    return optionalBytes(ATTESTATION_ID_MEID);
+  }
+
+  public Optional<byte[]> attestationIdManufacturer() {
+    return optionalBytes(ATTESTATION_ID_MANUFACTURER);
+  }
+
+  public Optional<byte[]> attestationIdModel() {
+    return optionalBytes(ATTESTATION_ID_MODEL);
+  }
+
+  public Optional<Integer> vendorPatchLevel() {
+    return optionalInteger(VENDOR_PATCH_LEVEL);
+  }
+
+  public Optional<Integer> bootPatchLevel() {
+    return optionalInteger(BOOT_PATCH_LEVEL);
+  }
+
+  public boolean individualAttestation() {
+    return isPresent(DEVICE_UNIQUE_ATTESTATION);
+  }
+
+  private Optional<Integer> optionalInteger(int field) {
+    return isPresent(field) ? Optional.of((int) numberValue(field)) : Optional.empty();
+  }
+
+  private Optional<Long> optionalLong(int field) {
+    return isPresent(field) ? Optional.of(numberValue(field)) : Optional.empty();
+  }
+
+  private Optional<byte[]> optionalBytes(int field) {
+    return isPresent(field) ? Optional.of(bytesValue(field)) : Optional.empty();
+  }
+
+  private Optional<Set<Integer>> optionalIntegerSet(int field) {
+    if (!isPresent(field)) {
+      return Optional.empty();
+    }
+    Set<Integer> result = new HashSet<>();
+    for (int value : integerSetValue(field)) {
+      result.add(value);
+    }
+    return Optional.of(result);
+  }
+
+  /** Collects field values and allocates only the storage the present fields need. */
+  static final class Writer {
+    private long presence;
+    private long[] numbers = NO_NUMBERS;
+    private int[][] sets = NO_SETS;
+    private byte[][] bytes = NO_BYTES;
+    private RootOfTrust rootOfTrust;
+    AttestationApplicationId attestationApplicationId;
+
+    void setNumber(int field, long value) {
+      if (numbers.length == 0) {
+        numbers = new long[NUMBER_SLOTS];
+      }
+      numbers[SLOT[field]] = value;
+      presence |= bit(field);
+    }
+
+    void setInteger(int field, Optional<Integer> value) {
+      value.ifPresent(v -> setNumber(field, v));
+    }
+
+    void setLong(int field, Optional<Long> value) {
+      value.ifPresent(v -> setNumber(field, v));
+    }
+
+    /** Takes ownership of the array; it is sorted and deduplicated in place. */
+    void setIntegerSet(int field, int[] values) {
+      Arrays.sort(values);
+      int size = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (i == 0 || values[i] != values[i - 1]) {
+          values[size++] = values[i];
+        }
+      }
+      if (sets.length == 0) {
+        sets = new int[SET_SLOTS][];
+      }
+      sets[SLOT[field]] = size == values.length ? values : Arrays.copyOf(values, size);
+      presence |= bit(field);
+    }
+
+    void setIntegerSet(int field, Optional<Set<Integer>> value) {
+      if (value.isPresent()) {
+        int[] values = new int[value.get().size()];
+        int i = 0;
+        for (Integer v : value.get()) {
+          values[i++] = v;
+        }
+        setIntegerSet(field, values);
+      }
+    }
+
+    void setBoolean(int field, boolean value) {
+      if (value) {
+        presence |= bit(field);
+      }
+    }
+
+    void setBytes(int field, byte[] value) {
+      if (bytes.length == 0) {
+        bytes = new byte[BYTES_SLOTS][];
+      }
+      bytes[SLOT[field]] = value;
+      presence |= bit(field);
+    }
+
+    void setBytes(int field, Optional<byte[]> value) {
+      value.ifPresent(v -> setBytes(field, v));
+    }
+
+    void setRootOfTrust(RootOfTrust value) {
+      if (value != null) {
+        rootOfTrust = value;
+        presence |= bit(ROOT_OF_TRUST);
+      }
+    }
+
+    CompactAuthorizationList build() {
+      return new CompactAuthorizationList(
+          presence, numbers, sets, bytes, rootOfTrust, attestationApplicationId);
+    }
+  }
+}
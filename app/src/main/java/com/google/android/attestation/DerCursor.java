@@ -0,0 +1,225 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import java.util.Arrays;
+
+/**
+ * Forward-only reader over DER encoded bytes. The cursor only decodes element headers; values are
+ * left in place and read on demand, so walking a structure does not allocate.
+ *
+ * <p>Malformed input never throws: {@link #next()} returns false and {@link #isMalformed()}
+ * reports that the walk stopped early.
+ */
+final class DerCursor {
+
+  static final int CLASS_UNIVERSAL = 0;
+  static final int CLASS_CONTEXT = 2;
+
+  static final int TAG_BOOLEAN = 0x01;
+  static final int TAG_INTEGER = 0x02;
+  static final int TAG_OCTET_STRING = 0x04;
+  static final int TAG_NULL = 0x05;
+  static final int TAG_OBJECT_IDENTIFIER = 0x06;
+  static final int TAG_ENUMERATED = 0x0A;
+  static final int TAG_SEQUENCE = 0x10;
+  static final int TAG_SET = 0x11;
+
+  private final byte[] buf;
+  private final int end;
+  private int pos;
+  private boolean malformed;
+
+  private int elementOffset;
+  private int tagClass;
+  private int tagNumber;
+  private boolean constructed;
+  private int valueOffset;
+  private int valueLength;
+
+  DerCursor(byte[] buf) {
+    this(buf, 0, buf.length);
+  }
+
+  DerCursor(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+
+  /** Moves to the next element. Returns false at the end of the input or on malformed input. */
+  boolean next() {
+    if (malformed || pos >= end) {
+      return false;
+    }
+    int p = pos;
+    int identifier = buf[p++] & 0xFF;
+    int number = identifier & 0x1F;
+    if (number == 0x1F) {
+      // High tag number form, base 128 with the continuation bit set on all but the last byte.
+      number = 0;
+      int b;
+      int count = 0;
+      do {
+        if (p >= end || ++count > 4) {
+          return fail();
+        }
+        b = buf[p++] & 0xFF;
+        if (count == 1 && b == 0x80) {
+          return fail();
+        }
+        number = (number << 7) | (b & 0x7F);
+      } while ((b & 0x80) != 0);
+    }
+    if (p >= end) {
+      return fail();
+    }
+    int length = buf[p++] & 0xFF;
+    if (length > 0x7F) {
+      int count = length & 0x7F;
+      // Indefinite lengths are not DER; more than three length bytes cannot fit in an array.
+      if (count == 0 || count > 3 || end - p < count) {
+        return fail();
+      }
+      length = 0;
+      for (int i = 0; i < count; i++) {
+        length = (length << 8) | (buf[p++] & 0xFF);
+      }
+    }
+    if (length > end - p) {
+      return fail();
+    }
+    elementOffset = pos;
+    tagClass = identifier >>> 6;
+    constructed = (identifier & 0x20) != 0;
+    tagNumber = number;
+    valueOffset = p;
+    valueLength = length;
+    pos = p + length;
+    return true;
+  }
+
+  private boolean fail() {
+    malformed = true;
+    return false;
+  }
+
+  boolean isMalformed() {
+    return malformed;
+  }
+
+  /** Returns a cursor over the contents of the current element. */
+  DerCursor enter() {
+    return new DerCursor(buf, valueOffset, valueLength);
+  }
+
+  boolean is(int tagClass, int tagNumber) {
+    return this.tagClass == tagClass && this.tagNumber == tagNumber;
+  }
+
+  boolean isUniversal(int tagNumber) {
+    return is(CLASS_UNIVERSAL, tagNumber);
+  }
+
+  byte[] buffer() {
+    return buf;
+  }
+
+  int tagClass() {
+    return tagClass;
+  }
+
+  int tagNumber() {
+    return tagNumber;
+  }
+
+  boolean isConstructed() {
+    return constructed;
+  }
+
+  int elementOffset() {
+    return elementOffset;
+  }
+
+  int elementLength() {
+    return valueOffset + valueLength - elementOffset;
+  }
+
+  int valueOffset() {
+    return valueOffset;
+  }
+
+  int valueLength() {
+    return valueLength;
+  }
+
+  /**
+   * Returns whether the current element is a minimally encoded INTEGER or ENUMERATED whose value
+   * fits into {@code maxBytes} two's complement bytes.
+   */
+  boolean isInteger(int maxBytes) {
+    if (constructed
+        || tagClass != CLASS_UNIVERSAL
+        || (tagNumber != TAG_INTEGER && tagNumber != TAG_ENUMERATED)
+        || valueLength == 0
+        || valueLength > maxBytes) {
+      return false;
+    }
+    if (valueLength > 1) {
+      int first = buf[valueOffset];
+      int second = buf[valueOffset + 1] & 0x80;
+      if ((first == 0 && second == 0) || (first == -1 && second != 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Decodes the current INTEGER or ENUMERATED; the caller checks {@link #isInteger(int)} first. */
+  int intValue() {
+    return (int) longValue();
+  }
+
+  /** Decodes the current INTEGER or ENUMERATED; the caller checks {@link #isInteger(int)} first. */
+  long longValue() {
+    long value = buf[valueOffset];
+    for (int i = 1; i < valueLength; i++) {
+      value = (value << 8) | (buf[valueOffset + i] & 0xFF);
+    }
+    return value;
+  }
+
+  boolean isBoolean() {
+    return !constructed && isUniversal(TAG_BOOLEAN) && valueLength == 1;
+  }
+
+  boolean booleanValue() {
+    return buf[valueOffset] != 0;
+  }
+
+  boolean isOctetString() {
+    return !constructed && isUniversal(TAG_OCTET_STRING);
+  }
+
+  byte[] octets() {
+    return Arrays.copyOfRange(buf, valueOffset, valueOffset + valueLength);
+  }
+
+  /** Returns a copy of the complete current element, header included. */
+  byte[] element() {
+    return Arrays.copyOfRange(buf, elementOffset, valueOffset + valueLength);
+  }
+}
@@ -0,0 +1,496 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.Constants.KM_TAG_ACTIVE_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_ALGORITHM;
+import static com.google.android.attestation.Constants.KM_TAG_ALLOW_WHILE_ON_BODY;
+import static com.google.android.attestation.Constants.KM_TAG_ALL_APPLICATIONS;
+import static com.google.android.attestation.Constants.KM_TAG_APPLICATION_ID;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_APPLICATION_ID;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_BRAND;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_DEVICE;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_IMEI;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_MANUFACTURER;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_MEID;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_MODEL;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_PRODUCT;
+import static com.google.android.attestation.Constants.KM_TAG_ATTESTATION_ID_SERIAL;
+import static com.google.android.attestation.Constants.KM_TAG_AUTH_TIMEOUT;
+import static com.google.android.attestation.Constants.KM_TAG_BOOT_PATCH_LEVEL;
+import static com.google.android.attestation.Constants.KM_TAG_CREATION_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_DEVICE_UNIQUE_ATTESTATION;
+import static com.google.android.attestation.Constants.KM_TAG_DIGEST;
+import static com.google.android.attestation.Constants.KM_TAG_EC_CURVE;
+import static com.google.android.attestation.Constants.KM_TAG_KEY_SIZE;
+import static com.google.android.attestation.Constants.KM_TAG_NO_AUTH_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_ORIGIN;
+import static com.google.android.attestation.Constants.KM_TAG_ORIGINATION_EXPIRE_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_OS_PATCH_LEVEL;
+import static com.google.android.attestation.Constants.KM_TAG_OS_VERSION;
+import static com.google.android.attestation.Constants.KM_TAG_PADDING;
+import static com.google.android.attestation.Constants.KM_TAG_PURPOSE;
+import static com.google.android.attestation.Constants.KM_TAG_ROLLBACK_RESISTANCE;
+import static com.google.android.attestation.Constants.KM_TAG_ROLLBACK_RESISTANT;
+import static com.google.android.attestation.Constants.KM_TAG_ROOT_OF_TRUST;
+import static com.google.android.attestation.Constants.KM_TAG_RSA_PUBLIC_EXPONENT;
+import static com.google.android.attestation.Constants.KM_TAG_TRUSTED_CONFIRMATION_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_TRUSTED_USER_PRESENCE_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_UNLOCKED_DEVICE_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_USAGE_EXPIRE_DATE_TIME;
+import static com.google.android.attestation.Constants.KM_TAG_USER_AUTH_TYPE;
+import static com.google.android.attestation.Constants.KM_TAG_VENDOR_PATCH_LEVEL;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Writes the DER encoding of attestation records straight into a buffer. The output is byte
+ * identical to encoding the corresponding {@code toAsn1Sequence()}, but no ASN.1 object tree is
+ * built: lengths are computed up front and every value is written in place.
+ *
+ * <p>Each encoder method does double duty. Called with a null sink it only measures, returning
+ * the encoded length; called with a sink it also writes.
+ */
+public final class DerEncoder {
+
+  private static final int TAG_BOOLEAN = 0x01;
+  private static final int TAG_INTEGER = 0x02;
+  private static final int TAG_OCTET_STRING = 0x04;
+  private static final int TAG_NULL = 0x05;
+  private static final int TAG_ENUMERATED = 0x0a;
+  private static final int TAG_SEQUENCE = 0x30;
+  private static final int TAG_SET = 0x31;
+  private static final int CONTEXT_CONSTRUCTED = 0xa0;
+
+  private DerEncoder() {}
+
+  public static int encodedLength(ParsedAttestationRecord record) {
+    return attestationRecord(record, null);
+  }
+
+  public static int encodedLength(AuthorizationList list) {
+    return authorizationList(list, null);
+  }
+
+  public static int encodedLength(RootOfTrust rootOfTrust) {
+    return rootOfTrust(rootOfTrust, null);
+  }
+
+  /**
+   * Writes the KeyDescription sequence at the buffer's position.
+   *
+   * @throws java.nio.BufferOverflowException if fewer than {@link
+   *     #encodedLength(ParsedAttestationRecord)} bytes remain
+   */
+  public static void encode(ParsedAttestationRecord record, ByteBuffer out) {
+    attestationRecord(record, new Sink(out));
+  }
+
+  public static void encode(AuthorizationList list, ByteBuffer out) {
+    authorizationList(list, new Sink(out));
+  }
+
+  public static void encode(RootOfTrust rootOfTrust, ByteBuffer out) {
+    rootOfTrust(rootOfTrust, new Sink(out));
+  }
+
+  /**
+   * Writes the KeyDescription sequence to the stream through a small chunk buffer, without holding
+   * the whole encoding in memory. The stream is neither flushed nor closed.
+   */
+  public static void encode(ParsedAttestationRecord record, OutputStream out) throws IOException {
+    stream(sink -> attestationRecord(record, sink), out);
+  }
+
+  public static void encode(AuthorizationList list, OutputStream out) throws IOException {
+    stream(sink -> authorizationList(list, sink), out);
+  }
+
+  public static void encode(RootOfTrust rootOfTrust, OutputStream out) throws IOException {
+    stream(sink -> rootOfTrust(rootOfTrust, sink), out);
+  }
+
+  private static void stream(Consumer<Sink> encoding, OutputStream out) throws IOException {
+    Sink sink = new Sink(out);
+    try {
+      encoding.accept(sink);
+      sink.drain();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  public static byte[] encode(ParsedAttestationRecord record) {
+    byte[] encoded = new byte[encodedLength(record)];
+    encode(record, ByteBuffer.wrap(encoded));
+    return encoded;
+  }
+
+  public static byte[] encode(AuthorizationList list) {
+    byte[] encoded = new byte[encodedLength(list)];
+    encode(list, ByteBuffer.wrap(encoded));
+    return encoded;
+  }
+
+  public static byte[] encode(RootOfTrust rootOfTrust) {
+    byte[] encoded = new byte[encodedLength(rootOfTrust)];
+    encode(rootOfTrust, ByteBuffer.wrap(encoded));
+    return encoded;
+  }
+
+  private static int attestationRecord(ParsedAttestationRecord record, Sink out) {
+    int length = attestationRecordContent(record, null);
+    int header = header(TAG_SEQUENCE, length, out);
+    if (out != null) {
+      attestationRecordContent(record, out);
+    }
+    return header + length;
+  }
+
+  // Missing authorization lists are left out; toAsn1Sequence() cannot encode such records at all.
+  private static int attestationRecordContent(ParsedAttestationRecord record, Sink out) {
+    int length = integer(TAG_INTEGER, record.attestationVersion, out);
+    length +=
+        integer(
+            TAG_ENUMERATED,
+            ParsedAttestationRecord.securityLevelToInt(record.attestationSecurityLevel),
+            out);
+    length += integer(TAG_INTEGER, record.keymasterVersion, out);
+    length +=
+        integer(
+            TAG_ENUMERATED,
+            ParsedAttestationRecord.securityLevelToInt(record.keymasterSecurityLevel),
+            out);
+    length += octetString(record.attestationChallenge, out);
+    length += octetString(record.uniqueId, out);
+    if (record.softwareEnforced != null) {
+      length += authorizationList(record.softwareEnforced, out);
+    }
+    if (record.teeEnforced != null) {
+      length += authorizationList(record.teeEnforced, out);
+    }
+    return length;
+  }
+
+  private static int rootOfTrust(RootOfTrust rootOfTrust, Sink out) {
+    int length = rootOfTrustContent(rootOfTrust, null);
+    int header = header(TAG_SEQUENCE, length, out);
+    if (out != null) {
+      rootOfTrustContent(rootOfTrust, out);
+    }
+    return header + length;
+  }
+
+  private static int rootOfTrustContent(RootOfTrust rootOfTrust, Sink out) {
+    int length = octetString(rootOfTrust.verifiedBootKey, out);
+    length += header(TAG_BOOLEAN, 1, out) + 1;
+    if (out != null) {
+      out.put(rootOfTrust.deviceLocked ? (byte) 0xff : 0);
+    }
+    length +=
+        integer(
+            TAG_ENUMERATED, RootOfTrust.verifiedBootStateToInt(rootOfTrust.verifiedBootState), out);
+    if (rootOfTrust.verifiedBootHash != null) {
+      length += octetString(rootOfTrust.verifiedBootHash, out);
+    }
+    return length;
+  }
+
+  private static int authorizationList(AuthorizationList list, Sink out) {
+    int length = authorizationListContent(list, null);
+    int header = header(TAG_SEQUENCE, length, out);
+    if (out != null) {
+      authorizationListContent(list, out);
+    }
+    return header + length;
+  }
+
+  // Same field order as AuthorizationList.toAsn1Sequence().
+  private static int authorizationListContent(AuthorizationList list, Sink out) {
+    int length = 0;
+    length += optionalIntegerSet(KM_TAG_PURPOSE, list.purpose, out);
+    length += optionalInteger(KM_TAG_ALGORITHM, list.algorithm, out);
+    length += optionalInteger(KM_TAG_KEY_SIZE, list.keySize, out);
+    length += optionalIntegerSet(KM_TAG_DIGEST, list.digest, out);
+    length += optionalIntegerSet(KM_TAG_PADDING, list.padding, out);
+    length += optionalInteger(KM_TAG_EC_CURVE, list.ecCurve, out);
+    length += optionalLong(KM_TAG_RSA_PUBLIC_EXPONENT, list.rsaPublicExponent, out);
+    length += flag(KM_TAG_ROLLBACK_RESISTANCE, list.rollbackResistance, out);
+    length += optionalInstant(KM_TAG_ACTIVE_DATE_TIME, list.activeDateTime, out);
+    length +=
+        optionalInstant(KM_TAG_ORIGINATION_EXPIRE_DATE_TIME, list.originationExpireDateTime, out);
+    length += optionalInstant(KM_TAG_USAGE_EXPIRE_DATE_TIME, list.usageExpireDateTime, out);
+    length += flag(KM_TAG_NO_AUTH_REQUIRED, list.noAuthRequired, out);
+    if (list.userAuthType.isPresent()) {
+      length +=
+          taggedInteger(
+              KM_TAG_USER_AUTH_TYPE,
+              AuthorizationList.userAuthTypeToLong(list.userAuthType.get()),
+              out);
+    }
+    length += optionalDuration(KM_TAG_AUTH_TIMEOUT, list.authTimeout, out);
+    length += flag(KM_TAG_ALLOW_WHILE_ON_BODY, list.allowWhileOnBody, out);
+    length +=
+        flag(KM_TAG_TRUSTED_USER_PRESENCE_REQUIRED, list.trustedUserPresenceRequired, out);
+    length += flag(KM_TAG_TRUSTED_CONFIRMATION_REQUIRED, list.trustedConfirmationRequired, out);
+    length += flag(KM_TAG_UNLOCKED_DEVICE_REQUIRED, list.unlockedDeviceRequired, out);
+    length += flag(KM_TAG_ALL_APPLICATIONS, list.allApplications, out);
+    length += optionalOctetString(KM_TAG_APPLICATION_ID, list.applicationId, out);
+    length += optionalInstant(KM_TAG_CREATION_DATE_TIME, list.creationDateTime, out);
+    length += optionalInteger(KM_TAG_ORIGIN, list.origin, out);
+    length += flag(KM_TAG_ROLLBACK_RESISTANT, list.rollbackResistant, out);
+    if (list.rootOfTrust.isPresent()) {
+      RootOfTrust rootOfTrust = list.rootOfTrust.get();
+      int inner = rootOfTrust(rootOfTrust, null);
+      length += taggedHeader(KM_TAG_ROOT_OF_TRUST, inner, out) + inner;
+      if (out != null) {
+        rootOfTrust(rootOfTrust, out);
+      }
+    }
+    length += optionalInteger(KM_TAG_OS_VERSION, list.osVersion, out);
+    length += optionalInteger(KM_TAG_OS_PATCH_LEVEL, list.osPatchLevel, out);
+    length +=
+        optionalOctetString(
+            KM_TAG_ATTESTATION_APPLICATION_ID, list.attestationApplicationIdBytes, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_BRAND, list.attestationIdBrand, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_DEVICE, list.attestationIdDevice, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_PRODUCT, list.attestationIdProduct, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_SERIAL, list.attestationIdSerial, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_IMEI, list.attestationIdImei, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_MEID, list.attestationIdMeid, out);
+    length +=
+        optionalOctetString(
+            KM_TAG_ATTESTATION_ID_MANUFACTURER, list.attestationIdManufacturer, out);
+    length += optionalOctetString(KM_TAG_ATTESTATION_ID_MODEL, list.attestationIdModel, out);
+    length += optionalInteger(KM_TAG_VENDOR_PATCH_LEVEL, list.vendorPatchLevel, out);
+    length += optionalInteger(KM_TAG_BOOT_PATCH_LEVEL, list.bootPatchLevel, out);
+    length += flag(KM_TAG_DEVICE_UNIQUE_ATTESTATION, list.individualAttestation, out);
+    return length;
+  }
+
+  private static int optionalInteger(int tag, Optional<Integer> entry, Sink out) {
+    return entry.isPresent() ? taggedInteger(tag, entry.get(), out) : 0;
+  }
+
+  private static int optionalLong(int tag, Optional<Long> entry, Sink out) {
+    return entry.isPresent() ? taggedInteger(tag, entry.get(), out) : 0;
+  }
+
+  private static int optionalInstant(int tag, Optional<Instant> entry, Sink out) {
+    return entry.isPresent() ? taggedInteger(tag, entry.get().toEpochMilli(), out) : 0;
+  }
+
+  private static int optionalDuration(int tag, Optional<Duration> entry, Sink out) {
+    return entry.isPresent() ? taggedInteger(tag, entry.get().getSeconds(), out) : 0;
+  }
+
+  private static int flag(int tag, boolean entry, Sink out) {
+    if (!entry) {
+      return 0;
+    }
+    return taggedHeader(tag, 2, out) + header(TAG_NULL, 0, out);
+  }
+
+  private static int optionalOctetString(int tag, Optional<byte[]> entry, Sink out) {
+    if (!entry.isPresent()) {
+      return 0;
+    }
+    int inner = octetString(entry.get(), null);
+    int header = taggedHeader(tag, inner, out);
+    octetString(entry.get(), out);
+    return header + inner;
+  }
+
+  private static int optionalIntegerSet(int tag, Optional<Set<Integer>> entry, Sink out) {
+    if (!entry.isPresent()) {
+      return 0;
+    }
+    // DER orders SET OF elements by their encodings. For INTEGERs that is the content length
+    // first, then the two's complement content bytes as unsigned numbers; both go into a sort key.
+    long[] keys = new long[entry.get().size()];
+    int count = 0;
+    int content = 0;
+    for (Integer value : entry.get()) {
+      int width = integerWidth(value);
+      keys[count++] = ((long) width << 32) | (value & ((1L << (8 * width)) - 1));
+      content += 2 + width;
+    }
+    Arrays.sort(keys);
+    int inner = header(TAG_SET, content, null) + content;
+    int header = taggedHeader(tag, inner, out);
+    header(TAG_SET, content, out);
+    if (out != null) {
+      for (long key : keys) {
+        int width = (int) (key >>> 32);
+        out.put((byte) TAG_INTEGER);
+        out.put((byte) width);
+        putBigEndian(key, width, out);
+      }
+    }
+    return header + inner;
+  }
+
+  private static int taggedInteger(int tag, long value, Sink out) {
+    int inner = integer(TAG_INTEGER, value, null);
+    int header = taggedHeader(tag, inner, out);
+    integer(TAG_INTEGER, value, out);
+    return header + inner;
+  }
+
+  private static int integer(int identifier, long value, Sink out) {
+    int width = integerWidth(value);
+    int header = header(identifier, width, out);
+    if (out != null) {
+      putBigEndian(value, width, out);
+    }
+    return header + width;
+  }
+
+  private static int octetString(byte[] value, Sink out) {
+    int header = header(TAG_OCTET_STRING, value.length, out);
+    if (out != null) {
+      out.put(value);
+    }
+    return header + value.length;
+  }
+
+  // Number of content octets of the minimal two's complement encoding of the value.
+  private static int integerWidth(long value) {
+    int width = 1;
+    while (width < 8 && (value >> (8 * width - 1)) != 0 && (value >> (8 * width - 1)) != -1) {
+      width++;
+    }
+    return width;
+  }
+
+  private static void putBigEndian(long value, int width, Sink out) {
+    for (int shift = 8 * (width - 1); shift >= 0; shift -= 8) {
+      out.put((byte) (value >> shift));
+    }
+  }
+
+  // Header of an explicitly tagged, context specific element, as written by DERTaggedObject.
+  private static int taggedHeader(int tag, int contentLength, Sink out) {
+    int tagLength;
+    if (tag < 31) {
+      tagLength = 1;
+      if (out != null) {
+        out.put((byte) (CONTEXT_CONSTRUCTED | tag));
+      }
+    } else {
+      int groups = 1;
+      while ((tag >>> (7 * groups)) != 0) {
+        groups++;
+      }
+      tagLength = 1 + groups;
+      if (out != null) {
+        out.put((byte) (CONTEXT_CONSTRUCTED | 0x1f));
+        for (int group = groups - 1; group >= 0; group--) {
+          int bits = (tag >>> (7 * group)) & 0x7f;
+          out.put((byte) (group == 0 ? bits : bits | 0x80));
+        }
+      }
+    }
+    return tagLength + length(contentLength, out);
+  }
+
+  private static int header(int identifier, int contentLength, Sink out) {
+    if (out != null) {
+      out.put((byte) identifier);
+    }
+    return 1 + length(contentLength, out);
+  }
+
+  private static int length(int length, Sink out) {
+    if (length < 0x80) {
+      if (out != null) {
+        out.put((byte) length);
+      }
+      return 1;
+    }
+    int octets = 1;
+    while ((length >>> (8 * octets)) != 0) {
+      octets++;
+    }
+    if (out != null) {
+      out.put((byte) (0x80 | octets));
+      putBigEndian(length, octets, out);
+    }
+    return 1 + octets;
+  }
+
+  /**
+   * Destination of the encoder: either the caller's buffer, or a chunk buffer that is drained to a
+   * stream whenever it fills up. Values larger than a chunk go to the stream directly.
+   */
+  private static final class Sink {
+    private static final int CHUNK_SIZE = 512;
+
+    private final ByteBuffer buffer;
+    private final OutputStream stream;
+
+    Sink(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.stream = null;
+    }
+
+    Sink(OutputStream stream) {
+      this.buffer = ByteBuffer.allocate(CHUNK_SIZE);
+      this.stream = stream;
+    }
+
+    void put(byte value) {
+      if (stream != null && !buffer.hasRemaining()) {
+        drain();
+      }
+      buffer.put(value);
+    }
+
+    void put(byte[] value) {
+      if (stream != null && value.length > buffer.remaining()) {
+        drain();
+        if (value.length > buffer.capacity()) {
+          write(value, value.length);
+          return;
+        }
+      }
+      buffer.put(value);
+    }
+
+    /** Writes the buffered bytes to the stream. */
+    void drain() {
+      write(buffer.array(), buffer.position());
+      buffer.clear();
+    }
+
+    private void write(byte[] bytes, int length) {
+      try {
+        stream.write(bytes, 0, length);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
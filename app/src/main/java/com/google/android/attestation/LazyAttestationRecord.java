@@ -0,0 +1,213 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static com.google.android.attestation.Constants.ATTESTATION_CHALLENGE_INDEX;
+import static com.google.android.attestation.Constants.ATTESTATION_SECURITY_LEVEL_INDEX;
+import static com.google.android.attestation.Constants.ATTESTATION_VERSION_INDEX;
+import static com.google.android.attestation.Constants.KEYMASTER_SECURITY_LEVEL_INDEX;
+import static com.google.android.attestation.Constants.KEYMASTER_VERSION_INDEX;
+import static com.google.android.attestation.Constants.KEY_DESCRIPTION_OID;
+import static com.google.android.attestation.Constants.KM_TAG_NO_AUTH_REQUIRED;
+import static com.google.android.attestation.Constants.KM_TAG_TRUSTED_CONFIRMATION_REQUIRED;
+import static com.google.android.attestation.Constants.SW_ENFORCED_INDEX;
+import static com.google.android.attestation.Constants.TEE_ENFORCED_INDEX;
+import static com.google.android.attestation.Constants.UNIQUE_ID_INDEX;
+
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import java.security.cert.X509Certificate;
+
+/**
+ * Lazy view of Key Attestation extension data, e.g. for verification servers that check a few
+ * fields of every certificate. Only the offsets of the KeyDescription fields are located up
+ * front; each field is decoded from the raw DER on first access, and no BouncyCastle object tree
+ * is built. Callers that need a single value, e.g. whether the TEE enforces user authentication,
+ * never pay for building the authorization lists.
+ *
+ * <p>Small integers are decoded straight from their DER contents on every access; that is
+ * cheaper than caching them. Authorization lists are decoded like {@link
+ * ParsedAttestationRecord#parse(byte[])} does, so entries with unknown tags and malformed
+ * attestation application ids are skipped. Malformed fields throw {@link
+ * IllegalArgumentException} when they are read.
+ */
+public class LazyAttestationRecord {
+
+  private static final int FIELD_COUNT = 8;
+
+  private final byte[] encoded;
+  private final int[] elementOffsets = new int[FIELD_COUNT];
+  private final int[] elementLengths = new int[FIELD_COUNT];
+
+  private byte[] attestationChallenge;
+  private byte[] uniqueId;
+  private volatile AuthorizationList softwareEnforced;
+  private volatile AuthorizationList teeEnforced;
+
+  private LazyAttestationRecord(byte[] keyDescription, int offset, int length) {
+    this.encoded = keyDescription;
+    DerCursor outer = new DerCursor(keyDescription, offset, length);
+    if (!outer.next() || !outer.isUniversal(DerCursor.TAG_SEQUENCE) || !outer.isConstructed()) {
+      throw new IllegalArgumentException("KeyDescription sequence expected.");
+    }
+    DerCursor fields = outer.enter();
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      if (!fields.next()) {
+        throw new IllegalArgumentException("KeyDescription is missing field " + i + ".");
+      }
+      elementOffsets[i] = fields.elementOffset();
+      elementLengths[i] = fields.elementLength();
+    }
+  }
+
+  /**
+   * Creates a view over the attestation extension of the certificate.
+   *
+   * @throws IllegalArgumentException if the certificate has no attestation extension or its
+   *     KeyDescription does not have all fields
+   */
+  public static LazyAttestationRecord createLazyAttestationRecord(X509Certificate cert) {
+    byte[] extensionValue = cert.getExtensionValue(KEY_DESCRIPTION_OID);
+    if (extensionValue == null || extensionValue.length == 0) {
+      throw new IllegalArgumentException("Couldn't find the keystore attestation extension data.");
+    }
+    // getExtensionValue returns the DER encoded OCTET STRING wrapping the KeyDescription. The
+    // wrapper is skipped in place instead of being decoded into a copy.
+    DerCursor wrapper = new DerCursor(extensionValue);
+    if (!wrapper.next() || !wrapper.isOctetString()) {
+      throw new IllegalArgumentException("Attestation extension is not an OCTET STRING.");
+    }
+    return new LazyAttestationRecord(
+        extensionValue, wrapper.valueOffset(), wrapper.valueLength());
+  }
+
+  /** Creates a view over the DER encoded KeyDescription sequence, without copying it. */
+  public static LazyAttestationRecord create(byte[] keyDescription) {
+    return new LazyAttestationRecord(keyDescription, 0, keyDescription.length);
+  }
+
+  public int attestationVersion() {
+    return integerAt(ATTESTATION_VERSION_INDEX);
+  }
+
+  public SecurityLevel attestationSecurityLevel() {
+    return ParsedAttestationRecord.securityLevelToEnum(
+        integerAt(ATTESTATION_SECURITY_LEVEL_INDEX));
+  }
+
+  public int keymasterVersion() {
+    return integerAt(KEYMASTER_VERSION_INDEX);
+  }
+
+  public SecurityLevel keymasterSecurityLevel() {
+    return ParsedAttestationRecord.securityLevelToEnum(integerAt(KEYMASTER_SECURITY_LEVEL_INDEX));
+  }
+
+  public byte[] attestationChallenge() {
+    if (attestationChallenge == null) {
+      attestationChallenge = octetsAt(ATTESTATION_CHALLENGE_INDEX);
+    }
+    return attestationChallenge;
+  }
+
+  public byte[] uniqueId() {
+    if (uniqueId == null) {
+      uniqueId = octetsAt(UNIQUE_ID_INDEX);
+    }
+    return uniqueId;
+  }
+
+  public AuthorizationList softwareEnforced() {
+    AuthorizationList result = softwareEnforced;
+    if (result == null) {
+      result = softwareEnforced = authorizationListAt(SW_ENFORCED_INDEX, false);
+    }
+    return result;
+  }
+
+  public AuthorizationList teeEnforced() {
+    AuthorizationList result = teeEnforced;
+    if (result == null) {
+      result = teeEnforced = authorizationListAt(TEE_ENFORCED_INDEX, true);
+    }
+    return result;
+  }
+
+  /** Same as {@code teeEnforced().noAuthRequired}, without decoding the list. */
+  public boolean teeEnforcedNoAuthRequired() {
+    return hasTag(TEE_ENFORCED_INDEX, KM_TAG_NO_AUTH_REQUIRED);
+  }
+
+  /** Same as {@code teeEnforced().trustedConfirmationRequired}, without decoding the list. */
+  public boolean teeEnforcedTrustedConfirmationRequired() {
+    return hasTag(TEE_ENFORCED_INDEX, KM_TAG_TRUSTED_CONFIRMATION_REQUIRED);
+  }
+
+  /** Decodes all remaining fields into a {@link ParsedAttestationRecord}. */
+  public ParsedAttestationRecord toParsedAttestationRecord() {
+    return ParsedAttestationRecord.create(
+        attestationVersion(),
+        attestationSecurityLevel(),
+        keymasterVersion(),
+        keymasterSecurityLevel(),
+        attestationChallenge(),
+        uniqueId(),
+        softwareEnforced(),
+        teeEnforced());
+  }
+
+  // Returns whether the authorization list at the given index carries an entry for the tag.
+  private boolean hasTag(int index, int tag) {
+    DerCursor entries = fieldCursor(index);
+    if (!entries.next() || !entries.isUniversal(DerCursor.TAG_SEQUENCE)) {
+      throw new IllegalArgumentException("Authorization list sequence expected.");
+    }
+    entries = entries.enter();
+    while (entries.next()) {
+      if (entries.is(DerCursor.CLASS_CONTEXT, tag)) {
+        return true;
+      }
+    }
+    if (entries.isMalformed()) {
+      throw new IllegalArgumentException("Malformed authorization list.");
+    }
+    return false;
+  }
+
+  private DerCursor fieldCursor(int index) {
+    return new DerCursor(encoded, elementOffsets[index], elementLengths[index]);
+  }
+
+  private int integerAt(int index) {
+    DerCursor field = fieldCursor(index);
+    if (!field.next() || !field.isInteger(4)) {
+      throw new IllegalArgumentException("Integer value expected for field " + index + ".");
+    }
+    return field.intValue();
+  }
+
+  private byte[] octetsAt(int index) {
+    DerCursor field = fieldCursor(index);
+    if (!field.next() || !field.isOctetString()) {
+      throw new IllegalArgumentException("Octet string expected for field " + index + ".");
+    }
+    return field.octets();
+  }
+
+  private AuthorizationList authorizationListAt(int index, boolean teeEnforced) {
+    return AttestationRecordReader.readAuthorizationList(
+        encoded, elementOffsets[index], elementLengths[index], attestationVersion(), teeEnforced);
+  }
+}
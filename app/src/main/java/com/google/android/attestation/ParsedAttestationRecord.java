@@ -28,13 +28,16 @@ import static com.google.android.attestation.Constants.SW_ENFORCED_INDEX;
 import static com.google.android.attestation.Constants.TEE_ENFORCED_INDEX;
 import static com.google.android.attestation.Constants.UNIQUE_ID_INDEX;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.cert.X509Certificate;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Enumerated;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
@@ -42,6 +45,11 @@ import org.bouncycastle.asn1.DERSequence;
 /** Java representation of Key Attestation extension data. */
 public class ParsedAttestationRecord {
 
+  // Content octets of the DER encoded OBJECT IDENTIFIER 1.3.6.1.4.1.11129.2.1.17.
+  private static final byte[] KEY_DESCRIPTION_OID_DER = {
+    0x2B, 0x06, 0x01, 0x04, 0x01, (byte) 0xD6, 0x79, 0x02, 0x01, 0x11
+  };
+
   public final int attestationVersion;
   public final SecurityLevel attestationSecurityLevel;
   public final int keymasterVersion;
@@ -102,6 +110,160 @@ public class ParsedAttestationRecord {
     return new ParsedAttestationRecord(extensionData);
   }
 
+  /**
+   * Parses the attestation record straight from a DER encoded certificate, without building an
+   * X509Certificate. The certificate is not validated beyond the structure needed to find the
+   * extension.
+   *
+   * @throws IllegalArgumentException if the certificate has no attestation extension
+   * @throws IOException if the attestation extension is not a well-formed KeyDescription
+   */
+  public static ParsedAttestationRecord createParsedAttestationRecord(byte[] certificateDer)
+      throws IOException {
+    return createParsedAttestationRecord(certificateDer, 0, certificateDer.length);
+  }
+
+  /**
+   * Same as {@link #createParsedAttestationRecord(byte[])} for the remaining bytes of the buffer.
+   * The position of the buffer is not changed.
+   */
+  public static ParsedAttestationRecord createParsedAttestationRecord(ByteBuffer certificateDer)
+      throws IOException {
+    if (certificateDer.hasArray()) {
+      return createParsedAttestationRecord(
+          certificateDer.array(),
+          certificateDer.arrayOffset() + certificateDer.position(),
+          certificateDer.remaining());
+    }
+    byte[] copy = new byte[certificateDer.remaining()];
+    certificateDer.duplicate().get(copy);
+    return createParsedAttestationRecord(copy, 0, copy.length);
+  }
+
+  private static ParsedAttestationRecord createParsedAttestationRecord(
+      byte[] certificateDer, int offset, int length) throws IOException {
+    DerCursor extension = findAttestationExtension(certificateDer, offset, length);
+    if (extension == null) {
+      throw new IllegalArgumentException("Couldn't find the keystore attestation extension data.");
+    }
+    try {
+      return new ParsedAttestationRecord(
+          decodeSequence(certificateDer, extension.valueOffset(), extension.valueLength()));
+    } catch (ClassCastException
+        | IndexOutOfBoundsException
+        | IllegalArgumentException
+        | IllegalStateException e) {
+      // The constructor walks the sequence by index, casts each field to its expected type and
+      // rejects values outside the schema; BouncyCastle rejects some malformed primitives, e.g. a
+      // NULL with content, with an IllegalStateException. None of these mean a missing extension.
+      throw new IOException("Malformed attestation extension.", e);
+    }
+  }
+
+  /**
+   * Parses the attestation record of a DER encoded certificate without throwing on malformed
+   * input. Problems are reported in the result as an error code and the path of the offending
+   * field, which keeps rejecting hostile input as cheap as parsing valid input.
+   */
+  public static AttestationParseResult parse(byte[] certificateDer) {
+    return AttestationRecordReader.readCertificate(certificateDer, 0, certificateDer.length);
+  }
+
+  /** Same as {@link #parse(byte[])} for a certificate object. */
+  public static AttestationParseResult parse(X509Certificate cert) {
+    byte[] extensionValue = cert.getExtensionValue(KEY_DESCRIPTION_OID);
+    if (extensionValue == null) {
+      return AttestationParseResult.failure(
+          AttestationParseResult.ErrorCode.NO_ATTESTATION_EXTENSION, "certificate");
+    }
+    return AttestationRecordReader.readExtensionValue(extensionValue);
+  }
+
+  /** Same as {@link #parse(byte[])} for an encoded KeyDescription sequence. */
+  public static AttestationParseResult parseKeyDescription(byte[] keyDescription) {
+    return AttestationRecordReader.readKeyDescription(keyDescription, 0, keyDescription.length);
+  }
+
+  /**
+   * Cheap check whether a DER encoded certificate carries the attestation extension, e.g. to
+   * route chains before parsing them. Malformed input is reported as false.
+   */
+  public static boolean hasAttestationExtension(byte[] certificateDer) {
+    return findAttestationExtension(certificateDer, 0, certificateDer.length) != null;
+  }
+
+  public static boolean hasAttestationExtension(ByteBuffer certificateDer) {
+    if (certificateDer.hasArray()) {
+      return findAttestationExtension(
+              certificateDer.array(),
+              certificateDer.arrayOffset() + certificateDer.position(),
+              certificateDer.remaining())
+          != null;
+    }
+    byte[] copy = new byte[certificateDer.remaining()];
+    certificateDer.duplicate().get(copy);
+    return hasAttestationExtension(copy);
+  }
+
+  /**
+   * Walks Certificate and TBSCertificate to the extensions and returns a cursor on the extnValue
+   * OCTET STRING of the attestation extension, whose value is the KeyDescription sequence. Returns
+   * null if the extension is missing or the structure is malformed.
+   */
+  static DerCursor findAttestationExtension(byte[] certificateDer, int offset, int length) {
+    DerCursor certificate = new DerCursor(certificateDer, offset, length);
+    if (!certificate.next() || !certificate.isUniversal(DerCursor.TAG_SEQUENCE)) {
+      return null;
+    }
+    DerCursor tbsCertificate = certificate.enter();
+    if (!tbsCertificate.next() || !tbsCertificate.isUniversal(DerCursor.TAG_SEQUENCE)) {
+      return null;
+    }
+    // The extensions are the only TBSCertificate field tagged [3]; everything before is skipped.
+    DerCursor fields = tbsCertificate.enter();
+    while (fields.next()) {
+      if (!fields.is(DerCursor.CLASS_CONTEXT, 3) || !fields.isConstructed()) {
+        continue;
+      }
+      DerCursor wrapper = fields.enter();
+      if (!wrapper.next() || !wrapper.isUniversal(DerCursor.TAG_SEQUENCE)) {
+        return null;
+      }
+      DerCursor extensions = wrapper.enter();
+      while (extensions.next()) {
+        DerCursor extension = extensions.enter();
+        if (!extension.next() || !isKeyDescriptionOid(extension)) {
+          continue;
+        }
+        // extnValue follows the OID and the optional critical flag.
+        if (!extension.next()) {
+          return null;
+        }
+        if (extension.isBoolean() && !extension.next()) {
+          return null;
+        }
+        return extension.isOctetString() ? extension : null;
+      }
+      return null;
+    }
+    return null;
+  }
+
+  private static boolean isKeyDescriptionOid(DerCursor cursor) {
+    if (cursor.isConstructed()
+        || !cursor.isUniversal(DerCursor.TAG_OBJECT_IDENTIFIER)
+        || cursor.valueLength() != KEY_DESCRIPTION_OID_DER.length) {
+      return false;
+    }
+    byte[] buffer = cursor.buffer();
+    for (int i = 0; i < KEY_DESCRIPTION_OID_DER.length; i++) {
+      if (buffer[cursor.valueOffset() + i] != KEY_DESCRIPTION_OID_DER[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public static ParsedAttestationRecord create(ASN1Sequence extensionData) {
     return new ParsedAttestationRecord(extensionData);
   }
@@ -126,7 +288,16 @@ public class ParsedAttestationRecord {
         teeEnforced);
   }
 
-  private static SecurityLevel securityLevelToEnum(int securityLevel) {
+  static SecurityLevel securityLevelToEnum(int securityLevel) {
+    SecurityLevel level = securityLevelOrNull(securityLevel);
+    if (level == null) {
+      throw new IllegalArgumentException("Invalid security level.");
+    }
+    return level;
+  }
+
+  /** Same as {@link #securityLevelToEnum(int)}, but returns null for unknown values. */
+  static SecurityLevel securityLevelOrNull(int securityLevel) {
     switch (securityLevel) {
       case KM_SECURITY_LEVEL_SOFTWARE:
         return SecurityLevel.SOFTWARE;
@@ -135,11 +306,11 @@ public class ParsedAttestationRecord {
       case KM_SECURITY_LEVEL_STRONG_BOX:
         return SecurityLevel.STRONG_BOX;
       default:
-        throw new IllegalArgumentException("Invalid security level.");
+        return null;
     }
   }
 
-  private static int securityLevelToInt(SecurityLevel securityLevel) {
+  static int securityLevelToInt(SecurityLevel securityLevel) {
     switch (securityLevel) {
       case SOFTWARE:
         return KM_SECURITY_LEVEL_SOFTWARE;
@@ -158,16 +329,26 @@ public class ParsedAttestationRecord {
       throw new IllegalArgumentException("Couldn't find the keystore attestation extension data.");
     }
 
+    // The extension contains one object, an OCTET STRING wrapping the DER encoded KeyDescription
+    // sequence. Skip the wrapper in place and decode the sequence in a single pass.
+    DerCursor wrapper = new DerCursor(attestationExtensionBytes);
+    if (!wrapper.next() || !wrapper.isOctetString()) {
+      throw new IllegalArgumentException("Attestation extension is not an OCTET STRING.");
+    }
+    return decodeSequence(
+        attestationExtensionBytes, wrapper.valueOffset(), wrapper.valueLength());
+  }
+
+  private static ASN1Sequence decodeSequence(byte[] buffer, int offset, int length)
+      throws IOException {
     ASN1Sequence decodedSequence;
-    try (ASN1InputStream asn1InputStream = new ASN1InputStream(attestationExtensionBytes)) {
-      // The extension contains one object, a sequence, in the
-      // Distinguished Encoding Rules (DER)-encoded form. Get the DER
-      // bytes.
-      byte[] derSequenceBytes = ((ASN1OctetString) asn1InputStream.readObject()).getOctets();
-      // Decode the bytes as an ASN1 sequence object.
-      try (ASN1InputStream seqInputStream = new ASN1InputStream(derSequenceBytes)) {
-        decodedSequence = (ASN1Sequence) seqInputStream.readObject();
+    try (ASN1InputStream seqInputStream =
+        new ASN1InputStream(new ByteArrayInputStream(buffer, offset, length))) {
+      ASN1Primitive decoded = seqInputStream.readObject();
+      if (!(decoded instanceof ASN1Sequence)) {
+        throw new IOException("Attestation extension is not a SEQUENCE.");
       }
+      decodedSequence = (ASN1Sequence) decoded;
     }
     return decodedSequence;
   }
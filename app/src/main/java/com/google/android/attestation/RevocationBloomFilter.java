@@ -0,0 +1,248 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter over the serial numbers of a {@link RevocationIndex}. Almost all looked up serials
+ * are not on the list; for those the filter answers without touching the serial table.
+ *
+ * <p>Serials are hashed as their sequence of hex digits without leading zeros, so a hex string can
+ * be tested directly, without first being parsed into bytes.
+ */
+public final class RevocationBloomFilter {
+
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final long[] words;
+  private final long bitCount;
+  private final int hashCount;
+  private final double falsePositiveRate;
+  private final LongAdder negatives = new LongAdder();
+  private final LongAdder positives = new LongAdder();
+  private final LongAdder falsePositives = new LongAdder();
+
+  RevocationBloomFilter(int expectedEntries, double falsePositiveRate) {
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("False positive rate must be between 0 and 1.");
+    }
+    int entries = Math.max(1, expectedEntries);
+    long bits =
+        (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    this.words = new long[(int) Math.max(1, (bits + 63) >>> 6)];
+    this.bitCount = (long) words.length << 6;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / entries * Math.log(2)));
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  private RevocationBloomFilter(long[] words, int hashCount, double falsePositiveRate) {
+    if (words.length == 0 || hashCount < 1 || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("Invalid Bloom filter parameters.");
+    }
+    this.words = words;
+    this.bitCount = (long) words.length << 6;
+    this.hashCount = hashCount;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /** Builds a filter over the serial table of an index, {@code size} entries of {@code width}. */
+  static RevocationBloomFilter create(
+      ByteBuffer serials, int size, int width, double falsePositiveRate) {
+    RevocationBloomFilter filter = new RevocationBloomFilter(size, falsePositiveRate);
+    for (int i = 0; i < size; i++) {
+      filter.add(hash(serials, i * width, width));
+    }
+    return filter;
+  }
+
+  /** Adds a serial of the given {@link #hash}. */
+  void add(long hash) {
+    long h1 = hash;
+    long h2 = (hash >>> 32) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(h1 + i * h2, bitCount);
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /** Length of the form written by {@link #writeTo}. */
+  int serializedLength() {
+    return 4 + 8 + 4 + 8 * words.length;
+  }
+
+  /** Writes hash count, configured false positive rate, word count and the words. */
+  void writeTo(ByteBuffer buffer) {
+    buffer.putInt(hashCount).putDouble(falsePositiveRate).putInt(words.length);
+    for (long word : words) {
+      buffer.putLong(word);
+    }
+  }
+
+  /**
+   * Reads a filter written by {@link #writeTo}, leaving the buffer after it.
+   *
+   * @throws IllegalArgumentException if the parameters are not those of a valid filter
+   */
+  static RevocationBloomFilter readFrom(ByteBuffer buffer) {
+    int hashCount = buffer.getInt();
+    double falsePositiveRate = buffer.getDouble();
+    int wordCount = buffer.getInt();
+    if (wordCount < 0 || (long) wordCount * 8 > buffer.remaining()) {
+      throw new IllegalArgumentException("Truncated Bloom filter.");
+    }
+    long[] words = new long[wordCount];
+    buffer.asLongBuffer().get(words);
+    buffer.position(buffer.position() + 8 * wordCount);
+    return new RevocationBloomFilter(words, hashCount, falsePositiveRate);
+  }
+
+  /** Whether a serial of the given {@link #hash} may be on the list. */
+  boolean mightContain(long hash) {
+    long h1 = hash;
+    long h2 = (hash >>> 32) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(h1 + i * h2, bitCount);
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        negatives.increment();
+        return false;
+      }
+    }
+    positives.increment();
+    return true;
+  }
+
+  /** Records that a positive answer was not confirmed by the serial table. */
+  void recordFalsePositive() {
+    falsePositives.increment();
+  }
+
+  /**
+   * Hashes a hex serial the same way as its bytes.
+   *
+   * @throws NumberFormatException if the string is not hex
+   */
+  static long hash(String serialNumber) {
+    long hash = FNV_OFFSET_BASIS;
+    boolean leading = true;
+    for (int i = 0; i < serialNumber.length(); i++) {
+      int digit = Character.digit(serialNumber.charAt(i), 16);
+      if (digit < 0) {
+        throw new NumberFormatException("Not a hex serial number: " + serialNumber);
+      }
+      if (leading && digit == 0) {
+        continue;
+      }
+      leading = false;
+      hash = (hash ^ digit) * FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  static long hash(byte[] serial) {
+    return hash(ByteBuffer.wrap(serial), 0, serial.length);
+  }
+
+  /** Hashes the unsigned big-endian serial in the given range; leading zeros do not count. */
+  static long hash(ByteBuffer buffer, int offset, int length) {
+    long hash = FNV_OFFSET_BASIS;
+    boolean leading = true;
+    for (int i = offset; i < offset + length; i++) {
+      int value = buffer.get(i) & 0xff;
+      for (int shift = 4; shift >= 0; shift -= 4) {
+        int digit = (value >>> shift) & 0x0f;
+        if (leading && digit == 0) {
+          continue;
+        }
+        leading = false;
+        hash = (hash ^ digit) * FNV_PRIME;
+      }
+    }
+    return mix(hash);
+  }
+
+  // Final avalanche step of MurmurHash3, FNV alone spreads short inputs poorly over the high bits.
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** The false positive rate the filter was sized for. */
+  public double getConfiguredFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /** False positive rate expected from the share of bits set. */
+  public double getExpectedFalsePositiveRate() {
+    long set = 0;
+    for (long word : words) {
+      set += Long.bitCount(word);
+    }
+    return Math.pow((double) set / bitCount, hashCount);
+  }
+
+  /** Share of lookups of absent serials that the filter let through. */
+  public double getObservedFalsePositiveRate() {
+    long falsePositiveCount = getFalsePositiveCount();
+    long absent = getNegativeCount() + falsePositiveCount;
+    return absent == 0 ? 0 : (double) falsePositiveCount / absent;
+  }
+
+  /** Lookups answered by the filter alone. */
+  public long getNegativeCount() {
+    return negatives.sum();
+  }
+
+  /** Lookups the filter passed on to the serial table. */
+  public long getPositiveCount() {
+    return positives.sum();
+  }
+
+  public long getFalsePositiveCount() {
+    return falsePositives.sum();
+  }
+
+  public long getBitCount() {
+    return bitCount;
+  }
+
+  public int getHashCount() {
+    return hashCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "RevocationBloomFilter{bits=%d, hashes=%d, configuredFpp=%.4f, observedFpp=%.4f,"
+            + " negatives=%d, positives=%d, falsePositives=%d}",
+        bitCount,
+        hashCount,
+        falsePositiveRate,
+        getObservedFalsePositiveRate(),
+        getNegativeCount(),
+        getPositiveCount(),
+        getFalsePositiveCount());
+  }
+}
@@ -0,0 +1,149 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Entries that differ between the status list a {@link RevocationIndex} holds and a newer one, as
+ * computed by {@link RevocationIndex#diff}. Applying it with {@link RevocationIndex#apply} gives an
+ * index of the newer list; the counts and serial numbers report what changed.
+ */
+public final class RevocationDelta {
+
+  /** How an entry of the newer list differs. */
+  public enum Kind {
+    ADDED,
+    REMOVED,
+    CHANGED
+  }
+
+  private final RevocationIndex source;
+  private final List<Change> changes;
+  private final int addedCount;
+  private final int removedCount;
+
+  RevocationDelta(RevocationIndex source, Collection<Change> changes) {
+    this.source = source;
+    this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+    int added = 0;
+    int removed = 0;
+    for (Change change : changes) {
+      if (change.kind == Kind.ADDED) {
+        added++;
+      } else if (change.kind == Kind.REMOVED) {
+        removed++;
+      }
+    }
+    this.addedCount = added;
+    this.removedCount = removed;
+  }
+
+  /** The index the delta was computed against. */
+  RevocationIndex source() {
+    return source;
+  }
+
+  List<Change> changes() {
+    return changes;
+  }
+
+  public boolean isEmpty() {
+    return changes.isEmpty();
+  }
+
+  /** Number of changed entries of all kinds. */
+  public int size() {
+    return changes.size();
+  }
+
+  public int getAddedCount() {
+    return addedCount;
+  }
+
+  public int getRemovedCount() {
+    return removedCount;
+  }
+
+  public int getChangedCount() {
+    return changes.size() - addedCount - removedCount;
+  }
+
+  /** Number of entries before the change. */
+  public int getPreviousSize() {
+    return source.size();
+  }
+
+  /** Number of entries of the newer list. */
+  public int getSize() {
+    return source.size() + addedCount - removedCount;
+  }
+
+  /** Hex serial numbers, lower case and without leading zeros, of the entries of one kind. */
+  public List<String> getSerialNumbers(Kind kind) {
+    List<String> serialNumbers = new ArrayList<>();
+    for (Change change : changes) {
+      if (change.kind == kind) {
+        serialNumbers.add(new BigInteger(1, change.serial).toString(16));
+      }
+    }
+    return serialNumbers;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "RevocationDelta{previousSize=%d, size=%d, added=%d, removed=%d, changed=%d}",
+        getPreviousSize(), getSize(), addedCount, removedCount, getChangedCount());
+  }
+
+  /** One entry of the delta, also used by the index to keep changes on top of its tables. */
+  static final class Change {
+    final Kind kind;
+    /** Unsigned big-endian serial without leading zeros. */
+    final byte[] serial;
+
+    final long hash;
+    final byte packedStatus;
+    final String comment;
+    final String expiry;
+
+    Change(Kind kind, byte[] serial, byte packedStatus, String comment, String expiry) {
+      this.kind = kind;
+      this.serial = serial;
+      this.hash = RevocationBloomFilter.hash(serial);
+      this.packedStatus = packedStatus;
+      this.comment = comment;
+      this.expiry = expiry;
+    }
+
+    static Change removed(byte[] serial) {
+      return new Change(Kind.REMOVED, serial, (byte) 0, null, null);
+    }
+
+    boolean matches(byte packedStatus, String comment, String expiry) {
+      return this.packedStatus == packedStatus
+          && Objects.equals(this.comment, comment)
+          && Objects.equals(this.expiry, expiry);
+    }
+  }
+}
@@ -0,0 +1,828 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import com.google.android.attestation.CertificateRevocationStatus.Reason;
+import com.google.android.attestation.CertificateRevocationStatus.Status;
+import com.google.android.attestation.RevocationDelta.Change;
+import com.google.android.attestation.RevocationDelta.Kind;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact, immutable index of the attestation certificate status list.
+ *
+ * <p>Serial numbers are stored as unsigned big-endian byte strings, left-padded with zeros to the
+ * width of the longest serial, in one sorted table and found by binary search. The tables are
+ * either on the heap or mapped from a {@link RevocationSnapshotFile}. Status and reason
+ * of each entry are packed into a single byte. Comments and expiry dates are rare and kept in
+ * arrays that only exist if the list has any. The index is built from a streaming parse, so no
+ * JSON tree or per-entry objects are kept around.
+ *
+ * <p>Each index carries a {@link RevocationBloomFilter} built together with it, which answers most
+ * lookups of serials that are not on the list without a search.
+ *
+ * <p>A newer list is taken over through {@link #diff} and {@link #apply}: the resulting index
+ * shares the tables of this one and keeps the changes in a small overlay that is consulted first,
+ * so a refresh costs memory in proportion to what changed. Once the overlay outgrows a fraction of
+ * the tables, both are merged into new tables.
+ */
+public final class RevocationIndex {
+
+  static final RevocationIndex EMPTY =
+      new RevocationIndex(
+          0,
+          0,
+          ByteBuffer.allocate(0),
+          ByteBuffer.allocate(0),
+          null,
+          null,
+          RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+  // The low nibble of a packed byte holds the reason, the high nibble the status; an all-ones
+  // nibble stands for a value the list named but this version does not know.
+  private static final int UNKNOWN = 0x0f;
+  private static final Status[] STATUSES = Status.values();
+  private static final Reason[] REASONS = Reason.values();
+  // The overlay is merged into the tables once it has more entries than both of these allow.
+  private static final int MIN_COMPACTION_SIZE = 256;
+  private static final int COMPACTION_RATIO = 32;
+
+  // Live entries, counting the overlay; the tables alone hold tableSize.
+  private final int size;
+  private final int tableSize;
+  private final int serialWidth;
+  // Only read with absolute gets, so heap and memory-mapped buffers can be shared freely.
+  private final ByteBuffer serials;
+  private final ByteBuffer packedStatuses;
+  private final String[] comments;
+  private final String[] expires;
+  // Covers the tables only; the overlay is checked before it.
+  private final RevocationBloomFilter bloomFilter;
+  private final Overlay overlay;
+
+  RevocationIndex(
+      int size,
+      int serialWidth,
+      ByteBuffer serials,
+      ByteBuffer packedStatuses,
+      String[] comments,
+      String[] expires,
+      double falsePositiveRate) {
+    this(
+        size,
+        serialWidth,
+        serials,
+        packedStatuses,
+        comments,
+        expires,
+        RevocationBloomFilter.create(serials, size, serialWidth, falsePositiveRate));
+  }
+
+  /** Uses a filter already built over exactly these serials, e.g. one kept in a snapshot file. */
+  RevocationIndex(
+      int size,
+      int serialWidth,
+      ByteBuffer serials,
+      ByteBuffer packedStatuses,
+      String[] comments,
+      String[] expires,
+      RevocationBloomFilter bloomFilter) {
+    this.size = size;
+    this.tableSize = size;
+    this.serialWidth = serialWidth;
+    this.serials = serials;
+    this.packedStatuses = packedStatuses;
+    this.comments = comments;
+    this.expires = expires;
+    this.bloomFilter = bloomFilter;
+    this.overlay = Overlay.EMPTY;
+  }
+
+  private RevocationIndex(RevocationIndex tables, Overlay overlay, int size) {
+    this.size = size;
+    this.tableSize = tables.tableSize;
+    this.serialWidth = tables.serialWidth;
+    this.serials = tables.serials;
+    this.packedStatuses = tables.packedStatuses;
+    this.comments = tables.comments;
+    this.expires = tables.expires;
+    this.bloomFilter = tables.bloomFilter;
+    this.overlay = overlay;
+  }
+
+  /**
+   * Reads a status list of the form {@code {"entries": {"<hex serial>": {"status": ...,
+   * "reason": ..., "comment": ..., "expires": ...}}}}. Missing status and reason default to
+   * REVOKED and UNSPECIFIED, as with {@link CertificateRevocationStatus}.
+   */
+  public static RevocationIndex load(Reader statusListReader) throws IOException {
+    return load(statusListReader, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Same as {@link #load(Reader)}, with the Bloom filter sized for the given false positive rate.
+   */
+  public static RevocationIndex load(Reader statusListReader, double falsePositiveRate)
+      throws IOException {
+    Builder builder = new Builder();
+    parse(statusListReader, builder::add);
+    return builder.build(falsePositiveRate);
+  }
+
+  /** Receives the entries of a status list in list order. */
+  interface EntryHandler {
+    void entry(String serialNumber, byte packedStatus, String comment, String expiry)
+        throws IOException;
+  }
+
+  static void parse(Reader statusListReader, EntryHandler handler) throws IOException {
+    JsonReader reader = new JsonReader(statusListReader);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("entries")) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String serialNumber = reader.nextName();
+        int status = Status.REVOKED.ordinal();
+        int reason = Reason.UNSPECIFIED.ordinal();
+        String comment = null;
+        String expiry = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String field = reader.nextName();
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            continue;
+          }
+          switch (field) {
+            case "status":
+              status = ordinal(STATUSES, reader.nextString());
+              break;
+            case "reason":
+              reason = ordinal(REASONS, reader.nextString());
+              break;
+            case "comment":
+              comment = reader.nextString();
+              break;
+            case "expires":
+              expiry = reader.nextString();
+              break;
+            default:
+              reader.skipValue();
+          }
+        }
+        reader.endObject();
+        handler.entry(serialNumber, (byte) (status << 4 | reason), comment, expiry);
+      }
+      reader.endObject();
+    }
+    reader.endObject();
+  }
+
+  private static int ordinal(Enum<?>[] values, String name) {
+    for (Enum<?> value : values) {
+      if (value.name().equals(name)) {
+        return value.ordinal();
+      }
+    }
+    return UNKNOWN;
+  }
+
+  /** Number of entries. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the status of the given hex serial number, or null if the list has no entry. */
+  public CertificateRevocationStatus get(String serialNumber) {
+    if (serialNumber == null) {
+      throw new IllegalArgumentException("serialNumber cannot be null");
+    }
+    long hash;
+    try {
+      hash = RevocationBloomFilter.hash(serialNumber);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    byte[] key = null;
+    if (overlay.containsHash(hash)) {
+      key = parseSerial(serialNumber);
+      int change = overlay.find(hash, key);
+      if (change >= 0) {
+        return overlay.statusAt(change);
+      }
+    }
+    if (!bloomFilter.mightContain(hash)) {
+      return null;
+    }
+    if (key == null) {
+      key = parseSerial(serialNumber);
+    }
+    return confirmed(find(key));
+  }
+
+  public CertificateRevocationStatus get(BigInteger serialNumber) {
+    if (serialNumber.signum() < 0) {
+      return null;
+    }
+    byte[] key = serialNumber.toByteArray();
+    // toByteArray() adds a sign byte when the top bit is set; skip it like any leading zero.
+    int offset = 0;
+    while (offset < key.length && key[offset] == 0) {
+      offset++;
+    }
+    if (offset > 0) {
+      key = Arrays.copyOfRange(key, offset, key.length);
+    }
+    long hash = RevocationBloomFilter.hash(key);
+    int change = overlay.find(hash, key);
+    if (change >= 0) {
+      return overlay.statusAt(change);
+    }
+    if (!bloomFilter.mightContain(hash)) {
+      return null;
+    }
+    return confirmed(find(key));
+  }
+
+  /**
+   * Checks every certificate of the given chains, leaf first, against this index. A serial that
+   * occurs in several chains, like those of shared intermediates and roots, is looked up once.
+   *
+   * @return one status per chain, in the iteration order of the collection
+   */
+  public List<ChainRevocationStatus> checkChains(Collection<X509Certificate[]> chains) {
+    Map<BigInteger, CertificateRevocationStatus> statusBySerial = new HashMap<>();
+    List<ChainRevocationStatus> results = new ArrayList<>(chains.size());
+    for (X509Certificate[] chain : chains) {
+      if (chain == null) {
+        throw new IllegalArgumentException("chain cannot be null");
+      }
+      CertificateRevocationStatus[] statuses = new CertificateRevocationStatus[chain.length];
+      for (int i = 0; i < chain.length; i++) {
+        BigInteger serialNumber = chain[i].getSerialNumber();
+        CertificateRevocationStatus status = statusBySerial.get(serialNumber);
+        if (status == null && !statusBySerial.containsKey(serialNumber)) {
+          status = get(serialNumber);
+          statusBySerial.put(serialNumber, status);
+        }
+        statuses[i] = status;
+      }
+      results.add(new ChainRevocationStatus(results.size(), statuses));
+    }
+    return results;
+  }
+
+  /**
+   * The filter answering lookups of serials that are not on the list, with its metrics. It is
+   * built with the tables and shared by the indexes that {@link #apply} derives from this one.
+   */
+  public RevocationBloomFilter getBloomFilter() {
+    return bloomFilter;
+  }
+
+  /** Number of entries added, changed or removed since the tables were last built. */
+  public int getOverlaySize() {
+    return overlay.changes.length;
+  }
+
+  private CertificateRevocationStatus confirmed(int index) {
+    if (index < 0) {
+      bloomFilter.recordFalsePositive();
+      return null;
+    }
+    return status(packedStatuses.get(index), commentAt(index), expiryAt(index));
+  }
+
+  private String commentAt(int index) {
+    return comments == null ? null : comments[index];
+  }
+
+  private String expiryAt(int index) {
+    return expires == null ? null : expires[index];
+  }
+
+  private static CertificateRevocationStatus status(
+      byte packedStatus, String comment, String expiry) {
+    int packed = packedStatus & 0xff;
+    int status = packed >>> 4;
+    int reason = packed & 0x0f;
+    return new CertificateRevocationStatus(
+        status == UNKNOWN ? null : STATUSES[status],
+        reason == UNKNOWN ? null : REASONS[reason],
+        comment,
+        expiry);
+  }
+
+  /**
+   * Compares this index with a newer status list. Only the entries that differ are kept, so
+   * besides the parse itself the cost is a lookup per entry of the new list.
+   *
+   * @throws IOException if the list cannot be read or parsed
+   */
+  public RevocationDelta diff(Reader statusListReader) throws IOException {
+    BitSet seenInTables = new BitSet(tableSize);
+    BitSet seenInOverlay = new BitSet(overlay.changes.length);
+    // Keyed by serial, so that of duplicate entries the one listed last decides, as in load().
+    Map<ByteBuffer, Change> changes = new LinkedHashMap<>();
+    parse(
+        statusListReader,
+        (serialNumber, packedStatus, comment, expiry) -> {
+          byte[] serial = parseSerial(serialNumber);
+          if (serial == null) {
+            throw new IOException("Invalid serial number in status list: " + serialNumber);
+          }
+          long hash = RevocationBloomFilter.hash(serial);
+          boolean present;
+          boolean unchanged;
+          boolean duplicate = false;
+          int entry = overlay.find(hash, serial);
+          if (entry >= 0) {
+            duplicate = seenInOverlay.get(entry);
+            seenInOverlay.set(entry);
+            Change change = overlay.changes[entry];
+            present = change.kind != Kind.REMOVED;
+            unchanged = present && change.matches(packedStatus, comment, expiry);
+          } else {
+            entry = find(serial);
+            present = entry >= 0;
+            if (present) {
+              duplicate = seenInTables.get(entry);
+              seenInTables.set(entry);
+            }
+            unchanged = present && tableMatches(entry, packedStatus, comment, expiry);
+          }
+          if (!unchanged) {
+            Kind kind = present ? Kind.CHANGED : Kind.ADDED;
+            Change change = new Change(kind, serial, packedStatus, comment, expiry);
+            changes.put(ByteBuffer.wrap(serial), change);
+          } else if (duplicate) {
+            // An earlier entry for the serial may have been taken as a change.
+            changes.remove(ByteBuffer.wrap(serial));
+          }
+        });
+    for (int i = seenInTables.nextClearBit(0);
+        i < tableSize;
+        i = seenInTables.nextClearBit(i + 1)) {
+      byte[] serial = serialAt(i);
+      // Table entries the overlay has replaced or removed are settled by the loop below.
+      if (overlay.find(RevocationBloomFilter.hash(serial), serial) < 0) {
+        changes.put(ByteBuffer.wrap(serial), Change.removed(serial));
+      }
+    }
+    for (int i = seenInOverlay.nextClearBit(0);
+        i < overlay.changes.length;
+        i = seenInOverlay.nextClearBit(i + 1)) {
+      Change change = overlay.changes[i];
+      if (change.kind != Kind.REMOVED) {
+        changes.put(ByteBuffer.wrap(change.serial), Change.removed(change.serial));
+      }
+    }
+    return new RevocationDelta(this, changes.values());
+  }
+
+  /**
+   * Returns an index of the list the delta was computed from. This index stays unchanged and
+   * usable; the tables are shared, and only the changes are copied into the new overlay.
+   *
+   * @throws IllegalArgumentException if the delta was not computed against this index
+   */
+  public RevocationIndex apply(RevocationDelta delta) {
+    if (delta.source() != this) {
+      throw new IllegalArgumentException("Delta was computed against a different index.");
+    }
+    if (delta.isEmpty()) {
+      return this;
+    }
+    Map<ByteBuffer, Change> merged = new HashMap<>();
+    for (Change change : overlay.changes) {
+      merged.put(ByteBuffer.wrap(change.serial), change);
+    }
+    for (Change change : delta.changes()) {
+      ByteBuffer key = ByteBuffer.wrap(change.serial);
+      int entry = find(change.serial);
+      if (change.kind == Kind.REMOVED) {
+        if (entry >= 0) {
+          merged.put(key, change);
+        } else {
+          merged.remove(key);
+        }
+      } else if (entry >= 0
+          && tableMatches(entry, change.packedStatus, change.comment, change.expiry)) {
+        // Back to what the tables hold.
+        merged.remove(key);
+      } else {
+        merged.put(key, change);
+      }
+    }
+    RevocationIndex applied =
+        new RevocationIndex(this, new Overlay(merged.values()), delta.getSize());
+    if (merged.size() > Math.max(MIN_COMPACTION_SIZE, tableSize / COMPACTION_RATIO)) {
+      return applied.compact();
+    }
+    return applied;
+  }
+
+  private boolean tableMatches(int index, byte packedStatus, String comment, String expiry) {
+    return packedStatuses.get(index) == packedStatus
+        && Objects.equals(commentAt(index), comment)
+        && Objects.equals(expiryAt(index), expiry);
+  }
+
+  /** Returns an index of the same entries with the overlay merged into new tables. */
+  RevocationIndex compact() {
+    if (overlay.changes.length == 0) {
+      return this;
+    }
+    Compactor compactor = new Compactor(size, maxSerialLength());
+    forEachEntry(compactor);
+    return new RevocationIndex(
+        size,
+        compactor.width,
+        ByteBuffer.wrap(compactor.table),
+        ByteBuffer.wrap(compactor.statuses),
+        compactor.comments,
+        compactor.expires,
+        bloomFilter.getConfiguredFalsePositiveRate());
+  }
+
+  /** Receives the entries of an index in ascending serial order. */
+  interface EntryVisitor {
+    /**
+     * @param serials buffer holding the serial, read with absolute gets only
+     * @param offset position of the serial, which may start with zero padding
+     * @param length length of the serial including any padding
+     */
+    void visit(
+        ByteBuffer serials,
+        int offset,
+        int length,
+        byte packedStatus,
+        String comment,
+        String expiry);
+  }
+
+  /** Visits all live entries, merging the overlay into the tables on the fly. */
+  void forEachEntry(EntryVisitor visitor) {
+    Change[] pending = overlay.changes.clone();
+    Arrays.sort(pending, (a, b) -> compareSerials(a.serial, b.serial));
+    int next = 0;
+    for (int i = 0; i < tableSize; i++) {
+      int offset = i * serialWidth;
+      int comparison = 1;
+      while (next < pending.length
+          && (comparison = compare(serials, offset, serialWidth, pending[next].serial)) > 0) {
+        visit(visitor, pending[next++]);
+      }
+      if (next < pending.length && comparison == 0) {
+        // The overlay entry replaces or removes the table entry.
+        visit(visitor, pending[next++]);
+        continue;
+      }
+      visitor.visit(
+          serials, offset, serialWidth, packedStatuses.get(i), commentAt(i), expiryAt(i));
+    }
+    while (next < pending.length) {
+      visit(visitor, pending[next++]);
+    }
+  }
+
+  private static void visit(EntryVisitor visitor, Change change) {
+    if (change.kind != Kind.REMOVED) {
+      visitor.visit(
+          ByteBuffer.wrap(change.serial),
+          0,
+          change.serial.length,
+          change.packedStatus,
+          change.comment,
+          change.expiry);
+    }
+  }
+
+  /** Width that holds every live serial, i.e. the serial width of a compacted index. */
+  int maxSerialLength() {
+    int width = serialWidth;
+    for (Change change : overlay.changes) {
+      width = Math.max(width, change.serial.length);
+    }
+    return width;
+  }
+
+  /**
+   * Writes the serial of {@code length} bytes at {@code offset} to the target, stripped of
+   * leading zeros and left-padded to {@code width}.
+   */
+  static void putPadded(ByteBuffer target, ByteBuffer serials, int offset, int length, int width) {
+    int start = offset;
+    while (start < offset + length && serials.get(start) == 0) {
+      start++;
+    }
+    for (int i = offset + length - start; i < width; i++) {
+      target.put((byte) 0);
+    }
+    for (int i = start; i < offset + length; i++) {
+      target.put(serials.get(i));
+    }
+  }
+
+  // The serial of a table entry without its padding.
+  private byte[] serialAt(int index) {
+    int offset = index * serialWidth;
+    int start = offset;
+    while (start < offset + serialWidth && serials.get(start) == 0) {
+      start++;
+    }
+    byte[] serial = new byte[offset + serialWidth - start];
+    for (int i = 0; i < serial.length; i++) {
+      serial[i] = serials.get(start + i);
+    }
+    return serial;
+  }
+
+  // Binary search of the tables for the key, given without leading zeros; returns the entry
+  // index or -1.
+  private int find(byte[] key) {
+    if (key.length > serialWidth) {
+      return -1;
+    }
+    int low = 0;
+    int high = tableSize - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compare(serials, middle * serialWidth, serialWidth, key);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  // Compares a padded serial with a key without leading zeros, as if the key were left-padded to
+  // the same width.
+  private static int compare(ByteBuffer table, int offset, int width, byte[] key) {
+    int padding = width - key.length;
+    if (padding < 0) {
+      return -1;
+    }
+    for (int i = 0; i < padding; i++) {
+      if (table.get(offset + i) != 0) {
+        return 1;
+      }
+    }
+    for (int i = 0; i < key.length; i++) {
+      int difference = (table.get(offset + padding + i) & 0xff) - (key[i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return 0;
+  }
+
+  // Parses a hex serial into its unsigned bytes without leading zeros; null if not hex.
+  static byte[] parseSerial(String serialNumber) {
+    int start = 0;
+    while (start < serialNumber.length() && serialNumber.charAt(start) == '0') {
+      start++;
+    }
+    int digits = serialNumber.length() - start;
+    byte[] bytes = new byte[(digits + 1) / 2];
+    // An odd number of digits leaves the high nibble of the first byte empty.
+    int nibble = (digits & 1) == 0 ? 0 : 1;
+    for (int i = start; i < serialNumber.length(); i++, nibble++) {
+      int value = Character.digit(serialNumber.charAt(i), 16);
+      if (value < 0) {
+        return null;
+      }
+      bytes[nibble >> 1] |= (byte) ((nibble & 1) == 0 ? value << 4 : value);
+    }
+    return bytes;
+  }
+
+  /** Collects entries in list order and sorts them once at the end. */
+  private static final class Builder {
+    private byte[][] serials = new byte[1024][];
+    private byte[] packed = new byte[1024];
+    private String[] comments;
+    private String[] expires;
+    private int size;
+    private int width;
+
+    void add(String serialNumber, byte packedStatus, String comment, String expiry)
+        throws IOException {
+      byte[] serial = parseSerial(serialNumber);
+      if (serial == null) {
+        throw new IOException("Invalid serial number in status list: " + serialNumber);
+      }
+      if (size == serials.length) {
+        serials = Arrays.copyOf(serials, size * 2);
+        packed = Arrays.copyOf(packed, size * 2);
+        if (comments != null) {
+          comments = Arrays.copyOf(comments, size * 2);
+        }
+        if (expires != null) {
+          expires = Arrays.copyOf(expires, size * 2);
+        }
+      }
+      if (comment != null && comments == null) {
+        comments = new String[serials.length];
+      }
+      if (expiry != null && expires == null) {
+        expires = new String[serials.length];
+      }
+      serials[size] = serial;
+      packed[size] = packedStatus;
+      if (comments != null) {
+        comments[size] = comment;
+      }
+      if (expires != null) {
+        expires[size] = expiry;
+      }
+      width = Math.max(width, serial.length);
+      size++;
+    }
+
+    RevocationIndex build(double falsePositiveRate) {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      // Stable sort by serial, so that of duplicate keys the one listed last wins, as in a map.
+      Arrays.sort(order, (a, b) -> compareSerials(serials[a], serials[b]));
+      byte[] table = new byte[size * width];
+      byte[] statuses = new byte[size];
+      String[] sortedComments = comments == null ? null : new String[size];
+      String[] sortedExpires = expires == null ? null : new String[size];
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        int entry = order[i];
+        if (i + 1 < size && compareSerials(serials[entry], serials[order[i + 1]]) == 0) {
+          continue;
+        }
+        byte[] serial = serials[entry];
+        System.arraycopy(serial, 0, table, count * width + width - serial.length, serial.length);
+        statuses[count] = packed[entry];
+        if (sortedComments != null) {
+          sortedComments[count] = comments[entry];
+        }
+        if (sortedExpires != null) {
+          sortedExpires[count] = expires[entry];
+        }
+        count++;
+      }
+      if (count < size) {
+        table = Arrays.copyOf(table, count * width);
+        statuses = Arrays.copyOf(statuses, count);
+        sortedComments = sortedComments == null ? null : Arrays.copyOf(sortedComments, count);
+        sortedExpires = sortedExpires == null ? null : Arrays.copyOf(sortedExpires, count);
+      }
+      return new RevocationIndex(
+          count,
+          width,
+          ByteBuffer.wrap(table),
+          ByteBuffer.wrap(statuses),
+          sortedComments,
+          sortedExpires,
+          falsePositiveRate);
+    }
+  }
+
+  // Serials carry no leading zeros, so a shorter serial is the smaller number.
+  private static int compareSerials(byte[] a, byte[] b) {
+    if (a.length != b.length) {
+      return a.length - b.length;
+    }
+    for (int i = 0; i < a.length; i++) {
+      int difference = (a[i] & 0xff) - (b[i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return 0;
+  }
+
+  /** Changes on top of the tables, sorted by serial hash. */
+  private static final class Overlay {
+    static final Overlay EMPTY = new Overlay(Collections.emptyList());
+
+    final Change[] changes;
+    final long[] hashes;
+
+    Overlay(Collection<Change> changes) {
+      this.changes = changes.toArray(new Change[0]);
+      Arrays.sort(this.changes, Comparator.comparingLong(change -> change.hash));
+      this.hashes = new long[this.changes.length];
+      for (int i = 0; i < hashes.length; i++) {
+        hashes[i] = this.changes[i].hash;
+      }
+    }
+
+    boolean containsHash(long hash) {
+      return hashes.length > 0 && Arrays.binarySearch(hashes, hash) >= 0;
+    }
+
+    // Returns the index of the change for the serial, or -1.
+    int find(long hash, byte[] serial) {
+      if (hashes.length == 0) {
+        return -1;
+      }
+      int index = Arrays.binarySearch(hashes, hash);
+      if (index < 0) {
+        return -1;
+      }
+      while (index > 0 && hashes[index - 1] == hash) {
+        index--;
+      }
+      for (; index < hashes.length && hashes[index] == hash; index++) {
+        if (Arrays.equals(changes[index].serial, serial)) {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    CertificateRevocationStatus statusAt(int index) {
+      Change change = changes[index];
+      if (change.kind == Kind.REMOVED) {
+        return null;
+      }
+      return status(change.packedStatus, change.comment, change.expiry);
+    }
+  }
+
+  /** Copies the visited entries into new tables. */
+  private static final class Compactor implements EntryVisitor {
+    final int width;
+    final byte[] table;
+    final byte[] statuses;
+    String[] comments;
+    String[] expires;
+    private final ByteBuffer target;
+    private int count;
+
+    Compactor(int size, int width) {
+      this.width = width;
+      this.table = new byte[size * width];
+      this.statuses = new byte[size];
+      this.target = ByteBuffer.wrap(table);
+    }
+
+    @Override
+    public void visit(
+        ByteBuffer serials,
+        int offset,
+        int length,
+        byte packedStatus,
+        String comment,
+        String expiry) {
+      putPadded(target, serials, offset, length, width);
+      statuses[count] = packedStatus;
+      if (comment != null) {
+        comments = comments == null ? new String[statuses.length] : comments;
+        comments[count] = comment;
+      }
+      if (expiry != null) {
+        expires = expires == null ? new String[statuses.length] : expires;
+        expires[count] = expiry;
+      }
+      count++;
+    }
+  }
+}
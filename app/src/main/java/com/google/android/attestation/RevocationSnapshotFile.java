@@ -0,0 +1,343 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import com.google.android.attestation.RevocationStatusService.Snapshot;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a revocation status list, so a restarted process can use the last list
+ * without parsing JSON. Opening maps the file and serves lookups straight from the mapping.
+ *
+ * <p>Layout, all numbers big-endian:
+ *
+ * <pre>
+ * int    magic "RVIX"
+ * int    format version
+ * int    entry count n
+ * int    serial width w
+ * long   fetch time, epoch millis
+ * string ETag
+ * string Last-Modified
+ * byte[n * w]  sorted serial table
+ * byte[n]      packed status and reason
+ * Bloom filter over the serials: int hash count, double configured false positive rate,
+ *        int word count k, long[k] bits
+ * int    number of entries with comment or expiry, followed by
+ *        (int index, string comment, string expires) for each of them
+ * int    CRC-32 of all bytes before it
+ * </pre>
+ *
+ * Strings are an int byte length followed by UTF-8, with length -1 for null.
+ *
+ * <p>Opening a file checks the checksum and the order of the serial table, so a damaged file is
+ * rejected instead of answering lookups wrongly. The Bloom filter is stored with the tables and
+ * only rebuilt if it was sized for another false positive rate.
+ */
+final class RevocationSnapshotFile {
+
+  private static final int MAGIC = 0x52564958;
+  private static final int VERSION = 2;
+
+  private RevocationSnapshotFile() {}
+
+  /** Writes the snapshot next to the target first and then moves it in place atomically. */
+  static void write(Path file, Snapshot snapshot) throws IOException {
+    RevocationIndex index = snapshot.index;
+    // The entries are streamed in serial order, so an index with an overlay is written as if
+    // compacted without building the merged tables in memory.
+    int width = index.maxSerialLength();
+    byte[] eTag = encode(snapshot.eTag);
+    byte[] lastModified = encode(snapshot.lastModified);
+    ByteBuffer header =
+        ByteBuffer.allocate(4 * 4 + 8 + stringLength(eTag) + stringLength(lastModified));
+    header.putInt(MAGIC).putInt(VERSION).putInt(index.size()).putInt(width);
+    header.putLong(snapshot.fetchedAt == null ? 0 : snapshot.fetchedAt.toEpochMilli());
+    putString(header, eTag);
+    putString(header, lastModified);
+    header.flip();
+
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      CRC32 checksum = new CRC32();
+      writeFully(channel, header, checksum);
+      TableWriter tables =
+          new TableWriter(
+              channel,
+              checksum,
+              index.size(),
+              width,
+              index.getBloomFilter().getConfiguredFalsePositiveRate());
+      try {
+        index.forEachEntry(tables);
+        tables.flush();
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      writeFully(channel, ByteBuffer.wrap(tables.statuses), checksum);
+      writeFully(channel, tables.bloomFilter(), checksum);
+      writeFully(channel, tables.trailer(), checksum);
+      ByteBuffer checksumValue = ByteBuffer.allocate(4).putInt((int) checksum.getValue());
+      checksumValue.flip();
+      writeFully(channel, checksumValue, null);
+      channel.force(true);
+    }
+    Files.move(
+        temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, CRC32 checksum)
+      throws IOException {
+    if (checksum != null) {
+      checksum.update(buffer.duplicate());
+    }
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Maps a snapshot file. The serial and status tables stay in the mapping; the Bloom filter bits
+   * and the few comments and expiry dates are copied out.
+   *
+   * @param falsePositiveRate false positive rate of the Bloom filter over the serials; a stored
+   *     filter sized for another rate is rebuilt
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  static Snapshot read(Path file, double falsePositiveRate) throws IOException {
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      if (mapped.limit() < 4) {
+        throw new IOException("Truncated revocation snapshot: " + file);
+      }
+      ByteBuffer content = mapped.duplicate();
+      content.limit(mapped.limit() - 4);
+      CRC32 checksum = new CRC32();
+      checksum.update(content);
+      if ((int) checksum.getValue() != mapped.getInt(mapped.limit() - 4)) {
+        throw new IOException("Checksum mismatch in revocation snapshot: " + file);
+      }
+      mapped.limit(mapped.limit() - 4);
+      if (mapped.getInt() != MAGIC) {
+        throw new IOException("Not a revocation snapshot: " + file);
+      }
+      int version = mapped.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported revocation snapshot version " + version);
+      }
+      int size = mapped.getInt();
+      int serialWidth = mapped.getInt();
+      long fetchedAtMillis = mapped.getLong();
+      String eTag = getString(mapped);
+      String lastModified = getString(mapped);
+      if (size < 0 || serialWidth < 0 || (long) size * (serialWidth + 1) > mapped.remaining()) {
+        throw new IOException("Truncated revocation snapshot: " + file);
+      }
+      ByteBuffer serials = slice(mapped, size * serialWidth);
+      ByteBuffer statuses = slice(mapped, size);
+      checkSorted(serials, size, serialWidth, file);
+      RevocationBloomFilter bloomFilter = RevocationBloomFilter.readFrom(mapped);
+      if (bloomFilter.getConfiguredFalsePositiveRate() != falsePositiveRate) {
+        bloomFilter = RevocationBloomFilter.create(serials, size, serialWidth, falsePositiveRate);
+      }
+      String[] comments = null;
+      String[] expires = null;
+      int extras = mapped.getInt();
+      for (int i = 0; i < extras; i++) {
+        int entry = mapped.getInt();
+        String comment = getString(mapped);
+        String expiry = getString(mapped);
+        if (comment != null) {
+          comments = comments == null ? new String[size] : comments;
+          comments[entry] = comment;
+        }
+        if (expiry != null) {
+          expires = expires == null ? new String[size] : expires;
+          expires[entry] = expiry;
+        }
+      }
+      RevocationIndex index =
+          new RevocationIndex(
+              size, serialWidth, serials, statuses, comments, expires, bloomFilter);
+      return new Snapshot(
+          index,
+          eTag,
+          lastModified,
+          fetchedAtMillis == 0 ? null : Instant.ofEpochMilli(fetchedAtMillis));
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Corrupt revocation snapshot: " + file, e);
+    }
+  }
+
+  // Lookups binary search the serial table, which only finds entries if it is strictly ascending.
+  private static void checkSorted(ByteBuffer serials, int size, int width, Path file)
+      throws IOException {
+    for (int i = 1; i < size; i++) {
+      int previous = (i - 1) * width;
+      int current = i * width;
+      int difference = 0;
+      for (int j = 0; j < width && difference == 0; j++) {
+        difference = (serials.get(current + j) & 0xff) - (serials.get(previous + j) & 0xff);
+      }
+      if (difference <= 0) {
+        throw new IOException("Unsorted serial table in revocation snapshot: " + file);
+      }
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int length) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+
+  private static byte[] encode(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int stringLength(String value) {
+    return stringLength(encode(value));
+  }
+
+  private static int stringLength(byte[] value) {
+    return 4 + (value == null ? 0 : value.length);
+  }
+
+  private static void putString(ByteBuffer buffer, byte[] value) {
+    if (value == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(value.length).put(value);
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the serial table through a small buffer and keeps the status bytes, a Bloom filter over
+   * the written serials and the entries with comment or expiry for after it.
+   */
+  private static final class TableWriter implements RevocationIndex.EntryVisitor {
+    private final FileChannel channel;
+    private final CRC32 checksum;
+    private final int width;
+    private final ByteBuffer buffer;
+    // Built here rather than taken from the index, whose filter does not cover its overlay.
+    private final RevocationBloomFilter filter;
+    final byte[] statuses;
+    private final List<Integer> extraIndexes = new ArrayList<>();
+    private final List<String> extraComments = new ArrayList<>();
+    private final List<String> extraExpires = new ArrayList<>();
+    private int count;
+
+    TableWriter(
+        FileChannel channel, CRC32 checksum, int size, int width, double falsePositiveRate) {
+      this.channel = channel;
+      this.checksum = checksum;
+      this.width = width;
+      this.buffer = ByteBuffer.allocate(Math.max(1, width) * 4096);
+      this.filter = new RevocationBloomFilter(size, falsePositiveRate);
+      this.statuses = new byte[size];
+    }
+
+    @Override
+    public void visit(
+        ByteBuffer serials,
+        int offset,
+        int length,
+        byte packedStatus,
+        String comment,
+        String expiry) {
+      if (buffer.remaining() < width) {
+        flush();
+      }
+      RevocationIndex.putPadded(buffer, serials, offset, length, width);
+      filter.add(RevocationBloomFilter.hash(serials, offset, length));
+      statuses[count] = packedStatus;
+      if (comment != null || expiry != null) {
+        extraIndexes.add(count);
+        extraComments.add(comment);
+        extraExpires.add(expiry);
+      }
+      count++;
+    }
+
+    void flush() {
+      buffer.flip();
+      try {
+        writeFully(channel, buffer, checksum);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      buffer.clear();
+    }
+
+    ByteBuffer bloomFilter() {
+      ByteBuffer encoded = ByteBuffer.allocate(filter.serializedLength());
+      filter.writeTo(encoded);
+      encoded.flip();
+      return encoded;
+    }
+
+    ByteBuffer trailer() {
+      int length = 4;
+      for (int i = 0; i < extraIndexes.size(); i++) {
+        length += 4 + stringLength(extraComments.get(i)) + stringLength(extraExpires.get(i));
+      }
+      ByteBuffer trailer = ByteBuffer.allocate(length);
+      trailer.putInt(extraIndexes.size());
+      for (int i = 0; i < extraIndexes.size(); i++) {
+        trailer.putInt(extraIndexes.get(i));
+        putString(trailer, encode(extraComments.get(i)));
+        putString(trailer, encode(extraExpires.get(i)));
+      }
+      trailer.flip();
+      return trailer;
+    }
+  }
+}
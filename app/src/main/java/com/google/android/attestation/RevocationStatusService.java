@@ -0,0 +1,328 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the attestation certificate status list in memory. Lookups read an immutable snapshot
+ * without locking; refreshes build a new snapshot and swap it in atomically. A downloaded list is
+ * compared with the current one and only the differences are applied, see {@link
+ * RevocationDelta}, so a refresh costs memory in proportion to what changed. Refreshes are
+ * conditional requests using the ETag and Last-Modified validators of the previous response, so an
+ * unchanged list costs a single 304 round trip.
+ *
+ * <p>After {@link #start()}, the list is refreshed in the background once per TTL. With a snapshot
+ * file, every downloaded list is also stored in binary form and memory-mapped on the next start,
+ * so a restarted process serves lookups without parsing JSON.
+ */
+public class RevocationStatusService implements Closeable {
+
+  public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+  private static final int TIMEOUT_MILLIS = 30_000;
+
+  private final URL statusUrl;
+  private final Duration ttl;
+  private final Clock clock;
+  private final Path snapshotFile;
+  private final double falsePositiveRate;
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+  private final Object refreshLock = new Object();
+  private final AtomicLong refreshCount = new AtomicLong();
+  private final AtomicLong notModifiedCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private final AtomicReference<RevocationDelta> lastDelta = new AtomicReference<>();
+  private ScheduledExecutorService scheduler;
+
+  /** Creates a service for the Google status list with the default TTL. */
+  public RevocationStatusService() {
+    this(defaultStatusUrl(), DEFAULT_TTL);
+  }
+
+  public RevocationStatusService(URL statusUrl, Duration ttl) {
+    this(statusUrl, ttl, null);
+  }
+
+  /**
+   * @param snapshotFile binary snapshot written after every download and mapped on {@link
+   *     #start()}, or null to keep the list in memory only
+   */
+  public RevocationStatusService(URL statusUrl, Duration ttl, Path snapshotFile) {
+    this(statusUrl, ttl, snapshotFile, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * @param falsePositiveRate false positive rate the Bloom filter of every loaded index is sized
+   *     for
+   */
+  public RevocationStatusService(
+      URL statusUrl, Duration ttl, Path snapshotFile, double falsePositiveRate) {
+    this(statusUrl, ttl, snapshotFile, falsePositiveRate, Clock.systemUTC());
+  }
+
+  RevocationStatusService(
+      URL statusUrl, Duration ttl, Path snapshotFile, double falsePositiveRate, Clock clock) {
+    if (ttl.isNegative() || ttl.isZero()) {
+      throw new IllegalArgumentException("TTL must be positive.");
+    }
+    this.statusUrl = statusUrl;
+    this.ttl = ttl;
+    this.snapshotFile = snapshotFile;
+    this.falsePositiveRate = falsePositiveRate;
+    this.clock = clock;
+  }
+
+  private static URL defaultStatusUrl() {
+    try {
+      return new URL(CertificateRevocationStatus.STATUS_URL);
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Loads the status list and schedules the background refresh. If a snapshot file from an
+   * earlier run can be mapped, it is served right away and the download is left to the background
+   * refresh once the snapshot's TTL is up.
+   *
+   * @throws IOException if there is no usable snapshot and the initial download fails
+   */
+  public synchronized void start() throws IOException {
+    if (scheduler != null) {
+      return;
+    }
+    long initialDelay = ttl.toMillis();
+    Snapshot stored = readSnapshotFile();
+    if (stored != null) {
+      snapshot.compareAndSet(Snapshot.EMPTY, stored);
+      Instant due = stored.fetchedAt == null ? clock.instant() : stored.fetchedAt.plus(ttl);
+      initialDelay = Math.max(0, Duration.between(clock.instant(), due).toMillis());
+    } else {
+      refresh();
+    }
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "revocation-status-refresh");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::refreshQuietly, initialDelay, ttl.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private Snapshot readSnapshotFile() {
+    if (snapshotFile == null || !Files.isRegularFile(snapshotFile)) {
+      return null;
+    }
+    try {
+      return RevocationSnapshotFile.read(snapshotFile, falsePositiveRate);
+    } catch (IOException e) {
+      // An unreadable snapshot is replaced by the next download.
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Returns the status of the certificate with the given hex serial number, or null if the list
+   * has no entry for it.
+   */
+  public CertificateRevocationStatus getStatus(String serialNumber) {
+    if (serialNumber == null) {
+      throw new IllegalArgumentException("serialNumber cannot be null");
+    }
+    return snapshot.get().index.get(serialNumber);
+  }
+
+  public CertificateRevocationStatus getStatus(BigInteger serialNumber) {
+    Objects.requireNonNull(serialNumber, "serialNumber cannot be null");
+    return snapshot.get().index.get(serialNumber);
+  }
+
+  /**
+   * Checks many certificate chains, leaf first, against the current snapshot. All chains are
+   * checked against the same snapshot, even if a refresh swaps it in the meantime.
+   */
+  public List<ChainRevocationStatus> checkChains(Collection<X509Certificate[]> chains) {
+    return snapshot.get().index.checkChains(chains);
+  }
+
+  public Snapshot getSnapshot() {
+    return snapshot.get();
+  }
+
+  /** Whether the current snapshot is older than the TTL, e.g. because refreshes keep failing. */
+  public boolean isStale() {
+    Snapshot current = snapshot.get();
+    return current.fetchedAt == null || current.fetchedAt.plus(ttl).isBefore(clock.instant());
+  }
+
+  /**
+   * Downloads the status list unless the server reports it unchanged.
+   *
+   * @return true if a new list was loaded, false if it was not modified
+   * @throws IOException if the download fails, in which case the current snapshot is kept, or if
+   *     the new list cannot be written to the snapshot file, in which case it is used regardless
+   */
+  public boolean refresh() throws IOException {
+    synchronized (refreshLock) {
+      try {
+        return doRefresh();
+      } catch (IOException | RuntimeException e) {
+        failureCount.incrementAndGet();
+        throw e;
+      }
+    }
+  }
+
+  private boolean doRefresh() throws IOException {
+    Snapshot current = snapshot.get();
+    HttpURLConnection connection = (HttpURLConnection) statusUrl.openConnection();
+    try {
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      // The validators describe the current list, whether it was downloaded by this process or
+      // mapped from the snapshot file, so a 304 always confirms that list.
+      boolean conditional = current.eTag != null || current.lastModified != null;
+      if (current.eTag != null) {
+        connection.setRequestProperty("If-None-Match", current.eTag);
+      }
+      if (current.lastModified != null) {
+        connection.setRequestProperty("If-Modified-Since", current.lastModified);
+      }
+      int responseCode = connection.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        if (!conditional) {
+          throw new IOException(
+              "Unexpected 304 from " + statusUrl + " to an unconditional request");
+        }
+        snapshot.set(
+            new Snapshot(current.index, current.eTag, current.lastModified, clock.instant()));
+        notModifiedCount.incrementAndGet();
+        return false;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + responseCode + " from " + statusUrl);
+      }
+      RevocationIndex index;
+      try (Reader reader =
+          new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+        if (current.index.size() == 0) {
+          index = RevocationIndex.load(reader, falsePositiveRate);
+          lastDelta.set(null);
+        } else {
+          RevocationDelta delta = current.index.diff(reader);
+          index = current.index.apply(delta);
+          lastDelta.set(delta);
+        }
+      }
+      Snapshot loaded =
+          new Snapshot(
+              index,
+              connection.getHeaderField("ETag"),
+              connection.getHeaderField("Last-Modified"),
+              clock.instant());
+      snapshot.set(loaded);
+      refreshCount.incrementAndGet();
+      if (snapshotFile != null) {
+        RevocationSnapshotFile.write(snapshotFile, loaded);
+      }
+      return true;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private void refreshQuietly() {
+    try {
+      refresh();
+    } catch (IOException | RuntimeException e) {
+      // Already counted; lookups keep using the previous snapshot until the next attempt.
+    }
+  }
+
+  /** Number of refreshes that loaded a new list. */
+  public long getRefreshCount() {
+    return refreshCount.get();
+  }
+
+  /** Number of refreshes answered with 304 Not Modified. */
+  public long getNotModifiedCount() {
+    return notModifiedCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /**
+   * What the last downloaded list changed compared to the one before it, or null if no list was
+   * loaded yet or the last one was loaded whole because there was none before.
+   */
+  public RevocationDelta getLastDelta() {
+    return lastDelta.get();
+  }
+
+  /** Immutable state of the status list as of one download. */
+  public static final class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(RevocationIndex.EMPTY, null, null, null);
+
+    public final RevocationIndex index;
+    public final String eTag;
+    public final String lastModified;
+    /** Time of the last successful refresh, or null before the first one. */
+    public final Instant fetchedAt;
+
+    Snapshot(RevocationIndex index, String eTag, String lastModified, Instant fetchedAt) {
+      this.index = index;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+      this.fetchedAt = fetchedAt;
+    }
+  }
+}
@@ -24,6 +24,8 @@ import static com.google.android.attestation.Constants.ROOT_OF_TRUST_VERIFIED_BO
 import static com.google.android.attestation.Constants.ROOT_OF_TRUST_VERIFIED_BOOT_KEY_INDEX;
 import static com.google.android.attestation.Constants.ROOT_OF_TRUST_VERIFIED_BOOT_STATE_INDEX;
 
+import java.util.Arrays;
+import java.util.Objects;
 import org.bouncycastle.asn1.ASN1Boolean;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Enumerated;
@@ -39,6 +41,7 @@ public class RootOfTrust {
   public final boolean deviceLocked;
   public final VerifiedBootState verifiedBootState;
   public final byte[] verifiedBootHash;
+  private int hash;
 
   private RootOfTrust(ASN1Sequence rootOfTrust, int attestationVersion) {
     this.verifiedBootKey =
@@ -59,6 +62,17 @@ public class RootOfTrust {
     }
   }
 
+  RootOfTrust(
+      byte[] verifiedBootKey,
+      boolean deviceLocked,
+      VerifiedBootState verifiedBootState,
+      byte[] verifiedBootHash) {
+    this.verifiedBootKey = verifiedBootKey;
+    this.deviceLocked = deviceLocked;
+    this.verifiedBootState = verifiedBootState;
+    this.verifiedBootHash = verifiedBootHash;
+  }
+
   static RootOfTrust createRootOfTrust(ASN1Sequence rootOfTrust, int attestationVersion) {
     if (rootOfTrust == null) {
       return null;
@@ -67,7 +81,16 @@ public class RootOfTrust {
   }
 
   private static VerifiedBootState verifiedBootStateToEnum(int securityLevel) {
-    switch (securityLevel) {
+    VerifiedBootState state = verifiedBootStateOrNull(securityLevel);
+    if (state == null) {
+      throw new IllegalArgumentException("Invalid verified boot state.");
+    }
+    return state;
+  }
+
+  /** Same as {@link #verifiedBootStateToEnum(int)}, but returns null for unknown values. */
+  static VerifiedBootState verifiedBootStateOrNull(int verifiedBootState) {
+    switch (verifiedBootState) {
       case KM_VERIFIED_BOOT_STATE_VERIFIED:
         return VerifiedBootState.VERIFIED;
       case KM_VERIFIED_BOOT_STATE_SELF_SIGNED:
@@ -77,11 +100,11 @@ public class RootOfTrust {
       case KM_VERIFIED_BOOT_STATE_FAILED:
         return VerifiedBootState.FAILED;
       default:
-        throw new IllegalArgumentException("Invalid verified boot state.");
+        return null;
     }
   }
 
-  private static int verifiedBootStateToInt(VerifiedBootState verifiedBootState) {
+  static int verifiedBootStateToInt(VerifiedBootState verifiedBootState) {
     switch (verifiedBootState) {
       case VERIFIED:
         return KM_VERIFIED_BOOT_STATE_VERIFIED;
@@ -123,4 +146,35 @@ public class RootOfTrust {
         new ASN1Enumerated(verifiedBootStateToInt(this.verifiedBootState));
     return new DERSequence(rootOfTrustElements);
   }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RootOfTrust)) {
+      return false;
+    }
+    RootOfTrust other = (RootOfTrust) o;
+    return deviceLocked == other.deviceLocked
+        && verifiedBootState == other.verifiedBootState
+        && Arrays.equals(verifiedBootKey, other.verifiedBootKey)
+        && Arrays.equals(verifiedBootHash, other.verifiedBootHash);
+  }
+
+  /** Computed on first use and cached, the root of trust being immutable. */
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      h = Arrays.hashCode(verifiedBootKey);
+      h = 31 * h + Boolean.hashCode(deviceLocked);
+      h = 31 * h + Objects.hashCode(verifiedBootState);
+      h = 31 * h + Arrays.hashCode(verifiedBootHash);
+      // Zero marks the hash as not computed yet.
+      h = h == 0 ? 1 : h;
+      hash = h;
+    }
+    return h;
+  }
 }
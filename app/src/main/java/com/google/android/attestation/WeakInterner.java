@@ -0,0 +1,123 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Thread-safe interner holding its canonical instances weakly: an instance stays canonical as long
+ * as anything else references it, and its table entry is dropped once it has been collected.
+ */
+final class WeakInterner<T> {
+
+  private final ConcurrentHashMap<Ref<T>, Ref<T>> table = new ConcurrentHashMap<>();
+  private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+  private final ToIntFunction<T> hasher;
+  private final BiPredicate<T, T> equality;
+
+  private WeakInterner(ToIntFunction<T> hasher, BiPredicate<T, T> equality) {
+    this.hasher = hasher;
+    this.equality = equality;
+  }
+
+  /** Interner for objects with value based equals and hashCode. */
+  static <T> WeakInterner<T> create() {
+    return new WeakInterner<>(Object::hashCode, Object::equals);
+  }
+
+  /** Interner comparing byte arrays by content. */
+  static WeakInterner<byte[]> forByteArrays() {
+    return new WeakInterner<>(Arrays::hashCode, Arrays::equals);
+  }
+
+  /** Returns the canonical instance equal to the value, or null if there is none. */
+  T get(T value) {
+    expungeCollected();
+    Ref<T> existing = table.get(new Ref<>(value, hasher.applyAsInt(value), null, this));
+    return existing == null ? null : existing.get();
+  }
+
+  /** Returns the canonical instance equal to the value, making the value canonical if needed. */
+  T intern(T value) {
+    expungeCollected();
+    Ref<T> ref = new Ref<>(value, hasher.applyAsInt(value), queue, this);
+    while (true) {
+      Ref<T> existing = table.putIfAbsent(ref, ref);
+      if (existing == null) {
+        return value;
+      }
+      T canonical = existing.get();
+      if (canonical != null) {
+        return canonical;
+      }
+      // Collected but not yet expunged; replace it.
+      table.remove(existing, existing);
+    }
+  }
+
+  /** Number of canonical instances, including some that may have been collected already. */
+  int size() {
+    expungeCollected();
+    return table.size();
+  }
+
+  private void expungeCollected() {
+    Object collected;
+    while ((collected = queue.poll()) != null) {
+      table.remove(collected);
+    }
+  }
+
+  /**
+   * Table key and value. Equal to another reference if both referents are still reachable and
+   * equal; a collected reference is only equal to itself, so it can still be removed.
+   */
+  private static final class Ref<T> extends WeakReference<T> {
+    private final int hash;
+    private final WeakInterner<T> interner;
+
+    Ref(T value, int hash, ReferenceQueue<T> queue, WeakInterner<T> interner) {
+      super(value, queue);
+      this.hash = hash;
+      this.interner = interner;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Ref) || ((Ref<?>) o).hash != hash) {
+        return false;
+      }
+      T value = get();
+      T otherValue = ((Ref<T>) o).get();
+      return value != null && otherValue != null && interner.equality.test(value, otherValue);
+    }
+  }
+}
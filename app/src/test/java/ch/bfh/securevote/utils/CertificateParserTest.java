@@ -1,40 +1,39 @@
 package ch.bfh.securevote.utils;
 
+import com.google.android.attestation.DerEncoder;
+import com.google.android.attestation.ParsedAttestationRecord;
+
 import org.junit.Test;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Base64;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 
 public class CertificateParserTest {
-    // Our APC test certificate with attestation extension
-    private static String pemCert = "MIIDRTCCAuygAwIBAgIBATAKBggqhkjOPQQDAjA/MRIwEAYDVQQMDAlTdHJvbmdC" +
-            "b3gxKTAnBgNVBAUTIDA2ODQyZjg0YmNiYWRiZDE5NjQwNWJmZDZhNjM0OWViMB4X" +
-            "DTIzMDMyOTA4MzgzNloXDTI0MDMyOTA5MzgzNlowSzELMAkGA1UEBhMCQ0gxDDAK" +
-            "BgNVBAsTA0JGSDETMBEGA1UECxMKU2VjdXJlVm90ZTEZMBcGA1UEAxMQQkZIIEFQ" +
-            "QyBEZW1vIEFwcDBZMBMGByqGSM49AgEGCCqGSM49AwEHA0IABFejuuikx8MU+Q8J" +
-            "4LjJgfuCis1gTDzWSS/8NEtnSp5oKmo4v3L8dV9pvi0+qga/SQcvtkWZKkKuZc8A" +
-            "0t8IbmejggHLMIIBxzAOBgNVHQ8BAf8EBAMCB4AwggGzBgorBgEEAdZ5AgERBIIB" +
-            "ozCCAZ8CAWQKAQICAWQKAQIEJDM0NjVlZjIzLTMyOGItNGJlYi05M2RhLTQzMjQw" +
-            "MzcwMzQ2ZgQAMHa/gxAIAgYBhyyE2oC/gxEIAgYBjomTUQC/gxIIAgYBjomTUQC/" +
-            "hT0IAgYBhyyE2oy/hUVCBEAwPjEYMBYEEWNoLmJmaC5zZWN1cmV2b3RlAgERMSIE" +
-            "IFYx474QeKzzVsCZ+B2voFpQ4h6VXlOp47FXcc0LnJA2MIHwoQUxAwIBAqIDAgED" +
-            "owQCAgEApQsxCQIBBAIBBQIBBqoDAgEBv4N3AgUAv4N8AgUAv4N9AgUAv4U+AwIB" +
-            "AL+FQEwwSgQgD251yAGDtd7AdLAFTUJx6ZOJ6+SxNrCBneHxULoP+dcBAf8KAQAE" +
-            "IDYnS2BR96N8t7nyRg9VMwfDNGcxqcQ5e0a71CNEiUsIv4VBBQIDAfvQv4VCBQID" +
-            "AxY/v4VGCAQGZ29vZ2xlv4VHCAQGb3Jpb2xlv4VICAQGb3Jpb2xlv4VMCAQGR29v" +
-            "Z2xlv4VNCQQHUGl4ZWwgNr+FTgYCBAE0sKG/hU8GAgQBNLChMAoGCCqGSM49BAMC" +
-            "A0cAMEQCIFJGWP8TcvC6eKK2bXEkpm5lKbJj957GdHvHSh50S+4BAiAo46oHHJ2V" +
-            "cv6WCdcDOjRsCJOVq2RoSwEK2qaA2uiZ3w==";
-
-    // get X509Certificate from pem string
+    // Our APC test certificate with attestation extension, shared with the benchmarks
+    private static final String PEM_RESOURCE = "apc_test_certificate.pem";
+
+    // get X509Certificate from the pem resource
     private static Certificate getCertificate() throws CertificateException {
         CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        return cf.generateCertificate(new ByteArrayInputStream(Base64.getDecoder().decode(pemCert.getBytes())));
+        try (InputStream in = CertificateParserTest.class.getResourceAsStream(PEM_RESOURCE)) {
+            return cf.generateCertificate(in);
+        } catch (IOException e) {
+            throw new CertificateException(e);
+        }
     }
 
     // Test for getKeyType()
@@ -53,6 +52,28 @@ public class CertificateParserTest {
         assert keyLength.equals("256 bits");
     }
 
+    // Test for getEcType()
+    @Test
+    public void getEcType() throws CertificateException {
+        Certificate cert = getCertificate();
+        String ecType = CertificateParser.getEcType(cert);
+        assert ecType.equals("secp256r1");
+    }
+
+    // Test for the curve table of the EcCurveResolver
+    @Test
+    public void resolveEcCurve() throws Exception {
+        for (String name : new String[] {"secp256r1", "secp384r1", "secp521r1"}) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec(name));
+            ECPublicKey key = (ECPublicKey) generator.generateKeyPair().getPublic();
+            assert name.equals(EcCurveResolver.getCurveName(key.getParams()));
+            assert name.equals(EcCurveResolver.getCurveName(key));
+        }
+        assert "secp384r1".equals(EcCurveResolver.getCurveNameForOid("1.3.132.0.34"));
+        assert EcCurveResolver.getCurveNameForOid("1.2.3") == null;
+    }
+
     // Test for getKeyUsageString()
     @Test
     public void getKeyUsageString() throws CertificateException {
@@ -77,4 +98,104 @@ public class CertificateParserTest {
         boolean requiresProtectedConfirmation = CertificateParser.requiresProtectedConfirmation(cert);
         assert requiresProtectedConfirmation;
     }
+
+    //Test for the key policy checks on the parsed attestation record
+    @Test
+    public void keyPolicy() throws CertificateException {
+        ParsedAttestationRecord record = CertificateParser.getAttestationExtension(getCertificate());
+        assert CertificateParser.isStrongBoxKey(record);
+        assert !CertificateParser.isTrustedEnvironmentKey(record);
+        assert CertificateParser.getKeyPolicyFailures(record)
+                .equals(Arrays.asList("user-authentication", "trusted-environment"));
+    }
+
+    //Test for getAttestationExtension() going through the attestation record cache
+    @Test
+    public void getAttestationExtensionIsCached() throws Exception {
+        AttestationRecordCache cache = AttestationRecordCache.getInstance();
+        cache.clear();
+        X509Certificate cert = (X509Certificate) getCertificate();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        ParsedAttestationRecord first = CertificateParser.getAttestationExtension(cert);
+        assert cache.getMissCount() == misses + 1;
+        assert cache.getHitCount() == hits;
+
+        // Every later lookup of the certificate is served from the cache
+        ParsedAttestationRecord second = CertificateParser.getAttestationExtension(getCertificate());
+        CertificateParser.requiresAuthentication(cert);
+        CertificateParser.requiresProtectedConfirmation(cert);
+        CertificateParser.getTeeAuthorizationList(cert);
+        CertificateSummary summary = CertificateSummary.of(cert);
+        assert first != null;
+        assert first == second;
+        assert summary.getAttestationRecord() == first;
+        assert cache.getMissCount() == misses + 1;
+        assert cache.getHitCount() == hits + 5;
+    }
+
+    //Test that the summary carries the same values as the single getters
+    @Test
+    public void certificateSummary() throws Exception {
+        X509Certificate cert = (X509Certificate) getCertificate();
+        CertificateSummary summary = CertificateSummary.of(cert);
+        assert summary.getKeyAlgorithm().equals(CertificateParser.getKeyType(cert));
+        assert summary.getKeySizeString().equals(CertificateParser.getEcKeyLength(cert));
+        assert summary.getCurveName().equals(CertificateParser.getEcType(cert));
+        assert summary.getKeyUsageString().equals(CertificateParser.getKeyUsageString(cert));
+        assert summary.hasKeyUsage(CertificateSummary.DIGITAL_SIGNATURE);
+        assert !summary.hasKeyUsage(CertificateSummary.KEY_CERT_SIGN);
+        assert summary.getSerialNumber().equals(cert.getSerialNumber());
+        assert summary.getNotAfter().equals(cert.getNotAfter());
+        assert summary.getSha256Fingerprint().equals(CertificateParser.getThumbPrint(cert, "SHA-256"));
+        assert summary.getSha1Fingerprint().equals(CertificateParser.getThumbPrint(cert, "SHA-1"));
+        assert Arrays.equals(DerEncoder.encode(summary.getAttestationRecord()),
+                DerEncoder.encode(CertificateParser.getAttestationExtension(cert)));
+    }
+
+    //Test for the parallel batch factory
+    @Test
+    public void summarize() throws CertificateException {
+        List<Certificate> certificates = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            certificates.add(getCertificate());
+        }
+        List<CertificateSummary> summaries = CertificateSummary.summarize(certificates);
+        assert summaries.size() == certificates.size();
+        for (CertificateSummary summary : summaries) {
+            assert summary.getSerialNumber().equals(((X509Certificate) certificates.get(0)).getSerialNumber());
+            assert summary.getAttestationRecord() != null;
+        }
+    }
+
+    //Test that the single pass fingerprints equal the separately computed digests
+    @Test
+    public void fingerprintEngine() throws Exception {
+        X509Certificate cert = (X509Certificate) getCertificate();
+        FingerprintEngine.Fingerprints fingerprints = FingerprintEngine.compute(cert.getEncoded(), true);
+        for (String algorithm : new String[] {"SHA-1", "SHA-256", "SHA-512"}) {
+            byte[] expected = MessageDigest.getInstance(algorithm).digest(cert.getEncoded());
+            String formatted = CertificateParser.hexify(expected)
+                    .replaceAll("(?<=..)(..)", ":$1").toUpperCase(Locale.US);
+            byte[] actual = algorithm.equals("SHA-1") ? fingerprints.getSha1()
+                    : algorithm.equals("SHA-256") ? fingerprints.getSha256() : fingerprints.getSha512();
+            assert Arrays.equals(expected, actual);
+            assert formatted.equals(FingerprintEngine.toColonHex(actual));
+        }
+        // The per thread digests are reset between calls
+        assert Arrays.equals(fingerprints.getSha256(), FingerprintEngine.compute(cert).getSha256());
+        assert FingerprintEngine.compute(cert).getSha512() == null;
+    }
+
+    //Test for the serial number formatting
+    @Test
+    public void formatSerialNumber() {
+        assert FingerprintEngine.formatSerialNumber(new BigInteger("c8966fcb2fbb0d7a", 16))
+                .equals("C8:96:6F:CB:2F:BB:0D:7A");
+        assert FingerprintEngine.formatSerialNumber(new BigInteger("abc", 16)).equals("0A:BC");
+        assert FingerprintEngine.formatSerialNumber(BigInteger.ZERO).equals("00");
+        assert FingerprintEngine.formatSerialNumber(BigInteger.valueOf(-1)).equals("-01");
+        assert FingerprintEngine.toColonHex(new byte[0]).equals("");
+    }
 }
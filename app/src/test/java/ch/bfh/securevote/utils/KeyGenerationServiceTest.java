@@ -0,0 +1,204 @@
+package ch.bfh.securevote.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyGenerationServiceTest {
+
+    private static final Executor DIRECT = Runnable::run;
+    private static final byte[] CHALLENGE = {1, 2, 3};
+
+    private FakeKeyStore keyStore;
+    private KeyGenerationService service;
+    private BlockingQueue<KeyGenerationService.Result> results;
+    private List<KeyGenerationService.Stage> stages;
+
+    @Before
+    public void setUp() {
+        keyStore = new FakeKeyStore();
+        service = new KeyGenerationService(keyStore);
+        results = new LinkedBlockingQueue<>();
+        stages = new CopyOnWriteArrayList<>();
+    }
+
+    private KeyGenerationService.Task generate(String keyName) {
+        return service.generate(keyName, CHALLENGE, DIRECT, (stage, attempt) -> stages.add(stage), results::add);
+    }
+
+    private KeyGenerationService.Result nextResult() throws InterruptedException {
+        KeyGenerationService.Result result = results.poll(10, TimeUnit.SECONDS);
+        assert result != null;
+        return result;
+    }
+
+    private static void awaitDone(KeyGenerationService.Task task) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!task.isDone()) {
+            assert System.currentTimeMillis() < deadline;
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void successIsReportedWithTheChain() throws Exception {
+        generate("key");
+
+        KeyGenerationService.Result result = nextResult();
+        assert result.success && !result.cancelled && !result.strongBox;
+        assert result.getCertificateChain() != null;
+        assert stages.equals(List.of(KeyGenerationService.Stage.GENERATING,
+                KeyGenerationService.Stage.RETRIEVING_CERTIFICATES, KeyGenerationService.Stage.DONE));
+        assert keyStore.generated.equals(List.of("key"));
+        assert service.getCurrent() == null;
+        assert !service.isRunning();
+    }
+
+    @Test
+    public void generationFailureIsReported() throws Exception {
+        keyStore.generationFailure = new GeneralSecurityException("no provider");
+        generate("key");
+
+        KeyGenerationService.Result result = nextResult();
+        assert !result.success && !result.cancelled;
+        assert result.message.contains("no provider");
+        assert result.getCertificateChain() == null;
+        assert keyStore.chainReads.get() == 0;
+    }
+
+    // A missing chain is read again without generating the key again
+    @Test
+    public void certificatesAreReadAgain() throws Exception {
+        keyStore.missingChains.set(2);
+        generate("key");
+
+        KeyGenerationService.Result result = nextResult();
+        assert result.success;
+        assert keyStore.chainReads.get() == 3;
+        assert keyStore.invalidations.get() == 2;
+        assert keyStore.generated.equals(List.of("key"));
+    }
+
+    @Test
+    public void missingCertificatesAreReported() throws Exception {
+        keyStore.missingChains.set(3);
+        generate("key");
+
+        KeyGenerationService.Result result = nextResult();
+        assert !result.success && !result.cancelled;
+        assert keyStore.chainReads.get() == 3;
+    }
+
+    // A queued generation is cancelled at once, a running one still keeps the key it generates
+    @Test
+    public void cancelStopsOnlyGenerationsThatHaveNotStarted() throws Exception {
+        keyStore.block();
+        KeyGenerationService.Task first = generate("first");
+        keyStore.generating.await(10, TimeUnit.SECONDS);
+        KeyGenerationService.Task second = generate("second");
+        assert first.isCancelled();
+
+        second.cancel();
+        KeyGenerationService.Result cancelled = nextResult();
+        assert cancelled.cancelled && !cancelled.success;
+        assert second.isDone();
+
+        keyStore.release();
+        KeyGenerationService.Result kept = nextResult();
+        assert kept.success;
+        assert keyStore.generated.equals(List.of("first"));
+        assert results.isEmpty();
+    }
+
+    // A view destroyed during the generation, e.g. on a rotation, lets the next view get the result
+    @Test
+    public void detachedResultIsDeliveredToTheNextListener() throws Exception {
+        keyStore.block();
+        KeyGenerationService.Task task = generate("key");
+        keyStore.generating.await(10, TimeUnit.SECONDS);
+        task.detach();
+
+        List<KeyGenerationService.Stage> replayed = new CopyOnWriteArrayList<>();
+        task.attach(DIRECT, (stage, attempt) -> replayed.add(stage), results::add);
+        assert replayed.equals(List.of(KeyGenerationService.Stage.GENERATING));
+        task.detach();
+
+        keyStore.release();
+        awaitDone(task);
+        assert results.isEmpty();
+        assert service.getCurrent() == task;
+
+        task.attach(DIRECT, null, results::add);
+        assert nextResult().success;
+        task.attach(DIRECT, null, results::add);
+        assert results.isEmpty();
+        assert service.getCurrent() == null;
+    }
+
+    /** Key store that records the generated aliases and can hold a generation back. */
+    private static class FakeKeyStore implements KeyGenerationService.KeyStoreOperations {
+        final List<String> generated = new CopyOnWriteArrayList<>();
+        final AtomicInteger missingChains = new AtomicInteger();
+        final AtomicInteger chainReads = new AtomicInteger();
+        final AtomicInteger invalidations = new AtomicInteger();
+        final CountDownLatch generating = new CountDownLatch(1);
+        volatile GeneralSecurityException generationFailure;
+        private volatile CountDownLatch released;
+
+        void block() {
+            released = new CountDownLatch(1);
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public boolean isStrongBoxRequired() {
+            return false;
+        }
+
+        @Override
+        public void disableStrongBox() {
+        }
+
+        @Override
+        public void generateKeyPair(String keyName, byte[] challenge, boolean strongBox)
+                throws GeneralSecurityException {
+            generating.countDown();
+            CountDownLatch latch = released;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new GeneralSecurityException(e);
+                }
+            }
+            if (generationFailure != null) {
+                throw generationFailure;
+            }
+            generated.add(keyName);
+        }
+
+        @Override
+        public Certificate[] getCertificateChain(String keyName) {
+            chainReads.incrementAndGet();
+            return missingChains.getAndDecrement() > 0 ? null : new Certificate[0];
+        }
+
+        @Override
+        public void invalidate(String keyName) {
+            invalidations.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ch.bfh.securevote.utils;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.cert.Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class KeyStoreGatewayTest {
+
+    private InMemoryKeyStoreSpi spi;
+    private int loads;
+    private KeyStoreGateway gateway;
+    private KeyPair keyPair;
+
+    @Before
+    public void setUp() throws Exception {
+        spi = new InMemoryKeyStoreSpi();
+        keyPair = addKey("key");
+        gateway = new KeyStoreGateway(() -> {
+            loads++;
+            KeyStore keyStore = new KeyStore(spi, null, "InMemory") { };
+            keyStore.load(null);
+            return keyStore;
+        });
+    }
+
+    // Generates an EC key with a self signed certificate and stores it under the alias
+    private KeyPair addKey(String alias) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair pair = generator.generateKeyPair();
+        X500Name name = new X500Name("CN=" + alias);
+        Date now = new Date();
+        Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(name, BigInteger.ONE, now, new Date(now.getTime() + 60000), name, pair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256withECDSA").build(pair.getPrivate())));
+        spi.keys.put(alias, pair.getPrivate());
+        spi.chains.put(alias, new Certificate[] {certificate});
+        return pair;
+    }
+
+    // The key store is loaded once and every alias is read from it once
+    @Test
+    public void lookupsAreCached() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assert gateway.getCertificate("key").getPublicKey().equals(keyPair.getPublic());
+            assert gateway.getCertificateChain("key").length == 1;
+            assert gateway.getKeyPair("key").getPrivate() == keyPair.getPrivate();
+            assert gateway.getAliases().equals(Collections.singletonList("key"));
+        }
+        assert loads == 1;
+        assert gateway.getLoadCount() == 1;
+        assert spi.chainReads == 1;
+        assert spi.keyReads == 1;
+        assert gateway.getMissCount() == 1;
+    }
+
+    @Test
+    public void unknownAliasesReturnNull() throws Exception {
+        assert gateway.getCertificate("missing") == null;
+        assert gateway.getCertificateChain("missing") == null;
+        assert gateway.getKeyPair("missing") == null;
+        assert gateway.getEntry("missing") == null;
+        assert !gateway.containsAlias("missing");
+    }
+
+    // Returned chains are copies, so callers cannot change the cache
+    @Test
+    public void chainsAreCopied() throws Exception {
+        gateway.getCertificateChain("key")[0] = null;
+        assert gateway.getCertificateChain("key")[0] != null;
+    }
+
+    @Test
+    public void deleteInvalidatesTheAlias() throws Exception {
+        gateway.getCertificate("key");
+        gateway.deleteEntry("key");
+        assert !spi.chains.containsKey("key");
+        assert gateway.getCertificate("key") == null;
+        assert gateway.getAliases().isEmpty();
+        assert loads == 1;
+    }
+
+    // Keys generated outside the gateway are seen after invalidation
+    @Test
+    public void generatedKeysAreSeenAfterInvalidation() throws Exception {
+        gateway.getCertificate("key");
+        KeyPair replaced = addKey("key");
+        addKey("other");
+        assert !gateway.containsAlias("other");
+
+        gateway.invalidate("key");
+
+        assert gateway.getAliases().contains("other");
+        assert gateway.getCertificate("key").getPublicKey().equals(replaced.getPublic());
+        assert gateway.getKeyPair("other").getPublic().equals(gateway.getCertificate("other").getPublicKey());
+        assert loads == 1;
+    }
+
+    @Test
+    public void invalidateAllReloads() throws Exception {
+        gateway.getAliases();
+        gateway.invalidateAll();
+        gateway.getAliases();
+        assert loads == 2;
+    }
+
+    /** Key store without passwords or persistence standing in for the Android key store. */
+    private static class InMemoryKeyStoreSpi extends KeyStoreSpi {
+        final Map<String, Key> keys = new LinkedHashMap<>();
+        final Map<String, Certificate[]> chains = new LinkedHashMap<>();
+        int chainReads;
+        int keyReads;
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            keyReads++;
+            return keys.get(alias);
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            chainReads++;
+            Certificate[] chain = chains.get(alias);
+            return chain == null ? null : chain.clone();
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            Certificate[] chain = chains.get(alias);
+            return chain == null ? null : chain[0];
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            keys.put(alias, key);
+            chains.put(alias, chain);
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            chains.put(alias, new Certificate[] {cert});
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            keys.remove(alias);
+            chains.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(chains.keySet());
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return chains.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return chains.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return keys.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return chains.containsKey(alias) && !keys.containsKey(alias);
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+        }
+    }
+}
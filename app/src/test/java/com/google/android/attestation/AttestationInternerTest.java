@@ -0,0 +1,127 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.AuthorizationList.UserAuthType;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+/** Tests that {@link AttestationInterner} shares equal parts without exposing caller state. */
+public class AttestationInternerTest {
+
+  @Test
+  public void equalRecordsShareTheirParts() throws Exception {
+    AttestationInterner interner = new AttestationInterner();
+    ParsedAttestationRecord first =
+        ParsedAttestationRecord.createParsedAttestationRecord(
+            TestCertificates.attestationCertificate());
+    ParsedAttestationRecord second =
+        ParsedAttestationRecord.createParsedAttestationRecord(
+            TestCertificates.attestationCertificate());
+
+    ParsedAttestationRecord internedFirst = interner.intern(first);
+    ParsedAttestationRecord internedSecond = interner.intern(second);
+
+    assertSame(internedFirst.teeEnforced, internedSecond.teeEnforced);
+    assertSame(internedFirst.softwareEnforced, internedSecond.softwareEnforced);
+    assertSame(
+        internedFirst.teeEnforced.rootOfTrust.get(),
+        internedSecond.teeEnforced.rootOfTrust.get());
+    assertArrayEquals(DerEncoder.encode(first), DerEncoder.encode(internedSecond));
+    // A record whose lists are canonical already is returned as it is.
+    assertSame(internedFirst, interner.intern(internedFirst));
+  }
+
+  @Test
+  public void canonicalSetsAreReadOnlyCopies() {
+    AttestationInterner interner = new AttestationInterner();
+    Set<Integer> purpose = new HashSet<>(Set.of(2, 3));
+    Set<UserAuthType> userAuthType = EnumSet.of(UserAuthType.FINGERPRINT);
+
+    AuthorizationList canonical =
+        interner.intern(
+            AuthorizationList.builder()
+                .setPurpose(purpose)
+                .setUserAuthType(userAuthType)
+                .build());
+    purpose.add(7);
+    userAuthType.add(UserAuthType.PASSWORD);
+
+    assertEquals(Set.of(2, 3), canonical.purpose.get());
+    assertEquals(EnumSet.of(UserAuthType.FINGERPRINT), canonical.userAuthType.get());
+    try {
+      canonical.purpose.get().add(7);
+      fail("Expected the canonical set to be read-only.");
+    } catch (UnsupportedOperationException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void equalSetsAreShared() {
+    AttestationInterner interner = new AttestationInterner();
+
+    AuthorizationList first =
+        interner.intern(AuthorizationList.builder().setPurpose(Set.of(2, 3)).build());
+    AuthorizationList second =
+        interner.intern(
+            AuthorizationList.builder()
+                .setPurpose(new HashSet<>(Set.of(3, 2)))
+                .setKeySize(256)
+                .build());
+
+    assertNotSame(first, second);
+    assertSame(first.purpose.get(), second.purpose.get());
+  }
+
+  @Test
+  public void canonicalByteArraysAreCopies() {
+    AttestationInterner interner = new AttestationInterner();
+    byte[] verifiedBootKey = {1, 2, 3};
+
+    RootOfTrust canonical =
+        interner.intern(
+            new RootOfTrust(verifiedBootKey, true, VerifiedBootState.VERIFIED, new byte[] {4}));
+    verifiedBootKey[0] = 9;
+
+    assertArrayEquals(new byte[] {1, 2, 3}, canonical.verifiedBootKey);
+    assertSame(
+        canonical,
+        interner.intern(
+            new RootOfTrust(
+                new byte[] {1, 2, 3}, true, VerifiedBootState.VERIFIED, new byte[] {4})));
+  }
+
+  @Test
+  public void nullsPassThrough() {
+    AttestationInterner interner = new AttestationInterner();
+
+    assertNull(interner.intern((AuthorizationList) null));
+    assertNull(interner.intern((RootOfTrust) null));
+    assertNull(interner.intern((AttestationApplicationId) null));
+    assertEquals(0, interner.size());
+  }
+}
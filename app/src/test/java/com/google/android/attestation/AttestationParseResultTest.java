@@ -0,0 +1,249 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.AttestationParseResult.ErrorCode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Random;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Checks the exception-free parse path against valid, corrupted and fuzzed attestation data. */
+public class AttestationParseResultTest {
+
+  private static final String CERTIFICATE_RESOURCE =
+      "/ch/bfh/securevote/utils/apc_test_certificate.pem";
+  private static final int FUZZ_ROUNDS = 20_000;
+  private static final int TEE_ENFORCED_INDEX = 7;
+
+  private static X509Certificate certificate;
+  private static byte[] keyDescription;
+
+  @BeforeClass
+  public static void loadCertificate() throws Exception {
+    try (InputStream in =
+        AttestationParseResultTest.class.getResourceAsStream(CERTIFICATE_RESOURCE)) {
+      certificate =
+          (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+    }
+    DerCursor wrapper =
+        new DerCursor(certificate.getExtensionValue(Constants.KEY_DESCRIPTION_OID));
+    wrapper.next();
+    keyDescription = wrapper.octets();
+  }
+
+  @Test
+  public void validRecordEqualsTheAsn1Parse() throws Exception {
+    ParsedAttestationRecord expected =
+        ParsedAttestationRecord.createParsedAttestationRecord(certificate);
+
+    AttestationParseResult fromCertificate = ParsedAttestationRecord.parse(certificate);
+    AttestationParseResult fromDer = ParsedAttestationRecord.parse(certificate.getEncoded());
+
+    assertTrue(fromCertificate.isSuccess());
+    assertArrayEquals(DerEncoder.encode(expected), DerEncoder.encode(fromCertificate.record));
+    assertArrayEquals(DerEncoder.encode(expected), DerEncoder.encode(fromDer.record));
+    assertEquals(
+        expected.softwareEnforced.attestationApplicationId,
+        fromDer.record.softwareEnforced.attestationApplicationId);
+  }
+
+  @Test
+  public void errorsNameTheOffendingField() {
+    byte[] corrupted = keyDescription.clone();
+    DerCursor fields = new DerCursor(corrupted);
+    fields.next();
+    fields = fields.enter();
+    for (int i = 0; i < 4; i++) {
+      fields.next();
+    }
+    corrupted[fields.valueOffset()] = 7;
+
+    AttestationParseResult result = ParsedAttestationRecord.parseKeyDescription(corrupted);
+
+    assertFalse(result.isSuccess());
+    assertEquals(ErrorCode.VALUE_OUT_OF_RANGE, result.errorCode);
+    assertEquals("keymasterSecurityLevel", result.fieldPath);
+
+    result = ParsedAttestationRecord.parseKeyDescription(Arrays.copyOf(keyDescription, 100));
+    assertEquals(ErrorCode.MALFORMED_ENCODING, result.errorCode);
+    assertEquals("keyDescription", result.fieldPath);
+
+    result = ParsedAttestationRecord.parse(new byte[] {0x30, 0x00});
+    assertEquals(ErrorCode.NO_ATTESTATION_EXTENSION, result.errorCode);
+  }
+
+  @Test
+  public void fuzzedInputIsRejectedWithoutThrowing() {
+    Random random = new Random(42);
+    int rejected = 0;
+    for (int i = 0; i < FUZZ_ROUNDS; i++) {
+      byte[] input = mutate(keyDescription, random);
+      if (!ParsedAttestationRecord.parseKeyDescription(input).isSuccess()) {
+        rejected++;
+      }
+    }
+
+    assertTrue("Only " + rejected + " inputs rejected", rejected > FUZZ_ROUNDS / 2);
+  }
+
+  @Test
+  public void fuzzedInputParsesLikeTheAsn1Path() throws Exception {
+    Random random = new Random(7);
+    int compared = 0;
+    for (int i = 0; i < FUZZ_ROUNDS; i++) {
+      byte[] input = mutate(keyDescription, random);
+      AttestationParseResult result = ParsedAttestationRecord.parseKeyDescription(input);
+      ASN1Sequence sequence;
+      ParsedAttestationRecord expected;
+      try {
+        sequence = ASN1Sequence.getInstance(input);
+        expected = ParsedAttestationRecord.create(sequence);
+      } catch (RuntimeException e) {
+        // The reader may skip what the ASN.1 path rejects: unknown entries and malformed
+        // attestation application ids.
+        continue;
+      }
+
+      if (result.isSuccess()) {
+        assertArrayEquals(
+            "Input " + i, DerEncoder.encode(expected), DerEncoder.encode(result.record));
+        compared++;
+      } else {
+        // Beyond the ASN.1 path, the reader only rejects BER forms such as constructed strings.
+        assertFalse(
+            "Input " + i + " rejected at " + result.fieldPath,
+            Arrays.equals(input, sequence.getEncoded(ASN1Encoding.DER)));
+      }
+    }
+
+    assertTrue("Only " + compared + " inputs compared", compared > FUZZ_ROUNDS / 10);
+  }
+
+  @Test
+  public void entryWithoutAContextTagIsRejected() {
+    byte[] input =
+        withTeeEntry(
+            new DERTaggedObject(
+                true, BERTags.APPLICATION, Constants.KM_TAG_NO_AUTH_REQUIRED, DERNull.INSTANCE));
+
+    assertRejected(input, "teeEnforced");
+  }
+
+  @Test
+  public void booleanEntryThatIsNotANullIsRejected() {
+    byte[] input =
+        withTeeEntry(
+            new DERTaggedObject(true, Constants.KM_TAG_NO_AUTH_REQUIRED, new ASN1Integer(1)));
+
+    assertRejected(input, "teeEnforced.noAuthRequired");
+  }
+
+  @Test
+  public void booleanEntryWithContentIsRejected() {
+    byte[] input =
+        withTeeEntry(
+            new DERTaggedObject(
+                true, Constants.KM_TAG_NO_AUTH_REQUIRED, new DEROctetString(new byte[] {0})));
+    // Turn the entry's one-byte OCTET STRING into a NULL of the same length: [503] 04 01 00.
+    int at = indexOf(input, new byte[] {(byte) 0xbf, (byte) 0x83, 0x77, 0x03, 0x04, 0x01, 0x00});
+    assertTrue(at >= 0);
+    input[at + 4] = 0x05;
+
+    assertRejected(input, "teeEnforced.noAuthRequired");
+  }
+
+  /** The fixture's KeyDescription with its TEE noAuthRequired entry replaced. */
+  private static byte[] withTeeEntry(ASN1TaggedObject replacement) {
+    ASN1Sequence fields = ASN1Sequence.getInstance(keyDescription);
+    ASN1EncodableVector entries = new ASN1EncodableVector();
+    for (ASN1Encodable entry : ASN1Sequence.getInstance(fields.getObjectAt(TEE_ENFORCED_INDEX))) {
+      boolean replaced =
+          ((ASN1TaggedObject) entry).getTagNo() == Constants.KM_TAG_NO_AUTH_REQUIRED;
+      entries.add(replaced ? replacement : entry);
+    }
+    ASN1EncodableVector modified = new ASN1EncodableVector();
+    for (int i = 0; i < fields.size(); i++) {
+      modified.add(i == TEE_ENFORCED_INDEX ? new DERSequence(entries) : fields.getObjectAt(i));
+    }
+    try {
+      return new DERSequence(modified).getEncoded(ASN1Encoding.DER);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void assertRejected(byte[] input, String fieldPath) {
+    AttestationParseResult result = ParsedAttestationRecord.parseKeyDescription(input);
+    assertEquals(ErrorCode.UNEXPECTED_TYPE, result.errorCode);
+    assertEquals(fieldPath, result.fieldPath);
+    try {
+      ParsedAttestationRecord.create(ASN1Sequence.getInstance(input));
+      fail("Expected the ASN.1 path to reject the input as well.");
+    } catch (IllegalArgumentException | IllegalStateException expected) {
+      // Both paths reject the entry; BouncyCastle already fails to decode a NULL with content.
+    }
+  }
+
+  private static int indexOf(byte[] array, byte[] target) {
+    for (int i = 0; i + target.length <= array.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(array, i, i + target.length), target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Flips a few bytes, truncates, or flips a single bit. */
+  private static byte[] mutate(byte[] input, Random random) {
+    byte[] mutated = input.clone();
+    switch (random.nextInt(3)) {
+      case 0:
+        for (int i = 0; i <= random.nextInt(3); i++) {
+          mutated[random.nextInt(mutated.length)] = (byte) random.nextInt();
+        }
+        return mutated;
+      case 1:
+        return Arrays.copyOf(mutated, random.nextInt(mutated.length));
+      default:
+        mutated[random.nextInt(mutated.length)] ^= (byte) (1 << random.nextInt(8));
+        return mutated;
+    }
+  }
+}
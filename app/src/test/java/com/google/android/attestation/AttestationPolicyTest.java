@@ -0,0 +1,153 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.AttestationApplicationId.AttestationPackageInfo;
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests field scopes and conditions of {@link AttestationPolicy}. */
+public class AttestationPolicyTest {
+
+  private static ParsedAttestationRecord record;
+
+  @BeforeClass
+  public static void loadRecord() throws Exception {
+    record =
+        ParsedAttestationRecord.createParsedAttestationRecord(
+            TestCertificates.attestationCertificate());
+  }
+
+  @Test
+  public void recordPassesMatchingRules() {
+    AttestationPolicy policy =
+        AttestationPolicy.compile(
+            policy(
+                rule("patched", "teeEnforced.osPatchLevel", "\"min\": 202303"),
+                rule("strong-box", "keymasterSecurityLevel", "\"equals\": \"STRONG_BOX\""),
+                rule("verified-boot", "rootOfTrust.verifiedBootState", "\"equals\": \"VERIFIED\""),
+                rule(
+                    "app",
+                    "softwareEnforced.attestationApplicationId.packageName",
+                    "\"oneOf\": [\"ch.bfh.securevote\"]")));
+
+    assertTrue(policy.accepts(record));
+    assertEquals(Collections.emptyList(), policy.getFailedRuleIds(record));
+  }
+
+  @Test
+  public void unprefixedFieldsReadOnlyTheTeeList() {
+    ParsedAttestationRecord softwareOnly =
+        record(
+            AuthorizationList.builder().setNoAuthRequired(true).setOsPatchLevel(202303).build(),
+            AuthorizationList.builder().build());
+    AttestationPolicy policy =
+        AttestationPolicy.compile(
+            policy(
+                rule("tee-flag", "noAuthRequired", "\"present\": true"),
+                rule("tee-patch", "osPatchLevel", "\"min\": 202301"),
+                rule("software-flag", "softwareEnforced.noAuthRequired", "\"present\": true"),
+                rule("software-patch", "softwareEnforced.osPatchLevel", "\"min\": 202301")));
+
+    assertEquals(Arrays.asList("tee-flag", "tee-patch"), policy.getFailedRuleIds(softwareOnly));
+  }
+
+  @Test
+  public void applicationIdNeedsTheSoftwarePrefix() {
+    AttestationPolicy policy =
+        AttestationPolicy.compile(
+            policy(
+                rule(
+                    "app",
+                    "attestationApplicationId.packageName",
+                    "\"oneOf\": [\"ch.bfh.securevote\"]")));
+
+    assertFalse(policy.accepts(record));
+  }
+
+  @Test
+  public void applicationIdWithoutPackagesFails() {
+    AttestationApplicationId withoutPackages =
+        new AttestationApplicationId(
+            Collections.<AttestationPackageInfo>emptyList(),
+            Collections.singletonList(new byte[] {1}));
+    ParsedAttestationRecord empty =
+        record(
+            AuthorizationList.builder().setAttestationApplicationId(withoutPackages).build(),
+            AuthorizationList.builder().build());
+    AttestationPolicy policy =
+        AttestationPolicy.compile(
+            policy(
+                rule(
+                    "app",
+                    "softwareEnforced.attestationApplicationId.packageName",
+                    "\"oneOf\": [\"com.example\"]")));
+
+    assertFalse(policy.accepts(empty));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void recordFieldsTakeNoPrefix() {
+    AttestationPolicy.compile(
+        policy(rule("level", "teeEnforced.keymasterSecurityLevel", "\"equals\": \"STRONG_BOX\"")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void malformedDocumentIsRejected() {
+    AttestationPolicy.compile("{\"rules\": [");
+  }
+
+  @Test
+  public void ruleThatIsNotAnObjectIsRejected() {
+    try {
+      AttestationPolicy.compile(
+          policy(rule("patched", "osPatchLevel", "\"min\": 202303"), "\"osPatchLevel\""));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      assertEquals(
+          "Malformed attestation policy: rule 1 is not an object.", expected.getMessage());
+    }
+  }
+
+  private static ParsedAttestationRecord record(
+      AuthorizationList softwareEnforced, AuthorizationList teeEnforced) {
+    return ParsedAttestationRecord.create(
+        4,
+        SecurityLevel.TRUSTED_ENVIRONMENT,
+        41,
+        SecurityLevel.TRUSTED_ENVIRONMENT,
+        new byte[0],
+        new byte[0],
+        softwareEnforced,
+        teeEnforced);
+  }
+
+  private static String policy(String... rules) {
+    return "{\"rules\": [" + String.join(",", rules) + "]}";
+  }
+
+  private static String rule(String id, String field, String condition) {
+    return "{\"id\": \"" + id + "\", \"field\": \"" + field + "\", " + condition + "}";
+  }
+}
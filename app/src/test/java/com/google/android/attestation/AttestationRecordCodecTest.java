@@ -0,0 +1,157 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests the round trip and the input checks of {@link AttestationRecordCodec}. */
+public class AttestationRecordCodecTest {
+
+  // Offsets of the security level bytes, after magic, version, flags and an int version.
+  private static final int ATTESTATION_SECURITY_LEVEL_OFFSET = 10;
+  private static final int KEYMASTER_SECURITY_LEVEL_OFFSET = 15;
+
+  private static ParsedAttestationRecord record;
+
+  @BeforeClass
+  public static void loadRecord() throws Exception {
+    record =
+        ParsedAttestationRecord.createParsedAttestationRecord(
+            TestCertificates.attestationCertificate());
+  }
+
+  @Test
+  public void parsedRecordRoundTrips() throws IOException {
+    ParsedAttestationRecord decoded =
+        AttestationRecordCodec.decode(AttestationRecordCodec.encode(record));
+
+    assertRecordEquals(record, decoded);
+  }
+
+  @Test
+  public void everyFieldRoundTrips() throws IOException {
+    AuthorizationList list =
+        AuthorizationList.builder()
+            .setPurpose(Set.of(2, 3))
+            .setAlgorithm(3)
+            .setKeySize(256)
+            .setDigest(Set.of(4))
+            .setRsaPublicExponent(65537L)
+            .setActiveDateTime(Instant.ofEpochMilli(-1_000L))
+            .setAuthTimeout(Duration.ofSeconds(30))
+            .setNoAuthRequired(true)
+            .setApplicationId("app".getBytes(UTF_8))
+            .setRootOfTrust(
+                new RootOfTrust(new byte[] {1}, false, VerifiedBootState.FAILED, new byte[] {2}))
+            .setAttestationIdBrand("brand".getBytes(UTF_8))
+            .setBootPatchLevel(20230305)
+            .build();
+    for (SecurityLevel securityLevel : SecurityLevel.values()) {
+      ParsedAttestationRecord original =
+          ParsedAttestationRecord.create(
+              4,
+              securityLevel,
+              41,
+              securityLevel,
+              new byte[] {7},
+              new byte[0],
+              list,
+              AuthorizationList.builder().build());
+
+      assertRecordEquals(
+          original, AttestationRecordCodec.decode(AttestationRecordCodec.encode(original)));
+    }
+  }
+
+  @Test
+  public void enumsAreWrittenAsTheirAsn1Values() {
+    byte[] encoded = AttestationRecordCodec.encode(record);
+
+    assertEquals(
+        ParsedAttestationRecord.securityLevelToInt(record.attestationSecurityLevel),
+        encoded[ATTESTATION_SECURITY_LEVEL_OFFSET]);
+    assertEquals(
+        ParsedAttestationRecord.securityLevelToInt(record.keymasterSecurityLevel),
+        encoded[KEYMASTER_SECURITY_LEVEL_OFFSET]);
+  }
+
+  @Test
+  public void unknownEnumValueIsRejected() {
+    byte[] encoded = AttestationRecordCodec.encode(record);
+    encoded[KEYMASTER_SECURITY_LEVEL_OFFSET] = 3;
+
+    assertMalformed(encoded);
+  }
+
+  @Test
+  public void truncatedInputIsRejected() {
+    byte[] encoded = AttestationRecordCodec.encode(record);
+
+    for (int length = 0; length < encoded.length; length++) {
+      assertMalformed(Arrays.copyOf(encoded, length));
+    }
+  }
+
+  @Test
+  public void recordsWrittenBackToBackAreReadInSequence() throws IOException {
+    int length = AttestationRecordCodec.encodedLength(record);
+    ByteBuffer buffer = ByteBuffer.allocate(2 * length);
+    AttestationRecordCodec.encode(record, buffer);
+    AttestationRecordCodec.encode(record, buffer);
+    buffer.flip();
+
+    assertRecordEquals(record, AttestationRecordCodec.decode(buffer));
+    assertEquals(length, buffer.position());
+    assertRecordEquals(record, AttestationRecordCodec.decode(buffer));
+    assertFalse(buffer.hasRemaining());
+  }
+
+  private static void assertRecordEquals(
+      ParsedAttestationRecord expected, ParsedAttestationRecord actual) {
+    assertEquals(expected.attestationVersion, actual.attestationVersion);
+    assertEquals(expected.attestationSecurityLevel, actual.attestationSecurityLevel);
+    assertEquals(expected.keymasterVersion, actual.keymasterVersion);
+    assertEquals(expected.keymasterSecurityLevel, actual.keymasterSecurityLevel);
+    assertArrayEquals(expected.attestationChallenge, actual.attestationChallenge);
+    assertArrayEquals(expected.uniqueId, actual.uniqueId);
+    assertEquals(expected.softwareEnforced, actual.softwareEnforced);
+    assertEquals(expected.teeEnforced, actual.teeEnforced);
+  }
+
+  private static void assertMalformed(byte[] encoded) {
+    try {
+      AttestationRecordCodec.decode(encoded);
+      fail("Expected IOException for " + encoded.length + " bytes");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+}
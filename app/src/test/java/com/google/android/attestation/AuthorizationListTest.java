@@ -0,0 +1,159 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.AuthorizationList.UserAuthType;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.junit.Test;
+
+/** Tests the table-driven decoding and the structural equality of authorization lists. */
+public class AuthorizationListTest {
+
+  private static final int ATTESTATION_VERSION = 4;
+
+  @Test
+  public void decodesWhatItEncodes() {
+    AuthorizationList list =
+        AuthorizationList.builder()
+            .setPurpose(Set.of(2, 3))
+            .setAlgorithm(3)
+            .setKeySize(256)
+            .setDigest(Set.of(4))
+            .setEcCurve(1)
+            .setRsaPublicExponent(65537L)
+            .setActiveDateTime(Instant.ofEpochMilli(1_600_000_000_000L))
+            .setNoAuthRequired(true)
+            .setUserAuthType(Set.of(UserAuthType.FINGERPRINT))
+            .setAuthTimeout(Duration.ofSeconds(30))
+            .setTrustedConfirmationRequired(true)
+            .setApplicationId("app".getBytes(UTF_8))
+            .setCreationDateTime(Instant.ofEpochMilli(1_650_000_000_000L))
+            .setOrigin(0)
+            .setRootOfTrust(
+                new RootOfTrust(new byte[32], true, VerifiedBootState.VERIFIED, new byte[32]))
+            .setOsVersion(130000)
+            .setOsPatchLevel(202303)
+            .setAttestationIdBrand("brand".getBytes(UTF_8))
+            .setVendorPatchLevel(20230301)
+            .setBootPatchLevel(20230305)
+            .build();
+
+    AuthorizationList decoded =
+        AuthorizationList.createAuthorizationList(
+            list.toAsn1Sequence().toArray(), ATTESTATION_VERSION);
+
+    assertEquals(list, decoded);
+    assertEquals(list.hashCode(), decoded.hashCode());
+  }
+
+  @Test
+  public void decodesLongsAboveTheIntegerRange() {
+    long millis = 0x7fff_ffff_ffffL;
+
+    AuthorizationList decoded =
+        decode(new DERTaggedObject(Constants.KM_TAG_CREATION_DATE_TIME, new ASN1Integer(millis)));
+
+    assertEquals(Optional.of(Instant.ofEpochMilli(millis)), decoded.creationDateTime);
+  }
+
+  @Test
+  public void rejectsLongsThatOverflow() {
+    BigInteger tooLarge = BigInteger.ONE.shiftLeft(64);
+
+    try {
+      decode(
+          new DERTaggedObject(Constants.KM_TAG_CREATION_DATE_TIME, new ASN1Integer(tooLarge)));
+      fail("Expected an IllegalArgumentException for a value that does not fit in a long.");
+    } catch (IllegalArgumentException expected) {
+      assertTrue(expected.getCause() instanceof ArithmeticException);
+    }
+  }
+
+  @Test
+  public void rejectsNonIntegerLongs() {
+    try {
+      decode(new DERTaggedObject(Constants.KM_TAG_RSA_PUBLIC_EXPONENT, DERNull.INSTANCE));
+      fail("Expected an IllegalArgumentException for a NULL where an INTEGER belongs.");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void skipsUnknownTags() {
+    AuthorizationList decoded =
+        decode(
+            new DERTaggedObject(900, new ASN1Integer(1)),
+            new DERTaggedObject(5000, new ASN1Integer(1)),
+            new DERTaggedObject(Constants.KM_TAG_NO_AUTH_REQUIRED, DERNull.INSTANCE));
+
+    assertTrue(decoded.noAuthRequired);
+    assertFalse(decoded.algorithm.isPresent());
+  }
+
+  @Test
+  public void equalityIsStructural() {
+    AuthorizationList list = sample(true, "brand", Set.of(2, 3)).build();
+    AuthorizationList same = sample(true, "brand", new HashSet<>(Set.of(3, 2))).build();
+
+    assertEquals(list, same);
+    assertEquals(list.hashCode(), same.hashCode());
+    assertNotEquals(list, sample(false, "brand", Set.of(2, 3)).build());
+    assertNotEquals(list, sample(true, "brand2", Set.of(2, 3)).build());
+    assertNotEquals(list, sample(true, "brand", Set.of(2)).build());
+    assertNotEquals(
+        list,
+        sample(true, "brand", Set.of(2, 3))
+            .setRootOfTrust(
+                new RootOfTrust(new byte[32], false, VerifiedBootState.VERIFIED, new byte[32]))
+            .build());
+    assertNotEquals(list, AuthorizationList.builder().build());
+    assertFalse(list.equals(null));
+    assertEquals(AuthorizationList.builder().build(), AuthorizationList.builder().build());
+  }
+
+  private static AuthorizationList.Builder sample(
+      boolean noAuthRequired, String brand, Set<Integer> purpose) {
+    return AuthorizationList.builder()
+        .setPurpose(purpose)
+        .setNoAuthRequired(noAuthRequired)
+        .setApplicationId("app".getBytes(UTF_8))
+        .setAttestationIdBrand(brand.getBytes(UTF_8))
+        .setRootOfTrust(
+            new RootOfTrust(new byte[32], true, VerifiedBootState.VERIFIED, new byte[32]));
+  }
+
+  private static AuthorizationList decode(ASN1Encodable... entries) {
+    return AuthorizationList.createAuthorizationList(entries, ATTESTATION_VERSION);
+  }
+}
@@ -0,0 +1,244 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.BulkAttestationVerifier.ChainResult;
+import com.google.android.attestation.BulkAttestationVerifier.Report;
+import com.google.android.attestation.BulkAttestationVerifier.Status;
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import com.google.android.attestation.TestCertificates.Chain;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests chain statuses, batching and executor ownership of the bulk verifier. */
+public class BulkAttestationVerifierTest {
+
+  private static KeyPair rootKey;
+  private static Chain chain;
+  private static List<byte[]> encodedChain;
+
+  @BeforeClass
+  public static void createChain() throws Exception {
+    rootKey = TestCertificates.keyPair();
+    chain = new Chain(rootKey, TestCertificates.keyPair(), TestCertificates.attestationExtension());
+    encodedChain = chain.encoded();
+  }
+
+  @Test
+  public void validChainIsValid() {
+    BulkAttestationVerifier verifier = verifier().build();
+
+    ChainResult result = verifier.verifyChain(0, encodedChain);
+
+    assertEquals(Status.VALID, result.status);
+    assertTrue(result.isValid());
+    assertEquals(SecurityLevel.STRONG_BOX, result.record.keymasterSecurityLevel);
+  }
+
+  @Test
+  public void chainFailuresGetTheirStatus() throws Exception {
+    BulkAttestationVerifier verifier = verifier().build();
+    Chain otherRoot =
+        new Chain(
+            TestCertificates.keyPair(),
+            TestCertificates.keyPair(),
+            TestCertificates.attestationExtension());
+    X509Certificate expiredLeaf =
+        TestCertificates.certificate(
+            "CN=Test Leaf",
+            TestCertificates.keyPair().getPublic(),
+            "CN=Test Intermediate",
+            chain.intermediateKey.getPrivate(),
+            new Date(System.currentTimeMillis() - 7_200_000),
+            new Date(System.currentTimeMillis() - 3_600_000),
+            TestCertificates.attestationExtension());
+    X509Certificate forgedLeaf =
+        TestCertificates.certificate(
+            "CN=Test Leaf",
+            TestCertificates.keyPair().getPublic(),
+            "CN=Test Intermediate",
+            TestCertificates.keyPair().getPrivate());
+
+    assertStatus(Status.UNTRUSTED_ROOT, verifier, otherRoot.encoded());
+    assertStatus(
+        Status.OUTSIDE_VALIDITY, verifier, encode(expiredLeaf, chain.intermediate, chain.root));
+    assertStatus(
+        Status.INVALID_SIGNATURE, verifier, encode(forgedLeaf, chain.intermediate, chain.root));
+    assertStatus(Status.BROKEN_CHAIN, verifier, encode(chain.leaf, chain.root));
+  }
+
+  @Test
+  public void inputAndRecordFailuresGetTheirStatus() throws Exception {
+    Chain withoutExtension = new Chain(rootKey, TestCertificates.keyPair(), null);
+    List<byte[]> truncated = new ArrayList<>(encodedChain);
+    truncated.set(1, Arrays.copyOf(encodedChain.get(1), 20));
+
+    BulkAttestationVerifier verifier = verifier().build();
+    assertStatus(Status.EMPTY_CHAIN, verifier, Collections.emptyList());
+    assertStatus(Status.MALFORMED_CERTIFICATE, verifier, truncated);
+    assertStatus(Status.MISSING_EXTENSION, verifier, withoutExtension.encoded());
+
+    BulkAttestationVerifier checking = verifier().setRecordCheck(record -> false).build();
+    ChainResult checked = checking.verifyChain(0, encodedChain);
+    assertEquals(Status.CHECK_FAILED, checked.status);
+    assertNotNull(checked.record);
+  }
+
+  @Test
+  public void withoutChainValidationRecordsAreOnlyParsed() throws Exception {
+    BulkAttestationVerifier verifier =
+        BulkAttestationVerifier.builder().setVerifySignatures(false).build();
+    Chain otherRoot =
+        new Chain(
+            TestCertificates.keyPair(),
+            TestCertificates.keyPair(),
+            TestCertificates.attestationExtension());
+
+    ChainResult result = verifier.verifyChain(0, otherRoot.encoded());
+
+    assertEquals(Status.PARSED, result.status);
+    assertFalse(result.isValid());
+    assertNotNull(result.record);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void chainValidationNeedsATrustAnchor() {
+    BulkAttestationVerifier.builder().build();
+  }
+
+  @Test
+  public void streamIsVerifiedInOrderAcrossBatches() throws Exception {
+    List<byte[]> withoutExtension = new Chain(rootKey, TestCertificates.keyPair(), null).encoded();
+    AtomicInteger consumed = new AtomicInteger();
+
+    Report report;
+    try (BulkAttestationVerifier verifier =
+        verifier().setParallelism(2).setBatchSize(3).setMaxPendingBatches(2).build()) {
+      report =
+          verifier.verify(
+              IntStream.range(0, 20)
+                  .peek(i -> consumed.incrementAndGet())
+                  .mapToObj(i -> i % 5 == 0 ? withoutExtension : encodedChain));
+    }
+
+    assertEquals(20, consumed.get());
+    assertEquals(20, report.total());
+    assertEquals(16, report.validCount());
+    assertEquals(4, report.count(Status.MISSING_EXTENSION));
+    assertEquals(16, report.count(SecurityLevel.STRONG_BOX));
+    for (int i = 0; i < 20; i++) {
+      ChainResult result = report.results.get(i);
+      assertEquals(i, result.index);
+      assertEquals(i % 5 == 0 ? Status.MISSING_EXTENSION : Status.VALID, result.status);
+    }
+  }
+
+  @Test
+  public void streamIsReadAheadByBoundedBatches() {
+    int batchSize = 4;
+    int maxPendingBatches = 2;
+    AtomicInteger checked = new AtomicInteger();
+    AtomicInteger maxReadAhead = new AtomicInteger();
+    AtomicInteger consumed = new AtomicInteger();
+
+    try (BulkAttestationVerifier verifier =
+        verifier()
+            .setParallelism(2)
+            .setBatchSize(batchSize)
+            .setMaxPendingBatches(maxPendingBatches)
+            .setRecordCheck(record -> checked.incrementAndGet() > 0)
+            .build()) {
+      verifier.verify(
+          IntStream.range(0, 100)
+              .mapToObj(
+                  i -> {
+                    // Chains read but not yet checked are held by pending or filling batches.
+                    maxReadAhead.accumulateAndGet(
+                        consumed.incrementAndGet() - checked.get(), Math::max);
+                    return encodedChain;
+                  }));
+    }
+
+    assertEquals(100, checked.get());
+    assertTrue(maxReadAhead.get() <= (maxPendingBatches + 1) * batchSize);
+  }
+
+  @Test
+  public void listIsVerified() {
+    BulkAttestationVerifier verifier = verifier().setBatchSize(2).build();
+
+    Report report = verifier.verify(Collections.nCopies(5, encodedChain));
+
+    assertEquals(5, report.validCount());
+    assertEquals(4, report.results.get(4).index);
+  }
+
+  @Test
+  public void closeShutsDownOnlyItsOwnPool() {
+    ExecutorService callerExecutor = Executors.newSingleThreadExecutor();
+    try {
+      verifier().setExecutor(callerExecutor).build().close();
+      assertFalse(callerExecutor.isShutdown());
+
+      BulkAttestationVerifier owning = verifier().setParallelism(1).build();
+      owning.close();
+      try {
+        owning.verify(Collections.singletonList(encodedChain));
+        fail("Expected the closed pool to reject work.");
+      } catch (RejectedExecutionException expected) {
+        // Expected.
+      }
+    } finally {
+      callerExecutor.shutdownNow();
+    }
+  }
+
+  private static BulkAttestationVerifier.Builder verifier() {
+    return BulkAttestationVerifier.builder()
+        .setTrustedRootKeys(Collections.singletonList(rootKey.getPublic()));
+  }
+
+  private static void assertStatus(
+      Status expected, BulkAttestationVerifier verifier, List<byte[]> encoded) {
+    assertEquals(expected, verifier.verifyChain(0, encoded).status);
+  }
+
+  private static List<byte[]> encode(X509Certificate... certificates) throws Exception {
+    List<byte[]> encoded = new ArrayList<>();
+    for (X509Certificate certificate : certificates) {
+      encoded.add(certificate.getEncoded());
+    }
+    return encoded;
+  }
+}
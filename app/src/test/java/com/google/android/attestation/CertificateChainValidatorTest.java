@@ -0,0 +1,227 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.TestCertificates.Chain;
+import java.security.KeyPair;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertPathValidatorException.BasicReason;
+import java.security.cert.CertPathValidatorException.Reason;
+import java.security.cert.PKIXReason;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests trust anchoring, validity checks and the verified edge cache. */
+public class CertificateChainValidatorTest {
+
+  private static KeyPair rootKey;
+  private static Chain chain;
+
+  @BeforeClass
+  public static void createChain() throws Exception {
+    rootKey = TestCertificates.keyPair();
+    chain = new Chain(rootKey, TestCertificates.keyPair(), null);
+  }
+
+  @Test
+  public void validChainIsAccepted() throws Exception {
+    CertificateChainValidator validator = validator(16);
+
+    validator.validate(chain.certificates());
+
+    assertEquals(1, validator.getLeafVerificationCount());
+    assertEquals(0, validator.getFailureCount());
+  }
+
+  @Test
+  public void verifiedEdgesAreRemembered() throws Exception {
+    CertificateChainValidator validator = validator(16);
+
+    validator.validate(chain.certificates());
+    assertEquals(0, validator.getHitCount());
+    assertEquals(1, validator.getMissCount());
+    assertEquals(1, validator.size());
+
+    validator.validate(chain.certificates());
+    assertEquals(1, validator.getHitCount());
+    assertEquals(1, validator.getMissCount());
+    assertEquals(2, validator.getLeafVerificationCount());
+    assertEquals(0.5, validator.getHitRate(), 0);
+
+    validator.clear();
+    validator.validate(chain.certificates());
+    assertEquals(2, validator.getMissCount());
+  }
+
+  @Test
+  public void cacheIsBounded() throws Exception {
+    CertificateChainValidator validator = validator(1);
+    Chain other = new Chain(rootKey, TestCertificates.keyPair(), null);
+
+    validator.validate(chain.certificates());
+    validator.validate(other.certificates());
+    validator.validate(other.certificates());
+
+    assertEquals(1, validator.size());
+    assertEquals(3, validator.getMissCount());
+    assertEquals(0, validator.getHitCount());
+
+    validator.validate(chain.certificates());
+    assertEquals(1, validator.getHitCount());
+  }
+
+  @Test
+  public void zeroBoundDisablesTheCache() throws Exception {
+    CertificateChainValidator validator = validator(0);
+
+    validator.validate(chain.certificates());
+    validator.validate(chain.certificates());
+
+    assertEquals(0, validator.size());
+    assertEquals(2, validator.getMissCount());
+  }
+
+  @Test
+  public void untrustedRootIsRejectedAndNotCached() throws Exception {
+    CertificateChainValidator validator =
+        new CertificateChainValidator(
+            Collections.singletonList(TestCertificates.keyPair().getPublic()));
+
+    assertFailure(validator, chain.certificates(), PKIXReason.NO_TRUST_ANCHOR);
+    assertEquals(1, validator.getFailureCount());
+    assertEquals(0, validator.size());
+  }
+
+  @Test
+  public void chainWithoutItsRootIsRejected() throws Exception {
+    CertificateChainValidator validator = validator(16);
+
+    assertFailure(
+        validator,
+        new X509Certificate[] {chain.leaf, chain.intermediate},
+        PKIXReason.NO_TRUST_ANCHOR);
+  }
+
+  @Test
+  public void validityPeriodIsCheckedOnEveryCall() throws Exception {
+    CertificateChainValidator validator = validator(16);
+    validator.validate(chain.certificates());
+    long twoDays = TimeUnit.DAYS.toMillis(2);
+
+    assertFailure(
+        validator,
+        chain.certificates(),
+        new Date(System.currentTimeMillis() + twoDays),
+        BasicReason.EXPIRED);
+    assertFailure(
+        validator,
+        chain.certificates(),
+        new Date(System.currentTimeMillis() - twoDays),
+        BasicReason.NOT_YET_VALID);
+    assertEquals(2, validator.getFailureCount());
+  }
+
+  @Test
+  public void forgedSignatureIsRejectedAndNotCached() throws Exception {
+    CertificateChainValidator validator = validator(16);
+    // Names the real root as issuer but is signed by another key.
+    X509Certificate forgedIntermediate =
+        TestCertificates.certificate(
+            "CN=Test Intermediate",
+            chain.intermediateKey.getPublic(),
+            "CN=Test Root",
+            TestCertificates.keyPair().getPrivate());
+
+    assertFailure(
+        validator,
+        new X509Certificate[] {chain.leaf, forgedIntermediate, chain.root},
+        BasicReason.INVALID_SIGNATURE);
+    assertEquals(0, validator.size());
+    assertEquals(1, validator.getFailureCount());
+  }
+
+  @Test
+  public void forgedLeafIsRejected() throws Exception {
+    CertificateChainValidator validator = validator(16);
+    X509Certificate forgedLeaf =
+        TestCertificates.certificate(
+            "CN=Test Leaf",
+            TestCertificates.keyPair().getPublic(),
+            "CN=Test Intermediate",
+            TestCertificates.keyPair().getPrivate());
+
+    assertFailure(
+        validator,
+        new X509Certificate[] {forgedLeaf, chain.intermediate, chain.root},
+        BasicReason.INVALID_SIGNATURE);
+  }
+
+  @Test
+  public void issuerNameMismatchIsRejected() throws Exception {
+    CertificateChainValidator validator = validator(16);
+
+    assertFailure(
+        validator,
+        new X509Certificate[] {chain.leaf, chain.root},
+        PKIXReason.NAME_CHAINING);
+    assertEquals(1, validator.getFailureCount());
+  }
+
+  @Test
+  public void emptyChainIsRejected() {
+    try {
+      validator(16).validate(new X509Certificate[0]);
+      fail("Expected an empty chain to be rejected.");
+    } catch (CertPathValidatorException expected) {
+      // Expected.
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void trustedRootKeysAreRequired() {
+    new CertificateChainValidator(Collections.emptyList());
+  }
+
+  private static CertificateChainValidator validator(int maxEdges) {
+    return new CertificateChainValidator(Arrays.asList(rootKey.getPublic()), maxEdges);
+  }
+
+  private static void assertFailure(
+      CertificateChainValidator validator, X509Certificate[] certificates, Reason reason) {
+    assertFailure(validator, certificates, new Date(), reason);
+  }
+
+  private static void assertFailure(
+      CertificateChainValidator validator,
+      X509Certificate[] certificates,
+      Date date,
+      Reason reason) {
+    try {
+      validator.validate(certificates, date);
+      fail("Expected the chain to be rejected with " + reason + ".");
+    } catch (CertPathValidatorException expected) {
+      assertEquals(reason, expected.getReason());
+    }
+  }
+}
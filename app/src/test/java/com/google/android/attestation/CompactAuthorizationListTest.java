@@ -0,0 +1,174 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.attestation.AuthorizationList.UserAuthType;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Checks that the compact form answers exactly like the {@link AuthorizationList} it came from. */
+public class CompactAuthorizationListTest {
+
+  private static final String CERTIFICATE_RESOURCE =
+      "/ch/bfh/securevote/utils/apc_test_certificate.pem";
+
+  private static ParsedAttestationRecord record;
+
+  @BeforeClass
+  public static void loadRecord() throws Exception {
+    try (InputStream in =
+        CompactAuthorizationListTest.class.getResourceAsStream(CERTIFICATE_RESOURCE)) {
+      record =
+          ParsedAttestationRecord.createParsedAttestationRecord(
+              (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in));
+    }
+  }
+
+  @Test
+  public void parsedListsAreEquivalent() {
+    assertEquivalent(record.teeEnforced);
+    assertEquivalent(record.softwareEnforced);
+  }
+
+  @Test
+  public void everyFieldKindIsEquivalent() {
+    AuthorizationList list =
+        AuthorizationList.builder()
+            .setPurpose(Set.of(2, 3))
+            .setAlgorithm(3)
+            .setKeySize(256)
+            .setDigest(Set.of(4, 0))
+            .setPadding(Set.of(1))
+            .setEcCurve(1)
+            .setRsaPublicExponent(65537L)
+            .setRollbackResistance(true)
+            .setActiveDateTime(Instant.ofEpochMilli(1_600_000_000_000L))
+            .setOriginationExpireDateTime(Instant.ofEpochMilli(1_700_000_000_000L))
+            .setUsageExpireDateTime(Instant.ofEpochMilli(1_800_000_000_000L))
+            .setNoAuthRequired(true)
+            .setUserAuthType(EnumSet.of(UserAuthType.PASSWORD, UserAuthType.FINGERPRINT))
+            .setAuthTimeout(Duration.ofSeconds(30))
+            .setAllowWhileOnBody(true)
+            .setTrustedUserPresenceRequired(true)
+            .setTrustedConfirmationRequired(true)
+            .setUnlockedDeviceRequired(true)
+            .setAllApplications(true)
+            .setApplicationId("app".getBytes(UTF_8))
+            .setCreationDateTime(Instant.ofEpochMilli(1_650_000_000_000L))
+            .setOrigin(0)
+            .setRollbackResistant(true)
+            .setRootOfTrust(
+                new RootOfTrust(
+                    new byte[] {1, 2}, true, VerifiedBootState.VERIFIED, new byte[] {3}))
+            .setOsVersion(130000)
+            .setOsPatchLevel(202303)
+            .setAttestationIdBrand("brand".getBytes(UTF_8))
+            .setAttestationIdDevice("device".getBytes(UTF_8))
+            .setAttestationIdProduct("product".getBytes(UTF_8))
+            .setAttestationIdSerial("serial".getBytes(UTF_8))
+            .setAttestationIdImei("imei".getBytes(UTF_8))
+            .setAttestationIdMeid("meid".getBytes(UTF_8))
+            .setAttestationIdManufacturer("manufacturer".getBytes(UTF_8))
+            .setAttestationIdModel("model".getBytes(UTF_8))
+            .setVendorPatchLevel(20230301)
+            .setBootPatchLevel(20230305)
+            .setIndividualAttestation(true)
+            .build();
+
+    assertEquivalent(list);
+    CompactAuthorizationList compact = CompactAuthorizationList.of(list);
+    assertTrue(compact.hasPurpose(3));
+    assertFalse(compact.hasPurpose(1));
+    assertTrue(compact.hasDigest(0));
+    assertTrue(compact.hasPadding(1));
+    assertFalse(compact.hasPadding(4));
+  }
+
+  @Test
+  public void emptyListIsEquivalent() {
+    AuthorizationList list = AuthorizationList.builder().build();
+
+    assertEquivalent(list);
+    assertEquals(0, CompactAuthorizationList.of(list).presence());
+  }
+
+  private static void assertEquivalent(AuthorizationList list) {
+    CompactAuthorizationList compact = CompactAuthorizationList.of(list);
+
+    assertEquals(list.purpose, compact.purpose());
+    assertEquals(list.algorithm, compact.algorithm());
+    assertEquals(list.keySize, compact.keySize());
+    assertEquals(list.digest, compact.digest());
+    assertEquals(list.padding, compact.padding());
+    assertEquals(list.ecCurve, compact.ecCurve());
+    assertEquals(list.rsaPublicExponent, compact.rsaPublicExponent());
+    assertEquals(list.rollbackResistance, compact.rollbackResistance());
+    assertEquals(list.activeDateTime, compact.activeDateTime());
+    assertEquals(list.originationExpireDateTime, compact.originationExpireDateTime());
+    assertEquals(list.usageExpireDateTime, compact.usageExpireDateTime());
+    assertEquals(list.noAuthRequired, compact.noAuthRequired());
+    assertEquals(list.userAuthType, compact.userAuthType());
+    assertEquals(list.authTimeout, compact.authTimeout());
+    assertEquals(list.allowWhileOnBody, compact.allowWhileOnBody());
+    assertEquals(list.trustedUserPresenceRequired, compact.trustedUserPresenceRequired());
+    assertEquals(list.trustedConfirmationRequired, compact.trustedConfirmationRequired());
+    assertEquals(list.unlockedDeviceRequired, compact.unlockedDeviceRequired());
+    assertEquals(list.allApplications, compact.allApplications());
+    assertBytesEqual(list.applicationId, compact.applicationId());
+    assertEquals(list.creationDateTime, compact.creationDateTime());
+    assertEquals(list.origin, compact.origin());
+    assertEquals(list.rollbackResistant, compact.rollbackResistant());
+    assertEquals(list.rootOfTrust, compact.rootOfTrust());
+    assertEquals(list.osVersion, compact.osVersion());
+    assertEquals(list.osPatchLevel, compact.osPatchLevel());
+    assertEquals(list.attestationApplicationId, compact.attestationApplicationId());
+    assertBytesEqual(list.attestationApplicationIdBytes, compact.attestationApplicationIdBytes());
+    assertBytesEqual(list.attestationIdBrand, compact.attestationIdBrand());
+    assertBytesEqual(list.attestationIdDevice, compact.attestationIdDevice());
+    assertBytesEqual(list.attestationIdProduct, compact.attestationIdProduct());
+    assertBytesEqual(list.attestationIdSerial, compact.attestationIdSerial());
+    assertBytesEqual(list.attestationIdImei, compact.attestationIdImei());
+    assertBytesEqual(list.attestationIdMeid, compact.attestationIdMeid());
+    assertBytesEqual(list.attestationIdManufacturer, compact.attestationIdManufacturer());
+    assertBytesEqual(list.attestationIdModel, compact.attestationIdModel());
+    assertEquals(list.vendorPatchLevel, compact.vendorPatchLevel());
+    assertEquals(list.bootPatchLevel, compact.bootPatchLevel());
+    assertEquals(list.individualAttestation, compact.individualAttestation());
+    assertEquals(list, compact.toAuthorizationList());
+  }
+
+  private static void assertBytesEqual(Optional<byte[]> expected, Optional<byte[]> actual) {
+    assertEquals(expected.isPresent(), actual.isPresent());
+    if (expected.isPresent()) {
+      assertArrayEquals(expected.get(), actual.get());
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Set;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Checks that every DerEncoder entry point is byte identical to the BouncyCastle encoding. */
+public class DerEncoderTest {
+
+  private static ParsedAttestationRecord record;
+  private static AuthorizationList largeList;
+
+  @BeforeClass
+  public static void createInputs() throws Exception {
+    record =
+        ParsedAttestationRecord.createParsedAttestationRecord(
+            TestCertificates.attestationCertificate());
+    byte[] applicationId = new byte[2000];
+    Arrays.fill(applicationId, (byte) 0x5a);
+    largeList =
+        AuthorizationList.builder()
+            .setPurpose(Set.of(0, 1, 2, 3, 7))
+            .setAlgorithm(3)
+            .setKeySize(256)
+            .setRsaPublicExponent(65537L)
+            .setActiveDateTime(Instant.ofEpochMilli(-1_000L))
+            .setAuthTimeout(Duration.ofSeconds(300))
+            .setNoAuthRequired(true)
+            .setApplicationId(applicationId)
+            .setCreationDateTime(Instant.ofEpochMilli(1_650_000_000_000L))
+            .setRootOfTrust(
+                new RootOfTrust(new byte[32], false, VerifiedBootState.UNVERIFIED, new byte[32]))
+            .setAttestationIdBrand("brand".getBytes(UTF_8))
+            .setBootPatchLevel(20230305)
+            .build();
+  }
+
+  @Test
+  public void recordMatchesBouncyCastle() throws Exception {
+    byte[] expected = record.toAsn1Sequence().getEncoded(ASN1Encoding.DER);
+
+    assertEncodings(expected, DerEncoder.encode(record), DerEncoder.encodedLength(record));
+    assertArrayEquals(expected, stream(out -> DerEncoder.encode(record, out)));
+  }
+
+  @Test
+  public void authorizationListsMatchBouncyCastle() throws Exception {
+    for (AuthorizationList list :
+        Arrays.asList(record.softwareEnforced, record.teeEnforced, largeList)) {
+      byte[] expected = list.toAsn1Sequence().getEncoded(ASN1Encoding.DER);
+
+      assertEncodings(expected, DerEncoder.encode(list), DerEncoder.encodedLength(list));
+      assertArrayEquals(expected, stream(out -> DerEncoder.encode(list, out)));
+    }
+  }
+
+  @Test
+  public void rootOfTrustMatchesBouncyCastle() throws Exception {
+    RootOfTrust rootOfTrust = record.teeEnforced.rootOfTrust.get();
+    byte[] expected = rootOfTrust.toAsn1Sequence().getEncoded(ASN1Encoding.DER);
+
+    assertEncodings(
+        expected, DerEncoder.encode(rootOfTrust), DerEncoder.encodedLength(rootOfTrust));
+    assertArrayEquals(expected, stream(out -> DerEncoder.encode(rootOfTrust, out)));
+  }
+
+  @Test
+  public void bufferIsWrittenAtItsPosition() throws Exception {
+    byte[] expected = record.toAsn1Sequence().getEncoded(ASN1Encoding.DER);
+    ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+    buffer.position(7);
+
+    DerEncoder.encode(record, buffer);
+
+    assertEquals(7 + expected.length, buffer.position());
+    assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 7, 7 + expected.length));
+  }
+
+  @Test
+  public void streamIsWrittenInChunks() throws Exception {
+    byte[] expected = largeList.toAsn1Sequence().getEncoded(ASN1Encoding.DER);
+    int[] writes = new int[1];
+    ByteArrayOutputStream collected =
+        new ByteArrayOutputStream() {
+          @Override
+          public synchronized void write(byte[] b, int off, int len) {
+            writes[0]++;
+            super.write(b, off, len);
+          }
+        };
+
+    DerEncoder.encode(largeList, collected);
+
+    assertArrayEquals(expected, collected.toByteArray());
+    assertTrue(writes[0] > 1);
+  }
+
+  @Test
+  public void streamFailuresAreRethrown() {
+    OutputStream failing =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            throw new IOException("disk full");
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            throw new IOException("disk full");
+          }
+        };
+
+    try {
+      DerEncoder.encode(record, failing);
+      fail("Expected the stream failure to be rethrown.");
+    } catch (IOException expected) {
+      assertEquals("disk full", expected.getMessage());
+    }
+  }
+
+  private interface StreamEncoding {
+    void encodeTo(OutputStream out) throws IOException;
+  }
+
+  private static byte[] stream(StreamEncoding encoding) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoding.encodeTo(out);
+    return out.toByteArray();
+  }
+
+  private static void assertEncodings(byte[] expected, byte[] encoded, int encodedLength) {
+    assertArrayEquals(expected, encoded);
+    assertEquals(expected.length, encodedLength);
+  }
+}
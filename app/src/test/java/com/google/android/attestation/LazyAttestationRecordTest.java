@@ -0,0 +1,139 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Checks every field of {@link LazyAttestationRecord} against the full parse. */
+public class LazyAttestationRecordTest {
+
+  private static ParsedAttestationRecord expected;
+  private static byte[] keyDescription;
+
+  @BeforeClass
+  public static void loadRecord() throws Exception {
+    expected =
+        ParsedAttestationRecord.createParsedAttestationRecord(
+            TestCertificates.attestationCertificate());
+    keyDescription = TestCertificates.attestationExtension();
+  }
+
+  @Test
+  public void fieldsMatchTheFullParse() throws Exception {
+    LazyAttestationRecord lazy =
+        LazyAttestationRecord.createLazyAttestationRecord(
+            TestCertificates.attestationCertificate());
+
+    assertEquals(expected.attestationVersion, lazy.attestationVersion());
+    assertEquals(expected.attestationSecurityLevel, lazy.attestationSecurityLevel());
+    assertEquals(expected.keymasterVersion, lazy.keymasterVersion());
+    assertEquals(expected.keymasterSecurityLevel, lazy.keymasterSecurityLevel());
+    assertArrayEquals(expected.attestationChallenge, lazy.attestationChallenge());
+    assertArrayEquals(expected.uniqueId, lazy.uniqueId());
+    assertEquals(expected.softwareEnforced, lazy.softwareEnforced());
+    assertEquals(expected.teeEnforced, lazy.teeEnforced());
+    assertArrayEquals(
+        DerEncoder.encode(expected), DerEncoder.encode(lazy.toParsedAttestationRecord()));
+  }
+
+  @Test
+  public void flagsAreReadWithoutDecodingTheList() {
+    LazyAttestationRecord lazy = LazyAttestationRecord.create(keyDescription);
+
+    assertEquals(expected.teeEnforced.noAuthRequired, lazy.teeEnforcedNoAuthRequired());
+    assertEquals(
+        expected.teeEnforced.trustedConfirmationRequired,
+        lazy.teeEnforcedTrustedConfirmationRequired());
+  }
+
+  @Test
+  public void malformedListIsOnlyRejectedWhenRead() throws Exception {
+    ASN1Sequence fields = ASN1Sequence.getInstance(keyDescription);
+    ASN1EncodableVector entries = new ASN1EncodableVector();
+    for (ASN1Encodable entry :
+        ASN1Sequence.getInstance(fields.getObjectAt(Constants.TEE_ENFORCED_INDEX))) {
+      boolean noAuthRequired =
+          ((ASN1TaggedObject) entry).getTagNo() == Constants.KM_TAG_NO_AUTH_REQUIRED;
+      entries.add(
+          noAuthRequired
+              ? new DERTaggedObject(Constants.KM_TAG_NO_AUTH_REQUIRED, new ASN1Integer(1))
+              : entry);
+    }
+    ASN1Encodable[] modified = fields.toArray();
+    modified[Constants.TEE_ENFORCED_INDEX] = new DERSequence(entries);
+
+    LazyAttestationRecord lazy =
+        LazyAttestationRecord.create(new DERSequence(modified).getEncoded(ASN1Encoding.DER));
+
+    assertEquals(expected.attestationVersion, lazy.attestationVersion());
+    assertEquals(expected.softwareEnforced, lazy.softwareEnforced());
+    try {
+      lazy.teeEnforced();
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals(
+          "Malformed authorization list: UNEXPECTED_TYPE at teeEnforced.noAuthRequired.",
+          e.getMessage());
+    }
+  }
+
+  @Test
+  public void truncatedKeyDescriptionIsRejected() {
+    byte[][] inputs = {
+      new byte[0], Arrays.copyOf(keyDescription, 20), {0x30, 0x03, 0x02, 0x01, 0x05},
+    };
+    for (byte[] input : inputs) {
+      try {
+        LazyAttestationRecord.create(input);
+        fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+        // Not all eight fields could be located.
+      }
+    }
+  }
+
+  @Test
+  public void integerOutOfRangeIsRejectedWhenRead() throws Exception {
+    ASN1Encodable[] fields = ASN1Sequence.getInstance(keyDescription).toArray();
+    fields[Constants.KEYMASTER_VERSION_INDEX] = new ASN1Integer(1L << 40);
+
+    LazyAttestationRecord lazy =
+        LazyAttestationRecord.create(new DERSequence(fields).getEncoded(ASN1Encoding.DER));
+
+    assertEquals(expected.attestationVersion, lazy.attestationVersion());
+    assertEquals(expected.teeEnforced.noAuthRequired, lazy.teeEnforcedNoAuthRequired());
+    try {
+      lazy.keymasterVersion();
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // Five content bytes do not fit in an int.
+    }
+  }
+}
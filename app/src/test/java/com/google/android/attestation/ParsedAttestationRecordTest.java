@@ -0,0 +1,199 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests the entry points that read the attestation record from an encoded certificate. */
+public class ParsedAttestationRecordTest {
+
+  private static final int SECURITY_LEVEL_INDEX = 1;
+  private static final int TEE_INDEX = 7;
+
+  private static byte[] certificateDer;
+  private static byte[] expectedRecord;
+  private static byte[] withoutExtension;
+
+  @BeforeClass
+  public static void loadCertificates() throws Exception {
+    certificateDer = TestCertificates.attestationCertificate().getEncoded();
+    expectedRecord =
+        DerEncoder.encode(
+            ParsedAttestationRecord.createParsedAttestationRecord(
+                TestCertificates.attestationCertificate()));
+    withoutExtension = TestCertificates.Chain.create().leaf.getEncoded();
+  }
+
+  @Test
+  public void recordIsParsedFromBytes() throws Exception {
+    assertRecord(ParsedAttestationRecord.createParsedAttestationRecord(certificateDer));
+    assertTrue(ParsedAttestationRecord.hasAttestationExtension(certificateDer));
+  }
+
+  @Test
+  public void recordIsParsedFromTheRemainingBytesOfABuffer() throws Exception {
+    for (ByteBuffer buffer : buffers(certificateDer)) {
+      int position = buffer.position();
+
+      assertRecord(ParsedAttestationRecord.createParsedAttestationRecord(buffer));
+      assertTrue(ParsedAttestationRecord.hasAttestationExtension(buffer));
+      assertEquals(position, buffer.position());
+    }
+  }
+
+  @Test
+  public void missingExtensionIsReported() throws Exception {
+    assertFalse(ParsedAttestationRecord.hasAttestationExtension(withoutExtension));
+    assertMissing(() -> ParsedAttestationRecord.createParsedAttestationRecord(withoutExtension));
+    for (ByteBuffer buffer : buffers(withoutExtension)) {
+      assertFalse(ParsedAttestationRecord.hasAttestationExtension(buffer));
+      assertMissing(() -> ParsedAttestationRecord.createParsedAttestationRecord(buffer));
+    }
+  }
+
+  @Test
+  public void malformedCertificateIsReported() throws Exception {
+    byte[][] inputs = {
+      new byte[0],
+      Arrays.copyOf(certificateDer, certificateDer.length / 2),
+      Arrays.copyOf(certificateDer, 4),
+      {0x02, 0x01, 0x05},
+    };
+    for (byte[] input : inputs) {
+      assertFalse(ParsedAttestationRecord.hasAttestationExtension(input));
+      assertMissing(() -> ParsedAttestationRecord.createParsedAttestationRecord(input));
+      for (ByteBuffer buffer : buffers(input)) {
+        assertFalse(ParsedAttestationRecord.hasAttestationExtension(buffer));
+        assertMissing(() -> ParsedAttestationRecord.createParsedAttestationRecord(buffer));
+      }
+    }
+  }
+
+  @Test
+  public void malformedExtensionIsReported() throws Exception {
+    byte[][] extensions = {
+      // An INTEGER, a truncated SEQUENCE and a SEQUENCE with too few fields.
+      {0x02, 0x01, 0x05}, {0x30, 0x05, 0x01}, {0x30, 0x03, 0x02, 0x01, 0x05},
+    };
+    for (byte[] extension : extensions) {
+      assertMalformedExtension(extension);
+    }
+  }
+
+  @Test
+  public void valuesOutsideTheSchemaAreReportedAsMalformed() throws Exception {
+    ASN1Sequence keyDescription = ASN1Sequence.getInstance(TestCertificates.attestationExtension());
+    ASN1EncodableVector teeEntries = new ASN1EncodableVector();
+    for (ASN1Encodable entry : ASN1Sequence.getInstance(keyDescription.getObjectAt(TEE_INDEX))) {
+      boolean noAuthRequired =
+          ((ASN1TaggedObject) entry).getTagNo() == Constants.KM_TAG_NO_AUTH_REQUIRED;
+      teeEntries.add(
+          noAuthRequired
+              ? new DERTaggedObject(Constants.KM_TAG_NO_AUTH_REQUIRED, new ASN1Integer(1))
+              : entry);
+    }
+
+    // Security level 5 is not in the enumeration; noAuthRequired must be a NULL.
+    assertMalformedExtension(
+        replaceField(keyDescription, SECURITY_LEVEL_INDEX, new ASN1Enumerated(5)));
+    assertMalformedExtension(replaceField(keyDescription, TEE_INDEX, new DERSequence(teeEntries)));
+  }
+
+  private static byte[] replaceField(ASN1Sequence sequence, int index, ASN1Encodable value)
+      throws IOException {
+    ASN1Encodable[] fields = sequence.toArray();
+    fields[index] = value;
+    return new DERSequence(fields).getEncoded(ASN1Encoding.DER);
+  }
+
+  private static void assertMalformedExtension(byte[] extension) throws Exception {
+    byte[] input =
+        TestCertificates.certificate(
+                "CN=Test Leaf",
+                TestCertificates.keyPair().getPublic(),
+                "CN=Test Leaf",
+                TestCertificates.keyPair().getPrivate(),
+                new Date(0),
+                new Date(),
+                extension)
+            .getEncoded();
+
+    // The check only finds the extension; its content is left to the parse.
+    assertTrue(ParsedAttestationRecord.hasAttestationExtension(input));
+    assertMalformed(() -> ParsedAttestationRecord.createParsedAttestationRecord(input));
+    for (ByteBuffer buffer : buffers(input)) {
+      assertMalformed(() -> ParsedAttestationRecord.createParsedAttestationRecord(buffer));
+    }
+  }
+
+  private interface Parse {
+    ParsedAttestationRecord run() throws IOException;
+  }
+
+  /** A heap buffer with bytes before its position and array offset, and a direct buffer. */
+  private static ByteBuffer[] buffers(byte[] encoded) {
+    byte[] padded = new byte[encoded.length + 11];
+    System.arraycopy(encoded, 0, padded, 7, encoded.length);
+    ByteBuffer sliced = ByteBuffer.wrap(padded, 3, encoded.length + 8).slice();
+    sliced.position(4).limit(4 + encoded.length);
+    ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length + 2);
+    direct.position(2);
+    direct.put(encoded).position(2);
+    return new ByteBuffer[] {sliced, direct};
+  }
+
+  private static void assertRecord(ParsedAttestationRecord record) {
+    assertArrayEquals(expectedRecord, DerEncoder.encode(record));
+  }
+
+  private static void assertMissing(Parse parse) throws IOException {
+    try {
+      parse.run();
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // No attestation extension was found.
+    }
+  }
+
+  private static void assertMalformed(Parse parse) {
+    try {
+      parse.run();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // The extension was found but is not a KeyDescription.
+    }
+  }
+}
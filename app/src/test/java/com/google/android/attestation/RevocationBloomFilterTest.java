@@ -0,0 +1,155 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/** Tests membership, false positive rate and sizing of {@link RevocationBloomFilter}. */
+public class RevocationBloomFilterTest {
+
+  private static final int WIDTH = 8;
+
+  @Test
+  public void membersAreNeverRejected() {
+    Random random = new Random(1);
+    ByteBuffer table = serialTable(random, 10_000);
+    RevocationBloomFilter filter =
+        RevocationBloomFilter.create(
+            table, 10_000, WIDTH, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    for (int i = 0; i < 10_000; i++) {
+      assertTrue(filter.mightContain(RevocationBloomFilter.hash(table, i * WIDTH, WIDTH)));
+    }
+    assertEquals(0, filter.getNegativeCount());
+  }
+
+  @Test
+  public void falsePositiveRateStaysWithinTheConfiguredRate() {
+    for (double rate : new double[] {0.1, 0.01, 0.001}) {
+      Random random = new Random(2);
+      int entries = 20_000;
+      ByteBuffer table = serialTable(random, entries);
+      RevocationBloomFilter filter = RevocationBloomFilter.create(table, entries, WIDTH, rate);
+      Set<Long> members = new HashSet<>();
+      for (int i = 0; i < entries; i++) {
+        members.add(table.getLong(i * WIDTH));
+      }
+
+      int lookups = 200_000;
+      int falsePositives = 0;
+      for (int i = 0; i < lookups; i++) {
+        long serial = random.nextLong();
+        if (!members.contains(serial) && filter.mightContain(hash(serial))) {
+          falsePositives++;
+        }
+      }
+
+      // The filter is rounded up to whole words, so it should not do worse than configured; the
+      // margin covers the sampling error.
+      double observed = (double) falsePositives / lookups;
+      assertTrue(rate + ": " + observed, observed <= rate * 1.2);
+      assertTrue(rate + ": " + filter, filter.getExpectedFalsePositiveRate() <= rate * 1.2);
+    }
+  }
+
+  @Test
+  public void emptyFilterRejectsEverything() {
+    RevocationBloomFilter filter =
+        RevocationBloomFilter.create(
+            ByteBuffer.allocate(0), 0, WIDTH, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    Random random = new Random(3);
+    for (int i = 0; i < 1_000; i++) {
+      assertFalse(filter.mightContain(hash(random.nextLong())));
+    }
+    assertTrue(filter.getBitCount() > 0);
+    assertTrue(filter.getHashCount() > 0);
+    assertEquals(0, filter.getExpectedFalsePositiveRate(), 0);
+  }
+
+  @Test
+  public void singleEntryIsFound() {
+    ByteBuffer table = ByteBuffer.allocate(WIDTH).putLong(0, 0x2c8cdddfd5e03bfcL);
+    RevocationBloomFilter filter =
+        RevocationBloomFilter.create(
+            table, 1, WIDTH, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    assertTrue(filter.mightContain(RevocationBloomFilter.hash("2c8cdddfd5e03bfc")));
+    assertTrue(filter.mightContain(RevocationBloomFilter.hash("002C8CDDDFD5E03BFC")));
+    assertFalse(filter.mightContain(RevocationBloomFilter.hash("2c8cdddfd5e03bfd")));
+    assertTrue(
+        filter.getExpectedFalsePositiveRate()
+            <= RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  @Test
+  public void hexAndByteHashesAgree() {
+    assertEquals(
+        RevocationBloomFilter.hash(new byte[] {0, 0x0a, (byte) 0xbc}),
+        RevocationBloomFilter.hash("abc"));
+    assertEquals(RevocationBloomFilter.hash(new byte[] {0}), RevocationBloomFilter.hash("00"));
+  }
+
+  @Test
+  public void writtenFilterReadsBackTheSame() {
+    Random random = new Random(4);
+    ByteBuffer table = serialTable(random, 500);
+    RevocationBloomFilter filter =
+        RevocationBloomFilter.create(
+            table, 500, WIDTH, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+    ByteBuffer encoded = ByteBuffer.allocate(filter.serializedLength() + 3);
+    encoded.position(3);
+    filter.writeTo(encoded);
+    encoded.position(3);
+
+    RevocationBloomFilter read = RevocationBloomFilter.readFrom(encoded);
+
+    assertFalse(encoded.hasRemaining());
+    assertEquals(filter.getBitCount(), read.getBitCount());
+    assertEquals(filter.getHashCount(), read.getHashCount());
+    assertEquals(
+        filter.getConfiguredFalsePositiveRate(), read.getConfiguredFalsePositiveRate(), 0);
+    for (int i = 0; i < 2_000; i++) {
+      long hash = hash(random.nextLong());
+      assertEquals(filter.mightContain(hash), read.mightContain(hash));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidRateIsRejected() {
+    RevocationBloomFilter.create(ByteBuffer.allocate(0), 0, WIDTH, 1.0);
+  }
+
+  private static ByteBuffer serialTable(Random random, int entries) {
+    ByteBuffer table = ByteBuffer.allocate(entries * WIDTH);
+    for (int i = 0; i < entries; i++) {
+      table.putLong(random.nextLong());
+    }
+    return table;
+  }
+
+  private static long hash(long serial) {
+    return RevocationBloomFilter.hash(ByteBuffer.allocate(WIDTH).putLong(0, serial), 0, WIDTH);
+  }
+}
@@ -0,0 +1,142 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.attestation.RevocationStatusService.Snapshot;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests the round trip and the integrity checks of {@link RevocationSnapshotFile}. */
+public class RevocationSnapshotFileTest {
+
+  private static final String STATUS_LIST =
+      "{\"entries\": {"
+          + "\"0a\": {\"status\": \"REVOKED\", \"reason\": \"KEY_COMPROMISE\"},"
+          + "\"0b\": {\"status\": \"REVOKED\"},"
+          + "\"0c\": {\"status\": \"SUSPENDED\", \"comment\": \"Bug 123\"}}}";
+  // Header of the snapshot written in setUp: five ints, a long and two null strings.
+  private static final int HEADER_LENGTH = 4 * 4 + 8 + 4 + 4;
+  private static final int SERIAL_WIDTH = 1;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+  private RevocationIndex index;
+
+  @Before
+  public void setUp() throws IOException {
+    file = temporaryFolder.getRoot().toPath().resolve("status.bin");
+    index = RevocationIndex.load(new StringReader(STATUS_LIST));
+    RevocationSnapshotFile.write(file, new Snapshot(index, null, null, null));
+  }
+
+  @Test
+  public void storedBloomFilterIsUsed() throws IOException {
+    Snapshot read =
+        RevocationSnapshotFile.read(file, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    RevocationBloomFilter filter = read.index.getBloomFilter();
+    assertEquals(index.getBloomFilter().getBitCount(), filter.getBitCount());
+    assertEquals(index.getBloomFilter().getHashCount(), filter.getHashCount());
+    assertEquals(
+        index.getBloomFilter().getExpectedFalsePositiveRate(),
+        filter.getExpectedFalsePositiveRate(),
+        0);
+    assertEquals(CertificateRevocationStatus.Status.REVOKED, read.index.get("a").status);
+    assertEquals("Bug 123", read.index.get("c").comment);
+    assertNull(read.index.get("d"));
+  }
+
+  @Test
+  public void bloomFilterForAnotherRateIsRebuilt() throws IOException {
+    Snapshot read = RevocationSnapshotFile.read(file, 0.001);
+
+    assertEquals(0.001, read.index.getBloomFilter().getConfiguredFalsePositiveRate(), 0);
+    assertEquals(CertificateRevocationStatus.Status.REVOKED, read.index.get("b").status);
+  }
+
+  @Test
+  public void filterCoversEntriesFromTheOverlay() throws IOException {
+    RevocationIndex changed =
+        index.apply(
+            index.diff(
+                new StringReader(
+                    "{\"entries\": {\"0a\": {\"status\": \"REVOKED\"},"
+                        + " \"01ff\": {\"status\": \"REVOKED\"}}}")));
+    RevocationSnapshotFile.write(file, new Snapshot(changed, null, null, null));
+
+    Snapshot read =
+        RevocationSnapshotFile.read(file, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+    assertEquals(2, read.index.size());
+    assertEquals(CertificateRevocationStatus.Status.REVOKED, read.index.get("1ff").status);
+    assertNull(read.index.get("b"));
+  }
+
+  @Test
+  public void damagedFileIsRejected() throws IOException {
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[HEADER_LENGTH + SERIAL_WIDTH * 3] ^= 0x01;
+    Files.write(file, bytes);
+
+    assertUnreadable();
+  }
+
+  @Test
+  public void truncatedFileIsRejected() throws IOException {
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 9));
+
+    assertUnreadable();
+  }
+
+  @Test
+  public void unsortedSerialTableIsRejected() throws IOException {
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+    bytes.put(HEADER_LENGTH, (byte) 0x0c);
+    bytes.put(HEADER_LENGTH + 2 * SERIAL_WIDTH, (byte) 0x0a);
+    // A matching checksum, as a writer bug rather than a damaged disk would leave it.
+    CRC32 checksum = new CRC32();
+    checksum.update(bytes.array(), 0, bytes.capacity() - 4);
+    bytes.putInt(bytes.capacity() - 4, (int) checksum.getValue());
+    Files.write(file, bytes.array());
+
+    assertUnreadable();
+  }
+
+  private void assertUnreadable() {
+    try {
+      RevocationSnapshotFile.read(file, RevocationBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains(file.toString()));
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Runs {@link RevocationStatusService} against a local stand-in for the status URL. */
+public class RevocationStatusServiceTest {
+
+  private static final String CERTIFICATE_RESOURCE =
+      "/ch/bfh/securevote/utils/apc_test_certificate.pem";
+  private static final String ETAG = "\"v1\"";
+  private static final String STATUS_LIST =
+      "{\"entries\": {"
+          + "\"2c8cdddfd5e03bfc\": {\"status\": \"REVOKED\", \"reason\": \"KEY_COMPROMISE\"},"
+          + "\"c8966fcb2fbb0d7a\": {\"status\": \"SUSPENDED\", \"reason\": \"SOFTWARE_FLAW\","
+          + " \"comment\": \"Bug 123\"}}}";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private HttpServer server;
+  private URL url;
+  private final List<String> ifNoneMatchHeaders = new ArrayList<>();
+  private volatile String body = STATUS_LIST;
+  private volatile String eTag = ETAG;
+  private volatile int failWith;
+  private RevocationStatusService service;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/attestation/status", this::handle);
+    server.start();
+    url =
+        new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/attestation/status");
+    service = new RevocationStatusService(url, Duration.ofHours(1));
+  }
+
+  @After
+  public void tearDown() {
+    service.close();
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    synchronized (ifNoneMatchHeaders) {
+      ifNoneMatchHeaders.add(ifNoneMatch);
+    }
+    if (failWith != 0) {
+      exchange.sendResponseHeaders(failWith, -1);
+    } else if (eTag.equals(ifNoneMatch)) {
+      exchange.sendResponseHeaders(304, -1);
+    } else {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("ETag", eTag);
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+    exchange.close();
+  }
+
+  @Test
+  public void lookupsAreServedFromTheLoadedList() throws IOException {
+    assertNull(service.getStatus("2c8cdddfd5e03bfc"));
+    assertTrue(service.isStale());
+
+    service.start();
+
+    CertificateRevocationStatus revoked = service.getStatus("2C8CDDDFD5E03BFC");
+    assertEquals(CertificateRevocationStatus.Status.REVOKED, revoked.status);
+    assertEquals(CertificateRevocationStatus.Reason.KEY_COMPROMISE, revoked.reason);
+    CertificateRevocationStatus suspended =
+        service.getStatus(new BigInteger("c8966fcb2fbb0d7a", 16));
+    assertEquals(CertificateRevocationStatus.Status.SUSPENDED, suspended.status);
+    assertEquals("Bug 123", suspended.comment);
+    assertNull(service.getStatus("1"));
+    assertFalse(service.isStale());
+    assertEquals(ETAG, service.getSnapshot().eTag);
+  }
+
+  @Test
+  public void unchangedListIsNotDownloadedAgain() throws IOException {
+    assertTrue(service.refresh());
+    RevocationStatusService.Snapshot first = service.getSnapshot();
+
+    assertFalse(service.refresh());
+
+    assertSame(first.index, service.getSnapshot().index);
+    assertEquals(1, service.getRefreshCount());
+    assertEquals(1, service.getNotModifiedCount());
+    synchronized (ifNoneMatchHeaders) {
+      assertNull(ifNoneMatchHeaders.get(0));
+      assertEquals(ETAG, ifNoneMatchHeaders.get(1));
+    }
+  }
+
+  @Test
+  public void notModifiedConfirmsASnapshotThatWasNeverFetched() throws IOException {
+    service.refresh();
+    Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("status.bin");
+    RevocationSnapshotFile.write(
+        snapshotFile,
+        new RevocationStatusService.Snapshot(service.getSnapshot().index, ETAG, null, null));
+
+    try (RevocationStatusService restarted =
+        new RevocationStatusService(url, Duration.ofHours(1), snapshotFile)) {
+      restarted.start();
+
+      assertFalse(restarted.refresh());
+
+      assertEquals(0, restarted.getFailureCount());
+      assertEquals(0, restarted.getRefreshCount());
+      assertNotNull(restarted.getSnapshot().fetchedAt);
+      assertFalse(restarted.isStale());
+      assertEquals(
+          CertificateRevocationStatus.Status.REVOKED,
+          restarted.getStatus("2c8cdddfd5e03bfc").status);
+    }
+  }
+
+  @Test
+  public void unconditionalNotModifiedIsAFailure() {
+    failWith = 304;
+
+    try {
+      service.refresh();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // Without validators there is no list for the 304 to confirm.
+    }
+
+    assertEquals(1, service.getFailureCount());
+    assertEquals(0, service.getNotModifiedCount());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void nullSerialNumberIsRejected() {
+    service.getStatus((BigInteger) null);
+  }
+
+  @Test
+  public void changedListReplacesTheSnapshot() throws IOException {
+    service.refresh();
+    body = "{\"entries\": {\"1\": {\"status\": \"REVOKED\", \"reason\": \"SUPERSEDED\"}}}";
+    eTag = "\"v2\"";
+
+    assertTrue(service.refresh());
+
+    assertNull(service.getStatus("2c8cdddfd5e03bfc"));
+    assertEquals(CertificateRevocationStatus.Reason.SUPERSEDED, service.getStatus("1").reason);
+    assertEquals("\"v2\"", service.getSnapshot().eTag);
+  }
+
+  @Test
+  public void changedListIsAppliedAsDelta() throws IOException {
+    service.refresh();
+    assertNull(service.getLastDelta());
+    RevocationIndex first = service.getSnapshot().index;
+    body =
+        "{\"entries\": {"
+            + "\"2c8cdddfd5e03bfc\": {\"status\": \"REVOKED\", \"reason\": \"KEY_COMPROMISE\"},"
+            + "\"c8966fcb2fbb0d7a\": {\"status\": \"REVOKED\", \"reason\": \"SOFTWARE_FLAW\"},"
+            + "\"1\": {\"status\": \"REVOKED\", \"reason\": \"SUPERSEDED\"}}}";
+    eTag = "\"v2\"";
+
+    assertTrue(service.refresh());
+
+    RevocationDelta delta = service.getLastDelta();
+    assertEquals(1, delta.getAddedCount());
+    assertEquals(0, delta.getRemovedCount());
+    assertEquals(
+        Collections.singletonList("c8966fcb2fbb0d7a"),
+        delta.getSerialNumbers(RevocationDelta.Kind.CHANGED));
+    assertEquals(3, service.getSnapshot().index.size());
+    assertEquals(
+        CertificateRevocationStatus.Status.REVOKED, service.getStatus("c8966fcb2fbb0d7a").status);
+    assertNull(service.getStatus("c8966fcb2fbb0d7a").comment);
+    // The previous index is left as it was.
+    assertEquals(
+        CertificateRevocationStatus.Status.SUSPENDED, first.get("c8966fcb2fbb0d7a").status);
+    assertNull(first.get("1"));
+  }
+
+  @Test
+  public void chainsAreCheckedAgainstTheLoadedList() throws Exception {
+    X509Certificate certificate;
+    try (InputStream in = getClass().getResourceAsStream(CERTIFICATE_RESOURCE)) {
+      certificate =
+          (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+    }
+    body =
+        "{\"entries\": {\""
+            + certificate.getSerialNumber().toString(16)
+            + "\": {\"status\": \"SUSPENDED\"}}}";
+    service.refresh();
+
+    List<ChainRevocationStatus> results =
+        service.checkChains(
+            Arrays.asList(
+                new X509Certificate[] {certificate},
+                new X509Certificate[0],
+                new X509Certificate[] {certificate, certificate}));
+
+    assertEquals(ChainRevocationStatus.Verdict.SUSPENDED, results.get(0).verdict);
+    assertEquals(0, results.get(0).getFirstListedPosition());
+    assertTrue(results.get(1).isGood());
+    assertEquals(2, results.get(2).index);
+    assertEquals(
+        CertificateRevocationStatus.Status.SUSPENDED, results.get(2).getStatus(1).status);
+  }
+
+  @Test
+  public void failedRefreshKeepsTheCurrentSnapshot() throws IOException {
+    service.refresh();
+    failWith = 503;
+
+    try {
+      service.refresh();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // The server error is reported to the caller.
+    }
+
+    assertEquals(
+        CertificateRevocationStatus.Status.REVOKED, service.getStatus("2c8cdddfd5e03bfc").status);
+    assertEquals(1, service.getFailureCount());
+  }
+
+  @Test
+  public void restartServesTheSnapshotFileWithoutDownloading() throws IOException {
+    Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("status.bin");
+    try (RevocationStatusService first =
+        new RevocationStatusService(url, Duration.ofHours(1), snapshotFile)) {
+      first.start();
+    }
+    failWith = 500;
+
+    try (RevocationStatusService restarted =
+        new RevocationStatusService(url, Duration.ofHours(1), snapshotFile)) {
+      restarted.start();
+
+      CertificateRevocationStatus suspended = restarted.getStatus("c8966fcb2fbb0d7a");
+      assertEquals(CertificateRevocationStatus.Status.SUSPENDED, suspended.status);
+      assertEquals(CertificateRevocationStatus.Reason.SOFTWARE_FLAW, suspended.reason);
+      assertEquals("Bug 123", suspended.comment);
+      assertNull(restarted.getStatus("1"));
+      assertEquals(ETAG, restarted.getSnapshot().eTag);
+      assertFalse(restarted.isStale());
+    }
+    synchronized (ifNoneMatchHeaders) {
+      assertEquals(1, ifNoneMatchHeaders.size());
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import org.junit.Test;
+
+/** Tests the structural equality of {@link RootOfTrust}. */
+public class RootOfTrustTest {
+
+  @Test
+  public void equalityComparesArrayContents() {
+    RootOfTrust rootOfTrust =
+        new RootOfTrust(new byte[] {1, 2}, true, VerifiedBootState.VERIFIED, new byte[] {3});
+    RootOfTrust same =
+        new RootOfTrust(new byte[] {1, 2}, true, VerifiedBootState.VERIFIED, new byte[] {3});
+
+    assertEquals(rootOfTrust, same);
+    assertEquals(rootOfTrust.hashCode(), same.hashCode());
+  }
+
+  @Test
+  public void everyFieldTakesPart() {
+    RootOfTrust rootOfTrust =
+        new RootOfTrust(new byte[] {1, 2}, true, VerifiedBootState.VERIFIED, new byte[] {3});
+
+    assertNotEquals(
+        rootOfTrust,
+        new RootOfTrust(new byte[] {1, 3}, true, VerifiedBootState.VERIFIED, new byte[] {3}));
+    assertNotEquals(
+        rootOfTrust,
+        new RootOfTrust(new byte[] {1, 2}, false, VerifiedBootState.VERIFIED, new byte[] {3}));
+    assertNotEquals(
+        rootOfTrust,
+        new RootOfTrust(new byte[] {1, 2}, true, VerifiedBootState.FAILED, new byte[] {3}));
+    assertNotEquals(
+        rootOfTrust,
+        new RootOfTrust(new byte[] {1, 2}, true, VerifiedBootState.VERIFIED, new byte[] {4}));
+    assertNotEquals(
+        rootOfTrust, new RootOfTrust(new byte[] {1, 2}, true, VerifiedBootState.VERIFIED, null));
+    assertFalse(rootOfTrust.equals(null));
+  }
+}
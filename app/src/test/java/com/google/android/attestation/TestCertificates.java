@@ -0,0 +1,179 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/** Builds small EC certificate chains for tests, optionally carrying a real attestation record. */
+final class TestCertificates {
+
+  static final String CERTIFICATE_RESOURCE = "/ch/bfh/securevote/utils/apc_test_certificate.pem";
+
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final AtomicLong SERIALS = new AtomicLong(1);
+
+  private TestCertificates() {}
+
+  static KeyPair keyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    return generator.generateKeyPair();
+  }
+
+  /** Loads the certificate of the test resource, a leaf with a StrongBox attestation record. */
+  static X509Certificate attestationCertificate() throws Exception {
+    try (InputStream in = TestCertificates.class.getResourceAsStream(CERTIFICATE_RESOURCE)) {
+      return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+    }
+  }
+
+  /** Returns the inner value of the attestation extension of the test resource. */
+  static byte[] attestationExtension() throws Exception {
+    byte[] extensionValue =
+        attestationCertificate().getExtensionValue(Constants.KEY_DESCRIPTION_OID);
+    return ASN1OctetString.getInstance(extensionValue).getOctets();
+  }
+
+  /** Certificate valid from yesterday until tomorrow. */
+  static X509Certificate certificate(
+      String subject, PublicKey subjectKey, String issuer, PrivateKey issuerKey)
+      throws Exception {
+    long now = System.currentTimeMillis();
+    return certificate(
+        subject,
+        subjectKey,
+        issuer,
+        issuerKey,
+        new Date(now - DAY_MILLIS),
+        new Date(now + DAY_MILLIS),
+        null);
+  }
+
+  /**
+   * @param attestationExtension inner value of a key description extension, or null for none
+   */
+  static X509Certificate certificate(
+      String subject,
+      PublicKey subjectKey,
+      String issuer,
+      PrivateKey issuerKey,
+      Date notBefore,
+      Date notAfter,
+      byte[] attestationExtension)
+      throws Exception {
+    X509v3CertificateBuilder builder =
+        new JcaX509v3CertificateBuilder(
+            new X500Name(issuer),
+            BigInteger.valueOf(SERIALS.getAndIncrement()),
+            notBefore,
+            notAfter,
+            new X500Name(subject),
+            subjectKey);
+    if (attestationExtension != null) {
+      builder.addExtension(
+          new ASN1ObjectIdentifier(Constants.KEY_DESCRIPTION_OID), false, attestationExtension);
+    }
+    try {
+      return new JcaX509CertificateConverter()
+          .getCertificate(
+              builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(issuerKey)));
+    } catch (OperatorCreationException e) {
+      throw new GeneralSecurityException(e);
+    }
+  }
+
+  /** A leaf, intermediate and root chain; the root is self-signed with {@code rootKey}. */
+  static final class Chain {
+    final KeyPair rootKey;
+    final KeyPair intermediateKey;
+    final X509Certificate root;
+    final X509Certificate intermediate;
+    final X509Certificate leaf;
+
+    Chain(KeyPair rootKey, KeyPair intermediateKey, byte[] attestationExtension) throws Exception {
+      this.rootKey = rootKey;
+      this.intermediateKey = intermediateKey;
+      long now = System.currentTimeMillis();
+      Date notBefore = new Date(now - DAY_MILLIS);
+      Date notAfter = new Date(now + DAY_MILLIS);
+      this.root =
+          certificate(
+              "CN=Test Root",
+              rootKey.getPublic(),
+              "CN=Test Root",
+              rootKey.getPrivate(),
+              notBefore,
+              notAfter,
+              null);
+      this.intermediate =
+          certificate(
+              "CN=Test Intermediate",
+              intermediateKey.getPublic(),
+              "CN=Test Root",
+              rootKey.getPrivate(),
+              notBefore,
+              notAfter,
+              null);
+      this.leaf =
+          certificate(
+              "CN=Test Leaf",
+              keyPair().getPublic(),
+              "CN=Test Intermediate",
+              intermediateKey.getPrivate(),
+              notBefore,
+              notAfter,
+              attestationExtension);
+    }
+
+    static Chain create() throws Exception {
+      return new Chain(keyPair(), keyPair(), null);
+    }
+
+    X509Certificate[] certificates() {
+      return new X509Certificate[] {leaf, intermediate, root};
+    }
+
+    List<byte[]> encoded() throws Exception {
+      List<byte[]> encoded = new ArrayList<>();
+      for (X509Certificate certificate : certificates()) {
+        encoded.add(certificate.getEncoded());
+      }
+      return encoded;
+    }
+  }
+}
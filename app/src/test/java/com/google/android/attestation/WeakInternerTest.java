@@ -0,0 +1,91 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/** Tests canonicalization and weak retention of {@link WeakInterner}. */
+public class WeakInternerTest {
+
+  @Test
+  public void firstInstanceBecomesCanonical() {
+    WeakInterner<String> interner = WeakInterner.create();
+    String first = new String("value");
+    String second = new String("value");
+
+    assertNull(interner.get(first));
+    assertSame(first, interner.intern(first));
+    assertSame(first, interner.intern(second));
+    assertSame(first, interner.get(second));
+    assertEquals(1, interner.size());
+  }
+
+  @Test
+  public void byteArraysAreComparedByContent() {
+    WeakInterner<byte[]> interner = WeakInterner.forByteArrays();
+    byte[] first = {1, 2, 3};
+
+    assertSame(first, interner.intern(first));
+    assertSame(first, interner.intern(new byte[] {1, 2, 3}));
+    assertNull(interner.get(new byte[] {1, 2, 4}));
+  }
+
+  @Test
+  public void collectedInstancesAreDropped() throws InterruptedException {
+    WeakInterner<String> interner = WeakInterner.create();
+    String kept = new String("kept");
+    interner.intern(kept);
+    interner.intern(new String("dropped"));
+
+    for (int i = 0; i < 50 && interner.size() > 1; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+
+    assertEquals(1, interner.size());
+    assertNull(interner.get("dropped"));
+    assertSame(kept, interner.intern(new String("kept")));
+  }
+
+  @Test
+  public void concurrentInternsAgree() throws Exception {
+    WeakInterner<String> interner = WeakInterner.create();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        results.add(executor.submit(() -> interner.intern(new String("value"))));
+      }
+      String canonical = results.get(0).get();
+      for (Future<String> result : results) {
+        assertSame(canonical, result.get());
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+}
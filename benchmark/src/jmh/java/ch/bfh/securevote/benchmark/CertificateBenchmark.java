@@ -0,0 +1,103 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package ch.bfh.securevote.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+
+import ch.bfh.securevote.utils.CertificateParser;
+import ch.bfh.securevote.utils.PKCS7Builder;
+
+/**
+ * Certificate helpers used by the key check screen and the PKCS7 envelope of confirmed messages,
+ * run over certificate chains of several lengths.
+ */
+@State(Scope.Benchmark)
+public class CertificateBenchmark {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+
+    @Param({"1", "3", "5"})
+    public int chainLength;
+
+    private X509Certificate[] chain;
+    private byte[][] digests;
+    private byte[] dataToSign;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        chain = Fixtures.certificateChain(chainLength);
+        digests = new byte[chain.length][];
+        for (int i = 0; i < chain.length; i++) {
+            digests[i] = MessageDigest.getInstance("SHA-256").digest(chain[i].getEncoded());
+        }
+        dataToSign = "Do you confirm the vote for option 1?".getBytes(StandardCharsets.UTF_8);
+        // Any valid signature will do; PKCS7Builder only wraps it.
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signer.initSign(generator.generateKeyPair().getPrivate());
+        signer.update(dataToSign);
+        signature = signer.sign();
+    }
+
+    @Benchmark
+    public void getEcType(Blackhole blackhole) {
+        for (X509Certificate certificate : chain) {
+            blackhole.consume(CertificateParser.getEcType(certificate));
+        }
+    }
+
+    @Benchmark
+    public void getKeyUsageString(Blackhole blackhole) {
+        for (X509Certificate certificate : chain) {
+            blackhole.consume(CertificateParser.getKeyUsageString(certificate));
+        }
+    }
+
+    @Benchmark
+    public void getThumbPrint(Blackhole blackhole) throws GeneralSecurityException {
+        for (X509Certificate certificate : chain) {
+            blackhole.consume(CertificateParser.getThumbPrint(certificate, "SHA-256"));
+        }
+    }
+
+    @Benchmark
+    public void hexify(Blackhole blackhole) {
+        for (byte[] digest : digests) {
+            blackhole.consume(CertificateParser.hexify(digest));
+        }
+    }
+
+    @Benchmark
+    public byte[] generatePkcs7() {
+        return PKCS7Builder.generatePkcs7(dataToSign, signature, SIGNATURE_ALGORITHM, chain);
+    }
+}
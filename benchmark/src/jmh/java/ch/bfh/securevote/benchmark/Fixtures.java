@@ -0,0 +1,113 @@
+/*
+     This file is part of the Android app ch.bfh.securevote.
+     (C) 2023 Benjamin Fehrensen (and other contributing authors)
+     This library is free software; you can redistribute it and/or
+     modify it under the terms of the GNU Lesser General Public
+     License as published by the Free Software Foundation; either
+     version 2.1 of the License, or (at your option) any later version.
+     This library is distributed in the hope that it will be useful,
+     but WITHOUT ANY WARRANTY; without even the implied warranty of
+     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+     Lesser General Public License for more details.
+     You should have received a copy of the GNU Lesser General Public
+     License along with this library; if not, write to the Free Software
+     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package ch.bfh.securevote.benchmark;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Certificate fixtures for the benchmarks. The attestation leaf is the APC test certificate used by
+ * the unit tests; longer chains get generated EC intermediates above it. The intermediates do not
+ * sign the leaf, which none of the benchmarked code checks.
+ */
+public final class Fixtures {
+
+    private static final String PEM_RESOURCE = "/ch/bfh/securevote/utils/apc_test_certificate.pem";
+
+    private Fixtures() {
+    }
+
+    /** Returns the APC test certificate carrying the attestation extension. */
+    public static X509Certificate attestationCertificate() {
+        try (InputStream in = Fixtures.class.getResourceAsStream(PEM_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + PEM_RESOURCE);
+            }
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to load fixture " + PEM_RESOURCE, e);
+        }
+    }
+
+    /** Returns a chain of the given length, leaf first, ending in a self-signed root. */
+    public static X509Certificate[] certificateChain(int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Chain length must be positive: " + length);
+        }
+        X509Certificate[] chain = new X509Certificate[length];
+        chain[0] = attestationCertificate();
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            KeyPair[] keys = new KeyPair[length];
+            for (int i = 1; i < length; i++) {
+                keys[i] = generator.generateKeyPair();
+            }
+            // Issue from the root downwards, so every certificate is signed by its parent.
+            for (int i = length - 1; i >= 1; i--) {
+                int issuer = i == length - 1 ? i : i + 1;
+                chain[i] = issue(i, keys[i], issuer, keys[issuer]);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate certificate chain", e);
+        }
+        return chain;
+    }
+
+    private static X509Certificate issue(int subject, KeyPair subjectKeys, int issuer, KeyPair issuerKeys)
+            throws GeneralSecurityException {
+        long now = System.currentTimeMillis();
+        try {
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                    name(issuer),
+                    BigInteger.valueOf(subject),
+                    new Date(now - TimeUnit.DAYS.toMillis(1)),
+                    new Date(now + TimeUnit.DAYS.toMillis(365)),
+                    name(subject),
+                    subjectKeys.getPublic());
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            builder.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+            return new JcaX509CertificateConverter().getCertificate(builder.build(
+                    new JcaContentSignerBuilder("SHA256withECDSA").build(issuerKeys.getPrivate())));
+        } catch (Exception e) {
+            throw new GeneralSecurityException("Failed to issue certificate " + subject, e);
+        }
+    }
+
+    private static X500Name name(int index) {
+        return new X500Name("CN=Benchmark CA " + index);
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import ch.bfh.securevote.benchmark.Fixtures;
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of the Key Attestation extension of the APC test certificate. Lives in the attestation
+ * package to reach the package-private authorization list factory.
+ */
+@State(Scope.Benchmark)
+public class AttestationBenchmark {
+
+  private X509Certificate certificate;
+  private byte[] certificateDer;
+  private int attestationVersion;
+  private ASN1Encodable[] softwareEnforced;
+  private ASN1Encodable[] teeEnforced;
+  private byte[] encodedRecord;
+
+  @Setup
+  public void setUp() throws IOException {
+    certificate = Fixtures.attestationCertificate();
+    try {
+      certificateDer = certificate.getEncoded();
+    } catch (CertificateEncodingException e) {
+      throw new IOException(e);
+    }
+    ParsedAttestationRecord record =
+        ParsedAttestationRecord.createParsedAttestationRecord(certificate);
+    attestationVersion = record.attestationVersion;
+    softwareEnforced = record.softwareEnforced.toAsn1Sequence().toArray();
+    teeEnforced = record.teeEnforced.toAsn1Sequence().toArray();
+    encodedRecord = AttestationRecordCodec.encode(record);
+  }
+
+  @Benchmark
+  public ParsedAttestationRecord createParsedAttestationRecord() throws IOException {
+    return ParsedAttestationRecord.createParsedAttestationRecord(certificate);
+  }
+
+  @Benchmark
+  public ParsedAttestationRecord createParsedAttestationRecordFromDer() throws IOException {
+    return ParsedAttestationRecord.createParsedAttestationRecord(certificateDer);
+  }
+
+  // A verification server that checks one flag per certificate: the full parse against the lazy
+  // view. The gc profiler's gc.alloc.rate.norm shows the allocation per certificate.
+  @Benchmark
+  public boolean teeEnforcedNoAuthRequired() throws IOException {
+    return ParsedAttestationRecord.createParsedAttestationRecord(certificate)
+        .teeEnforced
+        .noAuthRequired;
+  }
+
+  @Benchmark
+  public boolean lazyTeeEnforcedNoAuthRequired() {
+    return LazyAttestationRecord.createLazyAttestationRecord(certificate)
+        .teeEnforcedNoAuthRequired();
+  }
+
+  @Benchmark
+  public ParsedAttestationRecord lazyToParsedAttestationRecord() {
+    return LazyAttestationRecord.createLazyAttestationRecord(certificate)
+        .toParsedAttestationRecord();
+  }
+
+  @Benchmark
+  public boolean hasAttestationExtension() {
+    return ParsedAttestationRecord.hasAttestationExtension(certificateDer);
+  }
+
+  @Benchmark
+  public ParsedAttestationRecord decodeAttestationRecord() throws IOException {
+    return AttestationRecordCodec.decode(encodedRecord);
+  }
+
+  @Benchmark
+  public AuthorizationList createSoftwareEnforcedAuthorizationList() {
+    return AuthorizationList.createAuthorizationList(softwareEnforced, attestationVersion);
+  }
+
+  @Benchmark
+  public AuthorizationList createTeeEnforcedAuthorizationList() {
+    return AuthorizationList.createAuthorizationList(teeEnforced, attestationVersion);
+  }
+}
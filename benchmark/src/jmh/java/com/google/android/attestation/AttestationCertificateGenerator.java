@@ -0,0 +1,609 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.attestation;
+
+import com.google.android.attestation.AttestationApplicationId.AttestationPackageInfo;
+import com.google.android.attestation.ParsedAttestationRecord.SecurityLevel;
+import com.google.android.attestation.RootOfTrust.VerifiedBootState;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Mints synthetic attestation certificate chains for load tests and benchmarks. Every chain is a
+ * leaf carrying a Key Attestation extension, an intermediate and a self-signed root. The leaf
+ * records are drawn from configurable weighted distributions of security levels, OS patch levels,
+ * packages and key types, and built with {@link ParsedAttestationRecord#create}, {@link
+ * AuthorizationList#builder()} and {@link DerEncoder}, whose output equals the {@code
+ * toAsn1Sequence()} encoding.
+ *
+ * <p>Minting is dominated by key generation and signing, so both are amortized: the intermediate
+ * key is created once and signs every leaf through a per-thread signer, and leaf subject keys come
+ * from a small pool per key type. Chain {@code i} is derived from the seed and {@code i} alone, so
+ * any range of a run can be regenerated in parallel; only the ECDSA signatures differ.
+ *
+ * <p>{@link #write} streams chains to shard files in a simple binary format: per chain the number
+ * of certificates, then each DER certificate prefixed with its length, all as big endian ints.
+ * {@link #readChains} streams them back as DER lists for {@link BulkAttestationVerifier}.
+ */
+public final class AttestationCertificateGenerator {
+
+  /** Key type of the attested leaf key. */
+  public enum KeyType {
+    EC_P256(KM_ALGORITHM_EC, 256, KM_EC_CURVE_P256),
+    EC_P384(KM_ALGORITHM_EC, 384, KM_EC_CURVE_P384),
+    RSA_2048(KM_ALGORITHM_RSA, 2048, -1);
+
+    final int algorithm;
+    final int keySize;
+    final int ecCurve;
+
+    KeyType(int algorithm, int keySize, int ecCurve) {
+      this.algorithm = algorithm;
+      this.keySize = keySize;
+      this.ecCurve = ecCurve;
+    }
+
+    KeyPair generateKeyPair() throws GeneralSecurityException {
+      KeyPairGenerator generator;
+      if (algorithm == KM_ALGORITHM_EC) {
+        generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(keySize == 256 ? "secp256r1" : "secp384r1"));
+      } else {
+        generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(keySize);
+      }
+      return generator.generateKeyPair();
+    }
+  }
+
+  // Keymaster values used in the generated authorization lists.
+  private static final int KM_ALGORITHM_RSA = 1;
+  private static final int KM_ALGORITHM_EC = 3;
+  private static final int KM_EC_CURVE_P256 = 1;
+  private static final int KM_EC_CURVE_P384 = 2;
+  private static final int KM_PURPOSE_SIGN = 2;
+  private static final int KM_PURPOSE_VERIFY = 3;
+  private static final int KM_DIGEST_SHA_2_256 = 4;
+  private static final int KM_PAD_RSA_PKCS1_1_5_SIGN = 5;
+  private static final int KM_ORIGIN_GENERATED = 0;
+  private static final long RSA_PUBLIC_EXPONENT = 65537;
+
+  private static final ASN1ObjectIdentifier KEY_DESCRIPTION_OID =
+      new ASN1ObjectIdentifier(Constants.KEY_DESCRIPTION_OID);
+  private static final X500Name LEAF_SUBJECT = new X500Name("CN=Android Keystore Key");
+  private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+  private static final long VALIDITY_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+  private final long seed;
+  private final int attestationVersion;
+  private final int keymasterVersion;
+  private final Choice<SecurityLevel> securityLevels;
+  private final Choice<Integer> osPatchLevels;
+  private final Choice<AttestationPackageInfo> packages;
+  private final Choice<KeyType> keyTypes;
+  private final Map<KeyType, PublicKey[]> subjectKeys = new EnumMap<>(KeyType.class);
+  private final PrivateKey intermediateKey;
+  private final X500Name intermediateName;
+  private final byte[] intermediateDer;
+  private final byte[] rootDer;
+  private final Date notBefore;
+  private final Date notAfter;
+  private final ThreadLocal<ContentSigner> signer;
+
+  private AttestationCertificateGenerator(Builder builder) throws GeneralSecurityException {
+    this.seed = builder.seed;
+    this.attestationVersion = builder.attestationVersion;
+    this.keymasterVersion = builder.keymasterVersion;
+    this.securityLevels = builder.securityLevels.orDefault(SecurityLevel.TRUSTED_ENVIRONMENT);
+    this.osPatchLevels = builder.osPatchLevels.orDefault(202301);
+    this.packages =
+        builder.packages.orDefault(new AttestationPackageInfo("com.example.app", 1));
+    this.keyTypes = builder.keyTypes.orDefault(KeyType.EC_P256);
+    for (KeyType keyType : new HashSet<>(keyTypes.values)) {
+      PublicKey[] keys = new PublicKey[builder.subjectKeyPoolSize];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = keyType.generateKeyPair().getPublic();
+      }
+      subjectKeys.put(keyType, keys);
+    }
+
+    long now = System.currentTimeMillis();
+    this.notBefore = new Date(now - VALIDITY_MILLIS);
+    this.notAfter = new Date(now + VALIDITY_MILLIS);
+    KeyPair rootKey = KeyType.EC_P256.generateKeyPair();
+    KeyPair intermediate = KeyType.EC_P256.generateKeyPair();
+    X500Name rootName = new X500Name("CN=Synthetic Attestation Root");
+    this.intermediateName = new X500Name("CN=Synthetic Attestation Intermediate");
+    this.intermediateKey = intermediate.getPrivate();
+    // The root issues both CA certificates, so they need distinct, positive serial numbers.
+    BigInteger serialBase = BigInteger.valueOf(seed & Long.MAX_VALUE).shiftLeft(1);
+    this.rootDer =
+        caCertificate(
+            rootName,
+            rootName,
+            serialBase.add(BigInteger.ONE),
+            rootKey.getPublic(),
+            rootKey.getPrivate());
+    this.intermediateDer =
+        caCertificate(
+            intermediateName,
+            rootName,
+            serialBase.add(BigInteger.valueOf(2)),
+            intermediate.getPublic(),
+            rootKey.getPrivate());
+    this.signer = ThreadLocal.withInitial(() -> contentSigner(intermediateKey));
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** DER encoded root certificate shared by all chains, e.g. to configure a trust anchor. */
+  public byte[] getRootCertificate() {
+    return rootDer.clone();
+  }
+
+  /** Returns the attestation record chain {@code index} carries. */
+  public ParsedAttestationRecord record(long index) {
+    return record(random(index));
+  }
+
+  /** Returns chain {@code index} as DER certificates, leaf first. */
+  public List<byte[]> chain(long index) {
+    Random random = random(index);
+    KeyType keyType = keyTypes.pick(random);
+    ParsedAttestationRecord record = record(random, keyType);
+    PublicKey[] keys = subjectKeys.get(keyType);
+    byte[] leaf = leafCertificate(record, keys[random.nextInt(keys.length)], random);
+    return Arrays.asList(leaf, intermediateDer, rootDer);
+  }
+
+  /** Lazily generates chains {@code first} to {@code first + count - 1}, in order. */
+  public Stream<List<byte[]>> chains(long first, long count) {
+    return LongStream.range(first, first + count).mapToObj(this::chain);
+  }
+
+  /**
+   * Writes {@code count} chains to {@code shards} files in the directory, generating the shards in
+   * parallel on {@code parallelism} threads. Blocks until all shards are written.
+   *
+   * @return the shard files, in chain order
+   */
+  public List<Path> write(Path directory, long count, int shards, int parallelism)
+      throws IOException {
+    Files.createDirectories(directory);
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<Path>> futures = new ArrayList<>(shards);
+      for (int shard = 0; shard < shards; shard++) {
+        long first = count * shard / shards;
+        long end = count * (shard + 1) / shards;
+        Path file = directory.resolve(String.format("chains-%05d.bin", shard));
+        futures.add(executor.submit(() -> writeShard(file, first, end - first)));
+      }
+      List<Path> files = new ArrayList<>(shards);
+      for (Future<Path> future : futures) {
+        files.add(future.get());
+      }
+      return files;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing attestation chains.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Writing attestation chains failed.", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Path writeShard(Path file, long first, long count) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+      for (long index = first; index < first + count; index++) {
+        List<byte[]> chain = chain(index);
+        out.writeInt(chain.size());
+        for (byte[] certificate : chain) {
+          out.writeInt(certificate.length);
+          out.write(certificate);
+        }
+      }
+    }
+    return file;
+  }
+
+  /** Streams the chains of a shard file written by {@link #write}; close the stream when done. */
+  public static Stream<List<byte[]>> readChains(Path file) throws IOException {
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+    Spliterator<List<byte[]>> chains =
+        new Spliterators.AbstractSpliterator<List<byte[]>>(
+            Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+          @Override
+          public boolean tryAdvance(java.util.function.Consumer<? super List<byte[]>> action) {
+            try {
+              int size;
+              try {
+                size = in.readInt();
+              } catch (EOFException e) {
+                return false;
+              }
+              List<byte[]> chain = new ArrayList<>(size);
+              for (int i = 0; i < size; i++) {
+                byte[] certificate = new byte[in.readInt()];
+                in.readFully(certificate);
+                chain.add(certificate);
+              }
+              action.accept(chain);
+              return true;
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        };
+    return StreamSupport.stream(chains, false)
+        .onClose(
+            () -> {
+              try {
+                in.close();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+  }
+
+  private Random random(long index) {
+    return new Random(seed ^ (index * 0x9E3779B97F4A7C15L));
+  }
+
+  private ParsedAttestationRecord record(Random random) {
+    return record(random, keyTypes.pick(random));
+  }
+
+  private ParsedAttestationRecord record(Random random, KeyType keyType) {
+    SecurityLevel securityLevel = securityLevels.pick(random);
+    int osPatchLevel = osPatchLevels.pick(random);
+    AttestationPackageInfo packageInfo = packages.pick(random);
+
+    AuthorizationList.Builder hardware = AuthorizationList.builder();
+    hardware
+        .setPurpose(new HashSet<>(Arrays.asList(KM_PURPOSE_SIGN, KM_PURPOSE_VERIFY)))
+        .setAlgorithm(keyType.algorithm)
+        .setKeySize(keyType.keySize)
+        .setDigest(Collections.singleton(KM_DIGEST_SHA_2_256))
+        .setNoAuthRequired(true)
+        .setOrigin(KM_ORIGIN_GENERATED)
+        .setRootOfTrust(
+            new RootOfTrust(
+                randomBytes(random, 32),
+                true,
+                VerifiedBootState.VERIFIED,
+                attestationVersion >= 3 ? randomBytes(random, 32) : null))
+        .setOsVersion(130000)
+        .setOsPatchLevel(osPatchLevel)
+        .setVendorPatchLevel(osPatchLevel * 100 + 1)
+        .setBootPatchLevel(osPatchLevel * 100 + 1);
+    if (keyType.algorithm == KM_ALGORITHM_EC) {
+      hardware.setEcCurve(keyType.ecCurve);
+    } else {
+      hardware
+          .setRsaPublicExponent(RSA_PUBLIC_EXPONENT)
+          .setPadding(Collections.singleton(KM_PAD_RSA_PKCS1_1_5_SIGN));
+    }
+    byte[] signatureDigest = sha256(packageInfo.packageName);
+    AuthorizationList.Builder software =
+        AuthorizationList.builder()
+            .setCreationDateTime(Instant.ofEpochMilli(notBefore.getTime() + random.nextInt()))
+            .setAttestationApplicationId(
+                new AttestationApplicationId(
+                    Collections.singletonList(packageInfo),
+                    Collections.singletonList(signatureDigest)))
+            .setAttestationApplicationIdBytes(
+                encodeApplicationId(packageInfo, signatureDigest));
+
+    // Software keys have no hardware enforced properties.
+    AuthorizationList softwareEnforced;
+    AuthorizationList teeEnforced;
+    if (securityLevel == SecurityLevel.SOFTWARE) {
+      softwareEnforced = merge(software, hardware);
+      teeEnforced = AuthorizationList.builder().build();
+    } else {
+      softwareEnforced = software.build();
+      teeEnforced = hardware.build();
+    }
+    return ParsedAttestationRecord.create(
+        attestationVersion,
+        securityLevel,
+        keymasterVersion,
+        securityLevel,
+        randomBytes(random, 32),
+        new byte[0],
+        softwareEnforced,
+        teeEnforced);
+  }
+
+  private static AuthorizationList merge(
+      AuthorizationList.Builder software, AuthorizationList.Builder hardware) {
+    AuthorizationList hardwareList = hardware.build();
+    return hardwareList
+        .toBuilder()
+        .setCreationDateTime(software.creationDateTime)
+        .setAttestationApplicationId(software.attestationApplicationId)
+        .setAttestationApplicationIdBytes(software.attestationApplicationIdBytes)
+        .build();
+  }
+
+  private byte[] leafCertificate(ParsedAttestationRecord record, PublicKey key, Random random) {
+    try {
+      X509v3CertificateBuilder builder =
+          new JcaX509v3CertificateBuilder(
+              intermediateName,
+              new BigInteger(63, random).add(BigInteger.ONE),
+              notBefore,
+              notAfter,
+              LEAF_SUBJECT,
+              key);
+      builder.addExtension(KEY_DESCRIPTION_OID, false, DerEncoder.encode(record));
+      builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+      return builder.build(signer.get()).getEncoded();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private byte[] caCertificate(
+      X500Name subject, X500Name issuer, BigInteger serial, PublicKey key, PrivateKey issuerKey)
+      throws GeneralSecurityException {
+    try {
+      X509v3CertificateBuilder builder =
+          new JcaX509v3CertificateBuilder(issuer, serial, notBefore, notAfter, subject, key);
+      builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+      builder.addExtension(
+          Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+      return builder.build(contentSigner(issuerKey)).getEncoded();
+    } catch (IOException e) {
+      throw new GeneralSecurityException(e);
+    }
+  }
+
+  private static ContentSigner contentSigner(PrivateKey key) {
+    try {
+      return new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(key);
+    } catch (OperatorCreationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Encodes an AttestationApplicationId sequence with a single package and digest. */
+  private static byte[] encodeApplicationId(AttestationPackageInfo packageInfo, byte[] digest) {
+    try {
+      return new DERSequence(
+              new org.bouncycastle.asn1.ASN1Encodable[] {
+                new DERSet(
+                    new DERSequence(
+                        new org.bouncycastle.asn1.ASN1Encodable[] {
+                          new DEROctetString(
+                              packageInfo.packageName.getBytes(StandardCharsets.UTF_8)),
+                          new ASN1Integer(packageInfo.version)
+                        })),
+                new DERSet(new DEROctetString(digest))
+              })
+          .getEncoded();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] sha256(String value) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] randomBytes(Random random, int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Writes synthetic chains for load tests. Arguments: output directory, number of chains, and
+   * optionally the number of shards and the seed.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: AttestationCertificateGenerator <directory> <count> [shards] [seed]");
+      System.exit(1);
+    }
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    int shards = args.length > 2 ? Integer.parseInt(args[2]) : parallelism;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+    AttestationCertificateGenerator generator =
+        builder()
+            .setSeed(seed)
+            .addSecurityLevel(SecurityLevel.TRUSTED_ENVIRONMENT, 0.7)
+            .addSecurityLevel(SecurityLevel.STRONG_BOX, 0.25)
+            .addSecurityLevel(SecurityLevel.SOFTWARE, 0.05)
+            .addOsPatchLevel(202301, 0.2)
+            .addOsPatchLevel(202305, 0.3)
+            .addOsPatchLevel(202309, 0.5)
+            .addPackage("ch.bfh.securevote", 1, 0.9)
+            .addPackage("com.example.app", 7, 0.1)
+            .addKeyType(KeyType.EC_P256, 0.9)
+            .addKeyType(KeyType.RSA_2048, 0.1)
+            .build();
+    long start = System.nanoTime();
+    List<Path> files =
+        generator.write(Paths.get(args[0]), Long.parseLong(args[1]), shards, parallelism);
+    System.out.printf(
+        "Wrote %s chains to %d files in %.1f s%n",
+        args[1], files.size(), (System.nanoTime() - start) / 1e9);
+  }
+
+  /** Weighted choice between values. */
+  private static final class Choice<T> {
+    final List<T> values = new ArrayList<>();
+    private final List<Double> weights = new ArrayList<>();
+    private double[] cumulative;
+
+    void add(T value, double weight) {
+      if (!(weight > 0)) {
+        throw new IllegalArgumentException("Weights must be positive: " + weight);
+      }
+      values.add(value);
+      weights.add(weight);
+    }
+
+    Choice<T> orDefault(T value) {
+      Choice<T> choice = new Choice<>();
+      if (values.isEmpty()) {
+        choice.add(value, 1);
+      } else {
+        for (int i = 0; i < values.size(); i++) {
+          choice.add(values.get(i), weights.get(i));
+        }
+      }
+      choice.cumulative = new double[choice.values.size()];
+      double total = 0;
+      for (int i = 0; i < choice.cumulative.length; i++) {
+        total += choice.weights.get(i);
+        choice.cumulative[i] = total;
+      }
+      return choice;
+    }
+
+    T pick(Random random) {
+      double point = random.nextDouble() * cumulative[cumulative.length - 1];
+      int index = Arrays.binarySearch(cumulative, point);
+      index = index >= 0 ? index + 1 : -index - 1;
+      return values.get(Math.min(index, values.size() - 1));
+    }
+  }
+
+  /** Builder for an {@link AttestationCertificateGenerator}. Weights are relative. */
+  public static final class Builder {
+    private long seed = 1;
+    private int attestationVersion = 4;
+    private int keymasterVersion = 41;
+    private int subjectKeyPoolSize = 16;
+    private final Choice<SecurityLevel> securityLevels = new Choice<>();
+    private final Choice<Integer> osPatchLevels = new Choice<>();
+    private final Choice<AttestationPackageInfo> packages = new Choice<>();
+    private final Choice<KeyType> keyTypes = new Choice<>();
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Builder setAttestationVersion(int attestationVersion, int keymasterVersion) {
+      this.attestationVersion = attestationVersion;
+      this.keymasterVersion = keymasterVersion;
+      return this;
+    }
+
+    /** Number of distinct leaf public keys per key type; defaults to 16. */
+    public Builder setSubjectKeyPoolSize(int subjectKeyPoolSize) {
+      if (subjectKeyPoolSize <= 0) {
+        throw new IllegalArgumentException("Key pool size must be positive.");
+      }
+      this.subjectKeyPoolSize = subjectKeyPoolSize;
+      return this;
+    }
+
+    public Builder addSecurityLevel(SecurityLevel securityLevel, double weight) {
+      securityLevels.add(securityLevel, weight);
+      return this;
+    }
+
+    /** Adds an OS patch level in YYYYMM form. */
+    public Builder addOsPatchLevel(int osPatchLevel, double weight) {
+      osPatchLevels.add(osPatchLevel, weight);
+      return this;
+    }
+
+    public Builder addPackage(String packageName, long version, double weight) {
+      packages.add(new AttestationPackageInfo(packageName, version), weight);
+      return this;
+    }
+
+    public Builder addKeyType(KeyType keyType, double weight) {
+      keyTypes.add(keyType, weight);
+      return this;
+    }
+
+    /** Builds the generator, creating the CA keys and the leaf key pool. */
+    public AttestationCertificateGenerator build() throws GeneralSecurityException {
+      return new AttestationCertificateGenerator(this);
+    }
+  }
+}
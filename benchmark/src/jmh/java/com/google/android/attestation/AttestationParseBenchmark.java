@@ -0,0 +1,82 @@
+/* Copyright 2019, The Android Open Source Project, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.attestation;
+
+import ch.bfh.securevote.benchmark.Fixtures;
+import java.util.Arrays;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of rejecting hostile input on the exception-free parse path. The fuzzed inputs are
+ * mutations of the test certificate's KeyDescription, generated once from a fixed seed; most of
+ * them are rejected. Rejecting them should cost no more than parsing the valid input.
+ */
+@State(Scope.Thread)
+public class AttestationParseBenchmark {
+
+  private static final int INPUT_COUNT = 4096;
+
+  private byte[] keyDescription;
+  private byte[][] fuzzed;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    DerCursor wrapper =
+        new DerCursor(
+            Fixtures.attestationCertificate().getExtensionValue(Constants.KEY_DESCRIPTION_OID));
+    wrapper.next();
+    keyDescription = wrapper.octets();
+    Random random = new Random(42);
+    fuzzed = new byte[INPUT_COUNT][];
+    for (int i = 0; i < INPUT_COUNT; i++) {
+      fuzzed[i] = mutate(keyDescription, random);
+    }
+  }
+
+  @Benchmark
+  public AttestationParseResult parseValid() {
+    return ParsedAttestationRecord.parseKeyDescription(keyDescription);
+  }
+
+  @Benchmark
+  public AttestationParseResult parseFuzzed() {
+    byte[] input = fuzzed[next];
+    next = (next + 1) & (INPUT_COUNT - 1);
+    return ParsedAttestationRecord.parseKeyDescription(input);
+  }
+
+  /** Flips a few bytes, truncates, or flips a single bit, like AttestationParseResultTest. */
+  private static byte[] mutate(byte[] input, Random random) {
+    byte[] mutated = input.clone();
+    switch (random.nextInt(3)) {
+      case 0:
+        for (int i = 0; i <= random.nextInt(3); i++) {
+          mutated[random.nextInt(mutated.length)] = (byte) random.nextInt();
+        }
+        return mutated;
+      case 1:
+        return Arrays.copyOf(mutated, random.nextInt(mutated.length));
+      default:
+        mutated[random.nextInt(mutated.length)] ^= (byte) (1 << random.nextInt(8));
+        return mutated;
+    }
+  }
+}